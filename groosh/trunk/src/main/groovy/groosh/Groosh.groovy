@@ -33,6 +33,7 @@ import org.codehaus.groovy.groosh.GridClosureProcess;
 import org.codehaus.groovy.groosh.GrooshProcess;
 import org.codehaus.groovy.groosh.JavaProcess;
 import org.codehaus.groovy.groosh.LineClosureProcess;
+import org.codehaus.groovy.groosh.ParallelProcess;
 import org.codehaus.groovy.groosh.StreamClosureProcess;
 import org.codehaus.groovy.util.ExecDir;
 import org.codehaus.groovy.util.IOUtil;
@@ -65,6 +66,7 @@ public class Groosh extends GroovyObjectSupport {
 		registerStreamClosureProcess("groovy", StreamClosureProcess.class);
 		registerStreamClosureProcess("each_line", LineClosureProcess.class);
 		registerStreamClosureProcess("grid", GridClosureProcess.class);
+		registerStreamClosureProcess("parallel", ParallelProcess.class);
 	}
 
 	private static void registerStreamClosureProcess(String name,
@@ -207,11 +209,20 @@ public class Groosh extends GroovyObjectSupport {
 		StreamClosureProcess process = null;
 
 		try {
-			Class[] params = new Class[1];
-			params[0] = Closure.class;
+			Object[] argsO = (Object[]) args;
+			Class[] params;
+			if (argsO.length == 2 && argsO[0] instanceof Map) {
+				// named options, e.g. each_line(charset: 'UTF-8') { ... }
+				params = new Class[2];
+				params[0] = Map.class;
+				params[1] = Closure.class;
+			} else {
+				params = new Class[1];
+				params[0] = Closure.class;
+			}
 			Constructor<? extends StreamClosureProcess> c = class1
 					.getConstructor(params);
-			process = c.newInstance((Object[]) args);
+			process = c.newInstance(argsO);
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
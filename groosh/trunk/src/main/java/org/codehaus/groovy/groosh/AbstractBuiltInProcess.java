@@ -10,6 +10,7 @@ import java.util.concurrent.Future;
 import org.codehaus.groovy.groosh.stream.Sink;
 import org.codehaus.groovy.groosh.stream.Source;
 import org.codehaus.groovy.util.IOUtil;
+import org.codehaus.groovy.util.PipeInputStream;
 
 public abstract class AbstractBuiltInProcess extends GrooshProcess implements
 		Callable<Boolean> {
@@ -59,7 +60,7 @@ public abstract class AbstractBuiltInProcess extends GrooshProcess implements
 				Pipe pipe = Pipe.open();
 				AbstractBuiltInProcess.this.os = Channels.newOutputStream(pipe
 						.sink());
-				sink.setInputStream(Channels.newInputStream(pipe.source()));
+				sink.setInputStream(new PipeInputStream(pipe.source()));
 			} else {
 				throw new UnsupportedOperationException("sink type unknown");
 			}
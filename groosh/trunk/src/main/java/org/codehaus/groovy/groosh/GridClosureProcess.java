@@ -14,48 +14,38 @@
 
 package org.codehaus.groovy.groosh;
 
-import java.util.Arrays;
-import java.util.List;
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.io.Writer;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.groovy.util.Fields;
 
 import groovy.lang.Closure;
 
 /**
+ * Like {@link LineClosureProcess}, but passes the whitespace separated fields
+ * of every line, as <code>line.split("\\s+")</code> would. With the
+ * <code>views</code> option the fields are views into the line, and so is the
+ * list holding them.
  * 
  * @author Yuri Schimke
  * 
  */
-public class GridClosureProcess extends StreamClosureProcess {
+public class GridClosureProcess extends LineClosureProcess {
+	private final List<Fields> fields = new ArrayList<Fields>();
+
 	public GridClosureProcess(Closure closure) {
 		super(closure);
 	}
 
-	protected void process(final InputStream is, final OutputStream os)
-			throws IOException {
-		BufferedReader ris = new BufferedReader(new InputStreamReader(is));
-		Writer wos = new PrintWriter(new OutputStreamWriter(os, "ISO-8859-1"));
-
-		String line;
-
-		List<Object> l = new ArrayList<Object>();
-
-		while ((line = ris.readLine()) != null) {
-			String[] content = line.split("\\s+");
-			List<String> contentList = Arrays.asList(content);
+	public GridClosureProcess(Map<String, ?> options, Closure closure) {
+		super(options, closure);
+	}
 
-			l.clear();
-			l.add(contentList);
-			l.add(wos);
-			closure.call(l);
-			wos.flush();
-		}
+	protected Object value(char[] chars, int offset, int length, int slot) {
+		while (fields.size() <= slot)
+			fields.add(new Fields());
+		Fields split = fields.get(slot).split(chars, offset, length);
+		return views ? split : split.toStrings();
 	}
 }
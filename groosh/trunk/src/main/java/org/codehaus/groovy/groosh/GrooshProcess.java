@@ -22,9 +22,12 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
+import org.codehaus.groovy.groosh.stream.CapturedOutput;
 import org.codehaus.groovy.groosh.stream.DevNull;
 import org.codehaus.groovy.groosh.stream.FileStreams;
 import org.codehaus.groovy.groosh.stream.IOStreams;
@@ -64,6 +67,33 @@ public abstract class GrooshProcess {
 		return sink.toString();
 	}
 
+	/**
+	 * Captures the output with the limits given by the options, e.g.
+	 * <code>gsh.find('/').capture(lastLines: 100, charset: 'UTF-8')</code>.
+	 * See {@link CapturedOutput} for the options.
+	 */
+	public CapturedOutput capture(Map<String, ?> options) throws IOException {
+		CapturedOutput output = new CapturedOutput(options);
+
+		getSource().connect(output.getSink());
+		startStreamHandling();
+		waitForExit();
+		output.waitFor();
+		return output;
+	}
+
+	/**
+	 * @return the output kept by {@link #capture(Map)} as one string
+	 */
+	public String getText(Map<String, ?> options) throws IOException {
+		CapturedOutput output = capture(options);
+		try {
+			return output.getText();
+		} finally {
+			output.dispose();
+		}
+	}
+
 	public void toStream(OutputStream os) throws IOException {
 		Sink sink = IOStreams.outputStreamSink(os);
 
@@ -95,6 +125,18 @@ public abstract class GrooshProcess {
 		return pipeTo(process);
 	}
 
+	/**
+	 * Copies the output of this process to each of the branches, e.g.
+	 * <code>gsh.cat('access.log').tee(gsh._grep('GET'), gsh._grep('POST'))</code>.
+	 * 
+	 * @return a process whose output are the lines written by the branches
+	 */
+	public TeeProcess tee(GrooshProcess... branches) throws IOException {
+		TeeProcess tee = new TeeProcess(Arrays.asList(branches));
+		pipeTo(tee);
+		return tee;
+	}
+
 	public GrooshProcess rightShift(Sink sink) throws IOException {
 		processSink(sink);
 		return this;
@@ -191,6 +233,19 @@ public abstract class GrooshProcess {
 		return result;
 	}
 
+	/**
+	 * @return the lines kept by {@link #capture(Map)}. To iterate over spilled
+	 *         output without loading it use <code>capture</code> instead.
+	 */
+	public List<String> toList(Map<String, ?> options) throws IOException {
+		CapturedOutput output = capture(options);
+		try {
+			return new ArrayList<String>(output);
+		} finally {
+			output.dispose();
+		}
+	}
+
 	@SuppressWarnings("unchecked")
 	public List<Object> grep(Object filter) throws IOException {
 		return DefaultGroovyMethods.grep(toList(), filter);
@@ -14,49 +14,202 @@
 
 package org.codehaus.groovy.groosh;
 
-import java.util.List;
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Flushable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.io.Writer;
+import java.io.Reader;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.groovy.util.CharView;
+import org.codehaus.groovy.util.LineReader;
 
 import groovy.lang.Closure;
 
 /**
+ * Calls a closure with every line of its input and a writer for its output.
+ * The following options may be passed as named arguments, e.g.
+ * <code>gsh.each_line(charset: 'UTF-8', batch: 1000) { lines, w -> ... }</code>:
+ * <ul>
+ * <li><code>charset</code>: the charset of the input and the output.
+ * Without it the input is read with the platform default and the output is
+ * written as ISO-8859-1.</li>
+ * <li><code>flushEachLine</code>: flush the output after every line. By
+ * default it is flushed whenever the input has nothing ready, which is as
+ * prompt for interactive use but far cheaper for large inputs.</li>
+ * <li><code>views</code>: pass {@link CharView}s into a reused buffer instead
+ * of Strings. The closure must not keep them beyond the call and should
+ * compare them with <code>contentEquals</code>.</li>
+ * <li><code>batch</code>: call the closure with a list of up to that many
+ * lines instead of once per line.</li>
+ * <li><code>bufferSize</code>: the size of the input and output buffers.</li>
+ * </ul>
  * 
  * @author Yuri Schimke
  * 
  */
 public class LineClosureProcess extends StreamClosureProcess {
+	private static final int BUFFER_SIZE = 65536;
+
 	private Object closureResult;
 
+	protected Charset charset;
+	protected boolean flushEachLine = false;
+	protected boolean views = false;
+	protected int batch = 0;
+	protected int bufferSize = BUFFER_SIZE;
+
+	private final List<CharView> lineViews = new ArrayList<CharView>();
+
 	public LineClosureProcess(Closure closure) {
 		super(closure);
 	}
 
+	public LineClosureProcess(Map<String, ?> options, Closure closure) {
+		super(closure);
+		for (Map.Entry<String, ?> option : options.entrySet()) {
+			setOption(option.getKey(), option.getValue());
+		}
+	}
+
+	protected void setOption(String name, Object value) {
+		if ("charset".equals(name)) {
+			charset = value instanceof Charset ? (Charset) value : Charset
+					.forName(String.valueOf(value));
+		} else if ("flushEachLine".equals(name)) {
+			flushEachLine = Boolean.valueOf(String.valueOf(value));
+		} else if ("views".equals(name)) {
+			views = Boolean.valueOf(String.valueOf(value));
+		} else if ("batch".equals(name)) {
+			batch = Integer.parseInt(String.valueOf(value));
+		} else if ("bufferSize".equals(name)) {
+			bufferSize = Integer.parseInt(String.valueOf(value));
+		} else {
+			throw new IllegalArgumentException("unknown option " + name);
+		}
+	}
+
 	protected void process(final InputStream is, final OutputStream os)
 			throws IOException {
-		BufferedReader ris = new BufferedReader(new InputStreamReader(is));
-		Writer wos = new PrintWriter(new OutputStreamWriter(os, "ISO-8859-1"));
+		Reader reader = charset == null ? new InputStreamReader(is)
+				: new InputStreamReader(is, charset);
+		PrintWriter wos = new PrintWriter(new BufferedWriter(
+				new OutputStreamWriter(os, charset == null ? Charset
+						.forName("ISO-8859-1") : charset), bufferSize));
 
-		String line;
+		if (batch > 0) {
+			Batch lines = new Batch(wos);
+			lines.process(new LineReader(reader, bufferSize, lines));
+		} else {
+			processLines(new LineReader(reader, bufferSize,
+					flushEachLine ? null : wos), wos);
+		}
+		wos.flush();
+	}
 
-		List<Object> l = new ArrayList<Object>();
+	private void processLines(LineReader lines, PrintWriter wos)
+			throws IOException {
+		Object[] args = new Object[] { null, wos };
+		while (lines.next()) {
+			args[0] = value(lines.getBuffer(), lines.getLineStart(), lines
+					.getLineLength(), 0);
+			closureResult = call(args);
+			if (flushEachLine)
+				wos.flush();
+		}
+	}
+
+	/**
+	 * Collects lines and passes them to the closure once the batch is full or
+	 * the input has nothing ready.
+	 */
+	private class Batch implements Flushable {
+		private final PrintWriter wos;
+		private final Object[] args;
+		private List<Object> values = new ArrayList<Object>();
+		private char[] chars;
+		private int used;
+
+		Batch(PrintWriter wos) {
+			this.wos = wos;
+			this.args = new Object[] { values, wos };
+			chars = views ? new char[bufferSize] : null;
+		}
+
+		void process(LineReader lines) throws IOException {
+			while (lines.next()) {
+				int length = lines.getLineLength();
+				if (views) {
+					// the reader's buffer is refilled before the batch is done
+					if (used + length > chars.length) {
+						// views handed out so far keep the old array
+						chars = new char[Math.max(chars.length * 2, length)];
+						used = 0;
+					}
+					System.arraycopy(lines.getBuffer(), lines.getLineStart(),
+							chars, used, length);
+					values.add(value(chars, used, length, values.size()));
+					used += length;
+				} else {
+					values.add(value(lines.getBuffer(), lines.getLineStart(),
+							length, 0));
+				}
+				if (values.size() == batch)
+					dispatch();
+			}
+			dispatch();
+		}
+
+		private void dispatch() {
+			if (values.isEmpty())
+				return;
+			closureResult = call(args);
+			if (views) {
+				values.clear();
+				used = 0;
+			} else {
+				values = new ArrayList<Object>();
+				args[0] = values;
+			}
+			if (flushEachLine)
+				wos.flush();
+		}
 
-		while ((line = ris.readLine()) != null) {
-			l.clear();
-			l.add(line);
-			l.add(wos);
-			closureResult = closure.call(l);
+		public void flush() {
+			dispatch();
 			wos.flush();
 		}
 	}
 
+	private Object call(Object[] args) {
+		if (closure.getMaximumNumberOfParameters() > 1)
+			return closure.call(args);
+		return closure.call(Arrays.asList(args));
+	}
+
+	/**
+	 * Turns a line into what is passed to the closure.
+	 * 
+	 * @param slot
+	 *            the position of the line within its batch, for reusing
+	 *            objects across batches
+	 */
+	protected Object value(char[] chars, int offset, int length, int slot) {
+		if (!views)
+			return new String(chars, offset, length);
+		while (lineViews.size() <= slot)
+			lineViews.add(new CharView());
+		return lineViews.get(slot).set(chars, offset, length);
+	}
+
 	public Object getClosureResult() {
 		return closureResult;
 	}
@@ -0,0 +1,351 @@
+//  Groosh -- Provides a shell-like capability for handling external processes
+//
+//  Copyright © 2007 Alexander Egger
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.groovy.groosh;
+
+import groovy.lang.Closure;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.codehaus.groovy.groosh.stream.IOStreams;
+import org.codehaus.groovy.groosh.stream.Source;
+import org.codehaus.groovy.util.IOUtil;
+
+/**
+ * Splits its input into chunks and runs every chunk through a stage of its
+ * own, several chunks at a time. The closure creates the stage for a chunk and
+ * may return any process, e.g.
+ * 
+ * <pre>
+ * gsh.cat('big.log') | gsh.parallel(workers: 4, lines: 10000) { gsh.gzip('-c') }
+ * gsh.cat('big.log') | gsh.parallel { gsh.each_line { line, w -&gt; ... } }
+ * </pre>
+ * 
+ * The workers are threads of the pool shared by groosh, see
+ * {@link IOUtil#getExecutor()}, and are handed back when the stage ends.
+ * Closure stages run on the workers themselves, so a CPU-bound closure uses
+ * all the workers. The closure may be called by several workers at once.
+ * <p>
+ * At most <code>workers * queue</code> chunks are read ahead. Beyond that
+ * reading stops until a chunk is done, which in turn stops the stages before
+ * this one. The options are:
+ * <ul>
+ * <li><code>workers</code>: the number of chunks processed at the same time,
+ * by default the number of processors.</li>
+ * <li><code>lines</code>: the lines per chunk, 1000 by default. Lines end
+ * with a <code>\n</code> byte, which suits ASCII compatible charsets.</li>
+ * <li><code>bytes</code>: cut chunks of that many bytes instead of lines.</li>
+ * <li><code>ordered</code>: write the output of the chunks in the order of
+ * the input (the default) or as soon as a chunk is done.</li>
+ * <li><code>queue</code>: the chunks read ahead per worker, 2 by default.</li>
+ * </ul>
+ */
+public class ParallelProcess extends StreamClosureProcess {
+	private static final int BUFFER_SIZE = 65536;
+
+	private static final Future<byte[]> END = new FutureTask<byte[]>(
+			new Callable<byte[]>() {
+				public byte[] call() {
+					return null;
+				}
+			});
+
+	private static final Runnable STOP = new Runnable() {
+		public void run() {
+		}
+	};
+
+	private int workers = Runtime.getRuntime().availableProcessors();
+	private int lines = 1000;
+	private int bytes = 0;
+	private boolean ordered = true;
+	private int queue = 2;
+
+	public ParallelProcess(Closure closure) {
+		super(closure);
+	}
+
+	public ParallelProcess(Map<String, ?> options, Closure closure) {
+		super(closure);
+		for (Map.Entry<String, ?> option : options.entrySet()) {
+			setOption(option.getKey(), String.valueOf(option.getValue()));
+		}
+	}
+
+	protected void setOption(String name, String value) {
+		if ("workers".equals(name)) {
+			workers = Integer.parseInt(value);
+		} else if ("lines".equals(name)) {
+			lines = Integer.parseInt(value);
+		} else if ("bytes".equals(name)) {
+			bytes = Integer.parseInt(value);
+		} else if ("ordered".equals(name)) {
+			ordered = Boolean.valueOf(value);
+		} else if ("queue".equals(name)) {
+			queue = Integer.parseInt(value);
+		} else {
+			throw new IllegalArgumentException("unknown option " + name);
+		}
+	}
+
+	protected void process(final InputStream is, final OutputStream os)
+			throws IOException {
+		BlockingQueue<Runnable> todo = new ArrayBlockingQueue<Runnable>(
+				workers * queue);
+		List<Future<?>> threads = new ArrayList<Future<?>>(workers);
+		try {
+			for (int i = 0; i < workers; i++) {
+				threads.add(IOUtil.getExecutor().submit(new Worker(todo)));
+			}
+			if (ordered) {
+				processOrdered(new Chunker(is), os, todo);
+			} else {
+				processUnordered(new Chunker(is), os, todo, threads);
+			}
+		} finally {
+			// the workers wait for chunks until they are cancelled
+			for (Future<?> thread : threads) {
+				thread.cancel(true);
+			}
+		}
+		os.flush();
+	}
+
+	/**
+	 * Chunks are queued for the workers by a reader thread and written in
+	 * the order they were read, through a queue which bounds how far the
+	 * reader may get ahead.
+	 */
+	private void processOrdered(final Chunker chunker, OutputStream os,
+			final BlockingQueue<Runnable> todo) throws IOException {
+		final BlockingQueue<Future<byte[]>> results = new ArrayBlockingQueue<Future<byte[]>>(
+				workers * queue);
+		Future<Boolean> reading = IOUtil.getExecutor().submit(
+				new Callable<Boolean>() {
+					public Boolean call() throws Exception {
+						boolean read = false;
+						try {
+							byte[] chunk;
+							while ((chunk = chunker.next()) != null) {
+								FutureTask<byte[]> task = new FutureTask<byte[]>(
+										new Chunk(chunk));
+								results.put(task);
+								todo.put(task);
+							}
+							read = true;
+						} finally {
+							if (!read) {
+								// failed or cancelled, the queue may be full and
+								// nobody may take from it any more, so make room
+								results.clear();
+								results.offer(END);
+							}
+						}
+						// blocks while the queue is full, unless cancelled
+						results.put(END);
+						return true;
+					}
+				});
+
+		try {
+			Future<byte[]> result;
+			while ((result = results.take()) != END) {
+				os.write(result.get());
+			}
+			reading.get();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw rethrow(e.getCause());
+		} finally {
+			reading.cancel(true);
+		}
+	}
+
+	/**
+	 * Every chunk writes its output as soon as it is done. The reader blocks
+	 * while the queue of the workers is full.
+	 */
+	private void processUnordered(Chunker chunker, final OutputStream os,
+			BlockingQueue<Runnable> todo, List<Future<?>> threads)
+			throws IOException {
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		try {
+			byte[] chunk;
+			while (failure.get() == null && (chunk = chunker.next()) != null) {
+				final Chunk task = new Chunk(chunk);
+				todo.put(new Runnable() {
+					public void run() {
+						if (failure.get() != null)
+							return;
+						try {
+							byte[] result = task.call();
+							synchronized (os) {
+								os.write(result);
+							}
+						} catch (Throwable t) {
+							failure.compareAndSet(null, t);
+						}
+					}
+				});
+			}
+			// wait for the chunks still running
+			for (int i = 0; i < workers; i++) {
+				todo.put(STOP);
+			}
+			for (Future<?> thread : threads) {
+				thread.get();
+			}
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw rethrow(e.getCause());
+		}
+
+		if (failure.get() != null)
+			throw rethrow(failure.get());
+	}
+
+	/**
+	 * Runs the chunks queued for a stage until it is stopped or cancelled.
+	 */
+	private static class Worker implements Runnable {
+		private final BlockingQueue<Runnable> todo;
+
+		Worker(BlockingQueue<Runnable> todo) {
+			this.todo = todo;
+		}
+
+		public void run() {
+			try {
+				Runnable task;
+				while ((task = todo.take()) != STOP) {
+					task.run();
+				}
+			} catch (InterruptedException e) {
+				// the stage is done
+			}
+		}
+	}
+
+	private static RuntimeException rethrow(Throwable t) throws IOException {
+		if (t instanceof IOException)
+			throw (IOException) t;
+		if (t instanceof RuntimeException)
+			return (RuntimeException) t;
+		return new RuntimeException(t);
+	}
+
+	/**
+	 * Runs one chunk through a new stage and collects its output.
+	 */
+	private class Chunk implements Callable<byte[]> {
+		private final byte[] chunk;
+
+		Chunk(byte[] chunk) {
+			this.chunk = chunk;
+		}
+
+		public byte[] call() throws Exception {
+			Object stage = closure.call();
+			if (!(stage instanceof GrooshProcess))
+				throw new IllegalStateException(
+						"the closure of a parallel stage must return a process, not "
+								+ stage);
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			if (stage instanceof StreamClosureProcess) {
+				// no need for a thread of its own
+				((StreamClosureProcess) stage).process(
+						new ByteArrayInputStream(chunk), out);
+				return out.toByteArray();
+			}
+
+			GrooshProcess process = (GrooshProcess) stage;
+			IOStreams.inputStreamSource(new ByteArrayInputStream(chunk))
+					.connect(process.getInput());
+			Source output = process.getOutput();
+			output.connect(IOStreams.outputStreamSink(out));
+			process.startStreamHandling();
+			process.waitForExit();
+			if (output.isPumping())
+				output.waitForStreamsHandled();
+			return out.toByteArray();
+		}
+	}
+
+	/**
+	 * Cuts the input into chunks of {@link ParallelProcess#lines} lines, or of
+	 * {@link ParallelProcess#bytes} bytes if set.
+	 */
+	private class Chunker {
+		private final InputStream is;
+		private final byte[] buffy = new byte[BUFFER_SIZE];
+		private int pos = 0;
+		private int end = 0;
+
+		Chunker(InputStream is) {
+			this.is = is;
+		}
+
+		/**
+		 * @return the next chunk, or <code>null</code> at the end of the input
+		 */
+		byte[] next() throws IOException {
+			ByteArrayOutputStream chunk = new ByteArrayOutputStream(
+					bytes > 0 ? bytes : BUFFER_SIZE);
+			int count = 0;
+			while (true) {
+				if (pos == end) {
+					int read = is.read(buffy);
+					if (read < 0)
+						break;
+					pos = 0;
+					end = read;
+				}
+
+				int i = pos;
+				if (bytes > 0) {
+					i += Math.min(end - pos, bytes - count);
+					count += i - pos;
+				} else {
+					while (i < end && count < lines) {
+						if (buffy[i++] == '\n')
+							count++;
+					}
+				}
+				chunk.write(buffy, pos, i - pos);
+				pos = i;
+				if (count == (bytes > 0 ? bytes : lines))
+					break;
+			}
+			return chunk.size() == 0 ? null : chunk.toByteArray();
+		}
+	}
+}
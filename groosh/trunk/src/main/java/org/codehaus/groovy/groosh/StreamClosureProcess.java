@@ -30,6 +30,7 @@ import org.codehaus.groovy.groosh.stream.Sink;
 import org.codehaus.groovy.groosh.stream.Source;
 import org.codehaus.groovy.groosh.stream.StandardStreams;
 import org.codehaus.groovy.util.IOUtil;
+import org.codehaus.groovy.util.PipeInputStream;
 
 /**
  * 
@@ -109,7 +110,7 @@ public class StreamClosureProcess extends GrooshProcess implements
 				Pipe pipe = Pipe.open();
 				StreamClosureProcess.this.os = Channels.newOutputStream(pipe
 						.sink());
-				sink.setInputStream(Channels.newInputStream(pipe.source()));
+				sink.setInputStream(new PipeInputStream(pipe.source()));
 			} else {
 				throw new UnsupportedOperationException("sink type unknown");
 			}
@@ -0,0 +1,291 @@
+//  Groosh -- Provides a shell-like capability for handling external processes
+//
+//  Copyright © 2007 Alexander Egger
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.groovy.groosh;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codehaus.groovy.groosh.stream.IOStreams;
+import org.codehaus.groovy.groosh.stream.Sink;
+import org.codehaus.groovy.groosh.stream.Source;
+import org.codehaus.groovy.util.IOUtil;
+import org.codehaus.groovy.util.PipeInputStream;
+
+/**
+ * Copies its input to several branches and merges what they write, see
+ * {@link GrooshProcess#tee(GrooshProcess[])}.
+ * <p>
+ * Each branch is fed from a queue of at most {@link #getQueueSize()} blocks.
+ * Once the queue of the slowest branch is full, reading stops until it catches
+ * up. A branch which stops reading early, like <code>head</code>, no longer
+ * holds up the others. The outputs of the branches are merged line by line, in the order the
+ * lines are written; a line is never split.
+ * <p>
+ * The reader and a feeder and merger for each branch block on their streams,
+ * so each of them takes a thread of the pool shared by groosh, see
+ * {@link IOUtil#getExecutor()}, for as long as the tee runs.
+ */
+public class TeeProcess extends GrooshProcess {
+	private static final int BUFFER_SIZE = 65536;
+
+	private static final byte[] END = new byte[0];
+
+	private final List<GrooshProcess> branches;
+	private int queueSize = 8;
+
+	private InputStream is;
+	private OutputStream os;
+	private final List<Future<?>> tasks = new ArrayList<Future<?>>();
+	private final AtomicInteger merging = new AtomicInteger();
+
+	public TeeProcess(List<GrooshProcess> branches) {
+		if (branches.isEmpty())
+			throw new IllegalArgumentException("tee needs at least one branch");
+		this.branches = branches;
+	}
+
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	/**
+	 * @param queueSize
+	 *            the blocks of 64KB buffered for each branch
+	 */
+	public TeeProcess setQueueSize(int queueSize) {
+		this.queueSize = queueSize;
+		return this;
+	}
+
+	public void startStreamHandling() throws IOException {
+		if (is == null)
+			throw new RuntimeException("tee needs a source");
+		if (os == null)
+			throw new RuntimeException("the output of tee must be handled");
+
+		final List<BlockingQueue<byte[]>> queues = new ArrayList<BlockingQueue<byte[]>>();
+		merging.set(branches.size());
+		for (GrooshProcess branch : branches) {
+			BlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(
+					queueSize);
+			queues.add(queue);
+			submit(new Feeder(queue, open(branch.getInput())));
+
+			IOStreams.InputStreamSink output = IOStreams.inputStreamSink();
+			branch.getOutput().connect(output);
+			submit(new Merger(output.getInputStream()));
+			branch.startStreamHandling();
+		}
+
+		submit(new Callable<Boolean>() {
+			public Boolean call() throws Exception {
+				try {
+					byte[] buffy = new byte[BUFFER_SIZE];
+					int read;
+					while ((read = is.read(buffy)) != -1) {
+						byte[] block = new byte[read];
+						System.arraycopy(buffy, 0, block, 0, read);
+						for (BlockingQueue<byte[]> queue : queues) {
+							queue.put(block);
+						}
+					}
+				} finally {
+					is.close();
+					for (BlockingQueue<byte[]> queue : queues) {
+						queue.put(END);
+					}
+				}
+				return true;
+			}
+		});
+	}
+
+	private void submit(Callable<Boolean> task) {
+		tasks.add(IOUtil.getExecutor().submit(task));
+	}
+
+	/**
+	 * @return a stream writing to <code>sink</code>, whatever kind of sink it
+	 *         is
+	 */
+	private static OutputStream open(Sink sink) throws IOException {
+		if (sink.providesOutputStream())
+			return sink.getOutputStream();
+		if (sink.receivesStream()) {
+			Pipe pipe = Pipe.open();
+			sink.setInputStream(new PipeInputStream(pipe.source()));
+			return Channels.newOutputStream(pipe.sink());
+		}
+		throw new UnsupportedOperationException("sink type unknown");
+	}
+
+	/**
+	 * Writes the blocks queued for a branch to its input. A branch may stop
+	 * reading before the end, like <code>head</code> does. The rest of its
+	 * blocks are then taken and dropped, so that the reader is not held up by
+	 * a queue nobody empties.
+	 */
+	private static class Feeder implements Callable<Boolean> {
+		private final BlockingQueue<byte[]> queue;
+		private final OutputStream out;
+
+		Feeder(BlockingQueue<byte[]> queue, OutputStream out) {
+			this.queue = queue;
+			this.out = out;
+		}
+
+		public Boolean call() throws Exception {
+			boolean reading = true;
+			try {
+				byte[] block;
+				while ((block = queue.take()) != END) {
+					out.write(block);
+				}
+			} catch (IOException e) {
+				// the branch does not read any more, e.g. "Broken pipe"
+				reading = false;
+			} finally {
+				try {
+					out.close();
+				} catch (IOException e) {
+					if (reading)
+						throw e;
+				}
+			}
+			if (!reading) {
+				while (queue.take() != END)
+					;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Copies the output of a branch, whole lines at a time.
+	 */
+	private class Merger implements Callable<Boolean> {
+		private final InputStream in;
+
+		Merger(InputStream in) {
+			this.in = in;
+		}
+
+		public Boolean call() throws Exception {
+			byte[] buffy = new byte[BUFFER_SIZE];
+			int end = 0;
+			try {
+				int read;
+				while ((read = in.read(buffy, end, buffy.length - end)) != -1) {
+					end += read;
+					int lines = end;
+					while (lines > 0 && buffy[lines - 1] != '\n')
+						lines--;
+					// a line longer than the buffer has to be split
+					if (lines == 0 && end == buffy.length)
+						lines = end;
+					if (lines > 0) {
+						synchronized (os) {
+							os.write(buffy, 0, lines);
+						}
+						System.arraycopy(buffy, lines, buffy, 0, end - lines);
+						end -= lines;
+					}
+				}
+				if (end > 0) {
+					synchronized (os) {
+						os.write(buffy, 0, end);
+					}
+				}
+			} finally {
+				in.close();
+				// the last branch to finish ends the output
+				if (merging.decrementAndGet() == 0)
+					os.close();
+			}
+			return true;
+		}
+	}
+
+	public void waitForExit() throws IOException {
+		try {
+			for (Future<?> task : tasks) {
+				task.get();
+			}
+			for (GrooshProcess branch : branches) {
+				branch.waitForExit();
+			}
+		} catch (Exception e) {
+			// the other tasks may wait for the failed one forever
+			for (Future<?> task : tasks) {
+				task.cancel(true);
+			}
+			throw new RuntimeException(e);
+		}
+	}
+
+	public class TeeSink extends Sink {
+		public void setInputStream(InputStream is) {
+			TeeProcess.this.is = is;
+		}
+
+		public boolean receivesStream() {
+			return true;
+		}
+	}
+
+	protected Sink getInput() {
+		return new TeeSink();
+	}
+
+	public class TeeSource extends Source {
+		public void connect(Sink sink) throws IOException {
+			if (sink.providesOutputStream()) {
+				TeeProcess.this.os = sink.getOutputStream();
+			} else if (sink.receivesStream()) {
+				Pipe pipe = Pipe.open();
+				TeeProcess.this.os = Channels.newOutputStream(pipe.sink());
+				sink.setInputStream(new PipeInputStream(pipe.source()));
+			} else {
+				throw new UnsupportedOperationException("sink type unknown");
+			}
+		}
+	}
+
+	protected Source getOutput() {
+		return new TeeSource();
+	}
+
+	protected Source getError() {
+		return null;
+	}
+
+	public int exitValue() {
+		for (GrooshProcess branch : branches) {
+			if (branch.exitValue() != 0)
+				return branch.exitValue();
+		}
+		return 0;
+	}
+}
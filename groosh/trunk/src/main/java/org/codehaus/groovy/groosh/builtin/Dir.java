@@ -5,22 +5,38 @@ import java.io.File;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 import org.codehaus.groovy.groosh.AbstractBuiltInProcess;
 import org.codehaus.groovy.groosh.Aliases;
+import org.codehaus.groovy.util.DirWalker;
 import org.codehaus.groovy.util.ExecDir;
-
+import org.codehaus.groovy.util.FileDirWalker;
+
+/**
+ * Lists the entries of directories, sorted by name. The options are
+ * <code>-R</code> to list subdirectories recursively and <code>-l</code> to
+ * print the type, size and modification time of each entry.
+ * 
+ * On Java 7 and later subdirectories are listed in parallel by a
+ * {@link DirWalker}, otherwise one after the other by a {@link FileDirWalker}.
+ * Either way the output is the same.
+ */
 @Aliases( { "list" })
 public class Dir extends AbstractBuiltInProcess {
 
+	private static final int BUFFER_SIZE = 65536;
+
+	private static final boolean NIO = isAvailable("java.nio.file.Files")
+			&& isAvailable("java.util.concurrent.ForkJoinPool");
+
 	private List<File> dirNames = new ArrayList<File>();
 
 	private boolean recursive = false;
 
+	private boolean attributes = false;
+
 	public Dir(List<String> args, Map<String, String> env, ExecDir execDir) {
 		if (args != null && !args.isEmpty()) {
 
@@ -29,6 +45,9 @@ public class Dir extends AbstractBuiltInProcess {
 					if (arg.contains("R")) {
 						recursive = true;
 					}
+					if (arg.contains("l")) {
+						attributes = true;
+					}
 				} else {
 					dirNames.add(new File(arg));
 				}
@@ -40,61 +59,33 @@ public class Dir extends AbstractBuiltInProcess {
 
 	}
 
+	private static boolean isAvailable(String className) {
+		try {
+			Class.forName(className);
+			return true;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
 	public Boolean call() throws IOException {
-		BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(os));
+		BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(os),
+				BUFFER_SIZE);
 
 		try {
-			if (dirNames.size() > 1 || recursive) {
-				processSubDirs(dirNames, writer);
+			boolean headers = dirNames.size() > 1 || recursive;
+			if (NIO) {
+				new DirWalker(recursive, attributes).write(dirNames, headers,
+						writer);
 			} else {
-				File dir = dirNames.get(0);
-				if (dir.exists() && dir.isDirectory()) {
-					list(dir, writer);
-				}
+				new FileDirWalker(recursive, attributes).write(dirNames,
+						headers, writer);
 			}
+			writer.flush();
 		} finally {
 			os.close();
 		}
 		return true;
 	}
 
-	private void list(File dir, BufferedWriter writer) throws IOException {
-		File[] entries = dir.listFiles();
-		if (entries == null) {
-			return;
-		}
-		List<File> subDirs = new ArrayList<File>();
-
-		Collections.sort(Arrays.asList(entries));
-		for (File entry : entries) {
-			if (entry.isDirectory()) {
-				subDirs.add(entry);
-			}
-			writer.write(entry.getName());
-			writer.newLine();
-			writer.flush();
-		}
-		if (recursive) {
-			writer.newLine();
-			writer.flush();
-			processSubDirs(subDirs, writer);
-		}
-	}
-
-	private void processSubDirs(List<File> dirs, BufferedWriter writer)
-			throws IOException {
-		if (dirs == null || dirs.size() == 0) {
-			return;
-		}
-
-		for (File file : dirs) {
-			writer.write(file.getAbsolutePath());
-			writer.write(":");
-			writer.newLine();
-			writer.flush();
-			list(file, writer);
-		}
-
-	}
-
 }
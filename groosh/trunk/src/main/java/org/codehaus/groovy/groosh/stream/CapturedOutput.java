@@ -0,0 +1,502 @@
+//  Groosh -- Provides a shell-like capability for handling external processes
+//
+//  Copyright © 2007 Alexander Egger
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+
+package org.codehaus.groovy.groosh.stream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Future;
+
+import org.codehaus.groovy.util.IOUtil;
+
+/**
+ * The captured output of a process, bounded by the options passed to
+ * <code>capture</code>, e.g. <code>gsh.find('/').capture(maxLines: 1000)</code>:
+ * <ul>
+ * <li><code>maxBytes</code>: keep the first that many bytes.</li>
+ * <li><code>maxLines</code>: keep the first that many lines.</li>
+ * <li><code>lastLines</code>: keep only the last that many lines.</li>
+ * <li><code>maxLineBytes</code>: keep the first that many bytes of each
+ * line. Defaults to 1MB with <code>maxLines</code> or <code>lastLines</code>,
+ * so a single endless line cannot fill the heap.</li>
+ * <li><code>spill</code>: keep up to that many bytes on the heap and the
+ * rest in a temporary file. Cannot be combined with <code>lastLines</code>.</li>
+ * <li><code>charset</code>: the charset of the lines, by default the
+ * platform default.</li>
+ * <li><code>mapSize</code>: the size of the window spilled output is mapped
+ * with, 64MB by default.</li>
+ * </ul>
+ * The output beyond the limits is read and dropped, so the process never
+ * blocks on a full pipe. Without any limit everything is kept on the heap.
+ * <p>
+ * The lines are decoded lazily while iterating. Spilled output is read
+ * through a memory mapped file, so iterating needs little heap whatever the
+ * size. Call {@link #dispose()} to delete the file when done; it is deleted
+ * on exit otherwise.
+ */
+public class CapturedOutput extends AbstractCollection<String> {
+	private static final int MAP_SIZE = 64 * 1024 * 1024;
+	private static final int MAX_LINE_BYTES = 1024 * 1024;
+
+	private long maxBytes = Long.MAX_VALUE;
+	private long maxLines = Long.MAX_VALUE;
+	private int lastLines = 0;
+	private long maxLineBytes = 0;
+	private long spill = Long.MAX_VALUE;
+	private Charset charset = Charset.defaultCharset();
+	private int mapSize = MAP_SIZE;
+
+	private final Buffer memory = new Buffer();
+	private final Capture capture = new Capture();
+	private Future<Integer> result;
+
+	private File file;
+	private OutputStream fileStream;
+
+	private byte[][] ring;
+	private int ringStart = 0;
+	private int ringSize = 0;
+
+	private long keptBytes = 0;
+	private long keptLines = 0;
+	private long lineBytes = 0;
+	private boolean partialLine = false;
+	private long totalBytes = 0;
+	private long totalLines = 0;
+	private boolean truncated = false;
+
+	public CapturedOutput(Map<String, ?> options) {
+		for (Map.Entry<String, ?> option : options.entrySet()) {
+			setOption(option.getKey(), option.getValue());
+		}
+		if (lastLines > 0) {
+			if (spill != Long.MAX_VALUE)
+				throw new IllegalArgumentException(
+						"lastLines cannot be combined with spill");
+			ring = new byte[lastLines][];
+		}
+		if (maxLineBytes == 0) {
+			maxLineBytes = lastLines > 0 || maxLines != Long.MAX_VALUE ? MAX_LINE_BYTES
+					: Long.MAX_VALUE;
+		}
+	}
+
+	protected void setOption(String name, Object value) {
+		if ("maxBytes".equals(name)) {
+			maxBytes = Long.parseLong(String.valueOf(value));
+		} else if ("maxLines".equals(name)) {
+			maxLines = Long.parseLong(String.valueOf(value));
+		} else if ("lastLines".equals(name)) {
+			lastLines = Integer.parseInt(String.valueOf(value));
+		} else if ("maxLineBytes".equals(name)) {
+			maxLineBytes = Long.parseLong(String.valueOf(value));
+			if (maxLineBytes <= 0)
+				throw new IllegalArgumentException("maxLineBytes must be positive");
+		} else if ("spill".equals(name)) {
+			spill = Long.parseLong(String.valueOf(value));
+		} else if ("mapSize".equals(name)) {
+			mapSize = Integer.parseInt(String.valueOf(value));
+		} else if ("charset".equals(name)) {
+			charset = value instanceof Charset ? (Charset) value : Charset
+					.forName(String.valueOf(value));
+		} else {
+			throw new IllegalArgumentException("unknown option " + name);
+		}
+	}
+
+	/**
+	 * @return the sink to connect the output of a process to
+	 */
+	public Sink getSink() {
+		return new Sink() {
+			public boolean receivesStream() {
+				return true;
+			}
+
+			public void setInputStream(InputStream is) {
+				result = IOUtil.pumpAsync(is, capture);
+			}
+		};
+	}
+
+	/**
+	 * Waits until all the output is captured.
+	 */
+	public void waitFor() {
+		try {
+			result.get();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * @return the number of lines kept
+	 */
+	public int size() {
+		return ring != null ? ringSize : (int) Math.min(Integer.MAX_VALUE,
+				keptLines + (partialLine ? 1 : 0));
+	}
+
+	public Iterator<String> iterator() {
+		if (ring != null)
+			return new RingIterator();
+		if (file != null)
+			return new MappedIterator();
+		return new BytesIterator(memory.bytes(), memory.size());
+	}
+
+	/**
+	 * @return the kept output as one string. Spilled output is read back into
+	 *         the heap for this.
+	 * @throws IOException
+	 *             if more than 2GB were spilled
+	 */
+	public String getText() throws IOException {
+		if (ring != null) {
+			StringBuilder text = new StringBuilder();
+			for (String line : this) {
+				text.append(line).append('\n');
+			}
+			return text.toString();
+		}
+		if (file == null)
+			return new String(memory.bytes(), 0, memory.size(), charset.name());
+
+		long length = file.length();
+		if (length > Integer.MAX_VALUE)
+			throw new IOException("cannot read " + length
+					+ " bytes of spilled output into a string, iterate instead");
+		byte[] text = new byte[(int) length];
+		InputStream is = new FileInputStream(file);
+		try {
+			new DataInputStream(is).readFully(text);
+		} finally {
+			is.close();
+		}
+		return new String(text, charset.name());
+	}
+
+	/**
+	 * @return whether output was dropped because of <code>maxBytes</code>,
+	 *         <code>maxLines</code>, <code>lastLines</code> or
+	 *         <code>maxLineBytes</code>
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	/**
+	 * @return the number of bytes the process wrote, including those dropped
+	 */
+	public long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * @return the number of lines the process wrote, including those dropped
+	 */
+	public long getTotalLines() {
+		return totalLines;
+	}
+
+	/**
+	 * @return the file the output spilled to, or <code>null</code>
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	public boolean isSpilled() {
+		return file != null;
+	}
+
+	/**
+	 * Deletes the spill file, if any.
+	 */
+	public void dispose() {
+		if (file != null) {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Applies the limits to what the process writes.
+	 */
+	private class Capture extends OutputStream {
+		private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			totalBytes += len;
+			if (ring != null) {
+				writeRing(b, off, len);
+				return;
+			}
+
+			int keep = keptLines < maxLines ? (int) Math.min(len, maxBytes
+					- keptBytes) : 0;
+			int end = off + keep;
+			int from = off;
+			for (int i = off; i < end; i++) {
+				if (b[i] == '\n') {
+					lineBytes = 0;
+					totalLines++;
+					if (++keptLines == maxLines) {
+						end = i + 1;
+						break;
+					}
+				} else if (lineBytes < maxLineBytes) {
+					lineBytes++;
+				} else {
+					// drop the rest of the line
+					keep(b, from, i - from);
+					truncated = true;
+					while (i + 1 < end && b[i + 1] != '\n') {
+						i++;
+					}
+					from = i + 1;
+				}
+			}
+			countLines(b, end, off + len);
+			if (end < off + len)
+				truncated = true;
+			if (end > off) {
+				partialLine = b[end - 1] != '\n';
+				keep(b, from, end - from);
+			}
+		}
+
+		private void countLines(byte[] b, int from, int to) {
+			for (int i = from; i < to; i++) {
+				if (b[i] == '\n')
+					totalLines++;
+			}
+		}
+
+		private void keep(byte[] b, int off, int len) throws IOException {
+			if (fileStream == null && keptBytes + len > spill) {
+				file = File.createTempFile("groosh", ".out");
+				file.deleteOnExit();
+				fileStream = new FileOutputStream(file);
+				fileStream.write(memory.bytes(), 0, memory.size());
+				memory.reset();
+			}
+			(fileStream != null ? fileStream : memory).write(b, off, len);
+			keptBytes += len;
+		}
+
+		private void writeRing(byte[] b, int off, int len) {
+			int start = off;
+			for (int i = off; i < off + len; i++) {
+				if (b[i] == '\n') {
+					totalLines++;
+					appendLine(b, start, i - start);
+					addToRing();
+					start = i + 1;
+				}
+			}
+			appendLine(b, start, off + len - start);
+		}
+
+		private void appendLine(byte[] b, int off, int len) {
+			int keep = (int) Math.min(len, maxLineBytes - line.size());
+			if (keep < len)
+				truncated = true;
+			line.write(b, off, keep);
+		}
+
+		private void addToRing() {
+			if (ringSize == ring.length) {
+				ringStart = (ringStart + 1) % ring.length;
+				ringSize--;
+				truncated = true;
+			}
+			ring[(ringStart + ringSize++) % ring.length] = line.toByteArray();
+			line.reset();
+		}
+
+		public void close() throws IOException {
+			if (ring != null && line.size() > 0) {
+				addToRing();
+			}
+			if (fileStream != null) {
+				fileStream.close();
+			}
+		}
+	}
+
+	/**
+	 * Gives access to its buffer without copying it.
+	 */
+	private static class Buffer extends ByteArrayOutputStream {
+		byte[] bytes() {
+			return buf;
+		}
+	}
+
+	private String decode(byte[] b, int off, int len) {
+		if (len > 0 && b[off + len - 1] == '\r')
+			len--;
+		try {
+			return new String(b, off, len, charset.name());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private abstract class LineIterator implements Iterator<String> {
+		private String next;
+
+		protected abstract String readLine();
+
+		public boolean hasNext() {
+			if (next == null)
+				next = readLine();
+			return next != null;
+		}
+
+		public String next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			String line = next;
+			next = null;
+			return line;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private class RingIterator extends LineIterator {
+		private int index = 0;
+
+		protected String readLine() {
+			if (index == ringSize)
+				return null;
+			byte[] line = ring[(ringStart + index++) % ring.length];
+			return decode(line, 0, line.length);
+		}
+	}
+
+	private class BytesIterator extends LineIterator {
+		private final byte[] bytes;
+		private final int end;
+		private int pos = 0;
+
+		BytesIterator(byte[] bytes, int end) {
+			this.bytes = bytes;
+			this.end = end;
+		}
+
+		protected String readLine() {
+			if (pos == end)
+				return null;
+			int start = pos;
+			while (pos < end && bytes[pos] != '\n') {
+				pos++;
+			}
+			String line = decode(bytes, start, pos - start);
+			if (pos < end)
+				pos++;
+			return line;
+		}
+	}
+
+	/**
+	 * Maps the file a window at a time, moving the window to the start of the
+	 * line that crosses its end.
+	 */
+	private class MappedIterator extends LineIterator {
+		private final long length = file.length();
+		private long windowStart = 0;
+		private int windowSize = mapSize;
+		private MappedByteBuffer window;
+		private byte[] line = new byte[256];
+
+		protected String readLine() {
+			try {
+				while (true) {
+					if (window == null || !window.hasRemaining()) {
+						long pos = window == null ? 0 : windowStart
+								+ window.position();
+						if (pos >= length)
+							return null;
+						map(pos);
+					}
+
+					int start = window.position();
+					int limit = window.limit();
+					int i = start;
+					while (i < limit && window.get(i) != '\n') {
+						i++;
+					}
+					if (i == limit && windowStart + limit < length) {
+						// the line goes on beyond the window
+						long pos = windowStart + start;
+						if (start == 0) {
+							if (windowSize == Integer.MAX_VALUE)
+								throw new IOException("line at " + pos
+										+ " is too long to map");
+							windowSize = (int) Math.min(Math.min(
+									windowSize * 2L, Integer.MAX_VALUE),
+									length - pos);
+						}
+						map(pos);
+						continue;
+					}
+
+					int len = i - start;
+					if (line.length < len)
+						line = new byte[Math.max(len, line.length * 2)];
+					window.get(line, 0, len);
+					if (i < limit)
+						window.get();
+					return decode(line, 0, len);
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		private void map(long pos) throws IOException {
+			FileChannel channel = new FileInputStream(file).getChannel();
+			try {
+				windowStart = pos;
+				window = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math
+						.min(windowSize, length - pos));
+			} finally {
+				channel.close();
+			}
+		}
+	}
+}
@@ -47,4 +47,13 @@ public abstract class Source {
 		}
 
 	}
+
+	/**
+	 * @return whether {@link #connect(Sink)} started pumping asynchronously,
+	 *         so that there is something for {@link #waitForStreamsHandled()}
+	 *         to wait for
+	 */
+	public boolean isPumping() {
+		return streamPumpResult != null;
+	}
 }
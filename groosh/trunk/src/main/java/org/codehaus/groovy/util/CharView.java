@@ -0,0 +1,95 @@
+//  Groosh -- Provides a shell-like capability for handling external processes
+//
+//  Copyright © 2007 Alexander Egger
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.groovy.util;
+
+/**
+ * A {@link CharSequence} over a range of a char array. The view is not a copy:
+ * it changes whenever the array or the range does, which is what makes it
+ * cheap to hand out one view per line or field.
+ * <p>
+ * Two views are equal if their content is. Comparing a view to a String with
+ * <code>==</code> is not symmetric, so use {@link #contentEquals} or
+ * {@link #toString()} for that.
+ */
+public class CharView implements CharSequence {
+	private char[] chars;
+	private int offset;
+	private int length;
+
+	public CharView() {
+		this(new char[0], 0, 0);
+	}
+
+	public CharView(char[] chars, int offset, int length) {
+		set(chars, offset, length);
+	}
+
+	public CharView set(char[] chars, int offset, int length) {
+		this.chars = chars;
+		this.offset = offset;
+		this.length = length;
+		return this;
+	}
+
+	public char charAt(int index) {
+		if (index < 0 || index >= length)
+			throw new IndexOutOfBoundsException("index " + index
+					+ ", length " + length);
+		return chars[offset + index];
+	}
+
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * @return a view sharing this view's array
+	 */
+	public CharSequence subSequence(int start, int end) {
+		if (start < 0 || end > length || start > end)
+			throw new IndexOutOfBoundsException("start " + start + ", end "
+					+ end + ", length " + length);
+		return new CharView(chars, offset + start, end - start);
+	}
+
+	public boolean contentEquals(CharSequence cs) {
+		if (cs == null || cs.length() != length)
+			return false;
+		for (int i = 0; i < length; i++) {
+			if (chars[offset + i] != cs.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	public boolean equals(Object o) {
+		return o instanceof CharView && contentEquals((CharView) o);
+	}
+
+	/**
+	 * @return the same hash code as the String with this content
+	 */
+	public int hashCode() {
+		int h = 0;
+		for (int i = 0; i < length; i++) {
+			h = 31 * h + chars[offset + i];
+		}
+		return h;
+	}
+
+	public String toString() {
+		return new String(chars, offset, length);
+	}
+}
@@ -0,0 +1,50 @@
+//  Groosh -- Provides a shell-like capability for handling external processes
+//
+//  Copyright © 2007 Alexander Egger
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.groovy.util;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * The attributes printed by <code>list -l</code>, shared by
+ * {@link DirWalker} and {@link FileDirWalker} so both print the same.
+ */
+final class DirFormat {
+
+	private DirFormat() {
+	}
+
+	static DateFormat createDateFormat() {
+		return new SimpleDateFormat("yyyy-MM-dd HH:mm");
+	}
+
+	/**
+	 * Appends the attributes of an entry, the type being <code>d</code> for
+	 * directories, <code>-</code> for files, <code>o</code> for anything else
+	 * and <code>?</code> for dangling links.
+	 */
+	static void appendAttributes(StringBuilder buffer, char type, long size,
+			long modified, DateFormat format) {
+		buffer.append(type).append(' ');
+		String length = Long.toString(size);
+		for (int i = length.length(); i < 12; i++) {
+			buffer.append(' ');
+		}
+		buffer.append(length).append(' ');
+		buffer.append(format.format(new Date(modified))).append(' ');
+	}
+
+}
@@ -0,0 +1,216 @@
+//  Groosh -- Provides a shell-like capability for handling external processes
+//
+//  Copyright © 2007 Alexander Egger
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+
+package org.codehaus.groovy.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.codehaus.groovy.groosh.builtin.Dir;
+
+/**
+ * Lists directories for {@link Dir} with a {@link DirectoryStream} per
+ * directory. Subdirectories are listed in parallel on a fork/join pool, while
+ * the output is written in the same order as a serial walk would write it.
+ * At most {@link #READ_AHEAD} directories are listed ahead of the one being
+ * written, and a listing is dropped as soon as it is written, so the heap
+ * holds a bounded part of the output, however large the tree.
+ * <p>
+ * Entries are only stat'ed when it matters, i.e. to find subdirectories when
+ * walking recursively or to print attributes, and then with a single
+ * <code>readAttributes</code> call per entry.
+ * <p>
+ * Needs Java 7 or later, see {@link Dir}.
+ */
+public class DirWalker {
+	/** Flush before waiting on a listing if at least this much is unflushed. */
+	private static final int FLUSH_SIZE = 8192;
+
+	/** The directories listed ahead of the writer, at most. */
+	public static final int READ_AHEAD = 64;
+
+	private static ForkJoinPool pool;
+
+	private final boolean recursive;
+	private final boolean attributes;
+
+	private int unflushed = 0;
+
+	public DirWalker(boolean recursive, boolean attributes) {
+		this.recursive = recursive;
+		this.attributes = attributes;
+	}
+
+	/**
+	 * The pool is shared by all listings. Its parallelism is taken from the
+	 * system property <code>groosh.dir.threads</code> and defaults to the
+	 * number of processors.
+	 */
+	private static synchronized ForkJoinPool getPool() {
+		if (pool == null) {
+			pool = new ForkJoinPool(Integer.getInteger("groosh.dir.threads",
+					Runtime.getRuntime().availableProcessors()));
+		}
+		return pool;
+	}
+
+	public void write(List<File> dirs, boolean headers, Writer writer)
+			throws IOException {
+		// the listings to write, in the order they are written
+		LinkedList<Listing> pending = new LinkedList<Listing>();
+		for (File dir : dirs) {
+			pending.add(new Listing(dir.toPath(), headers));
+		}
+		while (!pending.isEmpty()) {
+			startAhead(pending);
+			Listing listing = pending.removeFirst();
+			write(listing, writer);
+			pending.addAll(0, listing.children);
+			listing.children = null;
+		}
+	}
+
+	private void startAhead(List<Listing> pending) {
+		int count = 0;
+		for (Listing listing : pending) {
+			if (count++ == READ_AHEAD)
+				break;
+			if (!listing.started) {
+				listing.started = true;
+				getPool().execute(listing);
+			}
+		}
+	}
+
+	private void write(Listing listing, Writer writer) throws IOException {
+		if (listing.header) {
+			writer.write(listing.path.toAbsolutePath().toString());
+			writer.write(":\n");
+		}
+		if (!listing.isDone() && unflushed >= FLUSH_SIZE) {
+			// let the next stage work on what we have while we wait
+			writer.flush();
+			unflushed = 0;
+		}
+		listing.join();
+		writer.write(listing.text);
+		unflushed += listing.text.length();
+		listing.text = null;
+	}
+
+	/**
+	 * The entries of one directory, with a listing to start for each
+	 * subdirectory.
+	 */
+	private class Listing extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Path path;
+		private final boolean header;
+		/** only touched by the writer */
+		private boolean started = false;
+		private String text;
+		private List<Listing> children = Collections.emptyList();
+
+		Listing(Path path, boolean header) {
+			this.path = path;
+			this.header = header;
+		}
+
+		protected void compute() {
+			List<Entry> entries = new ArrayList<Entry>();
+			try {
+				DirectoryStream<Path> stream = Files.newDirectoryStream(path);
+				try {
+					for (Path entry : stream) {
+						entries.add(new Entry(entry));
+					}
+				} finally {
+					stream.close();
+				}
+			} catch (IOException e) {
+				// like File.listFiles(), an unreadable directory has no entries
+				text = "";
+				return;
+			} catch (DirectoryIteratorException e) {
+				text = "";
+				return;
+			}
+			Collections.sort(entries);
+
+			StringBuilder buffer = new StringBuilder(entries.size() * 32);
+			DateFormat format = attributes ? DirFormat.createDateFormat() : null;
+			for (Entry entry : entries) {
+				BasicFileAttributes attrs = entry.attrs;
+				if (attributes) {
+					if (attrs == null) {
+						DirFormat.appendAttributes(buffer, '?', 0, 0, format);
+					} else {
+						DirFormat.appendAttributes(buffer, attrs.isDirectory() ? 'd'
+								: attrs.isRegularFile() ? '-' : 'o', attrs
+								.size(), attrs.lastModifiedTime().toMillis(),
+								format);
+					}
+				}
+				buffer.append(entry.name).append('\n');
+
+				if (recursive && attrs != null && attrs.isDirectory()) {
+					if (children.isEmpty()) {
+						children = new ArrayList<Listing>();
+					}
+					children.add(new Listing(path.resolve(entry.name), true));
+				}
+			}
+			if (recursive) {
+				buffer.append('\n');
+			}
+			text = buffer.toString();
+		}
+	}
+
+	private class Entry implements Comparable<Entry> {
+		private final String name;
+		private BasicFileAttributes attrs;
+
+		Entry(Path path) {
+			name = path.getFileName().toString();
+			if (recursive || attributes) {
+				try {
+					// follows links, as File.isDirectory() does
+					attrs = Files.readAttributes(path, BasicFileAttributes.class);
+				} catch (IOException e) {
+					// a dangling link
+				}
+			}
+		}
+
+		public int compareTo(Entry other) {
+			return name.compareTo(other.name);
+		}
+	}
+}
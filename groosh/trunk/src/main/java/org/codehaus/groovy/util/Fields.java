@@ -0,0 +1,116 @@
+//  Groosh -- Provides a shell-like capability for handling external processes
+//
+//  Copyright © 2007 Alexander Egger
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.groovy.util;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a line into whitespace separated fields without a regular expression
+ * and without copying. The result is the same as
+ * <code>line.split("\\s+")</code>, but the fields are {@link CharView}s into
+ * the line, and both the views and this list are reused by the next
+ * {@link #split}.
+ */
+public class Fields extends AbstractList<CharSequence> {
+	private char[] chars = new char[0];
+	private int[] bounds = new int[32];
+	private CharView[] views = new CharView[16];
+	private int size;
+
+	public Fields split(CharSequence line) {
+		String s = line.toString();
+		return split(s.toCharArray(), 0, s.length());
+	}
+
+	public Fields split(char[] chars, int offset, int length) {
+		this.chars = chars;
+		size = 0;
+		int end = offset + length;
+		if (length == 0) {
+			add(offset, offset);
+			return this;
+		}
+
+		int start = offset;
+		int i = offset;
+		while (i < end) {
+			if (isWhitespace(chars[i])) {
+				add(start, i);
+				while (i < end && isWhitespace(chars[i]))
+					i++;
+				start = i;
+			} else {
+				i++;
+			}
+		}
+		add(start, end);
+
+		// like String.split, drop trailing empty fields
+		while (size > 0 && bounds[2 * size - 1] == bounds[2 * size - 2])
+			size--;
+		return this;
+	}
+
+	/** the characters matched by \s */
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B'
+				|| c == '\f' || c == '\r';
+	}
+
+	private void add(int start, int end) {
+		if (2 * size + 2 > bounds.length) {
+			int[] grown = new int[bounds.length * 2];
+			System.arraycopy(bounds, 0, grown, 0, bounds.length);
+			bounds = grown;
+		}
+		bounds[2 * size] = start;
+		bounds[2 * size + 1] = end;
+		size++;
+	}
+
+	public CharSequence get(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("index " + index + ", size "
+					+ size);
+		if (index >= views.length) {
+			CharView[] grown = new CharView[Math.max(views.length * 2,
+					index + 1)];
+			System.arraycopy(views, 0, grown, 0, views.length);
+			views = grown;
+		}
+		if (views[index] == null)
+			views[index] = new CharView();
+		int start = bounds[2 * index];
+		return views[index].set(chars, start, bounds[2 * index + 1] - start);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the fields copied into Strings, which may be kept
+	 */
+	public List<String> toStrings() {
+		List<String> strings = new ArrayList<String>(size);
+		for (int i = 0; i < size; i++) {
+			int start = bounds[2 * i];
+			strings.add(new String(chars, start, bounds[2 * i + 1] - start));
+		}
+		return strings;
+	}
+}
@@ -0,0 +1,95 @@
+//  Groosh -- Provides a shell-like capability for handling external processes
+//
+//  Copyright © 2007 Alexander Egger
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.groovy.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.codehaus.groovy.groosh.builtin.Dir;
+
+/**
+ * Lists directories for {@link Dir} with {@link File}, one after the other.
+ * Used where {@link DirWalker} is not available and writes the same output.
+ */
+public class FileDirWalker {
+
+	private final boolean recursive;
+	private final boolean attributes;
+
+	public FileDirWalker(boolean recursive, boolean attributes) {
+		this.recursive = recursive;
+		this.attributes = attributes;
+	}
+
+	public void write(List<File> dirs, boolean headers, Writer writer)
+			throws IOException {
+		if (headers) {
+			processSubDirs(dirs, writer);
+		} else {
+			for (File dir : dirs) {
+				if (dir.exists() && dir.isDirectory()) {
+					list(dir, writer);
+				}
+			}
+		}
+	}
+
+	private void list(File dir, Writer writer) throws IOException {
+		File[] entries = dir.listFiles();
+		if (entries == null) {
+			return;
+		}
+		List<File> subDirs = new ArrayList<File>();
+		StringBuilder buffer = new StringBuilder();
+		DateFormat format = attributes ? DirFormat.createDateFormat() : null;
+
+		Collections.sort(Arrays.asList(entries));
+		for (File entry : entries) {
+			boolean isDir = entry.isDirectory();
+			if (isDir) {
+				subDirs.add(entry);
+			}
+			if (attributes) {
+				buffer.setLength(0);
+				DirFormat.appendAttributes(buffer, isDir ? 'd' : entry
+						.isFile() ? '-' : entry.exists() ? 'o' : '?', entry
+						.length(), entry.lastModified(), format);
+				writer.append(buffer);
+			}
+			writer.write(entry.getName());
+			writer.write('\n');
+		}
+		if (recursive) {
+			writer.write('\n');
+			processSubDirs(subDirs, writer);
+		}
+	}
+
+	private void processSubDirs(List<File> dirs, Writer writer)
+			throws IOException {
+		for (File file : dirs) {
+			writer.write(file.getAbsolutePath());
+			writer.write(":\n");
+			list(file, writer);
+		}
+	}
+
+}
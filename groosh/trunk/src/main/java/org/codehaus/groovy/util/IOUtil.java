@@ -14,15 +14,26 @@
 
 package org.codehaus.groovy.util;
 
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 
@@ -30,22 +41,92 @@ import java.util.concurrent.Future;
  * 
  */
 public class IOUtil {
-	private static final int BUFFER_SIZE = 8192;
+	private static final int BUFFER_SIZE = 65536;
 
-	private static int pump(InputStream is, OutputStream stream)
+	private static final long TRANSFER_SIZE = 1024 * 1024;
+
+	/** idle threads end soon, so that they don't keep the JVM running */
+	private static final long IDLE_MILLIS = 250;
+
+	private static final int MAX_THREADS = Integer.getInteger(
+			"groosh.threads", 512);
+
+	private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+			0, MAX_THREADS, IDLE_MILLIS, TimeUnit.MILLISECONDS,
+			new SynchronousQueue<Runnable>(), new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread(Runnable r) {
+					return new Thread(r, "groosh-" + count.incrementAndGet());
+				}
+			}, new RejectedExecutionHandler() {
+				public void rejectedExecution(Runnable r,
+						ThreadPoolExecutor executor) {
+					throw new RejectedExecutionException("groosh uses more than "
+							+ MAX_THREADS + " threads, see groosh.threads");
+				}
+			});
+
+	private static int pump(InputStream is, OutputStream os)
 			throws IOException {
 		int pumped = 0;
-		byte[] buffy = new byte[BUFFER_SIZE];
+		if (os.getClass() == FileOutputStream.class) {
+			FileChannel out = ((FileOutputStream) os).getChannel();
+			if (is.getClass() == FileInputStream.class)
+				pumped += transfer(((FileInputStream) is).getChannel(), out);
+			else if (is instanceof PipeInputStream)
+				return transfer(((PipeInputStream) is).getChannel(), out);
+		}
 
+		byte[] buffy = new byte[BUFFER_SIZE];
 		int read = 0;
 		while ((read = is.read(buffy)) != -1) {
-			stream.write(buffy, 0, read);
+			os.write(buffy, 0, read);
 			pumped += read;
 		}
 
 		return pumped;
 	}
 
+	/**
+	 * Copies what a regular file holds without copying it through the heap.
+	 * Pipes and devices are left to the caller.
+	 */
+	private static int transfer(FileChannel in, FileChannel out)
+			throws IOException {
+		long position;
+		try {
+			position = in.position();
+		} catch (IOException e) {
+			// "Illegal seek", not a regular file
+			return 0;
+		}
+		long start = position;
+		long size = in.size();
+		while (position < size) {
+			position += in.transferTo(position, Math.min(size - position,
+					TRANSFER_SIZE), out);
+		}
+		in.position(position);
+		return (int) (position - start);
+	}
+
+	/**
+	 * Fills a file from a pipe without copying it through the heap.
+	 */
+	private static int transfer(Pipe.SourceChannel in, FileChannel out)
+			throws IOException {
+		long start = out.position();
+		long position = start;
+		long count;
+		// the channel blocks, so nothing transferred means the end of the pipe
+		while ((count = out.transferFrom(in, position, TRANSFER_SIZE)) > 0) {
+			position += count;
+			out.position(position);
+		}
+		return (int) (position - start);
+	}
+
 	private static int pump(BlockingQueue<String> queue, OutputStream os)
 			throws IOException, InterruptedException {
 
@@ -60,6 +141,12 @@ public class IOUtil {
 		return pumped;
 	}
 
+	/**
+	 * Pumps <code>is</code> to <code>os</code> on a thread of its own and
+	 * closes both streams afterwards. Regular files and pipes are copied to a
+	 * file with {@link FileChannel#transferTo} and
+	 * {@link FileChannel#transferFrom}.
+	 */
 	public static Future<Integer> pumpAsync(final InputStream is,
 			final OutputStream os) {
 
@@ -77,8 +164,14 @@ public class IOUtil {
 		return result;
 	}
 
+	/**
+	 * @return the threads shared by all of groosh. A task gets a thread of
+	 *         its own, and threads are reused while there are tasks to run.
+	 *         There are at most <code>groosh.threads</code> threads, 512 by
+	 *         default.
+	 */
 	public static ExecutorService getExecutor() {
-		return new ThreadPerTaskExecutorService();
+		return executor;
 	}
 
 	public static Future<Integer> pumpAsync(final BlockingQueue<String> queue,
@@ -0,0 +1,148 @@
+//  Groosh -- Provides a shell-like capability for handling external processes
+//
+//  Copyright © 2007 Alexander Egger
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.groovy.util;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads lines into a reusable buffer instead of creating a String per line.
+ * Lines end with <code>\n</code>, <code>\r</code> or <code>\r\n</code>, as
+ * for {@link java.io.BufferedReader#readLine()}.
+ * <p>
+ * The current line is available as a range of {@link #getBuffer()} or as a
+ * {@link CharView}, both of which are only valid until the next call to
+ * {@link #next()}.
+ */
+public class LineReader {
+	private final Reader reader;
+	private final Flushable idle;
+
+	private char[] buffy;
+	private int pos = 0;
+	private int end = 0;
+	private boolean eof = false;
+	private boolean skipLF = false;
+
+	private int lineStart;
+	private int lineLength;
+	private final CharView line = new CharView();
+
+	public LineReader(Reader reader, int bufferSize) {
+		this(reader, bufferSize, null);
+	}
+
+	/**
+	 * @param idle
+	 *            flushed whenever the reader is about to block for more input,
+	 *            so that output written so far is not held back while waiting
+	 */
+	public LineReader(Reader reader, int bufferSize, Flushable idle) {
+		this.reader = reader;
+		this.idle = idle;
+		this.buffy = new char[bufferSize];
+	}
+
+	/**
+	 * Advances to the next line.
+	 * 
+	 * @return <code>false</code> at the end of the input
+	 */
+	public boolean next() throws IOException {
+		int start = pos;
+		int scan = pos;
+		while (true) {
+			if (skipLF && scan < end) {
+				skipLF = false;
+				if (buffy[scan] == '\n') {
+					scan++;
+					start++;
+				}
+			}
+
+			while (scan < end) {
+				char c = buffy[scan];
+				if (c == '\n' || c == '\r') {
+					lineStart = start;
+					lineLength = scan - start;
+					pos = scan + 1;
+					if (c == '\r') {
+						if (pos == end)
+							skipLF = true;
+						else if (buffy[pos] == '\n')
+							pos++;
+					}
+					return true;
+				}
+				scan++;
+			}
+
+			if (eof) {
+				pos = end;
+				if (scan == start)
+					return false;
+				lineStart = start;
+				lineLength = scan - start;
+				return true;
+			}
+
+			// keep the partial line and make room behind it
+			if (start > 0) {
+				System.arraycopy(buffy, start, buffy, 0, end - start);
+				end -= start;
+				scan -= start;
+				start = 0;
+			}
+			if (end == buffy.length) {
+				char[] grown = new char[buffy.length * 2];
+				System.arraycopy(buffy, 0, grown, 0, end);
+				buffy = grown;
+			}
+
+			if (idle != null && !reader.ready())
+				idle.flush();
+			int read = reader.read(buffy, end, buffy.length - end);
+			if (read < 0)
+				eof = true;
+			else
+				end += read;
+		}
+	}
+
+	public char[] getBuffer() {
+		return buffy;
+	}
+
+	public int getLineStart() {
+		return lineStart;
+	}
+
+	public int getLineLength() {
+		return lineLength;
+	}
+
+	public CharView getLine() {
+		return line.set(buffy, lineStart, lineLength);
+	}
+
+	public String toString() {
+		return new String(buffy, lineStart, lineLength);
+	}
+
+	public void close() throws IOException {
+		reader.close();
+	}
+}
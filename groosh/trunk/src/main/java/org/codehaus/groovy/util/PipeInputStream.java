@@ -0,0 +1,56 @@
+//  Groosh -- Provides a shell-like capability for handling external processes
+//
+//  Copyright © 2007 Alexander Egger
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.groovy.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+
+/**
+ * An input stream reading from the source end of a {@link Pipe}. Unlike the
+ * stream returned by {@link Channels#newInputStream}, it keeps hold of the
+ * channel so that {@link IOUtil#pumpAsync(InputStream, java.io.OutputStream)}
+ * can fill a file straight from the pipe.
+ */
+public class PipeInputStream extends InputStream {
+	private final Pipe.SourceChannel channel;
+	private final InputStream is;
+
+	public PipeInputStream(Pipe.SourceChannel channel) {
+		this.channel = channel;
+		this.is = Channels.newInputStream(channel);
+	}
+
+	public Pipe.SourceChannel getChannel() {
+		return channel;
+	}
+
+	public int read() throws IOException {
+		return is.read();
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+		return is.read(b, off, len);
+	}
+
+	public int available() throws IOException {
+		return is.available();
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,89 @@
+package org.codehaus.groovy.groosh
+
+class CaptureTest extends GroovyTestCase {
+
+	def gsh = new groosh.Groosh()
+
+	def words = new File('src/test/resources/words')
+
+	def lines = words.readLines('ISO-8859-1')
+
+	void testUnbounded() {
+		def output = gsh.cat(words.path).capture(charset: 'ISO-8859-1')
+		assert !output.truncated
+		assert !output.spilled
+		assert lines.size() == output.size()
+		assert lines == output.collect { it }
+		assert words.getText('ISO-8859-1') == output.text
+	}
+
+	void testMaxLines() {
+		def output = gsh.cat(words.path).capture(maxLines: 10)
+		assert output.truncated
+		assert lines[0..<10] == output.collect { it }
+		assert lines.size() == output.totalLines
+		assert words.length() == output.totalBytes
+		assert lines[0..<3] == gsh.cat(words.path).toList(maxLines: 3)
+	}
+
+	void testMaxBytes() {
+		def text = gsh.cat(words.path).getText(maxBytes: 100, charset: 'ISO-8859-1')
+		assert words.getText('ISO-8859-1').substring(0, 100) == text
+	}
+
+	void testLastLines() {
+		def output = gsh.cat(words.path).capture(lastLines: 3)
+		assert output.truncated
+		assert 3 == output.size()
+		assert lines[-3..-1] == output.collect { it }
+		assert lines[-3..-1] == gsh.cat(words.path).toList(lastLines: 3)
+		assert "a\nb\n" == gsh.echo('-n', 'a\nb').getText(lastLines: 5)
+	}
+
+	void testMaxLineBytes() {
+		def longLine = "x" * 10000
+		def input = "a\n${longLine}\nb\n${longLine}"
+		def output = gsh.echo(input).capture(lastLines: 3, maxLineBytes: 100)
+		assert output.truncated
+		assert ['x' * 100, 'b', 'x' * 100] == output.collect { it }
+
+		output = gsh.echo(input).capture(maxLines: 3, maxLineBytes: 100)
+		assert output.truncated
+		assert ['a', 'x' * 100, 'b'] == output.collect { it }
+		assert 4 == output.totalLines
+
+		output = gsh.echo(input).capture(spill: 0, maxLineBytes: 100, mapSize: 64)
+		assert ['a', 'x' * 100, 'b', 'x' * 100] == output.collect { it }
+		output.dispose()
+
+		assert !gsh.echo(input).capture(lastLines: 5).truncated
+	}
+
+	void testSpill() {
+		def output = gsh.cat(words.path).capture(spill: 65536, mapSize: 4096, charset: 'ISO-8859-1')
+		try {
+			assert output.spilled
+			assert words.length() == output.file.length()
+			assert lines == output.collect { it }
+			assert words.getText('ISO-8859-1') == output.text
+		} finally {
+			output.dispose()
+		}
+		assert !output.file.exists()
+	}
+
+	void testSpillLongLines() {
+		def longLine = "x" * 10000
+		def output = gsh.echo("a\n${longLine}\nb\n${longLine}").capture(spill: 0, mapSize: 1024)
+		assert ['a', longLine, 'b', longLine] == output.collect { it }
+		output.dispose()
+	}
+
+	void testSpillWithLimit() {
+		def output = gsh.cat(words.path).capture(spill: 1000, maxLines: 5000, mapSize: 8192, charset: 'ISO-8859-1')
+		assert output.spilled
+		assert output.truncated
+		assert lines[0..<5000] == output.collect { it }
+		output.dispose()
+	}
+}
@@ -0,0 +1,87 @@
+package org.codehaus.groovy.groosh
+
+import org.codehaus.groovy.util.DirWalker
+import org.codehaus.groovy.util.FileDirWalker
+
+class DirTest extends GroovyTestCase {
+
+	def gsh = new groosh.Groosh()
+
+	def root
+
+	void setUp() {
+		root = File.createTempFile("groosh", "dir")
+		root.delete()
+		root.mkdir()
+		// wide enough for the subtrees to be listed in parallel
+		(0..<20).each { i ->
+			def sub = new File(root, "sub$i")
+			sub.mkdir()
+			(0..<5).each { j -> new File(sub, "file$j").text = "x" * j }
+			new File(sub, "deeper").mkdir()
+			new File(sub, "deeper/leaf").text = ""
+		}
+		new File(root, "top.txt").text = "top"
+	}
+
+	void tearDown() {
+		root.deleteDir()
+	}
+
+	/** The output of the serial walk Dir did before. */
+	def expected(File dir) {
+		def out = new StringBuilder("${dir.absolutePath}:\n")
+		def entries = dir.listFiles().sort()
+		entries.each { out << it.name << "\n" }
+		out << "\n"
+		entries.findAll { it.directory }.each { out << expected(it) }
+		return out.toString()
+	}
+
+	void testList() {
+		def names = root.listFiles().collect { it.name }.sort()
+		assert names.join("\n") + "\n" == gsh.list(root.path).text
+	}
+
+	void testRecursiveOrder() {
+		def want = expected(root)
+		3.times {
+			assert want == gsh.list('-R', root.path).text
+		}
+	}
+
+	void testSeveralDirs() {
+		def a = new File(root, "sub1"), b = new File(root, "sub2")
+		def want = "${a.absolutePath}:\n" + a.list().sort().join("\n") + "\n" +
+				"${b.absolutePath}:\n" + b.list().sort().join("\n") + "\n"
+		assert want == gsh.list(a.path, b.path).text
+	}
+
+	void testAttributes() {
+		def lines = gsh.list('-l', new File(root, "sub3").path).text.readLines()
+		assert 6 == lines.size()
+		assert lines[0] ==~ /d +\d+ \d{4}-\d\d-\d\d \d\d:\d\d deeper/
+		assert lines[5] ==~ /- +4 \d{4}-\d\d-\d\d \d\d:\d\d file4/
+	}
+
+	void testReadAhead() {
+		// more directories than are listed ahead of the writer
+		(0..<DirWalker.READ_AHEAD * 2).each { i ->
+			new File(root, "many/dir$i/leaf").mkdirs()
+		}
+		def out = new StringWriter()
+		new DirWalker(true, false).write([root], true, out)
+		assert expected(root) == out.toString()
+	}
+
+	void testWalkersAgree() {
+		def parallel = new StringWriter(), serial = new StringWriter()
+		new DirWalker(true, true).write([root], true, parallel)
+		new FileDirWalker(true, true).write([root], true, serial)
+		assert serial.toString() == parallel.toString()
+	}
+
+	void testMissingDir() {
+		assert "" == gsh.list(new File(root, "nothing").path).text
+	}
+}
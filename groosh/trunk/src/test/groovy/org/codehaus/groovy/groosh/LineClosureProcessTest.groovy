@@ -0,0 +1,118 @@
+//  Groosh -- Provides a shell-like capability for handling external processes
+//
+//  Copyright © 2007 Alexander Egger
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.groovy.groosh
+
+import org.codehaus.groovy.util.Fields
+import org.codehaus.groovy.util.LineReader
+
+class LineClosureProcessTest extends GroovyTestCase {
+
+	def gsh = new groosh.Groosh()
+
+	def words = new File('src/test/resources/words')
+
+	void testFieldsSplitLikeRegex() {
+		def fields = new Fields()
+		['', ' ', 'a', ' a', 'a ', '  a  b\t c  ', 'a\u000Bb\fc', '\t\t', 'a  b'].each {
+			assert it.split("\\s+") as List == fields.split(it).toStrings()
+			assert fields.split(it).collect { f -> f.toString() } == fields.split(it).toStrings()
+		}
+	}
+
+	void testLineReaderTerminators() {
+		// a tiny buffer has to grow and splits the \r\n pairs
+		def reader = new LineReader(new StringReader("a\nbb\r\nccc\rdddddd\r\n\ne"), 2)
+		def lines = []
+		while (reader.next()) lines << reader.line.toString()
+		assert ['a', 'bb', 'ccc', 'dddddd', '', 'e'] == lines
+	}
+
+	void testCharsetAndViews() {
+		def file = File.createTempFile("groosh", ".txt")
+		file.deleteOnExit()
+		file.setText("gr\u00fc\u00dfe\nna\u00efve caf\u00e9\n", "UTF-8")
+
+		def lengths = gsh.each_line(charset: 'UTF-8', views: true) { line, w ->
+			assert line instanceof CharSequence
+			w.write("${line.length()}\n")
+		}
+		gsh.cat(file.path) | lengths
+		assert "5\n10\n" == lengths.text
+
+		def grid = gsh.grid(charset: 'UTF-8', views: true) { fields, w ->
+			w.write("${fields.size()} ${fields[-1]}\n")
+		}
+		gsh.cat(file.path) | grid
+		assert "1 gr\u00fc\u00dfe\n2 caf\u00e9\n" == new String(grid.text.getBytes('ISO-8859-1'), 'UTF-8')
+	}
+
+	void testBatch() {
+		def calls = 0
+		def counted = 0
+		def batches = gsh.each_line(batch: 1000, views: true) { lines, w ->
+			calls++
+			counted += lines.size()
+			lines.each { if (it.contentEquals('Alexia')) w.write("$it\n") }
+		}
+		gsh.cat(words.path) | batches
+		assert "Alexia\n" == batches.text
+
+		def total = words.readLines().size()
+		assert total == counted
+		assert calls >= total / 1000
+		assert calls < total / 100
+	}
+
+	void testGridModesAgree() {
+		def input = words.bytes
+		def out = File.createTempFile("groosh", ".txt")
+		out.deleteOnExit()
+		def match = { CharSequence field, w ->
+			if (field.toString().contains('lexia')) w.write(field.toString() + '\n')
+		}
+		def expected = null
+
+		def stages = [
+			// what GridClosureProcess used to do
+			'split and flush per line': { is, os ->
+				def reader = new BufferedReader(new InputStreamReader(is))
+				def w = new PrintWriter(new OutputStreamWriter(os, "ISO-8859-1"))
+				String line
+				while ((line = reader.readLine()) != null) {
+					match(Arrays.asList(line.split("\\s+"))[0], w)
+					w.flush()
+				}
+			},
+			'default': { is, os ->
+				new GridClosureProcess({ f, w -> match(f[0], w) }).process(is, os)
+			},
+			'views': { is, os ->
+				new GridClosureProcess([views: true], { f, w -> match(f[0], w) }).process(is, os)
+			},
+			'batch of views': { is, os ->
+				new GridClosureProcess([views: true, batch: 1000], { rows, w ->
+					for (f in rows) match(f[0], w)
+				}).process(is, os)
+			}
+		]
+		stages.each { name, stage ->
+			out.withOutputStream { os -> stage(new ByteArrayInputStream(input), os) }
+			if (expected == null)
+				expected = out.text
+			assert expected == out.text
+		}
+		assert expected.readLines().size() == 5
+	}
+}
@@ -0,0 +1,133 @@
+//  Groosh -- Provides a shell-like capability for handling external processes
+//
+//  Copyright © 2007 Alexander Egger
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.groovy.groosh
+
+import java.security.MessageDigest
+import java.util.zip.GZIPInputStream
+
+class ParallelProcessTest extends GroovyTestCase {
+
+	def gsh = new groosh.Groosh()
+
+	def words = new File('src/test/resources/words')
+
+	def lexia = "Alexia\nalexias\nAlexia's\ndyslexia\ndyslexia's\n"
+
+	void testOrderedProcesses() {
+		def grep = gsh.parallel(workers: 4, lines: 5000) { gsh._grep('lexia') }
+		gsh.cat(words.path) | grep
+		assert lexia == grep.text
+	}
+
+	void testUnorderedClosures() {
+		def upper = gsh.parallel(workers: 3, lines: 100, ordered: false) {
+			gsh.each_line { line, w -> if (line.contains('lexia')) w.write(line.toUpperCase() + "\n") }
+		}
+		gsh.cat(words.path) | upper
+		assert lexia.toUpperCase().readLines().sort() == upper.text.readLines().sort()
+	}
+
+	void testCompressChunks() {
+		def gz = File.createTempFile("groosh", ".gz")
+		gz.deleteOnExit()
+		def compress = gsh.parallel(bytes: 256 * 1024, queue: 1) { gsh.gzip('-c') }
+		gsh.cat(words.path) | compress
+		compress.toFile(gz)
+
+		// concatenated gzip members make a valid gzip file
+		assert words.bytes == new GZIPInputStream(gz.newInputStream()).bytes
+	}
+
+	void testTee() {
+		def both = gsh.cat(words.path).tee(gsh._grep('lexia'), gsh._grep('^zoo'))
+		def expected = words.readLines().findAll { it.contains('lexia') || it.startsWith('zoo') }
+		assert expected.sort() == both.text.readLines().sort()
+	}
+
+	void testTeeIntoNextStage() {
+		def counted = gsh.cat(words.path).tee(gsh.cat(), gsh.cat()).setQueueSize(1) | gsh.wc('-l')
+		assert 2 * words.readLines().size() == counted.text.trim() as int
+	}
+
+	void testFailingChunk() {
+		def failing = gsh.parallel(workers: 2, lines: 100, queue: 1) {
+			gsh.each_line { line, w ->
+				if (line == 'A') {
+					// by now the reader has filled the queue
+					Thread.sleep(300)
+					throw new IllegalStateException('bad chunk')
+				}
+				w.write(line + "\n")
+			}
+		}
+		gsh.cat(words.path) | failing
+		def message = shouldFail { failing.text }
+		assert message.contains('bad chunk')
+
+		// the reader must not be left waiting on a full queue
+		assert !lingers { trace -> trace*.methodName.contains('put') }
+		assert !lingers { trace -> trace*.className.contains(workerClass) }
+	}
+
+	void testWorkersAreHandedBack() {
+		[true, false].each { ordered ->
+			def grep = gsh.parallel(workers: 3, lines: 5000, ordered: ordered) { gsh._grep('lexia') }
+			gsh.cat(words.path) | grep
+			assert lexia.readLines().sort() == grep.text.readLines().sort()
+			assert !lingers { trace -> trace*.className.contains(workerClass) }
+		}
+	}
+
+	def workerClass = ParallelProcess.name + '$Worker'
+
+	/**
+	 * @return whether a thread of a parallel stage still matches after 2s
+	 */
+	def lingers(Closure matches) {
+		for (int i = 0; i < 20; i++) {
+			def found = Thread.allStackTraces.values().any { trace ->
+				trace*.className.any { it.startsWith(ParallelProcess.name) } && matches(trace)
+			}
+			if (!found)
+				return false
+			Thread.sleep(100)
+		}
+		return true
+	}
+
+	void testTeeIntoHead() {
+		assert words.length() > 512 * 1024
+		def both = gsh.cat(words.path).tee(gsh.head('-1'), gsh.wc('-l'))
+		def lines = both.text.readLines()*.trim()
+		assert [words.readLines()[0], words.readLines().size() as String].sort() == lines.sort()
+	}
+
+	void testWorkerCountsAgree() {
+		def digest = { line, w ->
+			def md = MessageDigest.getInstance('SHA-1')
+			md.update(line.getBytes('ISO-8859-1'))
+			w.write(new BigInteger(1, md.digest()).toString(16) + "\n")
+		}
+		def expected = null
+		[1, 4].each { workers ->
+			def hashes = gsh.parallel(workers: workers, lines: 10000) { gsh.each_line(digest) }
+			gsh.cat(words.path) | hashes
+			def text = hashes.text
+			if (expected == null)
+				expected = text
+			assert expected == text
+		}
+	}
+}
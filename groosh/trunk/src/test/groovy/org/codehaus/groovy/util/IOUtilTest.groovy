@@ -0,0 +1,66 @@
+//  Groosh -- Provides a shell-like capability for handling external processes
+//
+//  Copyright © 2007 Alexander Egger
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+
+package org.codehaus.groovy.util
+
+import java.nio.channels.Pipe
+import java.util.concurrent.TimeUnit
+
+class IOUtilTest extends GroovyTestCase {
+
+	def gsh = new groosh.Groosh()
+
+	def words = new File('src/test/resources/words')
+
+	def target
+
+	void setUp() {
+		target = File.createTempFile("groosh", "pump")
+	}
+
+	void tearDown() {
+		target.delete()
+	}
+
+	void testFileToFile() {
+		def is = new FileInputStream(words)
+		is.skip(10)
+		assert words.length() - 10 == IOUtil.pumpAsync(is, new FileOutputStream(target)).get()
+		assert Arrays.copyOfRange(words.bytes, 10, words.bytes.length) == target.bytes
+	}
+
+	void testPipeToFile() {
+		def pipe = Pipe.open()
+		def result = IOUtil.pumpAsync(new PipeInputStream(pipe.source()), new FileOutputStream(target))
+		def os = java.nio.channels.Channels.newOutputStream(pipe.sink())
+		os.write(words.bytes)
+		os.close()
+		assert words.length() == result.get(10, TimeUnit.SECONDS)
+		assert words.bytes == target.bytes
+	}
+
+	void testStreamToFile() {
+		assert words.length() == IOUtil.pumpAsync(new ByteArrayInputStream(words.bytes),
+			new FileOutputStream(target)).get()
+		assert words.bytes == target.bytes
+	}
+
+	void testLongPipeline() {
+		def pipeline = gsh.cat(words.path)
+		23.times { pipeline = pipeline | gsh.cat() }
+		pipeline.toFile(target)
+		assert words.bytes == target.bytes
+	}
+}
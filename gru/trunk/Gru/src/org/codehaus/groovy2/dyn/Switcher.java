@@ -32,6 +32,10 @@ public final class Switcher {
     }
   }
   
+  public boolean isValid() {
+    return switchz;
+  }
+  
   public MethodHandle guardWithTest(MethodHandle target, MethodHandle fallback) {
     return MethodHandles.guardWithTest(switchTest, target, fallback);
   }
@@ -33,6 +33,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.codehaus.groovy2.dyn.Switcher;
@@ -43,11 +44,12 @@ import org.codehaus.groovy2.lang.mop.ReflectMethod;
 import org.codehaus.groovy2.lang.mop.ReflectProperty;
 
 public class ClassMetaClass implements MetaClass {
+  // only taken by mutators, readers use the current snapshot
   final ReentrantLock lock =
       new ReentrantLock();
 
-  Switcher switcher;
-  private boolean sealed;
+  final AtomicReference<State> state;
+  private volatile boolean sealed;
 
   private final Class<?> type;
   
@@ -58,19 +60,59 @@ public class ClassMetaClass implements MetaClass {
   final LinkedList<WeakReference<MetaClass>> subTypes =
       new LinkedList<WeakReference<MetaClass>>();
 
-  private HashMap<String, Attribute> attributeMap;                   // lazy populated
-  private HashMap<String, Property> propertyMap;                     // lazy populated
-  private HashMap<FunctionType, Method> constructorMap;              // lazy populated
-  private List<Method> methods;                                      // lazy populated
-  private HashMap<String, HashMap<FunctionType, Method>> methodMap;  // lazy populated
+  /** An immutable view of the metaclass, a mutation publishes a new one with a new switcher.
+   *  The lazy populated maps are published by creating a copy of the snapshot.
+   */
+  static final class State {
+    final Switcher switcher;
+    final List<Method> addedMethods;                                 // may be null
+    final List<Property> addedProperties;                            // may be null
+    final MethodResolver.ResolutionCache resolutionCache;            // shared by the copies
+
+    final HashMap<String, Attribute> attributeMap;                   // lazy populated
+    final HashMap<String, Property> propertyMap;                     // lazy populated
+    final HashMap<FunctionType, Method> constructorMap;              // lazy populated
+    final List<Method> methods;                                      // lazy populated
+    final HashMap<String, HashMap<FunctionType, Method>> methodMap;  // lazy populated
+
+    State(Switcher switcher, List<Method> addedMethods, List<Property> addedProperties) {
+      this(switcher, addedMethods, addedProperties, new MethodResolver.ResolutionCache(), null, null, null, null, null);
+    }
+
+    private State(Switcher switcher, List<Method> addedMethods, List<Property> addedProperties,
+        MethodResolver.ResolutionCache resolutionCache,
+        HashMap<String, Attribute> attributeMap, HashMap<String, Property> propertyMap,
+        HashMap<FunctionType, Method> constructorMap,
+        List<Method> methods, HashMap<String, HashMap<FunctionType, Method>> methodMap) {
+      this.switcher = switcher;
+      this.addedMethods = addedMethods;
+      this.addedProperties = addedProperties;
+      this.resolutionCache = resolutionCache;
+      this.attributeMap = attributeMap;
+      this.propertyMap = propertyMap;
+      this.constructorMap = constructorMap;
+      this.methods = methods;
+      this.methodMap = methodMap;
+    }
+
+    State withAttributes(HashMap<String, Attribute> attributeMap) {
+      return new State(switcher, addedMethods, addedProperties, resolutionCache, attributeMap, propertyMap, constructorMap, methods, methodMap);
+    }
+    State withProperties(HashMap<String, Property> propertyMap) {
+      return new State(switcher, addedMethods, addedProperties, resolutionCache, attributeMap, propertyMap, constructorMap, methods, methodMap);
+    }
+    State withConstructors(HashMap<FunctionType, Method> constructorMap) {
+      return new State(switcher, addedMethods, addedProperties, resolutionCache, attributeMap, propertyMap, constructorMap, methods, methodMap);
+    }
+    State withMethods(List<Method> methods, HashMap<String, HashMap<FunctionType, Method>> methodMap) {
+      return new State(switcher, addedMethods, addedProperties, resolutionCache, attributeMap, propertyMap, constructorMap, methods, methodMap);
+    }
+  }
 
-  ArrayList<Method> addedMethods;                                    // lazy populated
-  ArrayList<Property> addedProperties;                               // lazy populated
-  
   public ClassMetaClass(Class<?> type) {
     this.type = type;
 
-    this.switcher = new Switcher();
+    this.state = new AtomicReference<State>(new State(new Switcher(), null, null));
 
     // init hierarchy
     ArrayList<MetaClass> superTypes = new ArrayList<MetaClass>();
@@ -157,16 +199,9 @@ public class ClassMetaClass implements MetaClass {
 
   @Override
   public MOPResult mopInvoke(MOPInvokeEvent mopEvent) { 
-    Switcher switcher;
-    HashMap<String, HashMap<FunctionType, Method>> methodMap;
-    lock.lock();
-    try {
-      getMethods(); // lazy initialize
-      methodMap = this.methodMap;
-      switcher = this.switcher;
-    } finally {
-      lock.unlock();
-    }
+    State state = methodState();
+    Switcher switcher = state.switcher;
+    HashMap<String, HashMap<FunctionType, Method>> methodMap = state.methodMap;
 
     String name = mopEvent.getName();
     HashMap<FunctionType, Method> map = methodMap.get(name);
@@ -179,20 +214,13 @@ public class ClassMetaClass implements MetaClass {
     }
 
     FunctionType signature = mopEvent.getSignature().dropFirstParameter();
-    return asMOPResult(switcher, MethodResolver.resolve(this, map, mopEvent.isStatic(), signature, false, mopEvent.getFallback()));
+    return asMOPResult(switcher, state.resolutionCache.resolve(this, name, map, mopEvent.isStatic(), signature, false, mopEvent.getFallback()));
   }
 
   public MOPResult mopDoCall(MOPInvokeEvent mopEvent) {
-    Switcher switcher;
-    HashMap<String, HashMap<FunctionType, Method>> methodMap;
-    lock.lock();
-    try {
-      getMethods(); // lazy initialize
-      methodMap = this.methodMap;
-      switcher = this.switcher;
-    } finally {
-      lock.unlock();
-    }
+    State state = methodState();
+    Switcher switcher = state.switcher;
+    HashMap<String, HashMap<FunctionType, Method>> methodMap = state.methodMap;
     
     HashMap<FunctionType, Method> map = methodMap.get("asMethodHandle");
     if (map == null || map.size() != 1) {
@@ -208,38 +236,24 @@ public class ClassMetaClass implements MetaClass {
   }
   
   public MOPResult mopMissingInvoke(MOPInvokeEvent mopEvent) {
-    return asMOPResult(switcher, Failures.fail("no method "+mopEvent.getName()+" defined for metaclass "+this));
+    return asMOPResult(state.get().switcher, Failures.fail("no method "+mopEvent.getName()+" defined for metaclass "+this));
   }
   
   @Override
   public MOPResult mopNewInstance(MOPNewInstanceEvent mopEvent) {
-    Switcher switcher; 
-    HashMap<FunctionType, Method> constructorMap;
-    lock.lock();
-    try {
-      getContructors(); // lazy initialize
-      constructorMap = this.constructorMap;
-      switcher = this.switcher;
-    } finally {
-      lock.unlock();
-    }
+    State state = constructorState();
+    Switcher switcher = state.switcher;
+    HashMap<FunctionType, Method> constructorMap = state.constructorMap;
 
     FunctionType signature = mopEvent.getSignature().dropFirstParameter();
-    return asMOPResult(switcher, MethodResolver.resolve(this, constructorMap, true, signature, false, mopEvent.getReset()));
+    return asMOPResult(switcher, state.resolutionCache.resolve(this, "<init>", constructorMap, true, signature, false, mopEvent.getReset()));
   }
 
   @Override
   public MOPResult mopOperator(MOPOperatorEvent mopEvent) {
-    Switcher switcher;
-    HashMap<String, HashMap<FunctionType, Method>> methodMap;
-    lock.lock();
-    try {
-      getMethods(); // lazy initialize
-      methodMap = this.methodMap;
-      switcher = this.switcher;
-    } finally {
-      lock.unlock();
-    }
+    State state = methodState();
+    Switcher switcher = state.switcher;
+    HashMap<String, HashMap<FunctionType, Method>> methodMap = state.methodMap;
     String name = mopEvent.getName();
     HashMap<FunctionType, Method> map = methodMap.get(name);
     if (map == null) {
@@ -247,21 +261,14 @@ public class ClassMetaClass implements MetaClass {
     }
 
     FunctionType signature = mopEvent.getSignature().dropFirstParameter();
-    return asMOPResult(switcher, MethodResolver.resolve(this, map, false, signature, false, mopEvent.getReset()));
+    return asMOPResult(switcher, state.resolutionCache.resolve(this, name, map, false, signature, false, mopEvent.getReset()));
   }
 
   @Override
   public MOPResult mopGetProperty(MOPPropertyEvent mopEvent) {
-    Switcher switcher;
-    HashMap<String, Property> propertyMap;
-    lock.lock();
-    try {
-      getProperties();  // lazy init
-      propertyMap = this.propertyMap;
-      switcher = this.switcher;
-    } finally {
-      lock.unlock();
-    }
+    State state = propertyState();
+    Switcher switcher = state.switcher;
+    HashMap<String, Property> propertyMap = state.propertyMap;
 
     String name = mopEvent.getName();
     Property property = propertyMap.get(name);
@@ -273,15 +280,9 @@ public class ClassMetaClass implements MetaClass {
       return asMOPResult(switcher, getter);
     }
 
-    HashMap<String, Attribute> attributeMap;
-    lock.lock();
-    try {
-      getAttributes();  // lazy init
-      attributeMap = this.attributeMap;
-      switcher = this.switcher;
-    } finally {
-      lock.unlock();
-    }
+    state = attributeState();
+    switcher = state.switcher;
+    HashMap<String, Attribute> attributeMap = state.attributeMap;
 
     Attribute attribute = attributeMap.get(name);
     if (attribute != null && (getter=attribute.getGetter()) != null) {
@@ -295,15 +296,9 @@ public class ClassMetaClass implements MetaClass {
   }
 
   public MOPResult mopMissingGetProperty(MOPPropertyEvent mopEvent) {
-    Switcher switcher;
-    Collection<Method> methods;
-    lock.lock();
-    try {
-      methods = getMethodsByName("getProperty2");
-      switcher = this.switcher;
-    } finally {
-      lock.unlock();
-    }
+    State state = methodState();
+    Switcher switcher = state.switcher;
+    Collection<Method> methods = getMethodsByName(state, "getProperty2");
     
     switch (methods.size()) {
     case 0: // fallthrough
@@ -322,16 +317,9 @@ public class ClassMetaClass implements MetaClass {
   
   @Override
   public MOPResult mopSetProperty(MOPPropertyEvent mopEvent) {
-    Switcher switcher;
-    HashMap<String, Property> propertyMap;
-    lock.lock();
-    try {
-      getProperties();  // lazy init
-      propertyMap = this.propertyMap;
-      switcher = this.switcher;
-    } finally {
-      lock.unlock();
-    }
+    State state = propertyState();
+    Switcher switcher = state.switcher;
+    HashMap<String, Property> propertyMap = state.propertyMap;
 
     String name = mopEvent.getName();
     Property property = propertyMap.get(name);
@@ -343,15 +331,9 @@ public class ClassMetaClass implements MetaClass {
       return asMOPResult(switcher, setter);
     }
 
-    HashMap<String, Attribute> attributeMap;
-    lock.lock();
-    try {
-      getAttributes();  // lazy init
-      attributeMap = this.attributeMap;
-      switcher = this.switcher;
-    } finally {
-      lock.unlock();
-    }
+    state = attributeState();
+    switcher = state.switcher;
+    HashMap<String, Attribute> attributeMap = state.attributeMap;
 
     Attribute attribute = attributeMap.get(name);
     if (attribute != null && (setter = attribute.getSetter()) != null) {
@@ -365,15 +347,9 @@ public class ClassMetaClass implements MetaClass {
   }
   
   public MOPResult mopMissingSetProperty(MOPPropertyEvent mopEvent) {
-    Collection<Method> methods;
-    Switcher switcher;
-    lock.lock();
-    try {
-      methods = getMethodsByName("setProperty2");
-      switcher = this.switcher;
-    } finally {
-      lock.unlock();
-    }
+    State state = methodState();
+    Switcher switcher = state.switcher;
+    Collection<Method> methods = getMethodsByName(state, "setProperty2");
 
     switch (methods.size()) {
     case 0: // fallthrough
@@ -409,7 +385,7 @@ public class ClassMetaClass implements MetaClass {
       Closure closure = new JVMClosure(false, MethodHandles.insertArguments(target.asMethodHandle(), 0, type));
       return new MOPResult(closure, result.getConditions());
     }*/
-    return asMOPResult(switcher, Failures.fail("no conversion from " + this+ " to " + mopEvent.getSignature().getReturnType()));
+    return asMOPResult(state.get().switcher, Failures.fail("no conversion from " + this+ " to " + mopEvent.getSignature().getReturnType()));
   }
 
   
@@ -442,16 +418,8 @@ public class ClassMetaClass implements MetaClass {
   
   // -- Mutation -----------------------------------------
 
-  //TODO sealed can be volatile
-
   public boolean isSealed() {
-    ReentrantLock lock = this.lock;
-    lock.lock();
-    try {
-      return sealed;
-    } finally {
-      lock.unlock();
-    }
+    return sealed;
   }
 
 
@@ -480,27 +448,30 @@ public class ClassMetaClass implements MetaClass {
     }
   }*/
 
-  private void flushLocalCache() {
-    assert lock.isHeldByCurrentThread();
-
-    attributeMap = null;
-    propertyMap = null;
-    methods = null;
-    methodMap = null;
-    constructorMap = null;
+  void invalidateAll() {
+    invalidateAll(null, null);
   }
 
-  void invalidateAll() {
+  private void invalidateAll(List<Method> addedMethods, List<Property> addedProperties) {
     assert lock.isHeldByCurrentThread();
 
     //System.out.println("invalidateAll "+type);
 
-    flushLocalCache();
-
-    // all future callsite paths will be protected with a new Switcher
-    Switcher switcher = this.switcher;
-    this.switcher = new Switcher();
-    Switcher.invalidateAll(switcher);
+    // all future callsite paths will be protected with a new Switcher,
+    // the new snapshot has no lazy populated maps so the local cache is flushed
+    Switcher newSwitcher = new Switcher();
+    State state;
+    for(;;) {
+      state = this.state.get();
+      State newState = new State(newSwitcher,
+          append(state.addedMethods, addedMethods),
+          append(state.addedProperties, addedProperties));
+      if (this.state.compareAndSet(state, newState)) {
+        break;
+      }
+      // a reader has published a lazy populated map, retry
+    }
+    Switcher.invalidateAll(state.switcher);
 
     for(Iterator<WeakReference<MetaClass>> it = subTypes.iterator(); it.hasNext();) {
       WeakReference<MetaClass> reference = it.next();
@@ -531,8 +502,20 @@ public class ClassMetaClass implements MetaClass {
     return new Mutator();
   }
 
+  private static <E> List<E> append(List<E> list, List<E> added) {
+    if (added == null) {
+      return list;
+    }
+    ArrayList<E> result = (list == null)? new ArrayList<E>(): new ArrayList<E>(list);
+    result.addAll(added);
+    return Collections.unmodifiableList(result);
+  }
+
   public class Mutator implements MetaClassMutator {
     private boolean mutation;
+    private ArrayList<Method> addedMethods;         // published on close
+    private ArrayList<Property> addedProperties;    // published on close
+
     Mutator() {
       lock.lock();
     }
@@ -541,7 +524,7 @@ public class ClassMetaClass implements MetaClass {
     public void close() {
       try {
         if (mutation) {
-          invalidateAll();
+          invalidateAll(addedMethods, addedProperties);
         }
       } finally {
         lock.unlock();
@@ -629,50 +612,24 @@ public class ClassMetaClass implements MetaClass {
 
   @Override
   public Attribute findAttribute(String name) {
-    lock.lock();
-    try {
-      getAttributes();  // lazy init
-      return attributeMap.get(name);
-    } finally {
-      lock.unlock();
-    }
+    return attributeState().attributeMap.get(name);
   }
 
   @Override
   public Property findProperty(String name) {
-    lock.lock();
-    try {
-      getProperties();  // lazy init
-      return propertyMap.get(name);
-    } finally {
-      lock.unlock();
-    }
+    return propertyState().propertyMap.get(name);
   }
 
   @Override
   public Collection<Method> findConstructors(MetaClass... compatibleTypes) {
     FunctionType functionType = new FunctionType(this, compatibleTypes);
-    HashMap<FunctionType, Method> constructorMap;
-    lock.lock();
-    try {  
-      getContructors();  // lazy init
-      constructorMap = this.constructorMap;
-    } finally {
-      lock.unlock();
-    }
+    HashMap<FunctionType, Method> constructorMap = constructorState().constructorMap;
     return MethodResolver.getMostSpecificMethods(this, constructorMap, functionType, false);
   }
 
   @Override
   public Collection<Method> findMethods(String name, MetaClass... compatibleTypes) {
-    HashMap<FunctionType, Method> map;
-    lock.lock();
-    try {  
-      getMethods();  // lazy init
-      map = methodMap.get(name);
-    } finally {
-      lock.unlock();
-    }
+    HashMap<FunctionType, Method> map = methodState().methodMap.get(name);
     FunctionType functionType = new FunctionType(RT.getMetaClass(Object.class), compatibleTypes);
     return MethodResolver.getMostSpecificMethods(this, map, functionType, false);
   }
@@ -681,17 +638,30 @@ public class ClassMetaClass implements MetaClass {
 
   @Override
   public Collection<Attribute> getAttributes() {
-    lock.lock();
-    try {
-      HashMap<String, Attribute> attributeMap = this.attributeMap;
-      if (attributeMap == null) {
-        attributeMap = new HashMap<String, Attribute>();
-        populateAttributeMap(attributeMap);
-        this.attributeMap = attributeMap;
+    return Collections.unmodifiableCollection(attributeState().attributeMap.values());
+  }
+
+  // lazy populated maps are computed without lock and published if the snapshot
+  // has not changed, a concurrent mutation installs a new switcher so a result
+  // computed from a stale snapshot is still guarded by the stale switcher
+
+  private State attributeState() {
+    State state = this.state.get();
+    if (state.attributeMap != null) {
+      return state;
+    }
+    HashMap<String, Attribute> attributeMap = new HashMap<String, Attribute>();
+    populateAttributeMap(attributeMap);
+    for(;;) {
+      State newState = state.withAttributes(attributeMap);
+      if (this.state.compareAndSet(state, newState)) {
+        return newState;
       }
-      return Collections.unmodifiableCollection(attributeMap.values());
-    } finally {
-      lock.unlock();
+      State current = this.state.get();
+      if (current.switcher != state.switcher) {
+        return newState;
+      }
+      state = current;
     }
   }
 
@@ -719,17 +689,27 @@ public class ClassMetaClass implements MetaClass {
 
   @Override
   public Collection<Property> getProperties() {
-    lock.lock();
-    try {
-      HashMap<String, Property> propertyMap = this.propertyMap;
-      if (propertyMap == null) {
-        propertyMap = new HashMap<String, Property>();
-        populatePropertyMap(propertyMap, getMethods());
-        this.propertyMap = propertyMap;
+    return Collections.unmodifiableCollection(propertyState().propertyMap.values());
+  }
+
+  private State propertyState() {
+    State state = this.state.get();
+    if (state.propertyMap != null) {
+      return state;
+    }
+    state = methodState();
+    HashMap<String, Property> propertyMap = new HashMap<String, Property>();
+    populatePropertyMap(propertyMap, state);
+    for(;;) {
+      State newState = state.withProperties(propertyMap);
+      if (this.state.compareAndSet(state, newState)) {
+        return newState;
       }
-      return Collections.unmodifiableCollection(propertyMap.values());
-    } finally {
-      lock.unlock();
+      State current = this.state.get();
+      if (current.switcher != state.switcher) {
+        return newState;
+      }
+      state = current;
     }
   }
 
@@ -748,11 +728,11 @@ public class ClassMetaClass implements MetaClass {
     return entry;
   }
 
-  private void populatePropertyMap(HashMap<String, Property> propertyMap, Collection<Method> methods) {
+  private void populatePropertyMap(HashMap<String, Property> propertyMap, State state) {
     for(MetaClass superType: getSuperTypes()) {
       if (superType instanceof ClassMetaClass) {
         ClassMetaClass superTypeAsRaw = (ClassMetaClass)superType;
-        superTypeAsRaw.populatePropertyMap(propertyMap, superTypeAsRaw.getMethods());  
+        superTypeAsRaw.populatePropertyMap(propertyMap, superTypeAsRaw.methodState());  
       } else {
         for(Property property: superType.getProperties()) {
           propertyMap.put(property.getName(), property);
@@ -762,7 +742,7 @@ public class ClassMetaClass implements MetaClass {
 
     HashMap<String, AccessorsEntry> accessorMap =
         new HashMap<String, AccessorsEntry>();
-    for (Method method : methods) {
+    for (Method method : state.methods) {
       String name = method.getName();
       if (name.length() > 3 && name.startsWith("get") &&
           method.getParameterCount() == 1) {
@@ -806,6 +786,7 @@ public class ClassMetaClass implements MetaClass {
     }
     
     // add user defined properties
+    List<Property> addedProperties = state.addedProperties;
     if (addedProperties != null) {
       for(Property property: addedProperties) {
         propertyMap.put(property.getName(), property);
@@ -816,49 +797,57 @@ public class ClassMetaClass implements MetaClass {
 
   @Override
   public Collection<Method> getMethodsByName(String name) {
-    lock.lock();
-    try {
-      getMethods(); // lazy allocated
-      HashMap<FunctionType, Method> map = methodMap.get(name);
-      if (map == null) {
-        return Collections.emptySet();
-      }
-      if (map.size() == 1) {
-        return Collections.singleton(map.values().iterator().next());
-      }
-      ArrayList<Method> clone = new ArrayList<Method>(map.values());
-      return Collections.unmodifiableCollection(clone);
-    } finally {
-      lock.unlock();
+    return getMethodsByName(methodState(), name);
+  }
+
+  private static Collection<Method> getMethodsByName(State state, String name) {
+    HashMap<FunctionType, Method> map = state.methodMap.get(name);
+    if (map == null) {
+      return Collections.emptySet();
+    }
+    if (map.size() == 1) {
+      return Collections.singleton(map.values().iterator().next());
     }
+    ArrayList<Method> clone = new ArrayList<Method>(map.values());
+    return Collections.unmodifiableCollection(clone);
   }
   
   @Override
   public Collection<Method> getMethods() {
-    lock.lock();
-    try {
-      List<Method> methods = this.methods;
-      if (methods == null) {
-        HashMap<String, HashMap<FunctionType, Method>> methodMap = new HashMap<String, HashMap<FunctionType, Method>>();
-        populateMethodMap(methodMap);
-        this.methodMap = methodMap;
-
-        methods = new ArrayList<Method>();
-        for(HashMap<FunctionType, Method> map: methodMap.values()) {
-          methods.addAll(map.values());
-        }
-        this.methods = Collections.unmodifiableList(methods);
+    return methodState().methods;
+  }
+
+  private State methodState() {
+    State state = this.state.get();
+    if (state.methodMap != null) {
+      return state;
+    }
+    HashMap<String, HashMap<FunctionType, Method>> methodMap = new HashMap<String, HashMap<FunctionType, Method>>();
+    populateMethodMap(methodMap, state);
+
+    ArrayList<Method> methodList = new ArrayList<Method>();
+    for(HashMap<FunctionType, Method> map: methodMap.values()) {
+      methodList.addAll(map.values());
+    }
+    List<Method> methods = Collections.unmodifiableList(methodList);
+    for(;;) {
+      State newState = state.withMethods(methods, methodMap);
+      if (this.state.compareAndSet(state, newState)) {
+        return newState;
       }
-      return methods;
-    } finally {
-      lock.unlock();
+      State current = this.state.get();
+      if (current.switcher != state.switcher) {
+        return newState;
+      }
+      state = current;
     }
   }
 
-  private void populateMethodMap(HashMap<String, HashMap<FunctionType, Method>> methodMap) {
+  private void populateMethodMap(HashMap<String, HashMap<FunctionType, Method>> methodMap, State state) {
     for(MetaClass superType: getSuperTypes()) {
       if (superType instanceof ClassMetaClass) {
-        ((ClassMetaClass)superType).populateMethodMap(methodMap);  
+        ClassMetaClass superTypeAsRaw = (ClassMetaClass)superType;
+        superTypeAsRaw.populateMethodMap(methodMap, superTypeAsRaw.state.get());  
       } else {
         for(Method method: superType.getMethods()) {
           String name = method.getName();
@@ -915,6 +904,7 @@ public class ClassMetaClass implements MetaClass {
     }
     
     // add user-added method
+    List<Method> addedMethods = state.addedMethods;
     if (addedMethods != null) {
       for(Method method: addedMethods) {
         addMethodInCache(methodMap, method);
@@ -942,19 +932,27 @@ public class ClassMetaClass implements MetaClass {
 
   @Override
   public Collection<Method> getContructors() {
-    HashMap<FunctionType, Method> constructorMap;
-    lock.lock();
-    try {
-      constructorMap = this.constructorMap;
-      if (constructorMap == null) {
-        constructorMap = new HashMap<FunctionType, Method>();
-        populateConstructorMap(constructorMap);
-        this.constructorMap = constructorMap;
+    return Collections.unmodifiableCollection(constructorState().constructorMap.values());
+  }
+
+  private State constructorState() {
+    State state = this.state.get();
+    if (state.constructorMap != null) {
+      return state;
+    }
+    HashMap<FunctionType, Method> constructorMap = new HashMap<FunctionType, Method>();
+    populateConstructorMap(constructorMap);
+    for(;;) {
+      State newState = state.withConstructors(constructorMap);
+      if (this.state.compareAndSet(state, newState)) {
+        return newState;
       }
-    } finally {
-      lock.unlock();
+      State current = this.state.get();
+      if (current.switcher != state.switcher) {
+        return newState;
+      }
+      state = current;
     }
-    return Collections.unmodifiableCollection(constructorMap.values());
   }
 
   private void populateConstructorMap(HashMap<FunctionType, Method> constructorMap) {
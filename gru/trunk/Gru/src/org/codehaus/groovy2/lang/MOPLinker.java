@@ -18,6 +18,9 @@ import java.dyn.MutableCallSite;
 import java.dyn.NoAccessException;
 import java.util.HashMap;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.codehaus.groovy2.dyn.Switcher;
 
@@ -37,6 +40,11 @@ public class MOPLinker {
     }
   }
   
+  /** maximum number of receiver class guards chained at a call site
+   *  before it becomes megamorphic.
+   */
+  static final int PIC_DEPTH = Integer.getInteger("groovy2.pic.depth", 8);
+  
   private static final HashMap<String, MOPKind> indexMap;
   static {
     HashMap<String, MOPKind> map = new HashMap<String, MOPKind>();
@@ -80,6 +88,12 @@ public class MOPLinker {
       reset = reset.asCollector(Object[].class, type.parameterCount());
       reset = MethodHandles.convertArguments(reset, type);
       callSite.reset = reset;
+      callSite.fallback = target;
+      
+      MethodHandle dispatcher = MethodHandles.insertArguments(MEGAMORPHIC, 0, callSite);
+      dispatcher = dispatcher.asCollector(Object[].class, type.parameterCount());
+      dispatcher = MethodHandles.convertArguments(dispatcher, type);
+      callSite.dispatcher = dispatcher;
       
       callSite.lazy = true;
       
@@ -97,13 +111,32 @@ public class MOPLinker {
   
   
   
-  static class MOPCallSite extends MutableCallSite {
+  /** A call site is an inline cache: a chain of receiver class guards,
+   *  at most {@link MOPLinker#PIC_DEPTH} long. On the next miss, the call site
+   *  becomes megamorphic, the chain is dropped and the targets are looked up
+   *  by receiver class in a per call site map.
+   */
+  public static class MOPCallSite extends MutableCallSite {
     final Class<?> declaringClass;
     final MOPKind mopKind;
     final String name;
     MethodHandle reset;
+    MethodHandle fallback;
+    MethodHandle dispatcher;
     volatile boolean lazy;
     
+    // inline cache state, races between relinking threads may lose
+    // a depth update, this only costs an extra fallback
+    volatile int depth;
+    final AtomicBoolean megamorphic = new AtomicBoolean();
+    final ConcurrentHashMap<Class<?>, MethodHandle> targets =
+      new ConcurrentHashMap<Class<?>, MethodHandle>();
+    final ConcurrentHashMap<Class<?>, MethodHandle> staticTargets =
+      new ConcurrentHashMap<Class<?>, MethodHandle>();
+    
+    final AtomicInteger relinks = new AtomicInteger();
+    final AtomicInteger megamorphicTransitions = new AtomicInteger();
+    
     public MOPCallSite(MethodType type, Class<?> declaringClass, MOPKind mopKind, String name) {
       super(type);
       this.declaringClass = declaringClass;
@@ -111,6 +144,36 @@ public class MOPLinker {
       this.name = name;
     }
     
+    /** Returns the number of times the call site was linked to a new target.
+     */
+    public int getRelinks() {
+      return relinks.get();
+    }
+    
+    /** Returns the number of receiver class guards currently chained.
+     */
+    public int getDepth() {
+      return depth;
+    }
+    
+    public boolean isMegamorphic() {
+      return megamorphic.get();
+    }
+    
+    /** Returns the number of times the call site became megamorphic,
+     *  it is reset to an empty inline cache when a switcher is invalidated.
+     */
+    public int getMegamorphicTransitions() {
+      return megamorphicTransitions.get();
+    }
+    
+    void clearCache() {
+      depth = 0;
+      megamorphic.set(false);
+      targets.clear();
+      staticTargets.clear();
+    }
+    
     @Override
     public String toString() {
       return "CS: "+declaringClass.getName()+'.'+mopKind+'$'+name;
@@ -151,7 +214,10 @@ public class MOPLinker {
         return target.invokeWithArguments(args);
       }
       
-      MethodHandle oldTarget = callSite.getTarget(); 
+      callSite.relinks.incrementAndGet();
+      
+      // a megamorphic call site has no chain to fall back to
+      MethodHandle oldTarget = (callSite.megamorphic.get())? callSite.fallback: callSite.getTarget(); 
       MOPResult result = upcallMOP(callSite.mopKind, metaClass, callSite.lazy, oldTarget, callSite.reset, callSite.declaringClass, isStatic, callSite.name, dynamicType);
 
       //System.out.println("mop resolved "+result.getTarget());
@@ -176,17 +242,35 @@ public class MOPLinker {
 
       if (!isReceiverClassPrimitive) {
         // the receiver class is not a primitive, so it's a polymorphic call
-        // install a guard to check the receiver class
+        // for a static call, the receiver is the class itself
+        Class<?> guardClass = (isStatic)? (Class<?>)args[0]: receiverClass;
+        
+        if (callSite.megamorphic.get() || callSite.depth >= PIC_DEPTH) {
+          if (callSite.megamorphic.compareAndSet(false, true)) {
+            callSite.megamorphicTransitions.incrementAndGet();
+          }
+          ((isStatic)? callSite.staticTargets: callSite.targets).put(guardClass, target);
+          installDispatcher(callSite);
+          return mh.invokeWithArguments(args);
+        }
         
+        // install a guard to check the receiver class
         MethodHandle test = (isStatic)? INSTANCE_CHECK: CLASS_CHECK;
-        test = MethodHandles.insertArguments(test, 0, receiverClass);
+        test = MethodHandles.insertArguments(test, 0, guardClass);
         test = MethodHandles.convertArguments(test, MethodType.methodType(boolean.class, type.parameterType(0)));
 
         target = MethodHandles.guardWithTest(test, target, oldTarget);
+        callSite.depth++;
       }
       
       callSite.setTarget(target);
       
+      // another thread may have made the call site megamorphic while
+      // this chain was built, don't let the chain replace its dispatcher
+      if (callSite.megamorphic.get()) {
+        installDispatcher(callSite);
+      }
+      
       //System.out.println("mh "+mh);
       //System.out.println("mh.type() "+mh.type());
       return mh.invokeWithArguments(args);
@@ -197,6 +281,24 @@ public class MOPLinker {
     }
   }
   
+  public static Object megamorphic(MOPCallSite callSite, Object[] args) throws Throwable {
+    Object receiver = args[0];
+    Class<?> receiverClass = receiver.getClass();
+    MethodHandle target = (receiverClass == Class.class)?
+        callSite.staticTargets.get((Class<?>)receiver):
+        callSite.targets.get(receiverClass);
+    if (target == null) {
+      return fallback(callSite, args);
+    }
+    return target.invokeWithArguments(args);
+  }
+  
+  private static void installDispatcher(MOPCallSite callSite) {
+    if (callSite.getTarget() != callSite.dispatcher) {
+      callSite.setTarget(callSite.dispatcher);
+    }
+  }
+  
   private static MethodHandle prependSwitcherGuards(MethodHandle target, Set<Switcher> conditions, MethodHandle reset) {
     for(Switcher switcher: conditions) {
       target = switcher.guardWithTest(target, reset);
@@ -213,6 +315,7 @@ public class MOPLinker {
     // But because fallback install the guard before the fallback tree,
     // the semantics will be ok, the MH tree will just contains dead code.
     callSite.setTarget(fallback);
+    callSite.clearCache();
     
     // start with a fresh callsite, new generated target can be lazy
     callSite.lazy = true;     // volatile write, force target to be written
@@ -278,6 +381,7 @@ public class MOPLinker {
   private static final MethodHandle CLASS_CHECK;
   private static final MethodHandle FALLBACK;
   private static final MethodHandle RESET;
+  private static final MethodHandle MEGAMORPHIC;
   static {
     try {
       Lookup lookup = MethodHandles.publicLookup();
@@ -289,6 +393,8 @@ public class MOPLinker {
           MethodType.methodType(Object.class, MOPCallSite.class, Object[].class));
       RESET = lookup.findStatic(MOPLinker.class, "reset",
           MethodType.methodType(Object.class, MOPCallSite.class, MethodHandle.class, Object[].class));
+      MEGAMORPHIC = lookup.findStatic(MOPLinker.class, "megamorphic",
+          MethodType.methodType(Object.class, MOPCallSite.class, Object[].class));
     } catch (NoAccessException e) {
       throw new LinkageError(e.getMessage(), e);
     }
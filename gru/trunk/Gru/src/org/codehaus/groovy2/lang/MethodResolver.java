@@ -20,6 +20,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.codehaus.groovy2.dyn.Switcher;
 import org.codehaus.groovy2.lang.mop.ReflectClosure;
@@ -75,6 +76,63 @@ public class MethodResolver {
     }
   }
   
+  /** Memoizes resolve() for a metaclass, a new cache is used each time the metaclass switcher
+   *  is invalidated. A cached result guarded by an invalidated switcher is resolved again.
+   */
+  public static final class ResolutionCache {
+    private final ConcurrentHashMap<Key, MOPResult> resultMap =
+        new ConcurrentHashMap<Key, MOPResult>();
+
+    static final class Key {
+      private final String name;
+      private final FunctionType signature;
+      private final boolean isStatic;
+      private final boolean allowConversions;
+
+      Key(String name, FunctionType signature, boolean isStatic, boolean allowConversions) {
+        this.name = name;
+        this.signature = signature;
+        this.isStatic = isStatic;
+        this.allowConversions = allowConversions;
+      }
+
+      @Override
+      public int hashCode() {
+        return name.hashCode() ^ signature.hashCode() ^ (isStatic? 1: 0) ^ (allowConversions? 2: 0);
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+        if (!(obj instanceof Key)) {
+          return false;
+        }
+        Key key = (Key)obj;
+        return isStatic == key.isStatic && allowConversions == key.allowConversions &&
+            name.equals(key.name) && signature.equals(key.signature);
+      }
+    }
+
+    public MOPResult resolve(MetaClass metaClass, String name, Map<FunctionType, Method> methodMap, boolean isStatic, FunctionType signature, boolean allowConversions, MethodHandle reset) {
+      Key key = new Key(name, signature, isStatic, allowConversions);
+      MOPResult result = resultMap.get(key);
+      if (result != null && isValid(result)) {
+        return result;
+      }
+      result = MethodResolver.resolve(metaClass, methodMap, isStatic, signature, allowConversions, reset);
+      resultMap.put(key, result);
+      return result;
+    }
+
+    private static boolean isValid(MOPResult result) {
+      for(Switcher switcher: result.getConditions()) {
+        if (!switcher.isValid()) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
   // this code use the same algorithm as resolve(), should be updated accordingly
   public static List<Method> getMostSpecificMethods(MetaClass metaClass, Map<FunctionType, Method> methodMap, FunctionType signature, boolean allowConversions) {
     Method method = methodMap.get(signature);  // short-cut
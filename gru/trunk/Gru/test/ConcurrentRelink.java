@@ -0,0 +1,95 @@
+import groovy2.lang.FunctionType;
+import groovy2.lang.MetaClass;
+import groovy2.lang.MetaClassMutator;
+import groovy2.lang.mop.MOPInvokeEvent;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.codehaus.groovy2.lang.RT;
+
+// relinks the same call on a hot metaclass from many threads while another thread mutates it
+// java -XX:+UnlockExperimentalVMOptions -XX:+EnableInvokeDynamic -cp .:../classes ConcurrentRelink [threads] [seconds] [mutationMillis]
+public class ConcurrentRelink {
+  public static String twice(String s) {
+    return s + s;
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int threadCount = (args.length > 0)? Integer.parseInt(args[0]): 16;
+    int seconds = (args.length > 1)? Integer.parseInt(args[1]): 10;
+    final int mutationMillis = (args.length > 2)? Integer.parseInt(args[2]): 100;
+
+    final MetaClass stringMetaClass = RT.getMetaClass(String.class);
+    final MetaClass mixMetaClass = RT.getMetaClass(ConcurrentRelink.class);
+    final FunctionType signature = new FunctionType(RT.getMetaClass(int.class), stringMetaClass);
+
+    final AtomicLong relinks = new AtomicLong();
+    final CountDownLatch start = new CountDownLatch(1);
+    final Thread[] threads = new Thread[threadCount];
+    for(int i=0; i<threads.length; i++) {
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          long count = 0;
+          while(!Thread.currentThread().isInterrupted()) {
+            stringMetaClass.mopInvoke(new MOPInvokeEvent(ConcurrentRelink.class,
+                false, null, null, false, "length", signature));
+            count++;
+          }
+          relinks.addAndGet(count);
+        }
+      });
+      threads[i].start();
+    }
+
+    Thread mutation = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        boolean mixed = false;
+        while(!Thread.currentThread().isInterrupted()) {
+          try {
+            Thread.sleep(mutationMillis);
+          } catch (InterruptedException e) {
+            break;
+          }
+          MetaClassMutator mutator = stringMetaClass.mutator();
+          try {
+            if (mixed) {
+              mutator.removeMixin(mixMetaClass);
+            } else {
+              mutator.addMixin(mixMetaClass);
+            }
+          } finally {
+            mutator.close();
+          }
+          mixed = !mixed;
+        }
+      }
+    });
+    if (mutationMillis > 0) {
+      mutation.start();
+    }
+
+    long begin = System.nanoTime();
+    start.countDown();
+    Thread.sleep(seconds * 1000L);
+
+    mutation.interrupt();
+    for(Thread thread: threads) {
+      thread.interrupt();
+    }
+    for(Thread thread: threads) {
+      thread.join();
+    }
+    long elapsed = System.nanoTime() - begin;
+
+    System.out.println(threadCount + " threads, " + relinks.get() + " relinks, " +
+        (relinks.get() * 1000000000L / elapsed) + " relinks/s");
+  }
+}
@@ -26,33 +26,55 @@ import java.net.URISyntaxException;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
 import org.apache.http.HttpVersion;
-import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.conn.params.ConnManagerParams;
-import org.apache.http.conn.params.ConnPerRouteBean;
-import org.apache.http.conn.scheme.PlainSocketFactory;
-import org.apache.http.conn.scheme.Scheme;
-import org.apache.http.conn.scheme.SchemeRegistry;
-import org.apache.http.conn.ssl.SSLSocketFactory;
-import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
 import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.BasicHttpProcessor;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpProcessor;
+import org.apache.http.protocol.RequestConnControl;
+import org.apache.http.protocol.RequestContent;
+import org.apache.http.protocol.RequestTargetHost;
+import org.apache.http.protocol.RequestUserAgent;
 
 /**
  * This implementation makes all requests asynchronous by submitting jobs to a 
  * {@link ThreadPoolExecutor}.  All request methods (including <code>get</code> 
- * and <code>post</code>) return a {@link Future} instance, whose 
+ * and <code>post</code>) return a {@link ResponseFuture} instance, whose 
  * {@link Future#get() get} method will provide access to whatever value was 
- * returned from the response handler closure.
+ * returned from the response handler closure.  Callbacks may also be 
+ * registered on the future, so that the result can be processed without 
+ * blocking a thread.
+ * 
+ * <p>If the <code>nio</code> option is given, requests are instead sent and 
+ * received by a {@link NIOTransport}, which multiplexes all connections over
+ * a few I/O threads.  The thread pool is then only used to parse responses and 
+ * run the response handlers, so the number of requests in progress is not 
+ * bound by the number of threads.</p>
+ * 
+ * <p>With the <code>virtualThreads</code> option, each request instead runs 
+ * on its own thread from a {@link VirtualThreadExecutor}, which uses virtual 
+ * threads where the JVM supports them.  The number of concurrent requests 
+ * and of requests waiting to run are both bounded, and requests beyond that
+ * are rejected.</p>
  *  
  * @author <a href='mailto:tomstrummer+httpbuilder@gmail.com'>Tom Nichols</a>
  */
@@ -66,6 +88,12 @@ public class AsyncHTTPBuilder extends HTTPBuilder {
 	protected ExecutorService threadPool;
 //		= (ThreadPoolExecutor)Executors.newCachedThreadPool();
 	
+	protected NIOTransport nioTransport = null;
+	
+	protected volatile RequestPolicy policy = null;
+	
+	protected volatile Executor callbackExecutor = null;
+	
 	/**
 	 * Accepts the following named parameters:
 	 * <dl>
@@ -74,19 +102,67 @@ public class AsyncHTTPBuilder extends HTTPBuilder {
 	 *      the poolSize will be determined by {@link ThreadPoolExecutor#getMaximumPoolSize()}.
 	 *      The default threadPool uses an unbounded queue to accept an unlimited 
 	 *      number of requests.</dd>
-	 *  <dt>poolSize</dt><dd>Max number of concurrent requests</dd>
+	 *  <dt>poolSize</dt><dd>Max number of concurrent requests.  With the 
+	 *  	<code>virtualThreads</code> option this defaults to 
+	 *  	{@link VirtualThreadExecutor#DEFAULT_MAX_CONCURRENT}.</dd>
+	 *  <dt>maxPerRoute</dt><dd>Max number of concurrent connections to a 
+	 *  	single host.  Defaults to <code>poolSize</code>.  See 
+	 *  	{@link ConnectionPool#setDefaultMaxPerRoute(int)}.</dd>
 	 *  <dt>uri</dt><dd>Default request URI</dd>
 	 *  <dt>contentType</dt><dd>Default content type for requests and responses</dd>
 	 *  <dt>timeout</dt><dd>Timeout in milliseconds to wait for a connection to 
 	 *  	be established and request to complete.</dd>
+	 *  <dt>nio</dt><dd>If <code>true</code>, send requests using a 
+	 *  	non-blocking {@link NIOTransport} instead of blocking a pool thread
+	 *  	for each request.  In this mode the <code>poolSize</code> only 
+	 *  	determines how many responses may be handled concurrently.  Note 
+	 *  	that HttpClient-specific features such as cookie handling and 
+	 *  	{@link #getAuth() authentication} are not applied to requests sent 
+	 *  	this way; credentials must be passed as request headers.  Requires
+	 *  	the <code>httpcore-nio</code> library.</dd>
+	 *  <dt>maxConnections</dt><dd>Max number of open connections when using 
+	 *  	the <code>nio</code> option.  Defaults to 
+	 *  	{@link NIOTransport#DEFAULT_MAX_CONNECTIONS}.</dd>
+	 *  <dt>policy</dt><dd>{@link RequestPolicy} for deadlines, retries and 
+	 *  	hedged requests.  See {@link #setPolicy(RequestPolicy)}.</dd>
+	 *  <dt>virtualThreads</dt><dd>If <code>true</code>, run each request on 
+	 *  	its own thread from a {@link VirtualThreadExecutor} instead of a 
+	 *  	fixed thread pool with an unbounded queue.  At most 
+	 *  	<code>poolSize</code> requests run at once.</dd>
+	 *  <dt>maxQueued</dt><dd>Max number of requests which may wait for 
+	 *  	one of the <code>poolSize</code> running requests to complete when
+	 *  	using the <code>virtualThreads</code> option.  Further requests 
+	 *  	fail with a {@link RejectedExecutionException}.  Defaults to 
+	 *  	{@link VirtualThreadExecutor#DEFAULT_MAX_QUEUED}.</dd>
+	 *  <dt>callbackExecutor</dt><dd>{@link Executor} which runs callbacks 
+	 *  	registered on the returned {@link ResponseFuture}s.  See 
+	 *  	{@link #setCallbackExecutor(Executor)}.</dd>
 	 * </dl>
 	 */
 	public AsyncHTTPBuilder( Map<String, ?> args ) throws URISyntaxException {
 		super();
 		int poolSize = DEFAULT_POOL_SIZE;
 		ExecutorService threadPool = null;
+		boolean nio = false;
+		Object maxConnections = null;
+		Object maxPerRoute = null;
+		boolean virtualThreads = false;
+		int maxQueued = VirtualThreadExecutor.DEFAULT_MAX_QUEUED;
 		if ( args != null ) { 
 			threadPool = (ExecutorService)args.remove( "threadPool" );
+			
+			Object virtualArg = args.remove( "virtualThreads" );
+			if ( virtualArg != null ) virtualThreads = Boolean.valueOf( virtualArg.toString() );
+			if ( virtualThreads ) poolSize = VirtualThreadExecutor.DEFAULT_MAX_CONCURRENT;
+			Object maxQueuedArg = args.remove( "maxQueued" );
+			if ( maxQueuedArg != null ) maxQueued = Integer.parseInt( maxQueuedArg.toString() );
+			
+			Object nioArg = args.remove( "nio" );
+			if ( nioArg != null ) nio = Boolean.valueOf( nioArg.toString() );
+			maxConnections = args.remove( "maxConnections" );
+			maxPerRoute = args.remove( "maxPerRoute" );
+			this.policy = (RequestPolicy)args.remove( "policy" );
+			this.callbackExecutor = (Executor)args.remove( "callbackExecutor" );
 
 			if ( threadPool instanceof ThreadPoolExecutor )
 				poolSize = ((ThreadPoolExecutor)threadPool).getMaximumPoolSize();
@@ -112,21 +188,38 @@ public class AsyncHTTPBuilder extends HTTPBuilder {
 				throw new IllegalArgumentException("Unexpected keyword args: " + invalidArgs);
 			}
 		}
+		if ( virtualThreads && threadPool == null ) 
+			threadPool = new VirtualThreadExecutor( poolSize, maxQueued );
 		this.initThreadPools( poolSize, threadPool );
+		if ( maxPerRoute != null ) getConnectionPool().setDefaultMaxPerRoute( 
+				Integer.parseInt( maxPerRoute.toString() ) );
+		if ( nio ) {
+			this.initNIOTransport();
+			if ( maxConnections != null ) nioTransport.setMaxConnections( 
+					Integer.parseInt( maxConnections.toString() ) );
+		}
 	}
 	
 	/**
 	 * Submits a {@link Callable} instance to the job pool, which in turn will 
 	 * call {@link HTTPBuilder#doRequest(RequestConfigDelegate)} in an asynchronous 
-	 * thread.  The {@link Future} instance returned by this value (which in 
+	 * thread.  The {@link ResponseFuture} instance returned by this value (which in 
 	 * turn should be returned by any of the public <code>request</code> methods
 	 * (including <code>get</code> and <code>post</code>) may be used to 
 	 * retrieve whatever value may be returned from the executed response 
-	 * handler closure. 
+	 * handler closure.  Cancelling it aborts the request.  If the thread 
+	 * pool rejects the request, the future fails with a 
+	 * {@link RejectedExecutionException}.
+	 * 
+	 * <p>If a {@link #setPolicy(RequestPolicy) request policy} is set, the 
+	 * request is instead sent according to that policy.</p>
 	 */
 	@Override
-	protected Future<?> doRequest( final RequestConfigDelegate delegate ) {
-		return threadPool.submit( new Callable<Object>() {
+	protected ResponseFuture<Object> doRequest( final RequestConfigDelegate delegate ) {
+		RequestPolicy policy = this.policy;
+		if ( policy != null ) return policy.execute( this, delegate );
+		if ( this.nioTransport != null ) return doNIORequest( delegate );
+		ResponseFuture<Object> future = new ResponseFuture<Object>( new Callable<Object>() {
 			/*@Override*/ public Object call() throws Exception {
 				try {
 					return doRequestSuper(delegate);
@@ -136,7 +229,13 @@ public class AsyncHTTPBuilder extends HTTPBuilder {
 					throw ex;
 				}
 			}
-		});
+		}, this.callbackExecutor );
+		future.setRequest( delegate.getRequest() );
+		try {
+			threadPool.execute( future );
+		}
+		catch ( RejectedExecutionException ex ) { future.fail( ex ); }
+		return future;
 	}
 	
 	/*
@@ -147,37 +246,194 @@ public class AsyncHTTPBuilder extends HTTPBuilder {
 		return super.doRequest(delegate);
 	}
 	
+	/**
+	 * Hands the request to the {@link NIOTransport}.  The returned Future is
+	 * submitted to the thread pool once the response headers have been 
+	 * received, where the response handler then reads the body as it arrives.
+	 */
+	protected ResponseFuture<Object> doNIORequest( final RequestConfigDelegate delegate ) {
+		NIOResponseFuture future = new NIOResponseFuture( new ResponseTask( delegate ) );
+		try {
+			HttpRequestBase reqMethod = prepareRequest( delegate );
+			future.exchange = nioTransport.execute( reqMethod, delegate.getContext(), future );
+			if ( future.isCancelled() ) future.exchange.cancel();
+		}
+		catch ( Exception ex ) { future.failed( ex ); }
+		return future;
+	}
+	
+	/**
+	 * Runs the response handler for a response received by the 
+	 * {@link NIOTransport}.
+	 */
+	private class ResponseTask implements Callable<Object> {
+		final RequestConfigDelegate delegate;
+		volatile HttpResponse response;
+		
+		ResponseTask( RequestConfigDelegate delegate ) { this.delegate = delegate; }
+		
+		public Object call() throws Exception {
+			try {
+				return handleResponse( delegate, new HttpResponseDecorator( 
+						response, delegate.getContext(), null ) );
+			}
+			catch( Exception ex ) {
+				log.info( "Exception thrown from response delegate: " + delegate, ex );
+				throw ex;
+			}
+		}
+	}
+	
+	/**
+	 * Future for a request sent through the {@link NIOTransport}.  Cancelling
+	 * it aborts the request if the response has not yet been received.
+	 */
+	private class NIOResponseFuture extends ResponseFuture<Object> 
+			implements NIOTransport.ResponseCallback {
+		final ResponseTask task;
+		volatile NIOTransport.Exchange exchange;
+		
+		NIOResponseFuture( ResponseTask task ) {
+			super( task, callbackExecutor );
+			this.task = task;
+		}
+		
+		public void completed( HttpResponse response ) {
+			task.response = response;
+			try {
+				threadPool.execute( this );
+			}
+			catch ( RejectedExecutionException ex ) { 
+				failed( ex ); 
+				throw ex; // the transport discards the response body
+			}
+		}
+		
+		public void failed( Exception ex ) {
+			log.info( "Request failed: " + task.delegate, ex );
+			setException( ex );
+		}
+		
+		@Override protected void abort() {
+			super.abort();
+			NIOTransport.Exchange ex = this.exchange;
+			if ( ex != null ) ex.cancel();
+		}
+	}
+	
 	/**
 	 * Initializes threading parameters for the HTTPClient's 
-	 * {@link ThreadSafeClientConnManager}, and this class' ThreadPoolExecutor. 
+	 * {@link ConnectionPool}, and this class' ThreadPoolExecutor. 
 	 */
 	protected void initThreadPools( final int poolSize, final ExecutorService threadPool ) {
 		if (poolSize < 1) throw new IllegalArgumentException("poolSize may not be < 1");
 		// Create and initialize HTTP parameters
 		HttpParams params = client != null ? client.getParams()
 				: new BasicHttpParams();
-		ConnManagerParams.setMaxTotalConnections(params, poolSize);
-		ConnManagerParams.setMaxConnectionsPerRoute(params,
-				new ConnPerRouteBean(poolSize));
-
 		HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
-
-		// Create and initialize scheme registry
-		SchemeRegistry schemeRegistry = new SchemeRegistry();
-		schemeRegistry.register( new Scheme( "http", 
-				PlainSocketFactory.getSocketFactory(), 80 ) );
-		schemeRegistry.register( new Scheme( "https", 
-				SSLSocketFactory.getSocketFactory(), 443));
-
-		ClientConnectionManager cm = new ThreadSafeClientConnManager(
-				params, schemeRegistry );
-		super.client = new DefaultHttpClient( cm, params );
+		
+		if ( client != null ) client.getConnectionManager().shutdown();
+		super.client = createPooledClient( params );
+		getConnectionPool().setMaxTotal( poolSize );
+		getConnectionPool().setDefaultMaxPerRoute( poolSize );
 
 		this.threadPool = threadPool != null ? threadPool :
 			new ThreadPoolExecutor( poolSize, poolSize, 120, TimeUnit.SECONDS, 
 					new LinkedBlockingQueue<Runnable>() );
 	}
 	
+	/**
+	 * Create the {@link NIOTransport} used for the <code>nio</code> option.
+	 * The transport shares this builder's client parameters, so 
+	 * {@link #setTimeout(int)} applies to it as well.
+	 */
+	protected void initNIOTransport() {
+		this.nioTransport = new NIOTransport( super.getClient().getParams(), 
+				new NIOHttpProcessor(), Runtime.getRuntime().availableProcessors() );
+	}
+	
+	/**
+	 * Applies the standard protocol interceptors, plus this builder's 
+	 * current {@link #setContentEncoding(Object...) content-encoding} 
+	 * interceptors, to requests sent by the {@link NIOTransport}.
+	 */
+	private class NIOHttpProcessor implements HttpProcessor {
+		final BasicHttpProcessor protocol = new BasicHttpProcessor();
+		
+		NIOHttpProcessor() {
+			protocol.addInterceptor( new RequestContent() );
+			protocol.addInterceptor( new RequestTargetHost() );
+			protocol.addInterceptor( new RequestConnControl() );
+			protocol.addInterceptor( new RequestUserAgent() );
+		}
+		
+		public void process( HttpRequest request, HttpContext context ) 
+				throws HttpException, IOException {
+			protocol.process( request, context );
+			for ( int i = 0; i < client.getRequestInterceptorCount(); i++ ) {
+				HttpRequestInterceptor interceptor = client.getRequestInterceptor( i );
+				if ( interceptor instanceof ContentEncoding.RequestInterceptor )
+					interceptor.process( request, context );
+			}
+		}
+		
+		public void process( HttpResponse response, HttpContext context ) 
+				throws HttpException, IOException {
+			for ( int i = 0; i < client.getResponseInterceptorCount(); i++ ) {
+				HttpResponseInterceptor interceptor = client.getResponseInterceptor( i );
+				if ( interceptor instanceof ContentEncoding.ResponseInterceptor )
+					interceptor.process( response, context );
+			}
+		}
+	}
+	
+	/**
+	 * Access the non-blocking transport used when this instance was created
+	 * with the <code>nio</code> option.
+	 * @return the transport, or <code>null</code> if requests are executed 
+	 * by blocking pool threads.
+	 */
+	public NIOTransport getTransport() {
+		return this.nioTransport;
+	}
+	
+	/**
+	 * Set a policy for request deadlines, retries and hedged requests.  This 
+	 * applies to all subsequent requests made by this builder, whether sent 
+	 * by pool threads or the <code>nio</code> transport.
+	 * @param policy the policy, or <code>null</code> to send each request once.
+	 */
+	public void setPolicy( RequestPolicy policy ) {
+		this.policy = policy;
+	}
+	
+	/**
+	 * @see #setPolicy(RequestPolicy)
+	 * @return the current request policy, or <code>null</code>
+	 */
+	public RequestPolicy getPolicy() {
+		return this.policy;
+	}
+	
+	/**
+	 * Set the executor which runs callbacks registered on the 
+	 * {@link ResponseFuture}s returned by this builder, unless another 
+	 * executor is given when the callback is registered.
+	 * @param executor the executor, or <code>null</code> to run callbacks 
+	 * in the thread which ran the response handler.
+	 */
+	public void setCallbackExecutor( Executor executor ) {
+		this.callbackExecutor = executor;
+	}
+	
+	/**
+	 * @see #setCallbackExecutor(Executor)
+	 * @return the executor for callbacks, or <code>null</code>
+	 */
+	public Executor getCallbackExecutor() {
+		return this.callbackExecutor;
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 */
@@ -246,6 +502,7 @@ public class AsyncHTTPBuilder extends HTTPBuilder {
 	 */
 	@Override public void shutdown() {
 		super.shutdown(); 
+		if ( this.nioTransport != null ) this.nioTransport.shutdown();
 		this.threadPool.shutdown();
 	}
 	
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.xml.resolver.tools.CatalogResolver;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * <p>{@link EntityResolver} which keeps the content of resolved DTDs and 
+ * entities in memory.  Looking an entity up in the XML catalog and loading 
+ * it from the classpath is otherwise repeated for every document which 
+ * declares a DTD, which is significant for small documents like a typical 
+ * XHTML page.</p>
+ * 
+ * <p>Entities which the wrapped resolver does not resolve are remembered as 
+ * well, so that the catalog is not searched for them again.  The parser then
+ * loads them from their system ID as usual.  The cache is bounded by the 
+ * total size of the cached content, and the least recently used entities 
+ * are evicted first.</p>
+ * 
+ * @see ParserRegistry#getEntityResolver()
+ * @since 0.6
+ */
+public class CachingEntityResolver implements EntityResolver {
+
+	/** Default max total size of cached content: 4MB */
+	public static final int DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+	
+	/* cached for entities which the delegate could not resolve */
+	private static final Entry UNRESOLVED = new Entry( null, null, null, null );
+	
+	private final EntityResolver delegate;
+	private volatile int maxBytes = DEFAULT_MAX_BYTES;
+	
+	/* guarded by 'this'; in access order */
+	private final Map<String,Entry> cache = new LinkedHashMap<String,Entry>( 16, 0.75f, true );
+	private long cachedBytes = 0;
+	
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	
+	/**
+	 * @param delegate resolver whose results are cached, usually a 
+	 *   {@link CatalogResolver}.  If <code>null</code>, no entities are 
+	 *   resolved.
+	 */
+	public CachingEntityResolver( EntityResolver delegate ) {
+		this.delegate = delegate;
+	}
+	
+	public InputSource resolveEntity( String publicId, String systemId ) 
+			throws SAXException, IOException {
+		if ( delegate == null ) return null;
+		String key = publicId + '\n' + systemId;
+		Entry entry;
+		synchronized ( this ) { entry = cache.get( key ); }
+		if ( entry != null ) {
+			hitCount.incrementAndGet();
+			return entry.toInputSource( publicId );
+		}
+		missCount.incrementAndGet();
+		
+		InputSource source = delegate.resolveEntity( publicId, systemId );
+		entry = source == null ? UNRESOLVED : load( source );
+		put( key, entry );
+		return entry.toInputSource( publicId );
+	}
+	
+	private Entry load( InputSource source ) throws IOException {
+		Reader chars = source.getCharacterStream();
+		if ( chars != null ) {
+			StringWriter out = new StringWriter();
+			char[] buf = new char[4096];
+			int n;
+			try { while ( ( n = chars.read( buf ) ) >= 0 ) out.write( buf, 0, n ); }
+			finally { chars.close(); }
+			return new Entry( source.getSystemId(), null, out.toString(), null );
+		}
+		InputStream in = source.getByteStream();
+		if ( in == null ) in = new URL( source.getSystemId() ).openStream();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		int n;
+		try { while ( ( n = in.read( buf ) ) >= 0 ) out.write( buf, 0, n ); }
+		finally { in.close(); }
+		return new Entry( source.getSystemId(), out.toByteArray(), null, source.getEncoding() );
+	}
+	
+	private synchronized void put( String key, Entry entry ) {
+		if ( entry.size() > maxBytes ) return;
+		Entry previous = cache.put( key, entry );
+		if ( previous != null ) cachedBytes -= previous.size();
+		cachedBytes += entry.size();
+		Iterator<Entry> i = cache.values().iterator();
+		while ( cachedBytes > maxBytes && i.hasNext() ) {
+			cachedBytes -= i.next().size();
+			i.remove();
+		}
+	}
+	
+	/**
+	 * Remove all cached entities.  This should be called if the mappings of 
+	 * the wrapped resolver have changed, e.g. when a catalog has been added.
+	 */
+	public synchronized void clear() {
+		cache.clear();
+		cachedBytes = 0;
+	}
+	
+	/** The resolver whose results are cached. */
+	public EntityResolver getDelegate() { return this.delegate; }
+	
+	/** Max total size of cached content, in bytes (or characters.) */
+	public int getMaxBytes() { return this.maxBytes; }
+	
+	/**
+	 * @see #getMaxBytes()
+	 * @param maxBytes
+	 */
+	public synchronized void setMaxBytes( int maxBytes ) {
+		this.maxBytes = maxBytes;
+		if ( cachedBytes > maxBytes ) clear();
+	}
+	
+	/** Number of cached entities. */
+	public synchronized int getSize() { return cache.size(); }
+	
+	/** Total size of cached content. */
+	public synchronized long getCachedBytes() { return cachedBytes; }
+	
+	/** Number of lookups which were answered from the cache. */
+	public long getHitCount() { return hitCount.get(); }
+	
+	/** Number of lookups which were passed to the wrapped resolver. */
+	public long getMissCount() { return missCount.get(); }
+	
+	private static class Entry {
+		final String systemId;
+		final byte[] bytes;
+		final String chars;
+		final String encoding;
+		
+		Entry( String systemId, byte[] bytes, String chars, String encoding ) {
+			this.systemId = systemId;
+			this.bytes = bytes;
+			this.chars = chars;
+			this.encoding = encoding;
+		}
+		
+		int size() {
+			return bytes != null ? bytes.length : chars != null ? chars.length() : 0;
+		}
+		
+		InputSource toInputSource( String publicId ) {
+			if ( this == UNRESOLVED ) return null;
+			InputSource source = bytes != null 
+				? new InputSource( new ByteArrayInputStream( bytes ) )
+				: new InputSource( new StringReader( chars ) );
+			// the system ID is needed to resolve relative references in a DTD:
+			source.setSystemId( systemId );
+			source.setPublicId( publicId );
+			source.setEncoding( encoding );
+			return source;
+		}
+	}
+}
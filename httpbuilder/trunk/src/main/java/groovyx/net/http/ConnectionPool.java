@@ -0,0 +1,664 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpConnectionMetrics;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.conn.ClientConnectionOperator;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.OperatedClientConnection;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRoute;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.AbstractHttpClient;
+import org.apache.http.impl.conn.DefaultClientConnectionOperator;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * <p>Thread-safe connection manager which may be used by {@link HTTPBuilder}.
+ * {@link AsyncHTTPBuilder} and {@link RESTClient} use one by default; a 
+ * plain HTTPBuilder uses HttpClient's single connection manager unless
+ * {@link HTTPBuilder#createClient(HttpParams)} is overridden to return
+ * {@link HTTPBuilder#createPooledClient(HttpParams)}.  This is a 
+ * {@link ThreadSafeClientConnManager} which adds:</p>
+ * <ul>
+ *  <li>Limits on the {@link #setMaxTotal(int) total} number of connections,
+ *    and on the number of connections to each host, either 
+ *    {@link #setMaxPerRoute(Object, int) for a given host} or 
+ *    {@link #setDefaultMaxPerRoute(int) by default}.  The total limit may be
+ *    changed at any time.  HttpClient fixes the number of connections to a 
+ *    host when the first one is opened, so a raised per-host limit only 
+ *    applies once the host's connections have been closed (e.g. by 
+ *    {@link #setIdleTimeout(long, TimeUnit) idle eviction}), while a lowered
+ *    one is enforced by closing connections as they are released.</li>
+ *  <li>A {@link #setTimeToLive(long, TimeUnit) time to live}, after which
+ *    a connection is closed rather than re-used, e.g. so that DNS changes 
+ *    are eventually seen by long-running clients.</li>
+ *  <li>Background {@link #setIdleTimeout(long, TimeUnit) eviction} of idle 
+ *    and expired connections.</li>
+ *  <li>{@link #getMetrics() Metrics}: the number of leased, available and
+ *    pending connections per host, and histograms of the time taken to 
+ *    connect, to lease a connection from the pool, and for each request by 
+ *    response status.</li>
+ * </ul>
+ * 
+ * <p>Limits are usually set through the builder:</p>
+ * <pre>
+ * def http = new AsyncHTTPBuilder( uri : 'http://example.com', poolSize : 50 )
+ * http.connectionPool.with {
+ *   defaultMaxPerRoute = 10
+ *   setMaxPerRoute 'http://slow.example.com', 2
+ *   setIdleTimeout 30, TimeUnit.SECONDS
+ * }
+ * println http.connectionPool.metrics</pre>
+ * 
+ * <p>When all connections for a host are leased, a request waits until one 
+ * is released, or until the {@link ConnManagerParams#setTimeout(HttpParams, long)
+ * connection manager timeout} elapses.  This shows up as 
+ * {@link #getLeaseTime() lease time} and {@link #getPending() pending} 
+ * requests in the metrics.</p>
+ * 
+ * @since 0.6
+ */
+public class ConnectionPool extends ThreadSafeClientConnManager {
+
+	/** Default max total connections; same as HttpClient's default */
+	public static final int DEFAULT_MAX_TOTAL = 20;
+	/** Default max connections per host; same as HttpClient's default */
+	public static final int DEFAULT_MAX_PER_ROUTE = 2;
+	
+	static final String START_ATTR = "groovyx.net.http.pool.request-start";
+	
+	private final HttpParams params;
+	private final Map<HttpRoute,Integer> routeLimits = new HashMap<HttpRoute,Integer>();
+	private int defaultMaxPerRoute = DEFAULT_MAX_PER_ROUTE;
+	private volatile long timeToLive = 0;
+	private volatile long idleTimeout = 0;
+	private Thread evictor;
+	
+	/* keyed by the metrics of each open connection, which are shared by the 
+	 * managed connection wrapping it */
+	private final Map<HttpConnectionMetrics,Long> created = 
+		Collections.synchronizedMap( new WeakHashMap<HttpConnectionMetrics,Long>() );
+	private final Map<ManagedClientConnection,HttpRoute> leased = 
+		new ConcurrentHashMap<ManagedClientConnection,HttpRoute>();
+	private final Map<HttpRoute,RouteCounts> routeCounts = 
+		new ConcurrentHashMap<HttpRoute,RouteCounts>();
+	
+	private final LatencyHistogram connectTime = new LatencyHistogram();
+	private final LatencyHistogram leaseTime = new LatencyHistogram();
+	private final Map<Integer,LatencyHistogram> requestTime = 
+		new ConcurrentHashMap<Integer,LatencyHistogram>();
+	private final AtomicLong leaseTimeouts = new AtomicLong();
+	private final RequestTimer requestTimer = new RequestTimer();
+	
+	/**
+	 * Create a pool with the default <code>http</code> and <code>https</code> 
+	 * schemes.
+	 * @param params client parameters.  The pool limits are stored in these 
+	 *   parameters, so they should be the same parameters given to the client.
+	 */
+	public ConnectionPool( HttpParams params ) {
+		this( params, createSchemeRegistry() );
+	}
+	
+	/**
+	 * @param params client parameters.  The pool limits are stored in these 
+	 *   parameters, so they should be the same parameters given to the client.
+	 * @param schemes
+	 */
+	public ConnectionPool( HttpParams params, SchemeRegistry schemes ) {
+		super( params, schemes );
+		this.params = params;
+		ConnPerRoute perRoute = ConnManagerParams.getMaxConnectionsPerRoute( params );
+		if ( perRoute instanceof ConnPerRouteBean ) 
+			this.defaultMaxPerRoute = ((ConnPerRouteBean)perRoute).getDefaultMax();
+		publishLimits();
+	}
+	
+	static SchemeRegistry createSchemeRegistry() {
+		SchemeRegistry schemeRegistry = new SchemeRegistry();
+		schemeRegistry.register( new Scheme( "http", 
+				PlainSocketFactory.getSocketFactory(), 80 ) );
+		schemeRegistry.register( new Scheme( "https", 
+				SSLSocketFactory.getSocketFactory(), 443));
+		return schemeRegistry;
+	}
+	
+	/**
+	 * Add interceptors to the client which record the 
+	 * {@link #getRequestTime() request time} for each response.  This is 
+	 * done by {@link HTTPBuilder#createPooledClient(HttpParams)}.
+	 */
+	public void instrument( AbstractHttpClient client ) {
+		client.addRequestInterceptor( requestTimer );
+		client.addResponseInterceptor( requestTimer );
+	}
+	
+	/** @return the max number of connections to all hosts */
+	public int getMaxTotal() {
+		return ConnManagerParams.getMaxTotalConnections( params );
+	}
+	
+	/**
+	 * Set the max number of connections to all hosts.  If the pool is full, 
+	 * idle connections to other hosts are closed in order to open a new one.
+	 */
+	public void setMaxTotal( int max ) {
+		if ( max < 1 ) throw new IllegalArgumentException( "Max total may not be < 1" );
+		ConnManagerParams.setMaxTotalConnections( params, max );
+	}
+	
+	/** @return the max number of connections to a host, unless a different 
+	 *  limit was given by {@link #setMaxPerRoute(Object, int)} */
+	public synchronized int getDefaultMaxPerRoute() { return this.defaultMaxPerRoute; }
+	
+	/** 
+	 * @see #getDefaultMaxPerRoute() 
+	 * @see #setMaxPerRoute(Object, int)
+	 */
+	public synchronized void setDefaultMaxPerRoute( int max ) {
+		if ( max < 1 ) throw new IllegalArgumentException( "Max per route may not be < 1" );
+		this.defaultMaxPerRoute = max;
+		publishLimits();
+	}
+	
+	/**
+	 * Set the max number of connections to a single host.  If the limit is
+	 * lowered, connections over the limit are closed as they are released.
+	 * A raised limit applies once all connections to the host have been 
+	 * closed, since HttpClient fixes the capacity for a host when its first 
+	 * connection is opened.  Limits apply to direct connections; requests 
+	 * sent through a proxy use the default limit.
+	 * @param host an {@link HttpHost}, or a URI (as a String, {@link URI}, 
+	 *   {@link URIBuilder} etc.) whose scheme, host and port identify the host.
+	 * @param max the limit, or a value &lt; 1 to use the 
+	 *   {@link #setDefaultMaxPerRoute(int) default}.
+	 */
+	public synchronized void setMaxPerRoute( Object host, int max ) {
+		for ( HttpRoute route : routesFor( host ) ) {
+			if ( max < 1 ) routeLimits.remove( route );
+			else routeLimits.put( route, max );
+		}
+		publishLimits();
+	}
+	
+	/**
+	 * @param host see {@link #setMaxPerRoute(Object, int)}
+	 * @return the max number of connections to the given host.
+	 */
+	public int getMaxPerRoute( Object host ) {
+		return getMaxForRoute( routesFor( host )[0] );
+	}
+	
+	int getMaxForRoute( HttpRoute route ) {
+		return ConnManagerParams.getMaxConnectionsPerRoute( params ).getMaxForRoute( route );
+	}
+	
+	/* ConnPerRouteBean is not thread safe, and is read by the pool whenever 
+	 * a connection to a new host is opened, so each change publishes a copy. */
+	private synchronized void publishLimits() {
+		ConnPerRouteBean limits = new ConnPerRouteBean( defaultMaxPerRoute );
+		limits.setMaxForRoutes( new HashMap<HttpRoute,Integer>( routeLimits ) );
+		ConnManagerParams.setMaxConnectionsPerRoute( params, limits );
+	}
+	
+	/**
+	 * Set the max age of a connection.  A connection older than this is 
+	 * closed rather than re-used, and connections released to the pool after
+	 * the time to live was set are closed by a background thread once they 
+	 * reach this age.
+	 * @param ttl time to live, or 0 for no limit (the default)
+	 * @param unit
+	 */
+	public void setTimeToLive( long ttl, TimeUnit unit ) {
+		this.timeToLive = unit.toMillis( ttl );
+		startEvictor();
+	}
+	
+	/** @return the max age of a connection, or 0 if there is no limit */
+	public long getTimeToLive( TimeUnit unit ) {
+		return unit.convert( timeToLive, TimeUnit.MILLISECONDS );
+	}
+	
+	/**
+	 * Close connections which have been idle in the pool for longer than
+	 * the given time.  This starts a background thread, which also closes 
+	 * connections that have passed their {@link #setTimeToLive(long, TimeUnit) 
+	 * time to live} or their server's keep-alive timeout.
+	 * @param idle max idle time, or 0 to keep idle connections open 
+	 *   (the default)
+	 * @param unit
+	 */
+	public void setIdleTimeout( long idle, TimeUnit unit ) {
+		this.idleTimeout = unit.toMillis( idle );
+		startEvictor();
+	}
+	
+	/** @return the max idle time, or 0 if idle connections are kept open */
+	public long getIdleTimeout( TimeUnit unit ) {
+		return unit.convert( idleTimeout, TimeUnit.MILLISECONDS );
+	}
+	
+	private synchronized void startEvictor() {
+		if ( evictor != null ) evictor.interrupt();
+		evictor = null;
+		long interval = Long.MAX_VALUE;
+		if ( idleTimeout > 0 ) interval = idleTimeout;
+		if ( timeToLive > 0 ) interval = Math.min( interval, timeToLive );
+		if ( interval == Long.MAX_VALUE ) return;
+		
+		final long sleep = Math.max( 10, Math.min( interval / 2, 5000 ) );
+		evictor = new Thread( "ConnectionPool-evictor" ) {
+			@Override public void run() {
+				try {
+					while ( ! isInterrupted() ) {
+						Thread.sleep( sleep );
+						evict();
+					}
+				}
+				catch ( InterruptedException ex ) { /* stopped */ }
+			}
+		};
+		evictor.setDaemon( true );
+		evictor.start();
+	}
+	
+	/**
+	 * Close expired and idle connections.  This is called periodically when
+	 * an {@link #setIdleTimeout(long, TimeUnit) idle timeout} or 
+	 * {@link #setTimeToLive(long, TimeUnit) time to live} is set.  Idle 
+	 * connections expire when their server's keep-alive timeout or their 
+	 * time to live is reached, whichever is first.
+	 */
+	public void evict() {
+		closeExpiredConnections();
+		if ( idleTimeout > 0 ) closeIdleConnections( idleTimeout, TimeUnit.MILLISECONDS );
+	}
+	
+	/**
+	 * Stops the eviction thread and closes all connections.
+	 */
+	@Override public void shutdown() {
+		synchronized ( this ) {
+			if ( evictor != null ) evictor.interrupt();
+			evictor = null;
+		}
+		super.shutdown();
+		leased.clear();
+		routeCounts.clear();
+	}
+	
+	@Override
+	public ClientConnectionRequest requestConnection( final HttpRoute route, Object state ) {
+		final ClientConnectionRequest request = super.requestConnection( route, state );
+		final RouteCounts counts = countsFor( route );
+		return new ClientConnectionRequest() {
+			public ManagedClientConnection getConnection( long timeout, TimeUnit unit ) 
+					throws InterruptedException, ConnectionPoolTimeoutException {
+				long start = System.nanoTime();
+				counts.pending.incrementAndGet();
+				try { 
+					ManagedClientConnection conn = request.getConnection( timeout, unit );
+					if ( conn.isOpen() && isExpired( conn ) ) {
+						// the client re-opens it, as it does for a stale connection
+						try { conn.close(); }
+						catch ( IOException ex ) { /* closed anyway */ }
+					}
+					leased.put( conn, route );
+					counts.leased.incrementAndGet();
+					return conn;
+				}
+				catch ( ConnectionPoolTimeoutException ex ) {
+					leaseTimeouts.incrementAndGet();
+					throw ex;
+				}
+				finally { 
+					counts.pending.decrementAndGet();
+					leaseTime.record( System.nanoTime() - start ); 
+				}
+			}
+			
+			public void abortRequest() { request.abortRequest(); }
+		};
+	}
+	
+	/**
+	 * Closes the connection rather than returning it to the pool if its 
+	 * host has more connections than its current limit, or if the 
+	 * connection has passed its {@link #setTimeToLive(long, TimeUnit) time
+	 * to live}.  Otherwise an idle connection is kept no longer than its 
+	 * remaining time to live.
+	 */
+	@Override
+	public void releaseConnection( ManagedClientConnection conn, 
+			long validDuration, TimeUnit unit ) {
+		HttpRoute route = leased.remove( conn );
+		if ( route != null ) countsFor( route ).leased.decrementAndGet();
+		
+		if ( conn.isMarkedReusable() ) {
+			long remaining = remainingLife( conn );
+			if ( route != null && getConnectionsInPool( route ) > getMaxForRoute( route ) )
+				conn.unmarkReusable();
+			else if ( remaining <= 0 ) conn.unmarkReusable();
+			else if ( remaining < Long.MAX_VALUE && ( validDuration <= 0 || unit == null 
+					|| unit.toMillis( validDuration ) > remaining ) ) {
+				// closeExpiredConnections discards the connection after this
+				validDuration = remaining;
+				unit = TimeUnit.MILLISECONDS;
+			}
+		}
+		super.releaseConnection( conn, validDuration, unit );
+	}
+	
+	private boolean isExpired( ManagedClientConnection conn ) {
+		return remainingLife( conn ) <= 0;
+	}
+	
+	/** @return millis until the connection's time to live is reached, or 
+	 * Long.MAX_VALUE if there is no limit */
+	private long remainingLife( ManagedClientConnection conn ) {
+		long ttl = timeToLive;
+		if ( ttl <= 0 ) return Long.MAX_VALUE;
+		Long createdAt;
+		try {
+			HttpConnectionMetrics metrics = conn.getMetrics();
+			createdAt = metrics != null ? created.get( metrics ) : null;
+		}
+		catch ( IllegalStateException ex ) { return Long.MAX_VALUE; } // already detached
+		if ( createdAt == null ) return Long.MAX_VALUE;
+		return ttl - ( System.currentTimeMillis() - createdAt );
+	}
+	
+	@Override
+	protected ClientConnectionOperator createConnectionOperator( SchemeRegistry schreg ) {
+		return new DefaultClientConnectionOperator( schreg ) {
+			@Override public void openConnection( OperatedClientConnection conn,
+					HttpHost target, InetAddress local, HttpContext context,
+					HttpParams params ) throws IOException {
+				long start = System.nanoTime();
+				try { super.openConnection( conn, target, local, context, params ); }
+				finally { connectTime.record( System.nanoTime() - start ); }
+				created.put( conn.getMetrics(), System.currentTimeMillis() );
+			}
+			
+			@Override public void updateSecureConnection( OperatedClientConnection conn,
+					HttpHost target, HttpContext context, HttpParams params ) 
+					throws IOException {
+				Long createdAt = created.get( conn.getMetrics() );
+				super.updateSecureConnection( conn, target, context, params );
+				// the connection is re-bound to the layered socket
+				if ( createdAt != null ) created.put( conn.getMetrics(), createdAt );
+			}
+		};
+	}
+	
+	/* Metrics */
+	
+	/** @return histogram of the time taken to open each new connection */
+	public LatencyHistogram getConnectTime() { return connectTime; }
+	
+	/** @return histogram of the time spent waiting for a connection from 
+	 * the pool, which is close to zero unless the pool is exhausted. */
+	public LatencyHistogram getLeaseTime() { return leaseTime; }
+	
+	/** @return number of requests which failed because no connection was 
+	 * available before the connection manager timeout */
+	public long getLeaseTimeoutCount() { return leaseTimeouts.get(); }
+	
+	/** 
+	 * @return histograms of the time from sending each request until its 
+	 * response headers are received, keyed by response status.  Only 
+	 * recorded for clients which were {@link #instrument(AbstractHttpClient) 
+	 * instrumented}.
+	 */
+	public Map<Integer,LatencyHistogram> getRequestTime() { 
+		return Collections.unmodifiableMap( requestTime ); 
+	}
+	
+	/** @return the number of connections which are currently in use */
+	public int getLeased() { return leased.size(); }
+	
+	/** @return the number of idle connections in the pool */
+	public int getAvailable() { 
+		return Math.max( 0, getConnectionsInPool() - leased.size() ); 
+	}
+	
+	/** @return the number of requests waiting for a connection */
+	public int getPending() { 
+		int pending = 0;
+		for ( RouteCounts counts : routeCounts.values() ) pending += counts.pending.get();
+		return pending;
+	}
+	
+	/**
+	 * @return the current state of the pool for each host, keyed by 
+	 * <code>scheme://host:port</code>
+	 */
+	public Map<String,RouteStats> getRouteStats() {
+		Map<String,RouteStats> stats = new LinkedHashMap<String,RouteStats>();
+		for ( Map.Entry<HttpRoute,RouteCounts> e : routeCounts.entrySet() ) {
+			HttpRoute route = e.getKey();
+			int inUse = e.getValue().leased.get();
+			int available = Math.max( 0, getConnectionsInPool( route ) - inUse );
+			RouteStats s = new RouteStats( routeKey( route.getTargetHost() ), 
+					getMaxForRoute( route ), inUse, available, 
+					e.getValue().pending.get() );
+			RouteStats other = stats.get( s.getRoute() ); // e.g. same host with and without port
+			if ( other != null ) s = new RouteStats( s.getRoute(), s.getMax(), 
+					s.getLeased() + other.getLeased(), s.getAvailable() + other.getAvailable(),
+					s.getPending() + other.getPending() );
+			stats.put( s.getRoute(), s );
+		}
+		return stats;
+	}
+	
+	/**
+	 * A snapshot of all pool metrics, suitable for rendering as JSON or 
+	 * scraping by a monitoring system.  Times are in milliseconds.
+	 * @return a map with the keys <code>maxTotal</code>, <code>leased</code>,
+	 *   <code>available</code>, <code>pending</code>, 
+	 *   <code>leaseTimeouts</code>, <code>routes</code> (see 
+	 *   {@link RouteStats#toMap()}), and <code>connectTime</code>, 
+	 *   <code>leaseTime</code> and <code>requestTime</code> (keyed by 
+	 *   status) histograms (see {@link LatencyHistogram#toMap()}).
+	 */
+	public Map<String,Object> getMetrics() {
+		Map<String,Object> metrics = new LinkedHashMap<String,Object>();
+		metrics.put( "maxTotal", getMaxTotal() );
+		metrics.put( "leased", getLeased() );
+		metrics.put( "available", getAvailable() );
+		metrics.put( "pending", getPending() );
+		metrics.put( "leaseTimeouts", getLeaseTimeoutCount() );
+		Map<String,Object> routes = new LinkedHashMap<String,Object>();
+		for ( RouteStats s : getRouteStats().values() )
+			routes.put( s.getRoute(), s.toMap() );
+		metrics.put( "routes", routes );
+		metrics.put( "connectTime", connectTime.toMap() );
+		metrics.put( "leaseTime", leaseTime.toMap() );
+		Map<String,Object> requests = new LinkedHashMap<String,Object>();
+		for ( Map.Entry<Integer,LatencyHistogram> e : requestTime.entrySet() )
+			requests.put( String.valueOf( e.getKey() ), e.getValue().toMap() );
+		metrics.put( "requestTime", requests );
+		return metrics;
+	}
+	
+	/** Clear all histograms and counters. */
+	public void resetStatistics() {
+		connectTime.reset();
+		leaseTime.reset();
+		requestTime.clear();
+		leaseTimeouts.set( 0 );
+	}
+	
+	private RouteCounts countsFor( HttpRoute route ) {
+		RouteCounts counts = routeCounts.get( route );
+		if ( counts == null ) {
+			synchronized ( routeCounts ) {
+				counts = routeCounts.get( route );
+				if ( counts == null ) routeCounts.put( route, counts = new RouteCounts() );
+			}
+		}
+		return counts;
+	}
+	
+	/**
+	 * @return the direct routes HttpClient may use for the host: with an 
+	 * explicit port, and without one if the port is the scheme's default.
+	 */
+	HttpRoute[] routesFor( Object host ) {
+		HttpHost target;
+		if ( host instanceof HttpHost ) target = (HttpHost)host;
+		else try {
+			URI uri = host instanceof URI ? (URI)host : new URI( host.toString() );
+			if ( uri.getScheme() == null || uri.getHost() == null ) 
+				throw new IllegalArgumentException( "Host must be an absolute URI: " + host );
+			target = new HttpHost( uri.getHost(), uri.getPort(), uri.getScheme() );
+		}
+		catch ( URISyntaxException ex ) {
+			throw new IllegalArgumentException( "Invalid host: " + host, ex );
+		}
+		
+		Scheme scheme = getSchemeRegistry().get( target.getSchemeName() );
+		if ( scheme == null ) 
+			throw new IllegalArgumentException( "Unsupported scheme: " + host );
+		boolean secure = scheme.isLayered();
+		int port = scheme.resolvePort( target.getPort() );
+		HttpRoute route = new HttpRoute( new HttpHost( 
+				target.getHostName(), port, target.getSchemeName() ), null, secure );
+		if ( port != scheme.getDefaultPort() ) return new HttpRoute[] { route };
+		return new HttpRoute[] { route, new HttpRoute( new HttpHost( 
+				target.getHostName(), -1, target.getSchemeName() ), null, secure ) };
+	}
+	
+	String routeKey( HttpHost host ) {
+		String scheme = host.getSchemeName().toLowerCase();
+		int port = host.getPort();
+		if ( port < 0 ) {
+			Scheme s = getSchemeRegistry().get( scheme );
+			if ( s != null ) port = s.getDefaultPort();
+		}
+		return scheme + "://" + host.getHostName().toLowerCase() + ":" + port;
+	}
+	
+	/* leased connections and waiting requests for one route */
+	private static class RouteCounts {
+		final AtomicInteger leased = new AtomicInteger();
+		final AtomicInteger pending = new AtomicInteger();
+	}
+	
+	/**
+	 * State of the pool for a single host.
+	 */
+	public static class RouteStats {
+		private final String route;
+		private final int max, leased, available, pending;
+		
+		RouteStats( String route, int max, int leased, int available, int pending ) {
+			this.route = route;
+			this.max = max;
+			this.leased = leased;
+			this.available = available;
+			this.pending = pending;
+		}
+		
+		/** @return <code>scheme://host:port</code> */
+		public String getRoute() { return route; }
+		/** @return the max number of connections to this host */
+		public int getMax() { return max; }
+		/** @return the number of connections in use */
+		public int getLeased() { return leased; }
+		/** @return the number of idle connections */
+		public int getAvailable() { return available; }
+		/** @return the number of requests waiting for a connection */
+		public int getPending() { return pending; }
+		
+		/** @return a map with the keys <code>max</code>, <code>leased</code>,
+		 * <code>available</code> and <code>pending</code> */
+		public Map<String,Integer> toMap() {
+			Map<String,Integer> map = new LinkedHashMap<String,Integer>();
+			map.put( "max", max );
+			map.put( "leased", leased );
+			map.put( "available", available );
+			map.put( "pending", pending );
+			return map;
+		}
+		
+		@Override public String toString() { return route + toMap(); }
+	}
+	
+	/**
+	 * Records the time from sending each request until its response is 
+	 * received. 
+	 */
+	private class RequestTimer implements HttpRequestInterceptor, HttpResponseInterceptor {
+		
+		public void process( HttpRequest request, HttpContext context ) 
+				throws HttpException, IOException {
+			context.setAttribute( START_ATTR, System.nanoTime() );
+		}
+
+		public void process( HttpResponse response, HttpContext context ) 
+				throws HttpException, IOException {
+			Long start = (Long)context.getAttribute( START_ATTR );
+			if ( start == null ) return;
+			long elapsed = System.nanoTime() - start;
+			Integer status = response.getStatusLine().getStatusCode();
+			LatencyHistogram h = requestTime.get( status );
+			if ( h == null ) {
+				synchronized ( requestTime ) {
+					h = requestTime.get( status );
+					if ( h == null ) requestTime.put( status, h = new LatencyHistogram() );
+				}
+			}
+			h.record( elapsed );
+		}
+	}
+}
@@ -21,7 +21,10 @@
  */
 package groovyx.net.http;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 import org.apache.http.Header;
 import org.apache.http.HeaderElement;
@@ -31,6 +34,7 @@ import org.apache.http.HttpRequest;
 import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.entity.HttpEntityWrapper;
 import org.apache.http.protocol.HttpContext;
 
 /**
@@ -41,6 +45,13 @@ public abstract class ContentEncoding {
 
 	public static final String ACCEPT_ENC_HDR = "Accept-Encoding";
 	public static final String CONTENT_ENC_HDR = "Content-Encoding";
+	
+	/**
+	 * Context attribute which holds the {@link DecodingEntity} of the 
+	 * current response, since the connection manager may wrap the entity 
+	 * once the response interceptors have run.
+	 */
+	public static final String DECODING_ATTR = "groovyx.net.http.encoding.entity";
 
 	protected abstract String getContentEncoding();
 	protected abstract HttpEntity wrapResponseEntity( HttpEntity raw );
@@ -76,6 +87,7 @@ public abstract class ContentEncoding {
 		public void process( final HttpRequest req,
 				final HttpContext context ) throws HttpException, IOException {
 			
+			context.removeAttribute( DECODING_ATTR );
 			// set the Accept-Encoding header:
 			String encoding = getContentEncoding();			
 			if ( !req.containsHeader( ACCEPT_ENC_HDR ) )
@@ -106,8 +118,12 @@ public abstract class ContentEncoding {
 		public void process( final HttpResponse response, final HttpContext context ) 
 				throws HttpException, IOException {
 
-			if ( hasEncoding( response, getContentEncoding() ) )
-				response.setEntity( wrapResponseEntity( response.getEntity() ) );
+			if ( hasEncoding( response, getContentEncoding() ) ) {
+				HttpEntity entity = wrapResponseEntity( response.getEntity() );
+				response.setEntity( entity );
+				if ( entity instanceof DecodingEntity )
+					context.setAttribute( DECODING_ATTR, entity );
+			}
 		}
 		
 		protected boolean hasEncoding( final HttpResponse response, final String encoding ) {
@@ -124,4 +140,122 @@ public abstract class ContentEncoding {
 			return false;
 		}
 	}
+	
+	/**
+	 * Base class for a response entity whose content is decoded from the 
+	 * wrapped entity's content.  The decoded stream is closed when the entity
+	 * is {@link #consumeContent() consumed}, so that any resources held by the
+	 * decoder (such as a pooled {@link java.util.zip.Inflater}) are released 
+	 * even if the response handler does not close it.
+	 * @since 0.6
+	 */
+	public static abstract class DecodingEntity extends HttpEntityWrapper {
+		
+		private InputStream content;
+		private ReadTracker encodedContent;
+		
+		public DecodingEntity( final HttpEntity entity ) {
+			super( entity );
+		}
+		
+		/**
+		 * Wrap the encoded content in a decoding stream.
+		 * @param encoded content of the wrapped entity
+		 * @return a stream of decoded content
+		 */
+		public abstract InputStream decode( InputStream encoded ) throws IOException;
+		
+		/**
+		 * Returns a stream which decodes the wrapped entity's content.
+		 */
+		@Override
+		public InputStream getContent() throws IOException {
+			this.encodedContent = new ReadTracker( wrappedEntity.getContent() );
+			this.content = decode( encodedContent );
+			return this.content;
+		}
+		
+		/**
+		 * @return -1, since the length of the decoded content is not known
+		 */
+		@Override
+		public long getContentLength() {
+			return -1;
+		}
+		
+		/**
+		 * Writes the decoded content.
+		 */
+		@Override
+		public void writeTo( OutputStream out ) throws IOException {
+			InputStream in = getContent();
+			try {
+				byte[] buf = new byte[4096];
+				int n;
+				while ( ( n = in.read( buf ) ) >= 0 ) out.write( buf, 0, n );
+			}
+			finally { in.close(); }
+		}
+		
+		/**
+		 * Closes the decoded stream, if any, then consumes the wrapped entity.
+		 */
+		@Override
+		public void consumeContent() throws IOException {
+			InputStream in = this.content;
+			this.content = null;
+			this.encodedContent = null;
+			try {
+				if ( in != null ) in.close();
+			}
+			finally { wrappedEntity.consumeContent(); }
+		}
+		
+		/**
+		 * @return the entity holding the encoded content
+		 */
+		public HttpEntity getEncodedEntity() {
+			return wrappedEntity;
+		}
+		
+		/**
+		 * If the stream last returned by {@link #getContent()} has not read 
+		 * anything yet, detach it from this entity and return the encoded 
+		 * stream that it would have read from.  This allows the response to 
+		 * be buffered in its (smaller) encoded form and decoded later. 
+		 * @return the encoded stream, or <code>null</code> if the content has 
+		 * not been requested or has already been read.
+		 */
+		public InputStream takeUnreadContent() {
+			ReadTracker encoded = this.encodedContent;
+			if ( encoded == null || encoded.read ) return null;
+			this.content = null;
+			this.encodedContent = null;
+			return encoded.getSource();
+		}
+	}
+	
+	/** Notes whether anything has been read from a stream */
+	private static class ReadTracker extends FilterInputStream {
+		boolean read = false;
+		
+		ReadTracker( InputStream in ) { super( in ); }
+		
+		InputStream getSource() { return this.in; }
+		
+		@Override public int read() throws IOException {
+			read = true;
+			return super.read();
+		}
+		
+		@Override public int read( byte[] b, int off, int len ) throws IOException {
+			read = true;
+			return super.read( b, off, len );
+		}
+		
+		@Override public long skip( long n ) throws IOException {
+			read = true;
+			return super.skip( n );
+		}
+	}
 }
\ No newline at end of file
@@ -21,16 +21,31 @@
  */
 package groovyx.net.http;
 
+import groovy.lang.Closure;
 import groovyx.net.http.ContentEncoding.Type;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 
+import org.apache.http.HttpEntity;
 import org.apache.http.client.HttpClient;
 import org.apache.http.impl.client.AbstractHttpClient;
 
 /**
- * Keeps track of available content-encoding handlers.
+ * <p>Keeps track of available content-encoding handlers.  Additional codecs 
+ * (such as <code>br</code> or <code>zstd</code>) may be registered either as 
+ * a {@link ContentEncoding} subclass, or as a closure which is passed the 
+ * encoded response stream and returns a decoding stream:</p>
+ * <pre>
+ * http.contentEncodingRegistry['br'] = { InputStream raw -> new BrotliInputStream( raw ) }
+ * http.setContentEncoding( 'gzip', 'deflate', 'br' )</pre>
+ * 
+ * <p>Encodings are only requested (in the <code>Accept-Encoding</code> 
+ * header) and decoded once they are enabled with 
+ * {@link HTTPBuilder#setContentEncoding(Object...)}.</p>
  * @author <a href='mailto:tomstrummer+httpbuilder@gmail.com'>Tom Nichols</a>
  */
 public class ContentEncodingRegistry {
@@ -49,6 +64,53 @@ public class ContentEncodingRegistry {
 		map.put( Type.DEFLATE.toString(), new DeflateEncoding() );
 		return map;
 	}	
+	
+	/**
+	 * Get the handler for the given content-encoding.
+	 * @param encoding a {@link ContentEncoding.Type} or encoding name
+	 * @return the handler, or <code>null</code> if none is registered.
+	 */
+	public ContentEncoding getAt( Object encoding ) {
+		return availableEncoders.get( encoding.toString().toLowerCase() );
+	}
+	
+	/**
+	 * Register a handler for the given content-encoding, replacing any 
+	 * existing handler.  
+	 * @param encoding a {@link ContentEncoding.Type} or encoding name
+	 * @param handler either a {@link ContentEncoding}, or a Closure which 
+	 *   accepts the encoded <code>InputStream</code> and returns an 
+	 *   <code>InputStream</code> of decoded content.
+	 */
+	public void putAt( Object encoding, Object handler ) {
+		String name = encoding.toString().toLowerCase();
+		if ( handler instanceof Closure ) 
+			handler = new ClosureEncoding( name, (Closure)handler );
+		else if ( ! ( handler instanceof ContentEncoding ) ) throw new IllegalArgumentException( 
+				"Handler must be a ContentEncoding or a Closure: " + handler );
+		availableEncoders.put( name, (ContentEncoding)handler );
+	}
+	
+	/**
+	 * Alias for {@link #getAt(Object)} to allow property-style access.
+	 */
+	public ContentEncoding propertyMissing( Object key ) {
+		return this.getAt( key );
+	}
+	
+	/**
+	 * Alias for {@link #putAt(Object, Object)} to allow property-style access.
+	 */
+	public void propertyMissing( Object key, Object handler ) {
+		this.putAt( key, handler );
+	}
+	
+	/**
+	 * Iterate over the registered encodings
+	 */
+	public Iterator<Map.Entry<String,ContentEncoding>> iterator() {
+		return availableEncoders.entrySet().iterator();
+	}
 
 	/**
 	 * Add the request and response interceptors to the {@link HttpClient}, 
@@ -65,10 +127,33 @@ public class ContentEncodingRegistry {
 		client.removeResponseInterceptorByClass( ContentEncoding.ResponseInterceptor.class );
 		
 		for ( Object encName : encodings ) {
-			ContentEncoding enc = availableEncoders.get( encName.toString() );
+			ContentEncoding enc = getAt( encName );
 			if ( enc == null ) continue;
 			client.addRequestInterceptor( enc.getRequestInterceptor() );
 			client.addResponseInterceptor( enc.getResponseInterceptor() );
 		}
 	}
+	
+	/**
+	 * Content encoding that decodes responses using a closure.
+	 */
+	private static class ClosureEncoding extends ContentEncoding {
+		final String name;
+		final Closure decoder;
+		
+		ClosureEncoding( String name, Closure decoder ) {
+			this.name = name;
+			this.decoder = decoder;
+		}
+		
+		@Override protected String getContentEncoding() { return this.name; }
+		
+		@Override protected HttpEntity wrapResponseEntity( HttpEntity raw ) {
+			return new DecodingEntity( raw ) {
+				@Override public InputStream decode( InputStream encoded ) throws IOException {
+					return (InputStream)decoder.call( encoded );
+				}
+			};
+		}
+	}
 }
@@ -56,6 +56,16 @@ public enum ContentType {
 	 * </ul>
 	 */
 	JSON("application/json","application/javascript","text/javascript"),
+	/**
+	 * Same content-types as {@link #JSON}, but the response is parsed by a
+	 * {@link JSONStreamReader} rather than being read into memory all at 
+	 * once.  Use this for very large responses.  Request data is still 
+	 * encoded as {@link #JSON}.
+	 */
+	JSON_STREAM("application/json","application/javascript","text/javascript") {
+		/** The key under which the streaming parser is registered */
+		@Override public String toString() { return "application/json+stream"; }
+	},
 	/** 
 	 * <ul>
 	 *  <li><code>application/xml</code></li>
@@ -65,6 +75,16 @@ public enum ContentType {
 	 * </ul>
 	 */
 	XML("application/xml","text/xml","application/xhtml+xml","application/atom+xml"),
+	/**
+	 * Same content-types as {@link #XML}, but the response is parsed by an
+	 * {@link XMLStreamSlurper} one element at a time, rather than being 
+	 * parsed into a tree all at once.  Use this for very large responses.  
+	 * Request data is still encoded as {@link #XML}.
+	 */
+	XML_STREAM("application/xml","text/xml","application/xhtml+xml","application/atom+xml") {
+		/** The key under which the streaming parser is registered */
+		@Override public String toString() { return "application/xml+stream"; }
+	},
 	/** <code>text/html</code> */
 	HTML("text/html"),
 	/** <code>application/x-www-form-urlencoded</code> */
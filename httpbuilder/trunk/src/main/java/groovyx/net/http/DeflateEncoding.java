@@ -28,7 +28,6 @@ import java.io.InputStream;
 import java.util.zip.InflaterInputStream;
 
 import org.apache.http.HttpEntity;
-import org.apache.http.entity.HttpEntityWrapper;
 
 /**
  * Content encoding used to handle Deflate responses.
@@ -58,29 +57,22 @@ public class DeflateEncoding extends ContentEncoding {
 	 * Entity used to interpret a Deflate-encoded response
 	 * @author <a href='mailto:tomstrummer+httpbuilder@gmail.com'>Tom Nichols</a>
 	 */
-    public static class InflaterEntity extends HttpEntityWrapper {
+    public static class InflaterEntity extends DecodingEntity {
 
         public InflaterEntity(final HttpEntity entity) {
             super(entity);
         }
     
         /**
-         * returns a {@link InflaterInputStream} which wraps the original entity's
-         * content stream
+         * returns an {@link InflatingInputStream} which decodes the original 
+         * entity's content stream.  This behaves like an 
+         * {@link InflaterInputStream} but uses a pooled Inflater, and also 
+         * accepts raw deflate data without a zlib header. 
          * @see HttpEntity#getContent()
          */
         @Override
-        public InputStream getContent() throws IOException, IllegalStateException {
-            return new InflaterInputStream( wrappedEntity.getContent() );
-        }
-
-        /**
-         * @return -1
-         */
-        @Override
-        public long getContentLength() {
-            // length of ungzipped content is not known
-            return -1;
+        public InputStream decode( InputStream encoded ) throws IOException {
+            return new InflatingInputStream( encoded, false );
         }
     }
 
@@ -36,6 +36,7 @@ import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -78,6 +79,13 @@ import org.codehaus.groovy.runtime.MethodClosure;
  * {@link StreamingMarkupBuilder}. See each <code>encode...</code> method 
  * for details for each particular content-type.</p>
  * 
+ * <p>JSON and XML bodies are normally rendered to a String before the request
+ * is sent.  Iterators (and Iterables that are not Collections) are instead
+ * written directly to the connection as a {@link StreamingEntity}, using 
+ * <code>chunked</code> transfer-encoding, so that large uploads do not need
+ * to be held in memory.  Setting {@link #setStreaming(boolean) streaming} 
+ * does the same for all JSON and XML bodies.</p>
+ * 
  * <p>Contrary to its name, this class does not have anything to do with the 
  * <code>content-encoding</code> HTTP header.  </p>
  * 
@@ -88,6 +96,7 @@ import org.codehaus.groovy.runtime.MethodClosure;
 public class EncoderRegistry {
 	
 	Charset charset = Charset.defaultCharset(); // 1.5
+	boolean streaming = false;
 	private Map<String,Closure> registeredEncoders = buildDefaultEncoderMap();
 
 	/**
@@ -100,6 +109,25 @@ public class EncoderRegistry {
 		this.charset = Charset.forName(charset);
 	}
 	
+	/**
+	 * If true, JSON and XML request bodies (other than Strings) are written
+	 * directly to the connection with <code>chunked</code> transfer-encoding, 
+	 * rather than first being rendered to a String.  This keeps memory use 
+	 * flat for large bodies, but the server must accept chunked requests.  
+	 * Iterators are always streamed regardless of this setting.  Default is 
+	 * <code>false</code>.
+	 * @param streaming
+	 */
+	public void setStreaming( boolean streaming ) {
+		this.streaming = streaming;
+	}
+	
+	/**
+	 * @see #setStreaming(boolean)
+	 * @return true if JSON and XML bodies are streamed
+	 */
+	public boolean isStreaming() { return this.streaming; }
+	
 	/**
 	 * Default request encoder for a binary stream.  Acceptable argument 
 	 * types are:
@@ -249,20 +277,56 @@ public class EncoderRegistry {
 	 * <code>toString</code> produces valid markup, or a Closure which will be 
 	 * interpreted as a builder definition.  A closure argument is 
 	 * passed to {@link StreamingMarkupBuilder#bind(groovy.lang.Closure)}.
+	 * 
+	 * <p>An Iterator (or an Iterable that is not a Collection) is streamed as
+	 * a sequence of markup fragments, each of which may be a String, 
+	 * Writable or builder Closure.  The fragments are written in order as the 
+	 * request is sent, so the first and last will typically open and close 
+	 * the root element.  If {@link #setStreaming(boolean) streaming} is 
+	 * enabled, a Closure or Writable is also written directly to the 
+	 * connection.</p>
 	 * @param xml data that defines the XML structure
 	 * @return an {@link HttpEntity} encapsulating this request data
 	 * @throws UnsupportedEncodingException
 	 */
 	public HttpEntity encodeXML( Object xml, Object contentType ) 
 			throws UnsupportedEncodingException {
+		if ( contentType == null ) contentType = ContentType.XML;
+		if ( isStreamSource( xml ) ) return streamXML( xml, contentType );
+		
 		if ( xml instanceof Closure ) {
 			StreamingMarkupBuilder smb = new StreamingMarkupBuilder();
 			xml = smb.bind( xml );
 		}
-		if ( contentType == null ) contentType = ContentType.XML;
+		if ( streaming && xml instanceof Writable && ! ( xml instanceof GString ) )
+			return new StreamingEntity( (Writable)xml, contentType, charset, true );
 		return createEntity( contentType, xml.toString() );
 	}
 	
+	/**
+	 * Create an entity that writes each fragment from the given Iterator or 
+	 * Iterable when the request is sent.
+	 * @see #encodeXML(Object, Object)
+	 */
+	protected HttpEntity streamXML( final Object fragments, Object contentType ) {
+		Writable source = new Writable() {
+			public Writer writeTo( Writer out ) throws IOException {
+				Iterator<?> it = fragments instanceof Iterator ? (Iterator<?>)fragments 
+						: ((Iterable<?>)fragments).iterator();
+				while ( it.hasNext() ) {
+					Object xml = it.next();
+					if ( xml instanceof Closure ) 
+						xml = new StreamingMarkupBuilder().bind( xml );
+					if ( xml instanceof Writable ) ((Writable)xml).writeTo( out );
+					else if ( xml != null ) out.write( xml.toString() );
+				}
+				return out;
+			}
+		};
+		return new StreamingEntity( source, contentType, charset, 
+				! ( fragments instanceof Iterator ) );
+	}
+	
 	/**
 	 * <p>Accepts a Collection or a JavaBean object which is converted to JSON.  
 	 * A Map or POJO/POGO will be converted to a {@link JSONObject}, and any 
@@ -288,6 +352,13 @@ public class EncoderRegistry {
 	 * }</pre>
 	 * <p> will return the following JSON string:<pre>
 	 * {"root":{"first":{"one":1,"two":"2"},"second":"some string"}}</pre></p>
+	 * 
+	 * <p>A closure that declares a single {@link JSONStreamWriter} parameter 
+	 * is instead called as the request is sent, and writes the document 
+	 * directly to the connection.  An Iterator (or an Iterable that is not a 
+	 * Collection) is likewise streamed as a JSON array, one element at a 
+	 * time.  If {@link #setStreaming(boolean) streaming} is enabled, Maps, 
+	 * Collections and beans are streamed as well.</p>
 	 *  
 	 * @param model data to be converted to JSON, as specified above.
 	 * @return an {@link HttpEntity} encapsulating this request data
@@ -296,6 +367,11 @@ public class EncoderRegistry {
 	@SuppressWarnings("unchecked")
 	public HttpEntity encodeJSON( Object model, Object contentType ) throws UnsupportedEncodingException {
 		
+		if ( contentType == null ) contentType = ContentType.JSON;
+		if ( isStreamSource( model ) || isStreamWriterClosure( model ) || ( streaming 
+				&& ! ( model instanceof String || model instanceof GString ) ) )
+			return streamJSON( model, contentType );
+		
 		Object json;	
 		if ( model instanceof Map ) {
 			json = new JSONObject();
@@ -314,10 +390,48 @@ public class EncoderRegistry {
 			json = model; // assume string is valid JSON already.
 		else json = JSONObject.fromObject( model ); // Assume object is a JavaBean
 		
-		if ( contentType == null ) contentType = ContentType.JSON;
 		return this.createEntity( contentType, json.toString() );
 	}
 	
+	/**
+	 * Create an entity that serializes the given model with a 
+	 * {@link JSONStreamWriter} when the request is sent.
+	 * @see #encodeJSON(Object, Object)
+	 */
+	protected HttpEntity streamJSON( final Object model, Object contentType ) {
+		Writable source = new Writable() {
+			public Writer writeTo( Writer out ) throws IOException {
+				JSONStreamWriter json = new JSONStreamWriter( out );
+				if ( isStreamWriterClosure( model ) ) ((Closure)model).call( json );
+				else if ( model instanceof Closure ) {
+					Closure closure = (Closure)model;
+					closure.setDelegate( new JsonGroovyBuilder() );
+					json.value( closure.call() );
+				}
+				else json.value( model );
+				json.flush();
+				return out;
+			}
+		};
+		return new StreamingEntity( source, contentType, charset, 
+				! ( model instanceof Iterator ) );
+	}
+	
+	/**
+	 * True for sources that are read one element at a time: Iterators, and 
+	 * Iterables that are neither Collections nor Writable (e.g. GPathResult).
+	 */
+	protected boolean isStreamSource( Object data ) {
+		return data instanceof Iterator || ( data instanceof Iterable 
+				&& ! ( data instanceof Collection ) && ! ( data instanceof Writable ) );
+	}
+	
+	private boolean isStreamWriterClosure( Object data ) {
+		if ( ! ( data instanceof Closure ) ) return false;
+		Class<?>[] params = ((Closure)data).getParameterTypes();
+		return params.length == 1 && params[0] == JSONStreamWriter.class;
+	}
+	
 	/**
 	 * Helper method used by encoder methods to create an {@link HttpEntity} 
 	 * instance that encapsulates the request data.  This may be used by any 
@@ -28,7 +28,6 @@ import java.io.InputStream;
 import java.util.zip.GZIPInputStream;
 
 import org.apache.http.HttpEntity;
-import org.apache.http.entity.HttpEntityWrapper;
 
 /**
  * Content encoding used to handle GZIP responses.
@@ -57,29 +56,21 @@ public class GZIPEncoding extends ContentEncoding {
 	 * Entity used to interpret a GZIP-encoded response
 	 * @author <a href='mailto:tomstrummer+httpbuilder@gmail.com'>Tom Nichols</a>
 	 */
-    protected static class GZIPDecompressingEntity extends HttpEntityWrapper {
+    protected static class GZIPDecompressingEntity extends DecodingEntity {
 
         public GZIPDecompressingEntity(final HttpEntity entity) {
             super(entity);
         }
     
         /**
-         * returns a {@link GZIPInputStream} which wraps the original entity's
-         * content stream
+         * returns an {@link InflatingInputStream} which decodes the original 
+         * entity's content stream.  This behaves like a {@link GZIPInputStream} 
+         * but uses a pooled Inflater. 
          * @see HttpEntity#getContent()
          */
         @Override
-        public InputStream getContent() throws IOException, IllegalStateException {
-            return new GZIPInputStream( wrappedEntity.getContent() );
-        }
-
-        /**
-         * @return -1
-         */
-        @Override
-        public long getContentLength() {
-            // length of un-gzipped content is not known
-            return -1;
+        public InputStream decode( InputStream encoded ) throws IOException {
+            return new InflatingInputStream( encoded, true );
         }
     }
 }
@@ -29,6 +29,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
@@ -181,6 +182,8 @@ public class HTTPBuilder {
 	
 	protected EncoderRegistry encoders = new EncoderRegistry();
 	protected ParserRegistry parsers = new ParserRegistry();
+	protected ResponseBuffer responseBuffer = new ResponseBuffer();
+	protected ResponseCache responseCache = null;
 	
 	/**
 	 * Creates a new instance with a <code>null</code> default URI.
@@ -198,7 +201,8 @@ public class HTTPBuilder {
 	
 	/**
 	 * Override this method in a subclass to customize creation of the 
-	 * HttpClient instance.
+	 * HttpClient instance.  To share one builder between threads, return 
+	 * {@link #createPooledClient(HttpParams)}.
 	 * @param params
 	 * @return
 	 */
@@ -206,6 +210,20 @@ public class HTTPBuilder {
 		return new DefaultHttpClient(params);
 	}
 	
+	/**
+	 * Creates a client whose connections are kept in a {@link ConnectionPool},
+	 * so it may be used by multiple threads at once.  This is used by 
+	 * {@link AsyncHTTPBuilder} and {@link RESTClient}.
+	 * @param params
+	 * @return
+	 */
+	protected AbstractHttpClient createPooledClient( HttpParams params ) {
+		ConnectionPool pool = new ConnectionPool( params );
+		AbstractHttpClient client = new DefaultHttpClient( pool, params );
+		pool.instrument( client );
+		return client;
+	}
+	
 	/**
 	 * Give a default URI to be used for all request methods that don't 
 	 * explicitly take a URI parameter.
@@ -425,11 +443,7 @@ public class HTTPBuilder {
 	protected Object doRequest( URI uri, Method method, Object contentType, Closure configClosure ) 
 			throws ClientProtocolException, IOException {
 
-		HttpRequestBase reqMethod;
-		try { reqMethod = method.getRequestType().newInstance();
-		// this exception should reasonably never occur:
-		} catch ( Exception e ) { throw new RuntimeException( e ); }
-
+		HttpRequestBase reqMethod = PreparedRequest.newRequest( method );
 		reqMethod.setURI( uri );
 		RequestConfigDelegate delegate = new RequestConfigDelegate( reqMethod, contentType, 
 				this.defaultRequestHeaders,
@@ -441,28 +455,123 @@ public class HTTPBuilder {
 		return this.doRequest( delegate );
 	}
 	
+	/**
+	 * Same as {@link #prepare(Method, Object, Closure)}, using the default 
+	 * content-type.
+	 */
+	public PreparedRequest prepare( Method method, Closure configClosure ) {
+		return this.prepare( method, this.defaultContentType, configClosure );
+	}
+	
+	/**
+	 * <p>Create a request template which may be executed many times.  The 
+	 * config closure is called once, in the same way as for 
+	 * {@link #request(Method, Object, Closure)}, and its result is 
+	 * captured in the returned {@link PreparedRequest}.  The request path may
+	 * contain <code>{name}</code> placeholders which are filled in for each
+	 * call:</p>
+	 * <pre>
+	 * def getUser = http.prepare( GET, JSON ) {
+	 *   uri.path = '/users/{id}'
+	 *   response.success = { resp, json -> json }
+	 * }
+	 * (1..100).each { println getUser.execute( id : it ).name }</pre>
+	 * 
+	 * <p>This is faster than calling <code>request()</code> for each 
+	 * request, since the closure, URI and headers are not re-evaluated.</p>
+	 * @param method {@link Method HTTP method}
+	 * @param contentType either a {@link ContentType} or valid content-type string.
+	 * @param configClosure request configuration options; see 
+	 *   {@link RequestConfigDelegate}
+	 * @return the request template
+	 */
+	public PreparedRequest prepare( Method method, Object contentType, Closure configClosure ) {
+		HttpRequestBase reqMethod = PreparedRequest.newRequest( method );
+		if ( this.defaultURI != null ) reqMethod.setURI( this.defaultURI.toURI() );
+		RequestConfigDelegate delegate = new RequestConfigDelegate( reqMethod, contentType, 
+				this.defaultRequestHeaders, this.defaultResponseHandlers );
+		configClosure.setDelegate( delegate );
+		configClosure.setResolveStrategy( Closure.DELEGATE_FIRST );
+		configClosure.call( reqMethod );
+		return new PreparedRequest( this, method, delegate );
+	}
+	
+	/**
+	 * Create a request template from named arguments.  The arguments are
+	 * the same as for {@link #get(Map)} or {@link #post(Map)}; the 
+	 * <code>path</code> may contain <code>{name}</code> placeholders:
+	 * <pre>def getUser = http.prepare( GET, path : '/users/{id}', contentType : JSON )</pre>
+	 * The builder's default success handler is used unless 
+	 * {@link #prepare(Method, Object, Closure)} is used to set a different
+	 * one. 
+	 * @param args see {@link RequestConfigDelegate#setPropertiesFromMap(Map)}
+	 * @param method {@link Method HTTP method}
+	 * @return the request template
+	 * @throws URISyntaxException if the <code>uri</code> argument is invalid
+	 */
+	public PreparedRequest prepare( Map<String,?> args, Method method ) 
+			throws URISyntaxException {
+		RequestConfigDelegate delegate = new RequestConfigDelegate( 
+				args, PreparedRequest.newRequest( method ), null );
+		return new PreparedRequest( this, method, delegate );
+	}
+	
 	/**
 	 * All <code>request</code> methods delegate to this method.
 	 */
 	protected Object doRequest( final RequestConfigDelegate delegate ) 
 			throws ClientProtocolException, IOException {
 		
-		final HttpRequestBase reqMethod = delegate.getRequest();
-		
-		Object contentType = delegate.getContentType();
+		final HttpRequestBase reqMethod = prepareRequest( delegate );
 		
-		if ( this.autoAcceptHeader ) {
-			String acceptContentTypes = contentType.toString();
-			if ( contentType instanceof ContentType ) 
-				acceptContentTypes = ((ContentType)contentType).getAcceptHeader();	
-			reqMethod.setHeader( "Accept", acceptContentTypes );
+		HttpResponseDecorator resp = new HttpResponseDecorator( 
+				sendRequest( reqMethod, delegate.getContext() ), 
+				delegate.getContext(), null );
+		return handleResponse( delegate, resp );
+	}
+	
+	/**
+	 * Send a prepared request with the HttpClient, or answer it from the 
+	 * {@link #setResponseCache(ResponseCache) response cache} if one is set.
+	 * @return the response, whose entity has not yet been consumed
+	 */
+	protected HttpResponse sendRequest( HttpRequestBase reqMethod, HttpContext context ) 
+			throws ClientProtocolException, IOException {
+		ResponseCache cache = this.responseCache;
+		return cache != null ? cache.execute( client, reqMethod, context )
+				: client.execute( reqMethod, context );
+	}
+	
+	/**
+	 * Apply the URI, <code>Accept</code> header and any other request headers
+	 * from the delegate to the underlying request, so that it is ready to be 
+	 * executed.  This is called by {@link #doRequest(RequestConfigDelegate)}
+	 * before the request is sent.
+	 * @param delegate the configured request 
+	 * @return the request instance held by the delegate
+	 */
+	protected HttpRequestBase prepareRequest( RequestConfigDelegate delegate ) {
+		final HttpRequestBase reqMethod = delegate.getRequest();
+		if ( delegate.prepared ) { // URI and Accept header were set by a PreparedRequest
+			if ( log.isDebugEnabled() ) 
+				log.debug( reqMethod.getMethod() + " " + reqMethod.getURI() );
+		}
+		else {
+			Object contentType = delegate.getContentType();
+			
+			if ( this.autoAcceptHeader ) {
+				String acceptContentTypes = contentType.toString();
+				if ( contentType instanceof ContentType ) 
+					acceptContentTypes = ((ContentType)contentType).getAcceptHeader();	
+				reqMethod.setHeader( "Accept", acceptContentTypes );
+			}
+			
+			reqMethod.setURI( delegate.getUri().toURI() );
+			if ( reqMethod.getURI() == null)
+				throw new IllegalStateException( "Request URI cannot be null" );
+			
+			log.debug( reqMethod.getMethod() + " " + reqMethod.getURI() );
 		}
-		
-		reqMethod.setURI( delegate.getUri().toURI() );
-		if ( reqMethod.getURI() == null)
-			throw new IllegalStateException( "Request URI cannot be null" );
-		
-		log.debug( reqMethod.getMethod() + " " + reqMethod.getURI() );
 
 		// set any request headers from the delegate
 		Map<?,?> headers = delegate.getHeaders(); 
@@ -472,10 +581,22 @@ public class HTTPBuilder {
 			if ( val == null ) reqMethod.removeHeaders( key.toString() ); 
 			else reqMethod.setHeader( key.toString(), val.toString() );
 		}
-		
-		HttpResponseDecorator resp = new HttpResponseDecorator( 
-				client.execute( reqMethod, delegate.getContext() ),
-				delegate.getContext(), null );
+		return reqMethod;
+	}
+	
+	/**
+	 * Find the response handler for the response status, parse the response 
+	 * if the handler expects it, and call the handler.  The response entity 
+	 * is always consumed when this method returns.
+	 * @param delegate the request configuration, which holds the response 
+	 *   handlers and the expected response content-type
+	 * @param resp the response to handle
+	 * @return whatever value was returned by the response handler 
+	 * @throws IOException if the response entity could not be consumed
+	 */
+	protected Object handleResponse( RequestConfigDelegate delegate, 
+			HttpResponseDecorator resp ) throws IOException {
+		Object contentType = delegate.getContentType();
 		try {
 			int status = resp.getStatusLine().getStatusCode();
 			Closure responseClosure = delegate.findResponseHandler( status );
@@ -557,10 +678,23 @@ public class HTTPBuilder {
 		if ( parser == null ) log.warn( "No parser found for content-type: " 
 			+ responseContentType );
 		else {
+			// a cached response may already have been parsed by this parser
+			ResponseCache cache = this.responseCache;
+			HttpContext context = resp instanceof HttpResponseDecorator 
+					? ((HttpResponseDecorator)resp).getContext() : null;
+			if ( cache != null ) {
+				parsedData = cache.getParsed( context, responseContentType, parser );
+				if ( parsedData != null ) {
+					log.debug( "Using cached parsed response for: " + responseContentType );
+					return parsedData;
+				}
+			}
+			
 			log.debug( "Parsing response as: " + responseContentType );
 			parsedData = parser.call( resp );
 			if ( parsedData == null ) log.warn( "Parser returned null!" );
 			else log.debug( "Parsed data to instance of: " + parsedData.getClass() );
+			if ( cache != null ) cache.putParsed( context, responseContentType, parser, parsedData );
 		}
 		return parsedData;
 	}
@@ -598,7 +732,12 @@ public class HTTPBuilder {
 	 * BINARY} or {@link ParserRegistry#parseText(HttpResponse) TEXT}, the 
 	 * parser will return streaming content -- an <code>InputStream</code> or 
 	 * <code>Reader</code>.  In these cases, this handler will buffer the the 
-	 * response content before the network connection is closed.  </p>
+	 * response content before the network connection is closed.  Content is 
+	 * buffered by the {@link #setResponseBuffer(ResponseBuffer) response buffer},
+	 * which keeps binary data out of the heap, and writes large responses to 
+	 * a temporary file.  If the response has a <code>content-encoding</code> 
+	 * such as gzip, the buffer holds the compressed content, which is then 
+	 * decoded as it is read.</p>
 	 * 
 	 * <p>In practice, a user-supplied response handler closure is 
 	 * <i>designed</i> to handle streaming content so it can be read directly from 
@@ -615,8 +754,29 @@ public class HTTPBuilder {
 	protected Object defaultSuccessHandler( HttpResponseDecorator resp, Object parsedData ) 
 			throws ResponseParseException {
 		try {
-			//If response is streaming, buffer it in a byte array:
-			if ( parsedData instanceof InputStream ) {
+			//If response is streaming, buffer it:
+			ResponseBuffer responseBuffer = this.responseBuffer;
+			Object decoding = resp.getContext() != null ? 
+					resp.getContext().getAttribute( ContentEncoding.DECODING_ATTR ) : null;
+			InputStream encoded = null;
+			if ( responseBuffer != null && decoding instanceof ContentEncoding.DecodingEntity 
+					&& ( parsedData instanceof InputStream || parsedData instanceof InputStreamReader ) )
+				encoded = ((ContentEncoding.DecodingEntity)decoding).takeUnreadContent();
+			if ( encoded != null ) { // buffer the compressed content, and decode it later
+				ContentEncoding.DecodingEntity entity = (ContentEncoding.DecodingEntity)decoding; 
+				InputStream in = entity.decode( responseBuffer.buffer( encoded, 
+						entity.getEncodedEntity().getContentLength() ) );
+				parsedData = parsedData instanceof InputStream ? in 
+						: new InputStreamReader( in, ParserRegistry.getCharset( resp ) );
+			}
+			else if ( responseBuffer != null && parsedData instanceof InputStream ) {
+				HttpEntity entity = resp.getEntity();
+				parsedData = responseBuffer.buffer( (InputStream)parsedData, 
+						entity != null ? entity.getContentLength() : -1 );
+			}
+			else if ( responseBuffer != null && parsedData instanceof Reader )
+				parsedData = responseBuffer.buffer( (Reader)parsedData );
+			else if ( parsedData instanceof InputStream ) {
 				ByteArrayOutputStream buffer = new ByteArrayOutputStream();
 				DefaultGroovyMethods.leftShift( buffer, (InputStream)parsedData );
 				parsedData = new ByteArrayInputStream( buffer.toByteArray() );
@@ -831,6 +991,19 @@ public class HTTPBuilder {
 	 */
 	public AbstractHttpClient getClient() { return this.client; }
 	
+	/**
+	 * Access the client's connection pool, to configure connection limits, 
+	 * idle timeout and time to live, or to read its 
+	 * {@link ConnectionPool#getMetrics() metrics}:
+	 * <pre>http.connectionPool.defaultMaxPerRoute = 10</pre>
+	 * @return the client's {@link ConnectionPool}, or <code>null</code> if
+	 *   the client was not created by {@link #createPooledClient(HttpParams)}.
+	 */
+	public ConnectionPool getConnectionPool() {
+		ClientConnectionManager cm = this.client.getConnectionManager();
+		return cm instanceof ConnectionPool ? (ConnectionPool)cm : null;
+	}
+	
 	/**
 	 * Used to access the {@link AuthConfig} handler used to configure common 
 	 * authentication mechanism.  Example:
@@ -866,6 +1039,41 @@ public class HTTPBuilder {
 		this.parsers = pr;
 	}
 	
+	/**
+	 * Set a cache which will be used to store and re-use <code>GET</code> 
+	 * responses.  By default there is no cache, and every request is sent 
+	 * to the server.  Data parsed from a cached response is shared between
+	 * requests, so response handlers must not modify it.
+	 * @param cache the cache, or <code>null</code> to disable caching.
+	 */
+	public void setResponseCache( ResponseCache cache ) {
+		this.responseCache = cache;
+	}
+	
+	/**
+	 * Get the response cache used by this instance, if any.
+	 * @see #setResponseCache(ResponseCache)
+	 */
+	public ResponseCache getResponseCache() { return this.responseCache; }
+	
+	/**
+	 * Set the buffer used to hold streaming content for the 
+	 * {@link #defaultSuccessHandler(HttpResponseDecorator, Object) default 
+	 * response handler}.  If <code>null</code>, content is buffered in a 
+	 * byte array or String instead.
+	 * @param rb
+	 */
+	public void setResponseBuffer( ResponseBuffer rb ) {
+		this.responseBuffer = rb;
+	}
+	
+	/**
+	 * Get the buffer used to hold streaming content for the default response 
+	 * handler.
+	 * @see #setResponseBuffer(ResponseBuffer)
+	 */
+	public ResponseBuffer getResponseBuffer() { return this.responseBuffer; }
+	
 	/**
 	 * Set a custom registry used to handle different 
 	 * <code>content-encoding</code> types in responses.  
@@ -875,6 +1083,16 @@ public class HTTPBuilder {
 		this.contentEncodingHandler = cer;
 	}
 	
+	/**
+	 * Get the registry used to handle <code>content-encoding</code> types in 
+	 * responses, e.g. to register additional codecs.
+	 * @see ContentEncodingRegistry#putAt(Object, Object)
+	 * @return the content-encoding registry
+	 */
+	public ContentEncodingRegistry getContentEncodingRegistry() {
+		return this.contentEncodingHandler;
+	}
+	
 	/**
 	 * Set the default HTTP proxy to be used for all requests.
 	 * @see HttpHost#HttpHost(String, int, String)
@@ -918,10 +1136,12 @@ public class HTTPBuilder {
 		private HttpRequestBase request;
 		private Object contentType;
 		private Object requestContentType;
-		private Map<Object,Closure> responseHandlers = new StringHashMap<Closure>();
+		private Map<Object,Closure> responseHandlers;
 		private URIBuilder uri;
-		private Map<Object,Object> headers = new StringHashMap<Object>();
+		private Map<Object,Object> headers;
 		private HttpContextDecorator context = new HttpContextDecorator();
+		private long deadline = 0;
+		final boolean prepared;
 		
 		public RequestConfigDelegate( HttpRequestBase request, Object contentType, 
 				Map<?,?> defaultRequestHeaders,
@@ -929,6 +1149,9 @@ public class HTTPBuilder {
 			if ( request == null ) throw new IllegalArgumentException( 
 					"Internal error - HttpRequest instance cannot be null" );
 			this.request = request;
+			this.prepared = false;
+			this.headers = new StringHashMap<Object>();
+			this.responseHandlers = new StringHashMap<Closure>();
 			this.headers.putAll( defaultRequestHeaders );
 			this.contentType = contentType;
 			if ( defaultRequestContentType != null ) 
@@ -946,6 +1169,23 @@ public class HTTPBuilder {
 			setPropertiesFromMap( args );
 		}
 		
+		/**
+		 * Used by {@link PreparedRequest}: the request URI and headers are 
+		 * already set, and the response handlers are shared between requests.
+		 * The headers start out as the template's, and may still be changed
+		 * for this request.
+		 */
+		RequestConfigDelegate( HttpRequestBase request, Object contentType, 
+				Map<Object,Closure> responseHandlers ) {
+			this.request = request;
+			this.prepared = true;
+			this.contentType = contentType;
+			this.responseHandlers = responseHandlers;
+			this.headers = new StringHashMap<Object>();
+			for ( Header h : request.getAllHeaders() ) 
+				this.headers.put( h.getName(), h.getValue() );
+		}
+		
 		/** 
 		 * Use this object to manipulate parts of the request URI, like 
 		 * query params and request path.  Example:
@@ -961,7 +1201,11 @@ public class HTTPBuilder {
 		 * types. </p>
 		 * @return {@link URIBuilder} to manipulate the request URI 
 		 */
-		public URIBuilder getUri() { return this.uri; }
+		public URIBuilder getUri() { 
+			if ( this.uri == null && this.prepared ) 
+				this.uri = new URIBuilder( request.getURI() );
+			return this.uri; 
+		}
 
 		/**
 		 * <p>Set the entire URI to be used for this request.  Acceptable 
@@ -1031,7 +1275,11 @@ public class HTTPBuilder {
 		 */
 		protected Object getRequestContentType() {
 			if ( this.requestContentType != null ) return this.requestContentType;
-			else return this.getContentType();
+			Object ct = this.getContentType();
+			// JSON_STREAM and XML_STREAM only change how the response is parsed
+			if ( ct == ContentType.JSON_STREAM ) return ContentType.JSON;
+			if ( ct == ContentType.XML_STREAM ) return ContentType.XML;
+			return ct;
 		}
 		
 		/**
@@ -1067,6 +1315,8 @@ public class HTTPBuilder {
 		 *   <dt>requestContentType</dt><dd>content type for the request, if it
 		 *      is different from the expected response content-type</dd>
 		 *   <dt>body</dt><dd>Request body that will be encoded based on the given contentType</dd>
+		 *   <dt>deadline</dt><dd>Time allowed for the request in milliseconds; 
+		 *   	see {@link #setDeadline(long)}</dd>
 		 * </dl>
 		 * Note that if both <code>queryString</code> and <code>query</code> are given,
 		 * <code>query</code> will be merged with (and potentially override) 
@@ -1110,6 +1360,9 @@ public class HTTPBuilder {
 			Object body = args.remove("body");
 			if ( body != null ) this.setBody( body );
 			
+			Object deadline = args.remove( "deadline" );
+			if ( deadline != null ) this.setDeadline( Long.parseLong( deadline.toString() ) );
+			
 			if ( args.size() > 0 ) {
 				String invalidArgs = "";
 				for ( String k : args.keySet() ) invalidArgs += k + ",";
@@ -1246,5 +1499,20 @@ public class HTTPBuilder {
 		 * @param ctx
 		 */
 		public void setContext( HttpContext ctx ) { this.context = new HttpContextDecorator(ctx); }
+		
+		/**
+		 * Set the time allowed for this request, including any retries, after
+		 * which it is aborted.  This overrides the 
+		 * {@link RequestPolicy#setDeadline(long) policy deadline}, and is only
+		 * used by an {@link AsyncHTTPBuilder} that has a {@link RequestPolicy}.
+		 * @param deadline time in milliseconds, or 0 to use the policy default.
+		 */
+		public void setDeadline( long deadline ) { this.deadline = deadline; }
+		
+		/**
+		 * @see #setDeadline(long)
+		 * @return the deadline in milliseconds, or 0 if none was set. 
+		 */
+		public long getDeadline() { return this.deadline; }
 	}
 }
\ No newline at end of file
@@ -22,11 +22,15 @@
 
 package groovyx.net.http;
 
+import groovy.lang.Closure;
+
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.Reader;
 import java.io.StringReader;
@@ -38,9 +42,15 @@ import java.net.URISyntaxException;
 import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import oauth.signpost.OAuthConsumer;
 import oauth.signpost.basic.DefaultOAuthConsumer;
@@ -69,6 +79,13 @@ import org.codehaus.groovy.runtime.DefaultGroovyMethods;
  *  <li>Parser and Encoder support</li>
  *  <li>Easy request and response header manipulation</li>
  *  <li>Basic authentication</li>
+ *  <li>Optional {@link #setExecutor(ExecutorService) executor}, e.g. a 
+ *  	{@link VirtualThreadExecutor}, which limits the number of concurrent 
+ *  	requests</li>
+ *  <li>Fixed-length or chunked {@link #setStreamingMode(StreamingMode) 
+ *  	streaming} of request bodies</li>
+ *  <li>Response streams are read to the end and closed, so that the JDK can
+ *  	re-use keep-alive connections (see {@link #getMetrics()})</li>
  * </ul>
  * Notably absent are status-code based response handling and the more complex 
  * authentication mechanisms.</p>
@@ -81,6 +98,24 @@ import org.codehaus.groovy.runtime.DefaultGroovyMethods;
  */
 public class HttpURLClient {
 
+	/**
+	 * How a request body is written to the connection.  See 
+	 * {@link HttpURLClient#setStreamingMode(StreamingMode)}.
+	 * @since 0.6
+	 */
+	public enum StreamingMode {
+		/** The JDK buffers the whole body in memory to find its length. */
+		BUFFERED,
+		/** Stream the body with a <code>Content-Length</code> header.  The 
+		 * length of the encoded body must be known. */
+		FIXED_LENGTH,
+		/** Stream the body with chunked transfer encoding. */
+		CHUNKED,
+		/** Use {@link #FIXED_LENGTH} if the length of the encoded body is
+		 * known, otherwise {@link #CHUNKED}. */
+		AUTO
+	}
+
 	private Map<String,String> defaultHeaders = new HashMap<String,String>();
 	private EncoderRegistry encoderRegistry = new EncoderRegistry();
 	private ParserRegistry parserRegistry = new ParserRegistry();
@@ -89,6 +124,11 @@ public class HttpURLClient {
 	private URIBuilder defaultURL = null;
 	private boolean followRedirects = true;
 	protected OAuthWrapper oauth;
+	private volatile ExecutorService executor = null;
+	private StreamingMode streamingMode = StreamingMode.BUFFERED;
+	private int chunkSize = 0;
+	private int maxDrainBytes = 64 * 1024;
+	private final KeepAliveTracker keepAlive = new KeepAliveTracker();
 		
 	/** Logger instance defined for use by sub-classes */
 	protected Log log =  LogFactory.getLog( getClass() );
@@ -115,15 +155,84 @@ public class HttpURLClient {
 	 *   <dt>headers</dt><dd>additional request headers, as a map</dd>
 	 *   <dt>body</dt><dd>request content body, for a PUT or POST request.  
 	 *     This will be encoded using the requestContentType</dd>
+	 *   <dt>streaming</dt><dd>a {@link StreamingMode} (or its name) which 
+	 *     controls how the request body is sent.  Defaults to the 
+	 *     {@link #setStreamingMode(StreamingMode) streamingMode} property.</dd>
+	 *   <dt>chunkSize</dt><dd>chunk size for {@link StreamingMode#CHUNKED} 
+	 *     streaming.  Defaults to the {@link #setChunkSize(int) chunkSize} 
+	 *     property.</dd>
+	 *   <dt>stream</dt><dd>if <code>true</code>, a streaming parse result
+	 *     (e.g. the <code>InputStream</code> for {@link ContentType#BINARY}
+	 *     or the <code>Reader</code> for {@link ContentType#TEXT}) of a 
+	 *     successful response is returned without reading it into memory 
+	 *     first.  The caller must close it.</dd>
 	 * </dl>
+	 * 
+	 * <p>Unless the response is streamed, the response is read to the end and
+	 * closed before this method returns, including the error stream of a 
+	 * failed response, so that the connection may be re-used.</p>
+	 * 
+	 * <p>If an {@link #setExecutor(ExecutorService) executor} is set, the 
+	 * request is run by the executor, and the calling thread waits for it.</p>
 	 * @param args named parameters
 	 * @return the parsed response
 	 * @throws URISyntaxException
 	 * @throws MalformedURLException
 	 * @throws IOException
+	 * @throws RejectedExecutionException if the executor rejects the request
 	 */
 	public HttpResponseDecorator request( Map<String,?> args ) 
 			throws URISyntaxException, MalformedURLException, IOException {
+		if ( this.executor == null ) return doRequest( args );
+		
+		ResponseFuture<HttpResponseDecorator> future = requestAsync( args );
+		try {
+			return future.get();
+		}
+		catch ( InterruptedException ex ) {
+			future.cancel( true );
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException( "Interrupted while waiting for a response" );
+		}
+		catch ( ExecutionException ex ) {
+			Throwable cause = ex.getCause();
+			if ( cause instanceof IOException ) throw (IOException)cause;
+			if ( cause instanceof URISyntaxException ) throw (URISyntaxException)cause;
+			if ( cause instanceof RuntimeException ) throw (RuntimeException)cause;
+			if ( cause instanceof Error ) throw (Error)cause;
+			throw new RuntimeException( cause );
+		}
+	}
+	
+	/**
+	 * Perform a request using the {@link #setExecutor(ExecutorService) executor},
+	 * without waiting for the response.  Parameters are the same as for 
+	 * {@link #request(Map)}.
+	 * @param args named parameters
+	 * @return a future for the response.  If the executor rejects the 
+	 *   request, the future fails with a {@link RejectedExecutionException}.
+	 * @throws IllegalStateException if no executor is set
+	 */
+	public ResponseFuture<HttpResponseDecorator> requestAsync( Map<String,?> args ) {
+		ExecutorService executor = this.executor;
+		if ( executor == null ) throw new IllegalStateException( 
+				"The 'executor' property must be set for asynchronous requests" );
+		final Map<String,?> requestArgs = new HashMap<String,Object>( args );
+		ResponseFuture<HttpResponseDecorator> future = new ResponseFuture<HttpResponseDecorator>(
+				new Callable<HttpResponseDecorator>() {
+					public HttpResponseDecorator call() throws Exception {
+						return doRequest( requestArgs );
+					}
+				}, null );
+		try {
+			executor.execute( future );
+		}
+		catch ( RejectedExecutionException ex ) { future.fail( ex ); }
+		return future;
+	}
+	
+	private HttpResponseDecorator doRequest( Map<String,?> args ) 
+			throws URISyntaxException, MalformedURLException, IOException {
 		
 		// copy so we don't modify the original collection when removing items:
 		args = new HashMap<String,Object>(args);
@@ -199,16 +308,33 @@ public class HttpURLClient {
 		}
 		
 		
+		arg = null;
+		arg = args.remove( "streaming" );
+		StreamingMode streaming = arg == null ? this.streamingMode 
+				: arg instanceof StreamingMode ? (StreamingMode)arg 
+				: StreamingMode.valueOf( arg.toString().toUpperCase( Locale.ENGLISH ) );
+		
+		arg = null;
+		arg = args.remove( "chunkSize" );
+		int chunkSize = arg != null ? Integer.parseInt( arg.toString() ) : this.chunkSize;
+		
+		arg = null;
+		arg = args.remove( "stream" );
+		boolean stream = arg != null && DefaultGroovyMethods.asBoolean( arg );
+		
 		arg = null;
 		arg = args.remove( "body" );
 		if ( arg != null ) {  // if there is a request POST or PUT body
 			conn.setDoOutput( true );
-			final HttpEntity body = (HttpEntity)encoderRegistry.getAt( 
-					requestContentType ).call( arg );
+			Closure encoder = encoderRegistry.getAt( requestContentType );
+			final HttpEntity body = encoder.getMaximumNumberOfParameters() == 2 
+					? (HttpEntity)encoder.call( new Object[] { arg, requestContentType } )
+					: (HttpEntity)encoder.call( arg );
 			// TODO configurable request charset
 			
 			//TODO don't override if there is a 'content-type' in the headers list
 			conn.addRequestProperty( "Content-Type", requestContentType );
+			setStreamingMode( conn, body, streaming, chunkSize );
 			try {
 				// OAuth Sign if necessary.  
 				if ( oauth != null ) conn = oauth.sign( conn, body );
@@ -230,10 +356,19 @@ public class HttpURLClient {
 		String method = conn.getRequestMethod();
 		log.debug( method + " " + url );
 		
-		HttpResponse response = new HttpURLResponseAdapter(conn);
+		HttpURLResponseAdapter response = new HttpURLResponseAdapter(conn);
 		if ( ContentType.ANY.equals( contentType ) ) contentType = conn.getContentType();
 
-		Object result = this.getparsedResult(method, contentType, response);
+		// error responses are always buffered, since an exception is thrown 
+		stream = stream && conn.getResponseCode() < 400;
+		Object result = null;
+		try {
+			result = this.getparsedResult(method, contentType, response, stream);
+		}
+		finally {
+			// a streamed result is released when the caller closes it
+			if ( ! ( stream && result instanceof Closeable ) ) response.release();
+		}
 		
 		log.debug( response.getStatusLine() );
 		HttpResponseDecorator decoratedResponse = new HttpResponseDecorator( response, result );
@@ -249,11 +384,12 @@ public class HttpURLClient {
 		return decoratedResponse;
 	}
 	
-	private Object getparsedResult( String method, Object contentType, HttpResponse response ) 
-			throws ResponseParseException {
+	private Object getparsedResult( String method, Object contentType, 
+			HttpResponse response, boolean stream ) throws ResponseParseException {
 		
 		Object parsedData = method.equals( "HEAD" ) || method.equals( "OPTIONS" ) ?
 				null : parserRegistry.getAt( contentType ).call( response );
+		if ( stream ) return parsedData;
 		try {
 			//If response is streaming, buffer it in a byte array:
 			if ( parsedData instanceof InputStream ) {
@@ -275,6 +411,28 @@ public class HttpURLClient {
 		}
 	}
 	
+	private void setStreamingMode( HttpURLConnection conn, HttpEntity body, 
+			StreamingMode mode, int chunkSize ) {
+		long length = body.getContentLength();
+		boolean known = length >= 0 && length <= Integer.MAX_VALUE;
+		switch ( mode ) {
+		case FIXED_LENGTH :
+			if ( ! known ) throw new IllegalArgumentException( 
+					"Fixed-length streaming requires a request body of known length" );
+			conn.setFixedLengthStreamingMode( (int)length );
+			break;
+		case AUTO :
+			if ( known ) {
+				conn.setFixedLengthStreamingMode( (int)length );
+				break;
+			}
+			// fall through
+		case CHUNKED :
+			conn.setChunkedStreamingMode( chunkSize );
+			break;
+		}
+	}
+	
 	private String getBasicAuthHeader( String user, String pass ) throws UnsupportedEncodingException {
 	  return "Basic " + DefaultGroovyMethods.encodeBase64( 
 			  (user + ":" + pass).getBytes("ISO-8859-1") ).toString();
@@ -384,6 +542,130 @@ public class HttpURLClient {
 		this.defaultURL = new URIBuilder( URIBuilder.convertToURI( url ) );
 	}
 	
+	/**
+	 * Set an executor which runs all requests, e.g. a 
+	 * {@link VirtualThreadExecutor} which limits the number of requests in
+	 * progress and rejects requests once too many are waiting.  The executor
+	 * is not shut down by this class.
+	 * @param executor the executor, or <code>null</code> to run requests in 
+	 *   the calling thread.
+	 */
+	public void setExecutor( ExecutorService executor ) {
+		this.executor = executor;
+	}
+	
+	/**
+	 * @see #setExecutor(ExecutorService)
+	 * @return the executor which runs requests, or <code>null</code>
+	 */
+	public ExecutorService getExecutor() {
+		return this.executor;
+	}
+	
+	/**
+	 * Set how request bodies are sent.  By default 
+	 * ({@link StreamingMode#BUFFERED}) the JDK holds the whole request body 
+	 * in memory before it is sent.  Note that the JDK cannot automatically 
+	 * retry a streamed request, e.g. to follow a redirect or to answer an 
+	 * authentication challenge.
+	 * @param mode the streaming mode; <code>null</code> is the same as 
+	 *   {@link StreamingMode#BUFFERED}.
+	 */
+	public void setStreamingMode( StreamingMode mode ) {
+		this.streamingMode = mode != null ? mode : StreamingMode.BUFFERED;
+	}
+	
+	/**
+	 * @see #setStreamingMode(StreamingMode)
+	 */
+	public StreamingMode getStreamingMode() {
+		return this.streamingMode;
+	}
+	
+	/**
+	 * Set the chunk size used for {@link StreamingMode#CHUNKED} streaming.
+	 * @param chunkSize chunk size in bytes, or <code>0</code> for the 
+	 *   JDK's default.
+	 * @see HttpURLConnection#setChunkedStreamingMode(int)
+	 */
+	public void setChunkSize( int chunkSize ) {
+		this.chunkSize = chunkSize;
+	}
+	
+	public int getChunkSize() { return this.chunkSize; }
+	
+	/**
+	 * Set the most unread response content which will be read and 
+	 * discarded when a response is released, so that the connection can 
+	 * be re-used.  If more content than this remains, the stream is closed 
+	 * without reading the rest, and the connection is counted as closed 
+	 * (although the JDK may still re-use it if little enough remains.)  
+	 * Defaults to 64KB.
+	 * @param maxDrainBytes
+	 */
+	public void setMaxDrainBytes( int maxDrainBytes ) {
+		this.maxDrainBytes = maxDrainBytes;
+	}
+	
+	public int getMaxDrainBytes() { return this.maxDrainBytes; }
+	
+	/**
+	 * Connection counters, as seen by the responses.  A response releases its 
+	 * connection for re-use when its content was read to the end and closed, 
+	 * and the server did not ask to close the connection.  Whether the JDK 
+	 * then re-uses it is not reported by <code>HttpURLConnection</code>, so 
+	 * it is not counted.
+	 * @return a map with the keys <code>connectionsReleased</code> (for
+	 *   re-use), <code>connectionsClosed</code>, <code>responsesDrained</code>
+	 *   (responses which had unread content when they were released) and
+	 *   <code>bytesDrained</code>.
+	 */
+	public Map<String,Object> getMetrics() {
+		Map<String,Object> metrics = new LinkedHashMap<String,Object>();
+		metrics.put( "connectionsReleased", keepAlive.released.get() );
+		metrics.put( "connectionsClosed", keepAlive.closed.get() );
+		metrics.put( "responsesDrained", keepAlive.drained.get() );
+		metrics.put( "bytesDrained", keepAlive.drainedBytes.get() );
+		return metrics;
+	}
+	
+	/** Clear the connection counters. */
+	public void resetStatistics() {
+		keepAlive.released.set( 0 );
+		keepAlive.closed.set( 0 );
+		keepAlive.drained.set( 0 );
+		keepAlive.drainedBytes.set( 0 );
+	}
+	
+	/**
+	 * Counts the connections released by the responses.
+	 */
+	private static final class KeepAliveTracker {
+		final AtomicLong released = new AtomicLong();
+		final AtomicLong closed = new AtomicLong();
+		final AtomicLong drained = new AtomicLong();
+		final AtomicLong drainedBytes = new AtomicLong();
+		
+		void release( HttpURLConnection conn, boolean reusable ) {
+			if ( ! reusable || ! keepAlive( conn ) ) {
+				closed.incrementAndGet();
+				return;
+			}
+			released.incrementAndGet();
+		}
+		
+		private boolean keepAlive( HttpURLConnection conn ) {
+			if ( ! Boolean.valueOf( System.getProperty( "http.keepAlive", "true" ) ) )
+				return false;
+			String connection = conn.getHeaderField( "Connection" );
+			if ( connection != null ) 
+				return ! connection.equalsIgnoreCase( "close" );
+			String status = conn.getHeaderField( 0 );
+			return status == null || ! status.startsWith( "HTTP/1.0" );
+		}
+		
+	}
+	
 	/**
 	 * This class makes a HttpURLConnection look like an HttpResponse for use
 	 * by {@link ParserRegistry} and {@link HttpResponseDecorator}.
@@ -392,23 +674,48 @@ public class HttpURLClient {
 
 		HttpURLConnection conn;
 		Header[] headers;
+		ResponseStream content;
 		
 		HttpURLResponseAdapter( HttpURLConnection conn ) {
 			this.conn = conn;
 		}
 		
+		/**
+		 * The response content, which is the error stream for a failed 
+		 * response.  This is always the same stream for one response.
+		 */
+		ResponseStream getContent() throws IOException {
+			if ( this.content != null ) return this.content;
+			InputStream in = Status.find( conn.getResponseCode() ) == Status.FAILURE 
+					? conn.getErrorStream() : conn.getInputStream();
+			// there is no error stream if the response has no content
+			if ( in == null ) in = new ByteArrayInputStream( new byte[0] );
+			this.content = new ResponseStream( in, conn );
+			return this.content;
+		}
+		
+		/**
+		 * Read any content that is left, and close the response, so that 
+		 * the connection may be re-used.
+		 */
+		void release() {
+			try { getContent().release(); }
+			catch ( IOException ex ) {
+				log.debug( "Error releasing response", ex );
+				keepAlive.release( conn, false );
+			}
+		}
+		
 		public HttpEntity getEntity() {
 			return new HttpEntity() {
 
 				public void consumeContent() throws IOException {
-					conn.getInputStream().close();
+					getContent().close();
 				}
 
 				public InputStream getContent() 
 						throws IOException, IllegalStateException {
-					if ( Status.find( conn.getResponseCode() ) 
-							== Status.FAILURE ) return conn.getErrorStream(); 
-					return conn.getInputStream();
+					return HttpURLResponseAdapter.this.getContent();
 				}
 
 				public Header getContentEncoding() {
@@ -438,7 +745,7 @@ public class HttpURLClient {
 				}
 
 				public void writeTo( OutputStream out ) throws IOException {
-					DefaultGroovyMethods.leftShift( out, conn.getInputStream() );
+					DefaultGroovyMethods.leftShift( out, getContent() );
 				}
 				
 			};
@@ -538,6 +845,60 @@ public class HttpURLClient {
 		public void setParams( HttpParams arg0 ) {}		
 	}
 
+	/**
+	 * Response content, which notes whether it was read to the end before it 
+	 * was closed, so that the connection can be counted as re-usable.
+	 */
+	private final class ResponseStream extends FilterInputStream {
+		private final HttpURLConnection conn;
+		private boolean eof = false;
+		private boolean closed = false;
+		
+		ResponseStream( InputStream in, HttpURLConnection conn ) {
+			super( in );
+			this.conn = conn;
+		}
+		
+		@Override public int read() throws IOException {
+			int b = super.read();
+			if ( b < 0 ) eof = true;
+			return b;
+		}
+		
+		@Override public int read( byte[] b, int off, int len ) throws IOException {
+			int read = super.read( b, off, len );
+			if ( read < 0 ) eof = true;
+			return read;
+		}
+		
+		@Override public void close() throws IOException {
+			if ( closed ) return;
+			closed = true;
+			try { super.close(); }
+			finally { keepAlive.release( conn, eof ); }
+		}
+		
+		/**
+		 * Read up to {@link HttpURLClient#getMaxDrainBytes() maxDrainBytes} 
+		 * of remaining content, then close.
+		 */
+		void release() throws IOException {
+			if ( closed ) return;
+			try {
+				byte[] buf = new byte[4096];
+				long total = 0;
+				int read = 0;
+				while ( total <= maxDrainBytes && ( read = read( buf ) ) > -1 ) 
+					total += read;
+				if ( total > 0 ) {
+					keepAlive.drained.incrementAndGet();
+					keepAlive.drainedBytes.addAndGet( total );
+				}
+			}
+			finally { close(); }
+		}
+	}
+	
 	/**
 	 * Retrieve the default headers that will be sent in each request.  Note
 	 * that this is a 'live' map that can be directly manipulated to add or
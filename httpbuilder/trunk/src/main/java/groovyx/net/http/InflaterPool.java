@@ -0,0 +1,130 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+
+/**
+ * <p>Pool of {@link Inflater}s, along with their input buffers, used by 
+ * {@link InflatingInputStream} to decode <code>gzip</code> and 
+ * <code>deflate</code> responses.  Each Inflater holds a native zlib stream, 
+ * which is costly to create and is otherwise only freed by the finalizer if
+ * a response stream is not closed.  Pooled Inflaters are instead 
+ * {@link Inflater#reset() reset} and reused by the next response.</p>
+ * 
+ * <p>The pool is thread-safe.  Inflaters are returned as soon as their 
+ * stream reaches the end of the compressed data or is closed; if the pool
+ * is full they are {@link Inflater#end() ended} instead.</p>
+ * 
+ * @since 0.6
+ */
+public class InflaterPool {
+	
+	/** Default number of idle Inflaters kept for reuse */
+	public static final int DEFAULT_MAX_POOLED = 32;
+	
+	/** Size of the buffer used to read compressed data */
+	public static final int BUFFER_SIZE = 8192;
+	
+	private static final InflaterPool DEFAULT = new InflaterPool();
+	
+	/* 'nowrap' inflaters for gzip and raw deflate, and zlib inflaters */
+	private final Queue<Entry> raw = new ConcurrentLinkedQueue<Entry>();
+	private final Queue<Entry> zlib = new ConcurrentLinkedQueue<Entry>();
+	private final AtomicInteger pooled = new AtomicInteger();
+	private final AtomicLong created = new AtomicLong();
+	private volatile int maxPooled = DEFAULT_MAX_POOLED;
+	
+	/**
+	 * @return the pool shared by the default {@link GZIPEncoding} and 
+	 * {@link DeflateEncoding} handlers.
+	 */
+	public static InflaterPool getDefault() { return DEFAULT; }
+	
+	Entry acquire( boolean nowrap ) {
+		Entry e = ( nowrap ? raw : zlib ).poll();
+		if ( e != null ) {
+			pooled.decrementAndGet();
+			return e;
+		}
+		created.incrementAndGet();
+		return new Entry( nowrap );
+	}
+	
+	void release( Entry e ) {
+		e.inflater.reset();
+		e.crc.reset();
+		if ( pooled.incrementAndGet() <= maxPooled ) 
+			( e.nowrap ? raw : zlib ).offer( e );
+		else {
+			pooled.decrementAndGet();
+			e.inflater.end();
+		}
+	}
+	
+	/** @return number of idle Inflaters in the pool */
+	public int getPoolSize() { return pooled.get(); }
+	
+	/** @return number of Inflaters created since this pool was created */
+	public long getCreatedCount() { return created.get(); }
+	
+	public int getMaxPooled() { return this.maxPooled; }
+	
+	/**
+	 * @param maxPooled number of idle Inflaters to keep for reuse. 
+	 * Default is {@link #DEFAULT_MAX_POOLED}.
+	 */
+	public void setMaxPooled( int maxPooled ) { this.maxPooled = maxPooled; }
+	
+	/** End and discard all idle Inflaters. */
+	public void clear() {
+		clear( raw );
+		clear( zlib );
+	}
+	
+	private void clear( Queue<Entry> queue ) {
+		Entry e;
+		while ( ( e = queue.poll() ) != null ) {
+			pooled.decrementAndGet();
+			e.inflater.end();
+		}
+	}
+	
+	/** An Inflater and the buffers used with it */
+	static class Entry {
+		final boolean nowrap;
+		final Inflater inflater;
+		final byte[] buffer = new byte[BUFFER_SIZE];
+		final CRC32 crc = new CRC32();
+		final byte[] single = new byte[1];
+		
+		Entry( boolean nowrap ) {
+			this.nowrap = nowrap;
+			this.inflater = new Inflater( nowrap );
+		}
+	}
+}
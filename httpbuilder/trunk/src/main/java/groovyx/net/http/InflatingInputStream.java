@@ -0,0 +1,251 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * <p>Decodes a <code>gzip</code> or <code>deflate</code> stream using an 
+ * {@link Inflater} borrowed from an {@link InflaterPool}.  This replaces 
+ * <code>GZIPInputStream</code> and <code>InflaterInputStream</code> for 
+ * compressed responses, which each allocate a new Inflater and a small 
+ * input buffer per response.  The Inflater is returned to the pool as soon 
+ * as the end of the compressed data is reached, even if the stream is never
+ * closed.</p>
+ * 
+ * <p>For <code>gzip</code>, concatenated members are decoded in turn and the 
+ * CRC and length in each trailer are verified.  For <code>deflate</code>, 
+ * both zlib-wrapped data (as required by RFC 2616) and raw deflate data 
+ * (as sent by some servers) are accepted.  An empty stream is decoded as an
+ * empty stream.</p>
+ * 
+ * @since 0.6
+ */
+public class InflatingInputStream extends InputStream {
+	
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+	
+	private final InputStream in;
+	private final boolean gzip;
+	private final InflaterPool pool;
+	private InflaterPool.Entry entry;
+	private Inflater inf;
+	private byte[] buf;
+	/* compressed bytes in buf which have not been passed to the inflater */
+	private int pos = 0;
+	private int limit = 0;
+	private boolean started = false;
+	private boolean eof = false;
+	private boolean closed = false;
+	
+	/**
+	 * Decode using the {@link InflaterPool#getDefault() default pool}.
+	 * @param in compressed data
+	 * @param gzip true for <code>gzip</code> data, false for <code>deflate</code>
+	 */
+	public InflatingInputStream( InputStream in, boolean gzip ) {
+		this( in, gzip, InflaterPool.getDefault() );
+	}
+	
+	public InflatingInputStream( InputStream in, boolean gzip, InflaterPool pool ) {
+		this.in = in;
+		this.gzip = gzip;
+		this.pool = pool;
+	}
+	
+	/**
+	 * @return true once any data has been read from the underlying stream.
+	 */
+	public boolean isStarted() { return this.started; }
+	
+	@Override public int read() throws IOException {
+		byte[] b = entry != null ? entry.single : new byte[1];
+		int n = read( b, 0, 1 );
+		return n < 0 ? -1 : b[0] & 0xff;
+	}
+	
+	@Override public int read( byte[] b, int off, int len ) throws IOException {
+		if ( closed ) throw new IOException( "Stream closed" );
+		if ( off < 0 || len < 0 || len > b.length - off ) 
+			throw new IndexOutOfBoundsException();
+		if ( len == 0 ) return 0;
+		if ( eof ) return -1;
+		if ( ! started ) begin();
+		if ( eof ) return -1;
+		try {
+			int n;
+			while ( ( n = inf.inflate( b, off, len ) ) == 0 ) {
+				if ( inf.needsDictionary() ) 
+					throw new ZipException( "Preset deflate dictionaries are not supported" );
+				if ( inf.finished() ) {
+					pos = limit - inf.getRemaining();
+					if ( ! gzip || ! nextMember() ) {
+						finish();
+						return -1;
+					}
+				}
+				else if ( inf.needsInput() ) {
+					if ( ! fill() ) throw new EOFException( "Unexpected end of compressed data" );
+					inf.setInput( buf, pos, limit - pos );
+				}
+			}
+			if ( gzip ) entry.crc.update( b, off, n );
+			return n;
+		}
+		catch ( DataFormatException ex ) {
+			String msg = ex.getMessage();
+			throw new ZipException( msg != null ? msg : "Invalid compressed data" );
+		}
+	}
+	
+	/** @return 0 once the end of the data has been reached, otherwise 1 */
+	@Override public int available() throws IOException {
+		if ( closed ) throw new IOException( "Stream closed" );
+		return eof ? 0 : 1;
+	}
+	
+	/**
+	 * Returns the Inflater to the pool and closes the underlying stream.
+	 */
+	@Override public void close() throws IOException {
+		if ( closed ) return;
+		closed = true;
+		release();
+		in.close();
+	}
+	
+	private void begin() throws IOException {
+		started = true;
+		if ( gzip ) {
+			acquire( true );
+			int b = readByte();
+			if ( b < 0 ) {
+				finish();
+				return;
+			}
+			readHeader( b );
+		}
+		else {
+			/* a zlib stream starts with a two byte header whose check bits 
+			 * make it a multiple of 31.  Raw deflate data is not. */
+			byte[] head = new byte[2];
+			int n = 0, r;
+			while ( n < 2 && ( r = in.read( head, n, 2 - n ) ) >= 0 ) n += r;
+			if ( n == 0 ) {
+				eof = true;
+				return;
+			}
+			int cmf = head[0] & 0xff;
+			boolean zlib = n == 2 && ( cmf & 0x0f ) == 8 
+					&& ( ( cmf << 8 ) | ( head[1] & 0xff ) ) % 31 == 0;
+			acquire( ! zlib );
+			System.arraycopy( head, 0, buf, 0, n );
+			pos = 0;
+			limit = n;
+		}
+		inf.setInput( buf, pos, limit - pos );
+	}
+	
+	private void acquire( boolean nowrap ) {
+		entry = pool.acquire( nowrap );
+		inf = entry.inflater;
+		buf = entry.buffer;
+	}
+	
+	private void readHeader( int first ) throws IOException {
+		if ( first != 0x1f || readUByte() != 0x8b ) 
+			throw new ZipException( "Not in GZIP format" );
+		if ( readUByte() != 8 ) throw new ZipException( "Unsupported GZIP compression method" );
+		int flags = readUByte();
+		skipBytes( 6 ); // modification time, extra flags, OS
+		if ( ( flags & FEXTRA ) != 0 ) skipBytes( readUByte() | readUByte() << 8 );
+		if ( ( flags & FNAME ) != 0 ) while ( readUByte() != 0 );
+		if ( ( flags & FCOMMENT ) != 0 ) while ( readUByte() != 0 );
+		if ( ( flags & FHCRC ) != 0 ) skipBytes( 2 );
+	}
+	
+	/**
+	 * Verify the trailer of the current gzip member, then start the next 
+	 * member if there is one.
+	 */
+	private boolean nextMember() throws IOException {
+		long crc = readUInt();
+		long size = readUInt();
+		if ( crc != entry.crc.getValue() || size != ( inf.getBytesWritten() & 0xffffffffL ) )
+			throw new ZipException( "Corrupt GZIP trailer" );
+		int b = readByte();
+		if ( b != 0x1f ) return false; // end of data, or trailing garbage
+		inf.reset();
+		entry.crc.reset();
+		readHeader( b );
+		inf.setInput( buf, pos, limit - pos );
+		return true;
+	}
+	
+	private boolean fill() throws IOException {
+		int n = in.read( buf, 0, buf.length );
+		if ( n < 0 ) return false;
+		pos = 0;
+		limit = n;
+		return true;
+	}
+	
+	private int readByte() throws IOException {
+		if ( pos >= limit && ! fill() ) return -1;
+		return buf[pos++] & 0xff;
+	}
+	
+	private int readUByte() throws IOException {
+		int b = readByte();
+		if ( b < 0 ) throw new EOFException( "Unexpected end of GZIP data" );
+		return b;
+	}
+	
+	private long readUInt() throws IOException {
+		return ( readUByte() | readUByte() << 8 | readUByte() << 16 | (long)readUByte() << 24 );
+	}
+	
+	private void skipBytes( int n ) throws IOException {
+		while ( n-- > 0 ) readUByte();
+	}
+	
+	private void finish() {
+		eof = true;
+		release();
+	}
+	
+	private void release() {
+		if ( entry == null ) return;
+		pool.release( entry );
+		entry = null;
+		inf = null;
+		buf = null;
+	}
+}
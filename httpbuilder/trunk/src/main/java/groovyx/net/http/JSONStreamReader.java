@@ -0,0 +1,520 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import groovy.lang.Closure;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.json.JSONException;
+
+/**
+ * <p>Pull parser that reads a JSON document one token at a time, without
+ * building a tree of the whole document.  This is returned by
+ * {@link ParserRegistry#parseJSONStream(org.apache.http.HttpResponse)} for
+ * the {@link ContentType#JSON_STREAM} content-type, so that very large
+ * responses can be processed with memory bounded by the size of a single
+ * element rather than the size of the document:</p>
+ *
+ * <pre>
+ * http.get( path : '/export', contentType : JSON_STREAM ) { resp, json ->
+ *   json.eachElement( 'results.items' ) { item ->
+ *     println item.name
+ *   }
+ * }</pre>
+ *
+ * <p>Values that are handed to a closure or returned from {@link #at(String)}
+ * are materialized as <code>Map</code>s, <code>List</code>s, Strings, Numbers,
+ * Booleans or <code>null</code>.  Anything outside of the requested path is
+ * skipped as it is read.</p>
+ *
+ * <p>Paths are dot-separated object keys starting at the root value, where
+ * an empty path denotes the root value itself.  A reader can only be
+ * traversed forward, so a value cannot be read once it has been passed.
+ * Readers are not thread-safe.</p>
+ *
+ * @since 0.6
+ */
+public class JSONStreamReader implements Closeable {
+
+	/**
+	 * Token types returned by {@link JSONStreamReader#next()}.
+	 */
+	public enum Event {
+		START_OBJECT, END_OBJECT, START_ARRAY, END_ARRAY, FIELD_NAME,
+		VALUE_STRING, VALUE_NUMBER, VALUE_TRUE, VALUE_FALSE, VALUE_NULL,
+		END_DOCUMENT
+	}
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final Reader reader;
+	private final char[] buf = new char[BUFFER_SIZE];
+	private int pos = 0;
+	private int limit = 0;
+	private long offset = 0;
+
+	/* nesting: true for an object, false for an array */
+	private boolean[] stack = new boolean[32];
+	private int depth = 0;
+	/* last token read from the stream, which may be ahead of 'current' */
+	private Event last = null;
+	private boolean finished = false;
+
+	private Event current = null;
+	private String text = null;
+	private Event peeked = null;
+	private String peekedText = null;
+	/* nesting level and enclosing field names, as of the 'current' token */
+	private int level = 0;
+	private String[] keys = new String[32];
+	private final StringBuilder sb = new StringBuilder();
+
+	public JSONStreamReader( Reader reader ) {
+		this.reader = reader;
+	}
+
+	/**
+	 * Read the next token.
+	 * @return the type of the token just read, or {@link Event#END_DOCUMENT}
+	 *   after the root value has been read.
+	 * @throws JSONException if the document is not well-formed
+	 */
+	public Event next() throws IOException {
+		if ( peeked != null ) {
+			current = peeked;
+			text = peekedText;
+			peeked = null;
+		}
+		else current = readToken();
+
+		switch ( current ) {
+		case START_OBJECT :
+		case START_ARRAY :
+			if ( ++level > keys.length ) {
+				String[] k = new String[ keys.length * 2 ];
+				System.arraycopy( keys, 0, k, 0, keys.length );
+				keys = k;
+			}
+			keys[level-1] = null;
+			break;
+		case END_OBJECT :
+		case END_ARRAY :
+			level--;
+			break;
+		case FIELD_NAME :
+			keys[level-1] = text;
+		}
+		return current;
+	}
+
+	/**
+	 * Look at the type of the next token without consuming it.
+	 */
+	public Event peek() throws IOException {
+		if ( peeked == null ) {
+			String currentText = text;
+			peeked = readToken();
+			peekedText = text;
+			text = currentText;
+		}
+		return peeked;
+	}
+
+	/**
+	 * The last token returned by {@link #next()}
+	 */
+	public Event getEvent() { return this.current; }
+
+	/**
+	 * The text of the current {@link Event#FIELD_NAME field name},
+	 * {@link Event#VALUE_STRING string} or {@link Event#VALUE_NUMBER number}.
+	 */
+	public String getText() { return this.text; }
+
+	/**
+	 * Value of the current scalar token.
+	 * @return a String, Number, Boolean or <code>null</code>
+	 */
+	public Object getScalar() {
+		switch ( current ) {
+		case VALUE_STRING : return text;
+		case VALUE_NUMBER : return parseNumber( text );
+		case VALUE_TRUE : return Boolean.TRUE;
+		case VALUE_FALSE : return Boolean.FALSE;
+		case VALUE_NULL : return null;
+		default : throw new IllegalStateException( "Not a scalar value: " + current );
+		}
+	}
+
+	/**
+	 * Read the next value completely, and return it as a Map, List or
+	 * scalar value.  If the next token is a field name, the field's value is
+	 * read.
+	 */
+	public Object readValue() throws IOException {
+		Event e = next();
+		if ( e == Event.FIELD_NAME ) e = next();
+		return materialize( e );
+	}
+
+	/**
+	 * Skip over the next value (including all of its children) without
+	 * materializing it.  If the next token is a field name, the field's value
+	 * is skipped.
+	 */
+	public void skipValue() throws IOException {
+		Event e = next();
+		if ( e == Event.FIELD_NAME ) e = next();
+		if ( e != Event.START_OBJECT && e != Event.START_ARRAY ) {
+			if ( e == Event.END_OBJECT || e == Event.END_ARRAY || e == Event.END_DOCUMENT )
+				throw error( "Expected a value but found " + e );
+			return;
+		}
+		int level = 1;
+		while ( level > 0 ) {
+			switch ( next() ) {
+			case START_OBJECT :
+			case START_ARRAY : level++; break;
+			case END_OBJECT :
+			case END_ARRAY : level--; break;
+			}
+		}
+	}
+
+	/**
+	 * Call the closure once for each element of the array at the given path.
+	 * Each element is materialized and passed to the closure before the
+	 * next element is read.
+	 * @param path dot-separated path to an array
+	 * @param closure called with each array element
+	 * @return the number of elements read
+	 * @throws JSONException if the path does not resolve to an array
+	 */
+	public int eachElement( String path, Closure closure ) throws IOException {
+		if ( ! seek( path ) ) throw new JSONException( "Path not found: " + path );
+		if ( next() != Event.START_ARRAY )
+			throw error( "Value at '" + path + "' is not an array" );
+		int count = 0;
+		while ( peek() != Event.END_ARRAY ) {
+			closure.call( readValue() );
+			count++;
+		}
+		next();
+		return count;
+	}
+
+	/**
+	 * Call the closure once for each element of a root-level array.
+	 * @see #eachElement(String, Closure)
+	 */
+	public int each( Closure closure ) throws IOException {
+		return eachElement( "", closure );
+	}
+
+	/**
+	 * Read the value at the given path.  Only that value is materialized;
+	 * everything before it is skipped.  The reader is left positioned after
+	 * the value so that values later in the document may still be read.
+	 * @param path dot-separated path
+	 * @return the value, or <code>null</code> if the path does not exist
+	 */
+	public Object at( String path ) throws IOException {
+		return seek( path ) ? readValue() : null;
+	}
+
+	/**
+	 * Alias for {@link #at(String)} to allow property-style access to
+	 * top-level keys, i.e. <code>json.total</code>.
+	 */
+	public Object propertyMissing( String name ) throws IOException {
+		return at( name );
+	}
+
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	/**
+	 * Advance so that the next value read is the value at the given path.
+	 * Paths are always relative to the root, but since the reader only moves
+	 * forward, values that were already passed will not be found.
+	 */
+	private boolean seek( String path ) throws IOException {
+		String[] segments = path == null || path.length() == 0 
+				? new String[0] : path.split( "\\." );
+		// find how much of the path we are already within
+		int k = 0;
+		while ( k < segments.length && k + 1 < level && stack[k]
+				&& segments[k].equals( keys[k] ) ) k++;
+		// leave any containers that are not on the path
+		while ( level > k + 1 ) next();
+
+		for ( ; k < segments.length; k++ ) {
+			if ( level == k ) { // positioned before this level's value
+				if ( current != null && current != Event.FIELD_NAME ) return false;
+				if ( next() != Event.START_OBJECT ) return false;
+			}
+			if ( ! stack[k] ) return false; // in an array
+			if ( current == Event.FIELD_NAME ) {
+				if ( segments[k].equals( text ) ) continue;
+				skipValue();
+			}
+			while ( true ) {
+				Event e = next();
+				if ( e == Event.END_OBJECT ) return false;
+				if ( e != Event.FIELD_NAME ) throw error( "Expected a field name" );
+				if ( segments[k].equals( text ) ) break;
+				skipValue();
+			}
+		}
+		return true;
+	}
+
+	private Object materialize( Event e ) throws IOException {
+		switch ( e ) {
+		case START_OBJECT :
+			Map<String,Object> map = new LinkedHashMap<String,Object>();
+			while ( next() != Event.END_OBJECT ) {
+				String key = text;
+				map.put( key, materialize( next() ) );
+			}
+			return map;
+		case START_ARRAY :
+			List<Object> list = new ArrayList<Object>();
+			while ( peek() != Event.END_ARRAY ) list.add( materialize( next() ) );
+			next();
+			return list;
+		case END_OBJECT :
+		case END_ARRAY :
+		case FIELD_NAME :
+		case END_DOCUMENT :
+			throw error( "Expected a value but found " + e );
+		default :
+			return getScalar();
+		}
+	}
+
+	static Number parseNumber( String num ) {
+		if ( num.indexOf( '.' ) < 0 && num.indexOf( 'e' ) < 0 && num.indexOf( 'E' ) < 0 ) {
+			if ( num.length() < 10 ) return Integer.valueOf( num );
+			BigInteger big = new BigInteger( num );
+			if ( big.bitLength() < 32 ) return Integer.valueOf( big.intValue() );
+			if ( big.bitLength() < 64 ) return Long.valueOf( big.longValue() );
+			return big;
+		}
+		BigDecimal dec = new BigDecimal( num );
+		double d = dec.doubleValue();
+		if ( Double.isInfinite( d ) ) return dec;
+		return Double.valueOf( d );
+	}
+
+	/* ----------------- Tokenizer ----------------- */
+
+	private Event readToken() throws IOException {
+		if ( finished ) return Event.END_DOCUMENT;
+		Event token = nextToken();
+		if ( token == Event.END_DOCUMENT ) finished = true;
+		last = token;
+		return token;
+	}
+
+	private Event nextToken() throws IOException {
+		int c = nextNonWhitespace();
+		if ( last == null ) { // root value
+			if ( c == -1 ) throw error( "Empty document" );
+			return readValueToken( c );
+		}
+		switch ( last ) {
+		case START_OBJECT :
+			if ( c == '}' ) return pop();
+			return readFieldName( c );
+		case START_ARRAY :
+			if ( c == ']' ) return pop();
+			return readValueToken( c );
+		case FIELD_NAME :
+			return readValueToken( c );
+		default : // after a complete value
+			if ( depth == 0 ) {
+				if ( c != -1 ) throw error( "Unexpected data after root value" );
+				return Event.END_DOCUMENT;
+			}
+			boolean inObject = stack[depth-1];
+			if ( c == ',' ) {
+				c = nextNonWhitespace();
+				return inObject ? readFieldName( c ) : readValueToken( c );
+			}
+			if ( c == ( inObject ? '}' : ']' ) ) return pop();
+			if ( c == -1 ) throw error( "Unexpected end of document" );
+			throw error( "Expected ',' or closing bracket but found '" + (char)c + "'" );
+		}
+	}
+
+	private Event readFieldName( int c ) throws IOException {
+		if ( c != '"' ) throw error( "Expected a field name" );
+		text = readString();
+		if ( nextNonWhitespace() != ':' ) throw error( "Expected ':'" );
+		return Event.FIELD_NAME;
+	}
+
+	private Event readValueToken( int c ) throws IOException {
+		switch ( c ) {
+		case '{' :
+			push( true );
+			return Event.START_OBJECT;
+		case '[' :
+			push( false );
+			return Event.START_ARRAY;
+		case '"' :
+			text = readString();
+			return Event.VALUE_STRING;
+		case 't' :
+			expectLiteral( "rue" );
+			return Event.VALUE_TRUE;
+		case 'f' :
+			expectLiteral( "alse" );
+			return Event.VALUE_FALSE;
+		case 'n' :
+			expectLiteral( "ull" );
+			return Event.VALUE_NULL;
+		case -1 :
+			throw error( "Unexpected end of document" );
+		default :
+			if ( c == '-' || ( c >= '0' && c <= '9' ) ) {
+				text = readNumber( c );
+				return Event.VALUE_NUMBER;
+			}
+			throw error( "Unexpected character '" + (char)c + "'" );
+		}
+	}
+
+	private void push( boolean object ) {
+		if ( depth == stack.length ) {
+			boolean[] s = new boolean[ depth * 2 ];
+			System.arraycopy( stack, 0, s, 0, depth );
+			stack = s;
+		}
+		stack[depth++] = object;
+	}
+
+	private Event pop() {
+		boolean object = stack[--depth];
+		return object ? Event.END_OBJECT : Event.END_ARRAY;
+	}
+
+	private void expectLiteral( String rest ) throws IOException {
+		for ( int i = 0; i < rest.length(); i++ )
+			if ( read() != rest.charAt( i ) ) throw error( "Invalid literal" );
+	}
+
+	private String readNumber( int c ) throws IOException {
+		sb.setLength( 0 );
+		sb.append( (char)c );
+		while ( true ) {
+			if ( pos == limit && ! fill() ) break;
+			char ch = buf[pos];
+			if ( ( ch >= '0' && ch <= '9' ) || ch == '.' || ch == 'e'
+					|| ch == 'E' || ch == '+' || ch == '-' ) {
+				sb.append( ch );
+				pos++;
+			}
+			else break;
+		}
+		return sb.toString();
+	}
+
+	private String readString() throws IOException {
+		sb.setLength( 0 );
+		while ( true ) {
+			// copy runs of unescaped characters straight from the buffer
+			int start = pos;
+			while ( pos < limit ) {
+				char ch = buf[pos];
+				if ( ch == '"' || ch == '\\' ) break;
+				pos++;
+			}
+			sb.append( buf, start, pos - start );
+			if ( pos == limit ) {
+				if ( ! fill() ) throw error( "Unterminated string" );
+				continue;
+			}
+			char ch = buf[pos++];
+			if ( ch == '"' ) return sb.toString();
+
+			int esc = read();
+			switch ( esc ) {
+			case '"' : sb.append( '"' ); break;
+			case '\\' : sb.append( '\\' ); break;
+			case '/' : sb.append( '/' ); break;
+			case 'b' : sb.append( '\b' ); break;
+			case 'f' : sb.append( '\f' ); break;
+			case 'n' : sb.append( '\n' ); break;
+			case 'r' : sb.append( '\r' ); break;
+			case 't' : sb.append( '\t' ); break;
+			case 'u' :
+				int code = 0;
+				for ( int i = 0; i < 4; i++ ) {
+					int digit = Character.digit( read(), 16 );
+					if ( digit < 0 ) throw error( "Invalid unicode escape" );
+					code = ( code << 4 ) + digit;
+				}
+				sb.append( (char)code );
+				break;
+			default : throw error( "Invalid escape sequence" );
+			}
+		}
+	}
+
+	private int nextNonWhitespace() throws IOException {
+		while ( true ) {
+			int c = read();
+			if ( c != ' ' && c != '\n' && c != '\r' && c != '\t' ) return c;
+		}
+	}
+
+	private int read() throws IOException {
+		if ( pos == limit && ! fill() ) return -1;
+		return buf[pos++];
+	}
+
+	private boolean fill() throws IOException {
+		offset += limit;
+		pos = 0;
+		limit = 0;
+		int n = reader.read( buf, 0, buf.length );
+		if ( n <= 0 ) return false;
+		limit = n;
+		return true;
+	}
+
+	private JSONException error( String msg ) {
+		return new JSONException( msg + " at character " + ( offset + pos ) );
+	}
+}
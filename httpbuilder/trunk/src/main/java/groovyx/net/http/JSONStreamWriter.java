@@ -0,0 +1,336 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import groovy.lang.Closure;
+import groovy.lang.GString;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.util.Iterator;
+import java.util.Map;
+
+import net.sf.json.JSON;
+import net.sf.json.JSONException;
+import net.sf.json.JSONNull;
+import net.sf.json.JSONObject;
+
+/**
+ * <p>Writes a JSON document to a {@link Writer} one token at a time, without
+ * building the document in memory first.  This is the counterpart to
+ * {@link JSONStreamReader}, and is passed to a request body closure that
+ * declares a single <code>JSONStreamWriter</code> parameter when the body is
+ * {@link EncoderRegistry#encodeJSON(Object, Object) encoded as JSON}:</p>
+ *
+ * <pre>
+ * http.post( path : '/import', requestContentType : JSON ) {
+ *   body = { JSONStreamWriter json ->
+ *     json.object {
+ *       json.entry 'source', 'nightly'
+ *       json.name 'rows'
+ *       json.array {
+ *         db.eachRow( 'select * from items' ) { row -&gt;
+ *           json &lt;&lt; [ id : row.id, name : row.name ]
+ *         }
+ *       }
+ *     }
+ *   }
+ * }</pre>
+ *
+ * <p>Values passed to {@link #value(Object)} may be <code>null</code>,
+ * Strings, Numbers, Booleans, Maps, Collections, Iterators, arrays, or
+ * json-lib {@link JSON} instances; these are written directly to the
+ * stream.  Any other object is treated as a JavaBean and converted with
+ * {@link JSONObject#fromObject(Object)}.  Writers are not thread-safe.</p>
+ *
+ * @since 0.6
+ */
+public class JSONStreamWriter implements Closeable, Flushable {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final Writer writer;
+
+	/* nesting: true for an object, false for an array */
+	private boolean[] stack = new boolean[32];
+	/* true if the current container already holds a value */
+	private boolean[] filled = new boolean[32];
+	private int depth = 0;
+	private boolean nameWritten = false;
+	private boolean rootWritten = false;
+
+	/**
+	 * @param writer destination of the JSON text.  It is not buffered by this
+	 * class, so callers writing to a socket or file should pass a
+	 * {@link java.io.BufferedWriter}.
+	 */
+	public JSONStreamWriter( Writer writer ) {
+		this.writer = writer;
+	}
+
+	/**
+	 * Start a JSON object, i.e. write <code>{</code>.
+	 * @return this writer
+	 */
+	public JSONStreamWriter beginObject() throws IOException {
+		beforeValue();
+		push( true );
+		writer.write( '{' );
+		return this;
+	}
+
+	/**
+	 * Close the current JSON object.
+	 * @return this writer
+	 * @throws IllegalStateException if the current container is not an object,
+	 * or a name was written without a value.
+	 */
+	public JSONStreamWriter endObject() throws IOException {
+		if ( depth == 0 || ! stack[depth-1] || nameWritten )
+			throw new IllegalStateException( "Not inside a JSON object" );
+		depth--;
+		writer.write( '}' );
+		return this;
+	}
+
+	/**
+	 * Start a JSON array, i.e. write <code>[</code>.
+	 * @return this writer
+	 */
+	public JSONStreamWriter beginArray() throws IOException {
+		beforeValue();
+		push( false );
+		writer.write( '[' );
+		return this;
+	}
+
+	/**
+	 * Close the current JSON array.
+	 * @return this writer
+	 * @throws IllegalStateException if the current container is not an array.
+	 */
+	public JSONStreamWriter endArray() throws IOException {
+		if ( depth == 0 || stack[depth-1] )
+			throw new IllegalStateException( "Not inside a JSON array" );
+		depth--;
+		writer.write( ']' );
+		return this;
+	}
+
+	/**
+	 * Write the name of the next field in the current object.  It must be
+	 * followed by exactly one value, object or array.
+	 * @param name field name
+	 * @return this writer
+	 */
+	public JSONStreamWriter name( String name ) throws IOException {
+		if ( depth == 0 || ! stack[depth-1] || nameWritten )
+			throw new IllegalStateException( "Unexpected field name '" + name + "'" );
+		if ( filled[depth-1] ) writer.write( ',' );
+		filled[depth-1] = true;
+		writeString( name );
+		writer.write( ':' );
+		nameWritten = true;
+		return this;
+	}
+
+	/**
+	 * Write a complete value: a scalar, or a Map, Collection, Iterator or
+	 * array which is written recursively.
+	 * @param value see the class description for accepted types.
+	 * @return this writer
+	 */
+	public JSONStreamWriter value( Object value ) throws IOException {
+		beforeValue();
+		writeValue( value );
+		return this;
+	}
+
+	/**
+	 * Write a field name and its value.
+	 * @return this writer
+	 */
+	public JSONStreamWriter entry( String name, Object value ) throws IOException {
+		return name( name ).value( value );
+	}
+
+	/**
+	 * Write an object whose fields are written by the given closure.  The
+	 * closure is passed this writer as its argument.
+	 * @return this writer
+	 */
+	public JSONStreamWriter object( Closure closure ) throws IOException {
+		beginObject();
+		closure.call( this );
+		return endObject();
+	}
+
+	/**
+	 * Write an array whose elements are written by the given closure.  The
+	 * closure is passed this writer as its argument.
+	 * @return this writer
+	 */
+	public JSONStreamWriter array( Closure closure ) throws IOException {
+		beginArray();
+		closure.call( this );
+		return endArray();
+	}
+
+	/**
+	 * Alias for {@link #value(Object)} to allow <code>json &lt;&lt; value</code>
+	 * from Groovy.
+	 * @return this writer
+	 */
+	public JSONStreamWriter leftShift( Object value ) throws IOException {
+		return value( value );
+	}
+
+	public void flush() throws IOException {
+		writer.flush();
+	}
+
+	/**
+	 * Closes the underlying writer.
+	 * @throws IllegalStateException if an object or array was left open.
+	 */
+	public void close() throws IOException {
+		if ( depth > 0 ) throw new IllegalStateException(
+				"Unterminated JSON " + ( stack[depth-1] ? "object" : "array" ) );
+		writer.close();
+	}
+
+	private void beforeValue() throws IOException {
+		if ( depth == 0 ) {
+			if ( rootWritten ) throw new IllegalStateException(
+					"A JSON document may only have one root value" );
+			rootWritten = true;
+		}
+		else if ( stack[depth-1] ) {
+			if ( ! nameWritten ) throw new IllegalStateException(
+					"Object fields must be preceded by a name" );
+			nameWritten = false;
+		}
+		else {
+			if ( filled[depth-1] ) writer.write( ',' );
+			filled[depth-1] = true;
+		}
+	}
+
+	private void push( boolean object ) {
+		if ( depth == stack.length ) {
+			boolean[] s = new boolean[depth * 2];
+			System.arraycopy( stack, 0, s, 0, depth );
+			stack = s;
+			boolean[] f = new boolean[depth * 2];
+			System.arraycopy( filled, 0, f, 0, depth );
+			filled = f;
+		}
+		stack[depth] = object;
+		filled[depth] = false;
+		depth++;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void writeValue( Object value ) throws IOException {
+		if ( value == null || value instanceof JSONNull ) writer.write( "null" );
+		else if ( value instanceof String || value instanceof GString
+				|| value instanceof Character || value instanceof Enum<?> )
+			writeString( value.toString() );
+		else if ( value instanceof Number ) writeNumber( (Number)value );
+		else if ( value instanceof Boolean ) writer.write( value.toString() );
+		else if ( value instanceof JSON ) ((JSON)value).write( writer );
+		else if ( value instanceof Map ) {
+			writer.write( '{' );
+			boolean first = true;
+			for ( Map.Entry<Object,Object> e : ((Map<Object,Object>)value).entrySet() ) {
+				if ( ! first ) writer.write( ',' );
+				first = false;
+				writeString( String.valueOf( e.getKey() ) );
+				writer.write( ':' );
+				writeValue( e.getValue() );
+			}
+			writer.write( '}' );
+		}
+		else if ( value instanceof Iterable ) writeElements( ((Iterable<?>)value).iterator() );
+		else if ( value instanceof Iterator ) writeElements( (Iterator<?>)value );
+		else if ( value.getClass().isArray() ) {
+			writer.write( '[' );
+			int len = Array.getLength( value );
+			for ( int i=0; i<len; i++ ) {
+				if ( i > 0 ) writer.write( ',' );
+				writeValue( Array.get( value, i ) );
+			}
+			writer.write( ']' );
+		}
+		else JSONObject.fromObject( value ).write( writer ); // assume a JavaBean
+	}
+
+	private void writeElements( Iterator<?> it ) throws IOException {
+		writer.write( '[' );
+		boolean first = true;
+		while ( it.hasNext() ) {
+			if ( ! first ) writer.write( ',' );
+			first = false;
+			writeValue( it.next() );
+		}
+		writer.write( ']' );
+	}
+
+	private void writeNumber( Number n ) throws IOException {
+		if ( ( n instanceof Double && ( ((Double)n).isNaN() || ((Double)n).isInfinite() ) )
+				|| ( n instanceof Float && ( ((Float)n).isNaN() || ((Float)n).isInfinite() ) ) )
+			throw new JSONException( "JSON does not allow non-finite numbers: " + n );
+		writer.write( n.toString() );
+	}
+
+	private void writeString( String s ) throws IOException {
+		writer.write( '"' );
+		int len = s.length();
+		int start = 0;
+		for ( int i=0; i<len; i++ ) {
+			char c = s.charAt( i );
+			if ( c >= 0x20 && c != '"' && c != '\\' && c != 0x2028 && c != 0x2029 ) continue;
+			if ( i > start ) writer.write( s, start, i - start );
+			start = i + 1;
+			switch ( c ) {
+			case '"' : writer.write( "\\\"" ); break;
+			case '\\' : writer.write( "\\\\" ); break;
+			case '\n' : writer.write( "\\n" ); break;
+			case '\r' : writer.write( "\\r" ); break;
+			case '\t' : writer.write( "\\t" ); break;
+			case '\b' : writer.write( "\\b" ); break;
+			case '\f' : writer.write( "\\f" ); break;
+			default :
+				writer.write( "\\u" );
+				writer.write( HEX[ (c >> 12) & 0xf ] );
+				writer.write( HEX[ (c >> 8) & 0xf ] );
+				writer.write( HEX[ (c >> 4) & 0xf ] );
+				writer.write( HEX[ c & 0xf ] );
+			}
+		}
+		if ( len > start ) writer.write( s, start, len - start );
+		writer.write( '"' );
+	}
+}
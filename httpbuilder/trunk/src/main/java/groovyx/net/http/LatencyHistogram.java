@@ -0,0 +1,161 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Thread-safe histogram of elapsed times, with fixed bucket bounds from 
+ * 1ms to 30s.  Recording a value does not block or allocate, so it is cheap 
+ * enough to be called for every request.</p>
+ * 
+ * <p>{@link #toMap()} gives a snapshot in a form that is easily rendered
+ * as JSON, or in the Prometheus text format: bucket counts are cumulative, 
+ * keyed by the bucket's upper bound in milliseconds.</p>
+ * 
+ * @see ConnectionPool#getMetrics()
+ * @since 0.6
+ */
+public class LatencyHistogram {
+
+	/** Upper bound of each bucket, in milliseconds.  A final, unbounded 
+	 * bucket holds any larger values. */
+	public static final long[] BUCKET_BOUNDS = { 
+		1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000 };
+	
+	private static final long[] BOUNDS_NANOS = new long[BUCKET_BOUNDS.length];
+	static {
+		for ( int i = 0; i < BUCKET_BOUNDS.length; i++ )
+			BOUNDS_NANOS[i] = TimeUnit.MILLISECONDS.toNanos( BUCKET_BOUNDS[i] );
+	}
+	
+	private final AtomicLongArray buckets = new AtomicLongArray( BUCKET_BOUNDS.length +1 );
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+	
+	/**
+	 * Record an elapsed time.
+	 * @param nanos elapsed time in nanoseconds, e.g. the difference between 
+	 *   two calls to {@link System#nanoTime()}.
+	 */
+	public void record( long nanos ) {
+		if ( nanos < 0 ) nanos = 0;
+		int i = 0;
+		while ( i < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[i] ) i++;
+		buckets.incrementAndGet( i );
+		count.incrementAndGet();
+		total.addAndGet( nanos );
+		long m;
+		while ( nanos > ( m = max.get() ) && ! max.compareAndSet( m, nanos ) );
+	}
+	
+	/** @return the number of recorded values */
+	public long getCount() { return count.get(); }
+	
+	/** @return the sum of all recorded values, in milliseconds */
+	public double getTotal() { return total.get() / 1e6; }
+	
+	/** @return the mean of the recorded values in milliseconds, or 0 */
+	public double getMean() {
+		long n = count.get();
+		return n > 0 ? total.get() / 1e6 / n : 0;
+	}
+	
+	/** @return the largest recorded value, in milliseconds */
+	public double getMax() { return max.get() / 1e6; }
+	
+	/**
+	 * @return the number of values in each bucket (not cumulative).  The 
+	 *   last element counts values larger than the last 
+	 *   {@link #BUCKET_BOUNDS bucket bound}.
+	 */
+	public long[] getBucketCounts() {
+		long[] counts = new long[buckets.length()];
+		for ( int i = 0; i < counts.length; i++ ) counts[i] = buckets.get( i );
+		return counts;
+	}
+	
+	/**
+	 * Estimate a percentile of the recorded values.
+	 * @param percentile between 0 and 100
+	 * @return the upper bound (in milliseconds) of the bucket which holds 
+	 *   the given percentile, or {@link #getMax()} if it falls in the last, 
+	 *   unbounded bucket. 
+	 */
+	public double getPercentile( double percentile ) {
+		long[] counts = getBucketCounts();
+		long n = 0;
+		for ( long c : counts ) n += c;
+		if ( n == 0 ) return 0;
+		long rank = (long)Math.ceil( n * percentile / 100 );
+		long seen = 0;
+		for ( int i = 0; i < BUCKET_BOUNDS.length; i++ ) {
+			seen += counts[i];
+			if ( seen >= rank ) return Math.min( BUCKET_BOUNDS[i], getMax() );
+		}
+		return getMax();
+	}
+	
+	/** Clear all recorded values. */
+	public void reset() {
+		for ( int i = 0; i < buckets.length(); i++ ) buckets.set( i, 0 );
+		count.set( 0 );
+		total.set( 0 );
+		max.set( 0 );
+	}
+	
+	/**
+	 * @return a snapshot with the keys <code>count</code>, 
+	 *  <code>total</code>, <code>mean</code>, <code>max</code> (in 
+	 *  milliseconds) and <code>buckets</code>, a map of cumulative counts 
+	 *  keyed by each bucket's upper bound, with the last bucket keyed 
+	 *  <code>+Inf</code>.
+	 */
+	public Map<String,Object> toMap() {
+		Map<String,Object> map = new LinkedHashMap<String,Object>();
+		long[] counts = getBucketCounts();
+		Map<String,Long> cumulative = new LinkedHashMap<String,Long>();
+		long n = 0;
+		for ( int i = 0; i < counts.length; i++ ) {
+			n += counts[i];
+			cumulative.put( i < BUCKET_BOUNDS.length ? 
+					String.valueOf( BUCKET_BOUNDS[i] ) : "+Inf", n );
+		}
+		map.put( "count", n );
+		map.put( "total", getTotal() );
+		map.put( "mean", getMean() );
+		map.put( "max", getMax() );
+		map.put( "buckets", cumulative );
+		return map;
+	}
+	
+	@Override public String toString() {
+		return String.format( "count=%d mean=%.2fms p50=%.0fms p99=%.0fms max=%.2fms",
+				getCount(), getMean(), getPercentile( 50 ), 
+				getPercentile( 99 ), getMax() );
+	}
+}
@@ -0,0 +1,754 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.GeneralSecurityException;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.DefaultConnectionReuseStrategy;
+import org.apache.http.impl.nio.DefaultClientIOEventDispatch;
+import org.apache.http.impl.nio.SSLClientIOEventDispatch;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.NHttpConnection;
+import org.apache.http.nio.entity.ConsumingNHttpEntity;
+import org.apache.http.nio.entity.ContentInputStream;
+import org.apache.http.nio.protocol.AsyncNHttpClientHandler;
+import org.apache.http.nio.protocol.EventListener;
+import org.apache.http.nio.protocol.NHttpRequestExecutionHandler;
+import org.apache.http.nio.reactor.IOEventDispatch;
+import org.apache.http.nio.reactor.SessionRequest;
+import org.apache.http.nio.reactor.SessionRequestCallback;
+import org.apache.http.nio.util.HeapByteBufferAllocator;
+import org.apache.http.nio.util.SharedInputBuffer;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.DefaultedHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpProcessor;
+
+/**
+ * <p>Event-driven HTTP transport used by {@link AsyncHTTPBuilder} when it is
+ * created with the <code>nio</code> option.  Requests are written and
+ * responses are read by a small, fixed number of I/O dispatch threads which
+ * multiplex non-blocking sockets (see {@link DefaultConnectingIOReactor}).
+ * The number of open connections is therefore limited only by
+ * {@link #getMaxConnections()}, not by the number of threads.</p>
+ *
+ * <p>Connections are kept alive and re-used for subsequent requests to the
+ * same host.  Requests submitted while all connections are busy are queued
+ * and sent as soon as a connection becomes available.  Once the response 
+ * headers have been received, the request's {@link ResponseCallback} is 
+ * notified <i>from the I/O thread</i>.  The response body is not buffered;
+ * it is read from the connection as the response entity is read, so the 
+ * entity must be read (or consumed) by another thread, such as the one 
+ * that parses the response.</p>
+ *
+ * <p>This class requires the <code>httpcore-nio</code> library.</p>
+ *
+ * @since 0.6
+ */
+public class NIOTransport {
+
+	/**
+	 * Default limit on the total number of open connections.
+	 */
+	public static final int DEFAULT_MAX_CONNECTIONS = 200;
+
+	static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	/* context attributes used to track per-connection state */
+	private static final String ROUTE_ATTR = "groovyx.net.http.nio.route";
+	private static final String CONN_ATTR = "groovyx.net.http.nio.connection";
+	private static final String EXCHANGE_ATTR = "groovyx.net.http.nio.exchange";
+	private static final String NEXT_ATTR = "groovyx.net.http.nio.next";
+	private static final String ENTITY_ATTR = "groovyx.net.http.nio.entity";
+
+	protected final Log log = LogFactory.getLog( getClass() );
+
+	private final HttpParams params;
+	private final HttpProcessor httpProcessor;
+	private final int ioThreads;
+	private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+
+	private final Map<HttpHost,Route> routes = new HashMap<HttpHost,Route>();
+	private int openConnections = 0;
+	private int connecting = 0;
+	private boolean shutdown = false;
+
+	private Reactor plainReactor;
+	private Reactor sslReactor;
+
+	/**
+	 * Callback notified when a request submitted via
+	 * {@link NIOTransport#execute(HttpRequest, HttpContext, ResponseCallback)}
+	 * completes.  Exactly one of these methods is called for each request,
+	 * unless the request is {@link Exchange#cancel() cancelled}.
+	 */
+	public static interface ResponseCallback {
+		/**
+		 * Called from an I/O dispatch thread once the response headers have
+		 * been received.  The response entity streams the body from the 
+		 * connection, which is not re-used until the entity has been read 
+		 * or consumed.  It must not be read by the calling thread, since that
+		 * thread is needed to receive the body.  If this method throws an 
+		 * exception, the connection is closed and the body discarded.
+		 */
+		void completed( HttpResponse response );
+
+		/**
+		 * Called if the connection could not be established, or an I/O or
+		 * protocol error occurred before the response was received.
+		 */
+		void failed( Exception ex );
+	}
+
+	/**
+	 * @param params connection parameters such as timeouts.  These are
+	 *   read each time a new connection is opened, so changes are picked
+	 *   up by subsequent connections.
+	 * @param httpProcessor request and response interceptors applied to
+	 *   each request, e.g. to add <code>Host</code> and
+	 *   <code>Content-Length</code> headers.
+	 * @param ioThreads number of I/O dispatch threads
+	 */
+	public NIOTransport( HttpParams params, HttpProcessor httpProcessor, int ioThreads ) {
+		if ( ioThreads < 1 ) throw new IllegalArgumentException( "ioThreads may not be < 1" );
+		// the NIO connection needs a buffer size, which DefaultHttpClient
+		// leaves unset.  Defaults are only consulted if the client's params
+		// don't have a value, so later changes to those params still apply.
+		HttpParams defaults = new BasicHttpParams();
+		HttpConnectionParams.setSocketBufferSize( defaults, DEFAULT_BUFFER_SIZE );
+		this.params = new DefaultedHttpParams( params, defaults );
+		this.httpProcessor = httpProcessor;
+		this.ioThreads = ioThreads;
+	}
+
+	/**
+	 * Send the given request.  This method does not block; the callback is
+	 * notified when the response has been received.
+	 * @param request request to send.  Its URI must be absolute.
+	 * @param context execution context for this request
+	 * @param callback notified when the request completes or fails
+	 * @return a handle which can be used to cancel the request
+	 * @throws IOException if the I/O reactor could not be started
+	 */
+	public Exchange execute( HttpRequest request, HttpContext context,
+			ResponseCallback callback ) throws IOException {
+		URI uri = URI.create( request.getRequestLine().getUri() );
+		if ( uri.getHost() == null ) throw new IllegalArgumentException(
+				"Request URI must be absolute: " + uri );
+		String scheme = uri.getScheme() != null ? uri.getScheme() : "http";
+		int port = uri.getPort();
+		if ( port < 0 ) port = "https".equalsIgnoreCase( scheme ) ? 443 : 80;
+		HttpHost target = new HttpHost( uri.getHost(), port, scheme );
+
+		Exchange exchange = new Exchange( target, toOriginRequest( request, uri ),
+				context, callback );
+		Route route;
+		synchronized ( this ) {
+			if ( shutdown ) throw new IllegalStateException( "Transport has been shut down" );
+			route = routes.get( target );
+			if ( route == null ) {
+				route = new Route( target );
+				routes.put( target, route );
+			}
+			route.pending.add( exchange );
+		}
+		dispatch( route );
+		return exchange;
+	}
+
+	/**
+	 * Re-create the request with a relative (origin-form) request URI, since
+	 * the request line is written verbatim by the non-blocking connection.
+	 */
+	protected HttpRequest toOriginRequest( HttpRequest request, URI uri ) {
+		StringBuilder target = new StringBuilder();
+		String path = uri.getRawPath();
+		target.append( path != null && path.length() > 0 ? path : "/" );
+		if ( uri.getRawQuery() != null ) target.append( '?' ).append( uri.getRawQuery() );
+
+		String method = request.getRequestLine().getMethod();
+		HttpRequest origin;
+		if ( request instanceof HttpEntityEnclosingRequest ) {
+			BasicHttpEntityEnclosingRequest req = new BasicHttpEntityEnclosingRequest(
+					method, target.toString(), request.getProtocolVersion() );
+			req.setEntity( ((HttpEntityEnclosingRequest)request).getEntity() );
+			origin = req;
+		}
+		else origin = new BasicHttpRequest( method, target.toString(),
+				request.getProtocolVersion() );
+		origin.setHeaders( request.getAllHeaders() );
+		return origin;
+	}
+
+	/**
+	 * Assign pending requests on the given route to idle connections, and
+	 * open new connections while under the connection limit.
+	 */
+	private void dispatch( Route route ) throws IOException {
+		while ( true ) {
+			NHttpClientConnection conn = null;
+			NHttpClientConnection evict = null;
+			synchronized ( this ) {
+				if ( shutdown || route.pending.isEmpty() ) return;
+				if ( ! route.idle.isEmpty() ) {
+					conn = route.idle.removeFirst();
+					Exchange next = route.pending.removeFirst();
+					next.connection = conn;
+					conn.getContext().setAttribute( NEXT_ATTR, next );
+				}
+				// enough connections are already being opened for this route:
+				else if ( route.connecting >= route.pending.size() ) return;
+				else if ( openConnections + connecting < maxConnections ) {
+					route.connecting++;
+					connecting++;
+				}
+				// at the limit; free up a connection held idle by another route
+				else if ( ( evict = findIdleConnection() ) == null ) return;
+			}
+			if ( conn != null )  // submitRequest() will be called from the I/O thread
+				conn.requestOutput();
+			else if ( evict != null ) {
+				evict.close(); // connectionClosed() will re-dispatch
+				return;
+			}
+			else getReactor( route.target ).ioReactor.connect(
+					new InetSocketAddress( route.target.getHostName(), route.target.getPort() ),
+					null, route, new ConnectCallback() );
+		}
+	}
+
+	private NHttpClientConnection findIdleConnection() {
+		for ( Route r : routes.values() )
+			if ( ! r.idle.isEmpty() ) return r.idle.removeFirst();
+		return null;
+	}
+
+	/**
+	 * Called from the I/O thread when a connection is ready for a new request.
+	 */
+	private synchronized Exchange nextExchange( Route route, NHttpClientConnection conn ) {
+		Exchange exchange = (Exchange)conn.getContext().removeAttribute( NEXT_ATTR );
+		while ( exchange == null || exchange.isDone() ) {
+			exchange = route.pending.poll();
+			if ( exchange == null ) {
+				if ( ! route.idle.contains( conn ) ) route.idle.add( conn );
+				return null;
+			}
+		}
+		route.idle.remove( conn );
+		exchange.connection = conn;
+		return exchange;
+	}
+
+	/**
+	 * Put a request that was assigned to a connection back on the queue, 
+	 * because the connection closed before the request could be sent.
+	 */
+	private synchronized void requeue( Route route, Exchange exchange ) {
+		if ( exchange.isDone() ) return;
+		exchange.connection = null;
+		route.pending.addFirst( exchange );
+	}
+
+	private synchronized boolean removePending( Exchange exchange ) {
+		Route route = routes.get( exchange.target );
+		if ( route == null || ! route.pending.remove( exchange ) ) return false;
+		removeIfUnused( route );
+		return true;
+	}
+
+	/**
+	 * Forget a route once it has no connections and no queued requests, so 
+	 * that requests to many different hosts don't accumulate routes.  Must 
+	 * be called while holding this object's lock.
+	 */
+	private void removeIfUnused( Route route ) {
+		if ( route.open == 0 && route.connecting == 0 && route.pending.isEmpty() 
+				&& routes.get( route.target ) == route )
+			routes.remove( route.target );
+	}
+
+	private synchronized Reactor getReactor( HttpHost target ) throws IOException {
+		boolean ssl = "https".equalsIgnoreCase( target.getSchemeName() );
+		if ( ssl ) {
+			if ( sslReactor == null ) sslReactor = new Reactor( true );
+			return sslReactor;
+		}
+		if ( plainReactor == null ) plainReactor = new Reactor( false );
+		return plainReactor;
+	}
+
+	/**
+	 * Set the maximum number of connections this transport will open at
+	 * the same time, across all hosts.
+	 * @param max maximum open connections; must be at least 1
+	 */
+	public synchronized void setMaxConnections( int max ) {
+		if ( max < 1 ) throw new IllegalArgumentException( "maxConnections may not be < 1" );
+		this.maxConnections = max;
+	}
+
+	/**
+	 * @return the maximum number of connections this transport will open.
+	 */
+	public synchronized int getMaxConnections() { return this.maxConnections; }
+
+	/**
+	 * @return the number of currently open connections.
+	 */
+	public synchronized int getOpenConnections() { return this.openConnections; }
+
+	/** @return the number of hosts with open connections or queued requests */
+	synchronized int getRouteCount() { return routes.size(); }
+
+	/**
+	 * @return the number of requests waiting for a connection.
+	 */
+	public synchronized int getPendingRequests() {
+		int pending = 0;
+		for ( Route route : routes.values() ) pending += route.pending.size();
+		return pending;
+	}
+
+	/**
+	 * Close all connections and stop the I/O dispatch threads.  Any queued
+	 * requests are failed.
+	 */
+	public void shutdown() {
+		LinkedList<Exchange> orphans = new LinkedList<Exchange>();
+		Reactor[] reactors;
+		synchronized ( this ) {
+			if ( shutdown ) return;
+			shutdown = true;
+			for ( Route route : routes.values() ) {
+				orphans.addAll( route.pending );
+				route.pending.clear();
+			}
+			reactors = new Reactor[] { plainReactor, sslReactor };
+		}
+		for ( Exchange ex : orphans )
+			ex.fail( new InterruptedIOException( "Transport was shut down" ) );
+		for ( Reactor r : reactors ) if ( r != null ) r.shutdown();
+	}
+
+	/**
+	 * A single request/response exchange.  Returned from
+	 * {@link NIOTransport#execute(HttpRequest, HttpContext, ResponseCallback)}.
+	 */
+	public class Exchange {
+		final HttpHost target;
+		final HttpRequest request;
+		final HttpContext context;
+		final ResponseCallback callback;
+		volatile NHttpClientConnection connection;
+		private boolean done = false;
+
+		Exchange( HttpHost target, HttpRequest request, HttpContext context,
+				ResponseCallback callback ) {
+			this.target = target;
+			this.request = request;
+			this.context = context;
+			this.callback = callback;
+		}
+
+		/**
+		 * Abort this request.  If the request is still queued it is simply
+		 * discarded; if it is in progress, or its response body is still 
+		 * being received, its connection is closed.  The callback is not 
+		 * notified.
+		 */
+		public void cancel() {
+			boolean wasDone;
+			synchronized ( this ) {
+				wasDone = done;
+				done = true;
+			}
+			if ( ! wasDone && removePending( this ) ) return;
+			closeConnection();
+		}
+
+		synchronized boolean isDone() { return done; }
+
+		void complete( HttpResponse response ) {
+			synchronized ( this ) {
+				if ( done ) return;
+				done = true;
+			}
+			context.setAttribute( ExecutionContext.HTTP_TARGET_HOST, target );
+			context.setAttribute( ExecutionContext.HTTP_REQUEST, request );
+			context.setAttribute( ExecutionContext.HTTP_RESPONSE, response );
+			try { callback.completed( response ); }
+			catch ( RuntimeException ex ) {
+				log.debug( "Response callback failed; discarding the response", ex );
+				closeConnection();
+			}
+		}
+
+		private void closeConnection() {
+			NHttpClientConnection conn = this.connection;
+			if ( conn != null ) try { conn.shutdown(); }
+			catch ( IOException ex ) { log.debug( "Error closing cancelled connection", ex ); }
+		}
+
+		void fail( Exception ex ) {
+			synchronized ( this ) {
+				if ( done ) return;
+				done = true;
+			}
+			callback.failed( ex );
+		}
+	}
+
+	/**
+	 * Per-host queue of pending requests and idle connections.
+	 */
+	private static class Route {
+		final HttpHost target;
+		final LinkedList<Exchange> pending = new LinkedList<Exchange>();
+		final LinkedList<NHttpClientConnection> idle = new LinkedList<NHttpClientConnection>();
+		int connecting = 0;
+		int open = 0;
+
+		Route( HttpHost target ) { this.target = target; }
+	}
+
+	/**
+	 * An I/O reactor and the thread that runs it.  Separate reactors are used
+	 * for plain and SSL connections since the event dispatch differs.
+	 */
+	private class Reactor implements Runnable {
+		final DefaultConnectingIOReactor ioReactor;
+		final IOEventDispatch dispatch;
+		final Thread thread;
+
+		Reactor( boolean ssl ) throws IOException {
+			ioReactor = new DefaultConnectingIOReactor( ioThreads,
+					new DaemonThreadFactory( ssl ? "https" : "http" ), params );
+			AsyncNHttpClientHandler handler = new AsyncNHttpClientHandler(
+					new ResponseNotifier(), new ExecutionHandler(),
+					new DefaultConnectionReuseStrategy(), params );
+			handler.setEventListener( new ConnectionListener() );
+			if ( ssl ) {
+				try {
+					SSLContext sslContext = SSLContext.getInstance( "TLS" );
+					sslContext.init( null, null, null );
+					dispatch = new SSLClientIOEventDispatch( handler, sslContext, params );
+				}
+				catch ( GeneralSecurityException ex ) {
+					throw new IOException( "Could not initialize SSL context: " + ex.getMessage() );
+				}
+			}
+			else dispatch = new DefaultClientIOEventDispatch( handler, params );
+
+			thread = new Thread( this, "httpbuilder-nio-" + ( ssl ? "https" : "http" ) );
+			thread.setDaemon( true );
+			thread.start();
+		}
+
+		public void run() {
+			try { ioReactor.execute( dispatch ); }
+			catch ( InterruptedIOException ex ) { log.debug( "I/O reactor interrupted" ); }
+			catch ( IOException ex ) {
+				log.error( "I/O reactor terminated", ex );
+				// don't leave queued requests waiting on a dead reactor
+				NIOTransport.this.shutdown();
+			}
+		}
+
+		void shutdown() {
+			try { ioReactor.shutdown(); }
+			catch ( IOException ex ) { log.warn( "Error shutting down I/O reactor", ex ); }
+		}
+	}
+
+	private static class DaemonThreadFactory implements ThreadFactory {
+		final String prefix;
+		int count = 0;
+		DaemonThreadFactory( String prefix ) { this.prefix = prefix; }
+
+		public synchronized Thread newThread( Runnable r ) {
+			Thread t = new Thread( r, "httpbuilder-nio-" + prefix + "-dispatch-" + (++count) );
+			t.setDaemon( true );
+			return t;
+		}
+	}
+
+	/**
+	 * Applies the interceptors, and then notifies the exchange as soon as its
+	 * response headers have been processed.  The handler calls this once the 
+	 * streaming entity is set on the response.
+	 */
+	private class ResponseNotifier implements HttpProcessor {
+
+		public void process( HttpRequest request, HttpContext context )
+				throws HttpException, IOException {
+			httpProcessor.process( request, context );
+		}
+
+		public void process( HttpResponse response, HttpContext context )
+				throws HttpException, IOException {
+			httpProcessor.process( response, context );
+			Exchange exchange = (Exchange)context.getAttribute( EXCHANGE_ATTR );
+			if ( exchange != null ) exchange.complete( response );
+		}
+	}
+
+	/**
+	 * Response entity which reads the body from the connection as its content
+	 * is read.  Input from the connection is suspended while the buffer is 
+	 * full.
+	 */
+	private static class StreamingEntity extends HttpEntityWrapper
+			implements ConsumingNHttpEntity {
+		final SharedInputBuffer buffer;
+		final InputStream content;
+
+		StreamingEntity( HttpEntity entity, IOControl ioControl, int bufferSize ) {
+			super( entity );
+			this.buffer = new SharedInputBuffer( bufferSize, ioControl,
+					new HeapByteBufferAllocator() );
+			this.content = new ContentInputStream( buffer );
+		}
+
+		public void consumeContent( ContentDecoder decoder, IOControl ioControl )
+				throws IOException {
+			buffer.consumeContent( decoder );
+		}
+
+		public void finish() { /* the reader sees the end of the stream */ }
+
+		@Override public InputStream getContent() { return content; }
+
+		@Override public boolean isRepeatable() { return false; }
+
+		@Override public boolean isStreaming() { return true; }
+
+		@Override public void writeTo( OutputStream out ) throws IOException {
+			byte[] bytes = new byte[4096];
+			int read;
+			while ( ( read = content.read( bytes ) ) >= 0 ) out.write( bytes, 0, read );
+		}
+
+		/** Reads and discards the rest of the body */
+		@Override public void consumeContent() throws IOException { content.close(); }
+
+		/** Fails readers waiting for the rest of the body */
+		void abort() { buffer.shutdown(); }
+	}
+
+	/**
+	 * Ties connections to the {@link Route} they were opened for, and hands
+	 * each connection its next request.
+	 */
+	private class ExecutionHandler implements NHttpRequestExecutionHandler {
+
+		public void initalizeContext( HttpContext context, Object attachment ) {
+			Route route = (Route)attachment;
+			context.setAttribute( ROUTE_ATTR, route );
+			context.setAttribute( ExecutionContext.HTTP_TARGET_HOST, route.target );
+		}
+
+		public HttpRequest submitRequest( HttpContext context ) {
+			Route route = (Route)context.getAttribute( ROUTE_ATTR );
+			NHttpClientConnection conn = (NHttpClientConnection)context.getAttribute( CONN_ATTR );
+			Exchange exchange = nextExchange( route, conn );
+			context.setAttribute( EXCHANGE_ATTR, exchange );
+			if ( exchange == null ) return null; // connection is now idle
+			log.debug( exchange.request.getRequestLine() + " -> " + route.target );
+			return exchange.request;
+		}
+
+		public ConsumingNHttpEntity responseEntity( HttpResponse response,
+				HttpContext context ) {
+			Exchange exchange = (Exchange)context.getAttribute( EXCHANGE_ATTR );
+			if ( exchange == null || exchange.isDone() ) return null; // body is skipped
+			StreamingEntity entity = new StreamingEntity( response.getEntity(),
+					(IOControl)context.getAttribute( CONN_ATTR ),
+					HttpConnectionParams.getSocketBufferSize( params ) );
+			context.setAttribute( ENTITY_ATTR, entity );
+			return entity;
+		}
+
+		/** Called once the response body has been received */
+		public void handleResponse( HttpResponse response, HttpContext context ) {
+			context.removeAttribute( ENTITY_ATTR );
+			Exchange exchange = (Exchange)context.removeAttribute( EXCHANGE_ATTR );
+			if ( exchange == null ) return;
+			exchange.connection = null;
+			exchange.complete( response );
+		}
+
+		public void finalizeContext( HttpContext context ) {
+			abortEntity( context );
+			Exchange exchange = (Exchange)context.removeAttribute( EXCHANGE_ATTR );
+			if ( exchange != null ) exchange.fail( new IOException(
+					"Connection closed before the response was received" ) );
+		}
+	}
+
+	private static void abortEntity( HttpContext context ) {
+		StreamingEntity entity = (StreamingEntity)context.removeAttribute( ENTITY_ATTR );
+		if ( entity != null ) entity.abort();
+	}
+
+	/**
+	 * Keeps track of the number of open connections, and fails the current
+	 * request on a connection when an error occurs.
+	 */
+	private class ConnectionListener implements EventListener {
+
+		public void connectionOpen( NHttpConnection conn ) {
+			HttpContext context = conn.getContext();
+			context.setAttribute( CONN_ATTR, conn );
+			Route route = (Route)context.getAttribute( ROUTE_ATTR );
+			synchronized ( NIOTransport.this ) {
+				openConnections++;
+				connecting--;
+				route.connecting--;
+				route.open++;
+			}
+		}
+
+		public void connectionClosed( NHttpConnection conn ) {
+			HttpContext context = conn.getContext();
+			Route route = (Route)context.getAttribute( ROUTE_ATTR );
+			synchronized ( NIOTransport.this ) {
+				openConnections--;
+				route.open--;
+				route.idle.remove( conn );
+				removeIfUnused( route );
+			}
+			Exchange next = (Exchange)context.removeAttribute( NEXT_ATTR );
+			if ( next != null ) requeue( route, next );
+			redispatch();
+		}
+
+		public void connectionTimeout( NHttpConnection conn ) {
+			failCurrent( conn, new InterruptedIOException( "Timeout waiting for response" ) );
+		}
+
+		public void fatalIOException( IOException ex, NHttpConnection conn ) {
+			failCurrent( conn, ex );
+		}
+
+		public void fatalProtocolException( HttpException ex, NHttpConnection conn ) {
+			failCurrent( conn, ex );
+		}
+
+		private void failCurrent( NHttpConnection conn, Exception ex ) {
+			abortEntity( conn.getContext() );
+			Exchange exchange = (Exchange)conn.getContext().removeAttribute( EXCHANGE_ATTR );
+			if ( exchange != null ) exchange.fail( ex );
+			else log.debug( "Error on idle connection", ex );
+		}
+	}
+
+	/**
+	 * Fails queued requests if their connection cannot be established.
+	 */
+	private class ConnectCallback implements SessionRequestCallback {
+
+		public void completed( SessionRequest request ) { /* see connectionOpen */ }
+
+		public void failed( SessionRequest request ) {
+			connectFailed( request, request.getException() );
+		}
+
+		public void timeout( SessionRequest request ) {
+			connectFailed( request, new InterruptedIOException( "Connect timed out" ) );
+		}
+
+		public void cancelled( SessionRequest request ) {
+			connectFailed( request, new InterruptedIOException( "Connect cancelled" ) );
+		}
+
+		private void connectFailed( SessionRequest request, Exception cause ) {
+			Route route = (Route)request.getAttachment();
+			Exchange failed;
+			synchronized ( NIOTransport.this ) {
+				connecting--;
+				route.connecting--;
+				// fail one waiting request so a dead host doesn't stall the queue forever:
+				failed = route.pending.poll();
+				removeIfUnused( route );
+			}
+			if ( failed != null ) failed.fail( cause != null ? cause
+					: new IOException( "Could not connect to " + route.target ) );
+			redispatch();
+		}
+	}
+
+	/**
+	 * A connection slot was freed; give queued requests on any route a chance
+	 * to proceed.
+	 */
+	private void redispatch() {
+		LinkedList<Route> waiting = new LinkedList<Route>();
+		synchronized ( this ) {
+			if ( shutdown ) return;
+			for ( Route route : routes.values() )
+				if ( ! route.pending.isEmpty() ) waiting.add( route );
+		}
+		for ( Route route : waiting ) {
+			try { dispatch( route ); }
+			catch ( IOException ex ) {
+				log.warn( "Could not dispatch queued requests for " + route.target, ex );
+				LinkedList<Exchange> failed;
+				synchronized ( this ) {
+					failed = new LinkedList<Exchange>( route.pending );
+					route.pending.clear();
+					removeIfUnused( route );
+				}
+				for ( Exchange exchange : failed ) exchange.fail( ex );
+			}
+		}
+	}
+}
@@ -39,6 +39,7 @@ import java.util.List;
 import java.util.Map;
 
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 
 import net.sf.json.JSON;
 import net.sf.json.groovy.JsonSlurper;
@@ -56,7 +57,6 @@ import org.apache.xml.resolver.CatalogManager;
 import org.apache.xml.resolver.tools.CatalogResolver;
 import org.codehaus.groovy.runtime.MethodClosure;
 import org.xml.sax.SAXException;
-import org.xml.sax.XMLReader;
 
 
 /**
@@ -108,6 +108,18 @@ public class ParserRegistry {
 	 */
 	protected static CatalogResolver catalogResolver;
 	
+	/**
+	 * Caches the content of DTDs and entities resolved by the 
+	 * {@link #catalogResolver}.
+	 */
+	protected static CachingEntityResolver entityResolver;
+	
+	/**
+	 * Parsers used by {@link #parseXML(HttpResponse)} and 
+	 * {@link #parseHTML(HttpResponse)}.
+	 */
+	protected static XMLReaderPool xmlReaderPool;
+	
 	static {
 		CatalogManager catalogManager = new CatalogManager();
 		catalogManager.setIgnoreMissingProperties( true );
@@ -121,6 +133,8 @@ public class ParserRegistry {
 			LogFactory.getLog( ParserRegistry.class )
 				.warn( "Could not resolve default XML catalog", ex );
 		}
+		entityResolver = new CachingEntityResolver( catalogResolver );
+		xmlReaderPool = new XMLReaderPool( entityResolver );
 	}
 	
 	/**
@@ -238,7 +252,8 @@ public class ParserRegistry {
 	}
 	
 	/**
-	 * Parse an HTML document by passing it through the NekoHTML parser.
+	 * Parse an HTML document by passing it through the NekoHTML parser.  
+	 * Parsers are reused by each thread; see {@link XMLReaderPool}.
 	 * @see ContentType#HTML
 	 * @see org.cyberneko.html.parsers.SAXParser
 	 * @see XmlSlurper#parse(Reader)
@@ -248,13 +263,13 @@ public class ParserRegistry {
 	 * @throws SAXException
 	 */
 	public GPathResult parseHTML( HttpResponse resp ) throws IOException, SAXException {
-		XMLReader p = new org.cyberneko.html.parsers.SAXParser();
-		p.setEntityResolver( catalogResolver );
-		return new XmlSlurper( p ).parse( parseText( resp ) );
+		return xmlReaderPool.parseHTML( parseText( resp ) );
 	}
 	
 	/**
-	 * Default parser used to decode an XML response.  
+	 * Default parser used to decode an XML response.  Parsers are reused by
+	 * each thread, and DTDs are resolved through the {@link #getEntityResolver() 
+	 * caching entity resolver}.
 	 * @see ContentType#XML
 	 * @see XmlSlurper#parse(Reader)
 	 * @param resp HTTP response from which to parse content
@@ -264,9 +279,7 @@ public class ParserRegistry {
 	 * @throws ParserConfigurationException
 	 */
 	public GPathResult parseXML( HttpResponse resp ) throws IOException, SAXException, ParserConfigurationException {
-		XmlSlurper xml = new XmlSlurper();
-		xml.setEntityResolver( catalogResolver );
-		return xml.parse( parseText( resp ) );
+		return xmlReaderPool.parseXML( parseText( resp ) );
 	}
 	
 	/**
@@ -282,6 +295,37 @@ public class ParserRegistry {
 		return new JsonSlurper().parse( parseText( resp ) );
 	}
 	
+	/**
+	 * Streaming parser used to decode a JSON response without reading the 
+	 * whole document into memory.  The returned reader should be consumed 
+	 * from within the response handler, since the response stream is closed 
+	 * once the handler returns.
+	 * @see ContentType#JSON_STREAM
+	 * @param resp
+	 * @return a pull parser over the response body
+	 * @throws IOException
+	 */
+	public JSONStreamReader parseJSONStream( HttpResponse resp ) throws IOException {
+		return new JSONStreamReader( parseText( resp ) );
+	}
+	
+	/**
+	 * Streaming parser used to decode an XML response one element at a 
+	 * time, without building a tree of the whole document.  As with 
+	 * {@link #parseJSONStream(HttpResponse)}, the returned parser should be 
+	 * consumed from within the response handler.  Entities are resolved 
+	 * through the same catalog as {@link #parseXML(HttpResponse)}.
+	 * @see ContentType#XML_STREAM
+	 * @param resp
+	 * @return a pull parser over the response body
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	public XMLStreamSlurper parseXMLStream( HttpResponse resp ) 
+			throws IOException, XMLStreamException {
+		return new XMLStreamSlurper( parseText( resp ), entityResolver );
+	}
+	
 	/**
 	 * <p>Returns a map of default parsers.  Override this method to change 
 	 * what parsers are registered by default.  A 'parser' is really just a 
@@ -297,6 +341,8 @@ public class ParserRegistry {
 	 * <li>{@link ContentType#URLENC} :  {@link #parseForm(HttpResponse) parseForm()}</li>
 	 * <li>{@link ContentType#XML} :  {@link #parseXML(HttpResponse) parseXML()}</li>
 	 * <li>{@link ContentType#JSON} :  {@link #parseJSON(HttpResponse) parseJSON()}</li>
+	 * <li>{@link ContentType#JSON_STREAM} :  {@link #parseJSONStream(HttpResponse) parseJSONStream()}</li>
+	 * <li>{@link ContentType#XML_STREAM} :  {@link #parseXMLStream(HttpResponse) parseXMLStream()}</li>
 	 * </ul>
 	 */
 	protected Map<String,Closure> buildDefaultParserMap() {
@@ -314,6 +360,10 @@ public class ParserRegistry {
 		pClosure = new MethodClosure(this,"parseJSON");
 		for ( String ct : ContentType.JSON.getContentTypeStrings() )
 			parsers.put( ct, pClosure );
+		parsers.put( ContentType.JSON_STREAM.toString(), 
+				new MethodClosure(this,"parseJSONStream") );
+		parsers.put( ContentType.XML_STREAM.toString(), 
+				new MethodClosure(this,"parseXMLStream") );
 		
 		return parsers;
 	}
@@ -328,6 +378,7 @@ public class ParserRegistry {
 	 */
 	public static void addCatalog( URL catalogLocation ) throws IOException {
 		catalogResolver.getCatalog().parseCatalog( catalogLocation );
+		entityResolver.clear();
 	}
 	
 	/**
@@ -338,6 +389,24 @@ public class ParserRegistry {
 		return catalogResolver;
 	}
 	
+	/**
+	 * Access the resolver used by the default XML parser, which caches 
+	 * the DTDs and entities resolved by the {@link #getCatalogResolver() 
+	 * catalog resolver}.
+	 * @return the static {@link CachingEntityResolver} instance
+	 */
+	public static CachingEntityResolver getEntityResolver() {
+		return entityResolver;
+	}
+	
+	/**
+	 * Access the pool of parsers used by the default XML and HTML parsers.
+	 * @return the static {@link XMLReaderPool} instance
+	 */
+	public static XMLReaderPool getXMLReaderPool() {
+		return xmlReaderPool;
+	}
+	
 	/**
 	 * Get the default parser used for unregistered content-types.
 	 * @return
@@ -388,7 +457,10 @@ public class ParserRegistry {
 	 *   data to the response handler. 
 	 */
 	public void putAt( Object contentType, Closure value ) {
-		if ( contentType instanceof ContentType ) {
+		if ( contentType == ContentType.JSON_STREAM // don't replace the JSON or XML parser
+				|| contentType == ContentType.XML_STREAM )
+			this.registeredParsers.put( contentType.toString(), value );
+		else if ( contentType instanceof ContentType ) {
 			for ( String ct : ((ContentType)contentType).getContentTypeStrings() )
 				this.registeredParsers.put( ct, value );
 		}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import groovy.lang.Closure;
+import groovyx.net.http.HTTPBuilder.RequestConfigDelegate;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.message.BasicHeader;
+
+/**
+ * <p>A request template created by {@link HTTPBuilder#prepare(Method, Object, Closure)},
+ * which may be executed many times with only its variable parts changing.
+ * The request method, URI, headers, content-type and response handlers are
+ * resolved once when the template is created, so executing it does not 
+ * re-run a configuration closure, copy the builder's default headers and
+ * handlers, or re-parse the URI.</p>
+ * 
+ * <p>The request path may contain <code>{name}</code> placeholders, which
+ * are replaced with the (escaped) values given to {@link #execute(Map)}.
+ * Any other values are added to the query string:</p>
+ * <pre>
+ * def getUser = http.prepare( GET, JSON ) {
+ *   uri.path = '/users/{id}'
+ *   headers.'X-Api-Key' = key
+ *   response.success = { resp, json -> json.name }
+ * }
+ * def name = getUser.execute( id : 42, fields : 'name' ) // GET /users/42?fields=name
+ * </pre>
+ * 
+ * <p>Instances are immutable and may be executed concurrently, provided 
+ * the builder itself supports concurrent requests (see 
+ * {@link HTTPBuilder#getConnectionPool()}).  The template reflects the 
+ * builder's settings at the time it was created; changes to the builder's
+ * default headers, URI or handlers afterwards do not affect it.</p>
+ * 
+ * @since 0.6
+ */
+public class PreparedRequest {
+	
+	private static final Pattern VARIABLE = Pattern.compile( 
+			"(?:\\{|%7B)([\\w.\\-]+)(?:\\}|%7D)", Pattern.CASE_INSENSITIVE );
+	
+	private final HTTPBuilder builder;
+	private final Method method;
+	private final Object contentType;
+	private final Object requestContentType;
+	private final Map<Object,Closure> responseHandlers;
+	private final Header[] headers;
+	private final HttpEntity entity;
+	
+	/* The URI is held as the escaped text before the path, alternating 
+	 * literal path segments and variable names, and the query and fragment */
+	private final String prefix;
+	private final String[] pathLiterals;
+	private final String[] pathVariables;
+	private final String rawQuery;
+	private final String rawFragment;
+	private final int uriLength;
+	
+	PreparedRequest( HTTPBuilder builder, Method method, RequestConfigDelegate delegate ) {
+		this.builder = builder;
+		this.method = method;
+		this.contentType = delegate.getContentType();
+		this.requestContentType = delegate.getRequestContentType();
+		this.responseHandlers = Collections.unmodifiableMap( 
+				new HashMap<Object,Closure>( delegate.getResponse() ) );
+		
+		HttpRequestBase template = delegate.getRequest();
+		HttpEntity entity = template instanceof HttpEntityEnclosingRequest 
+				? ((HttpEntityEnclosingRequest)template).getEntity() : null;
+		if ( entity != null && ! entity.isRepeatable() ) throw new IllegalArgumentException(
+				"Request body of a prepared request must be repeatable; " +
+				"pass the body to execute() instead" );
+		this.entity = entity;
+		
+		// same headers as HTTPBuilder.prepareRequest(), in the same order:
+		List<Header> headers = new ArrayList<Header>();
+		if ( builder.isAutoAcceptHeader() ) {
+			String accept = contentType instanceof ContentType 
+					? ((ContentType)contentType).getAcceptHeader() : contentType.toString();
+			headers.add( new BasicHeader( "Accept", accept ) );
+		}
+		for ( Map.Entry<?,?> h : delegate.getHeaders().entrySet() ) {
+			if ( h.getKey() == null ) continue;
+			String name = h.getKey().toString();
+			for ( Iterator<Header> it = headers.iterator(); it.hasNext(); )
+				if ( it.next().getName().equalsIgnoreCase( name ) ) it.remove();
+			if ( h.getValue() != null ) 
+				headers.add( new BasicHeader( name, h.getValue().toString() ) );
+		}
+		this.headers = headers.toArray( new Header[headers.size()] );
+		
+		if ( delegate.getUri() == null ) throw new IllegalStateException( 
+				"Default URI is null, and no URI was given" );
+		URI uri = delegate.getUri().toURI();
+		StringBuilder prefix = new StringBuilder();
+		if ( uri.getScheme() != null ) prefix.append( uri.getScheme() ).append( ':' );
+		if ( uri.getRawAuthority() != null ) prefix.append( "//" ).append( uri.getRawAuthority() );
+		this.prefix = prefix.toString();
+		
+		List<String> literals = new ArrayList<String>();
+		List<String> variables = new ArrayList<String>();
+		String path = uri.getRawPath() != null ? uri.getRawPath() : "";
+		Matcher m = VARIABLE.matcher( path );
+		int start = 0;
+		while ( m.find() ) {
+			literals.add( path.substring( start, m.start() ) );
+			variables.add( m.group( 1 ) );
+			start = m.end();
+		}
+		literals.add( path.substring( start ) );
+		this.pathLiterals = literals.toArray( new String[literals.size()] );
+		this.pathVariables = variables.toArray( new String[variables.size()] );
+		this.rawQuery = uri.getRawQuery();
+		this.rawFragment = uri.getRawFragment();
+		this.uriLength = uri.toString().length() + 16 * pathVariables.length;
+	}
+	
+	/**
+	 * Execute the request with no variables.
+	 * @see #execute(Map, Object)
+	 */
+	public Object execute() throws ClientProtocolException, IOException {
+		return execute( null, null );
+	}
+	
+	/**
+	 * Execute the request.
+	 * @see #execute(Map, Object)
+	 */
+	public Object execute( Map<String,?> params ) 
+			throws ClientProtocolException, IOException {
+		return execute( params, null );
+	}
+	
+	/**
+	 * Execute the request.
+	 * @param params values for each <code>{name}</code> in the path.  Any 
+	 *   other entries are added as query parameters; list values are added 
+	 *   as repeated parameters.
+	 * @param body request body, encoded according to the template's request 
+	 *   content-type.  If <code>null</code>, the body given when the template 
+	 *   was created (if any) is sent.
+	 * @return whatever is returned by the response handler, or by 
+	 *   {@link HTTPBuilder#doRequest(RequestConfigDelegate)} (e.g. a 
+	 *   <code>Future</code> for {@link AsyncHTTPBuilder}).
+	 * @throws IllegalArgumentException if no value is given for a path 
+	 *   variable
+	 */
+	public Object execute( Map<String,?> params, Object body ) 
+			throws ClientProtocolException, IOException {
+		HttpRequestBase request = newRequest( this.method );
+		request.setURI( URI.create( buildURI( params ) ) );
+		request.setHeaders( this.headers );
+		
+		RequestConfigDelegate delegate = builder.new RequestConfigDelegate( 
+				request, contentType, responseHandlers );
+		if ( body != null ) {
+			delegate.setRequestContentType( requestContentType );
+			delegate.setBody( body );
+		}
+		else if ( entity != null ) 
+			((HttpEntityEnclosingRequest)request).setEntity( entity );
+		
+		return builder.doRequest( delegate );
+	}
+	
+	/**
+	 * Expand the URI template.
+	 * @param params see {@link #execute(Map, Object)}
+	 * @return the escaped URI string
+	 */
+	public String buildURI( Map<String,?> params ) {
+		StringBuilder uri = new StringBuilder( uriLength ).append( prefix );
+		for ( int i = 0; i < pathVariables.length; i++ ) {
+			uri.append( pathLiterals[i] );
+			Object value = params != null ? params.get( pathVariables[i] ) : null;
+			if ( value == null ) throw new IllegalArgumentException( 
+					"No value for path variable '" + pathVariables[i] + "'" );
+			String segment = encode( value );
+			// path segments encode spaces as %20 rather than '+'
+			if ( segment.indexOf( '+' ) >= 0 ) segment = segment.replace( "+", "%20" );
+			uri.append( segment );
+		}
+		uri.append( pathLiterals[pathVariables.length] );
+		
+		boolean hasQuery = rawQuery != null;
+		if ( hasQuery ) uri.append( '?' ).append( rawQuery );
+		if ( params != null && params.size() > pathVariables.length ) {
+			for ( Map.Entry<String,?> param : params.entrySet() ) {
+				if ( isPathVariable( param.getKey() ) ) continue;
+				Object value = param.getValue();
+				Iterable<?> values = value instanceof Collection 
+					? (Collection<?>)value : Collections.singletonList( value );
+				for ( Object v : values ) {
+					uri.append( hasQuery ? '&' : '?' ).append( encode( param.getKey() ) )
+						.append( '=' ).append( v != null ? encode( v ) : "" );
+					hasQuery = true;
+				}
+			}
+		}
+		if ( rawFragment != null ) uri.append( '#' ).append( rawFragment );
+		return uri.toString();
+	}
+	
+	private boolean isPathVariable( String name ) {
+		for ( String v : pathVariables ) if ( v.equals( name ) ) return true;
+		return false;
+	}
+	
+	private static String encode( Object value ) {
+		String s = value.toString();
+		// most values (e.g. IDs) need no escaping:
+		for ( int i = 0; i < s.length(); i++ ) {
+			char c = s.charAt( i );
+			if ( ( c >= 'a' && c <= 'z' ) || ( c >= 'A' && c <= 'Z' ) 
+					|| ( c >= '0' && c <= '9' ) || c == '-' || c == '_' || c == '.' ) 
+				continue;
+			try { return URLEncoder.encode( s, "UTF-8" ); }
+			catch ( UnsupportedEncodingException ex ) { throw new RuntimeException( ex ); }
+		}
+		return s;
+	}
+	
+	static HttpRequestBase newRequest( Method method ) {
+		switch ( method ) {
+		case GET : return new HttpGet();
+		case POST : return new HttpPost();
+		case PUT : return new HttpPut();
+		case DELETE : return new HttpDelete();
+		case HEAD : return new HttpHead();
+		}
+		try { return method.getRequestType().newInstance(); }
+		catch ( Exception ex ) { throw new RuntimeException( ex ); }
+	}
+	
+	/** @return the request method */
+	public Method getMethod() { return this.method; }
+	
+	/** @return the names of the variables in the request path */
+	public List<String> getPathVariables() { 
+		return Collections.unmodifiableList( Arrays.asList( pathVariables ) );
+	}
+	
+	@Override public String toString() {
+		StringBuilder path = new StringBuilder( prefix );
+		for ( int i = 0; i < pathVariables.length; i++ )
+			path.append( pathLiterals[i] ).append( '{' ).append( pathVariables[i] ).append( '}' );
+		path.append( pathLiterals[pathVariables.length] );
+		if ( rawQuery != null ) path.append( '?' ).append( rawQuery );
+		return method + " " + path;
+	}
+}
@@ -21,9 +21,23 @@
  */
 package groovyx.net.http;
 
+import groovy.lang.Closure;
+
 import java.io.IOException;
+import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.http.HttpResponse;
 import org.apache.http.client.ClientProtocolException;
@@ -33,6 +47,11 @@ import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpOptions;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.impl.client.AbstractHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.HttpParams;
+import org.codehaus.groovy.runtime.InvokerInvocationException;
 
 /**
  * Extension to HTTPBuilder that basically attempts to provide a slightly more
@@ -58,11 +77,23 @@ import org.apache.http.client.methods.HttpPut;
  * by default throw a {@link HttpResponseException}.  This exception may be used 
  * to retrieve additional information regarding the response as well.</p>
  * 
+ * <p>Many requests may be sent concurrently using {@link #batch(Map, Closure)}.
+ * </p>
+ * 
  * @author <a href='mailto:tomstrummer+httpbuilder@gmail.com'>Tom Nichols</a>
  * @since 0.5
  */
 public class RESTClient extends HTTPBuilder {
 	
+	/** Default number of concurrent requests per host in a {@link #batch(Closure) batch} */
+	public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+	
+	/* limits for the default connection pool, which only opens connections
+	 * as they are needed; batches are limited by maxInFlight instead. */
+	static final int MAX_CONNECTIONS = 200;
+	static final int MAX_CONNECTIONS_PER_ROUTE = 50;
+	
+	private volatile int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
 
 	/**
 	 * Constructor.
@@ -212,6 +243,266 @@ public class RESTClient extends HTTPBuilder {
 		return this.doRequest( new RequestConfigDelegate( args, new HttpOptions(), null ) );
 	}
 	
+	/**
+	 * Creates a client with a {@link ConnectionPool} so that requests in a 
+	 * {@link #batch(Map, Closure) batch} can share the client's connections,
+	 * cookies and authentication settings.  The pool limits are raised so 
+	 * that batches are limited only by <code>maxInFlight</code>.
+	 */
+	@Override
+	protected AbstractHttpClient createClient( HttpParams params ) {
+		AbstractHttpClient client = createPooledClient( params );
+		ConnectionPool pool = (ConnectionPool)client.getConnectionManager();
+		pool.setMaxTotal( MAX_CONNECTIONS );
+		pool.setDefaultMaxPerRoute( MAX_CONNECTIONS_PER_ROUTE );
+		return client;
+	}
+	
+	/**
+	 * Same as {@link #batch(Map, Closure)} with no named arguments.
+	 */
+	public List<BatchResult> batch( Closure requests ) 
+			throws URISyntaxException, InterruptedException {
+		return this.batch( null, requests );
+	}
+	
+	/**
+	 * <p>Send a number of requests concurrently, and wait for them all to 
+	 * complete.  Requests are declared by calling <code>get</code>, 
+	 * <code>post</code>, <code>put</code>, <code>delete</code>, 
+	 * <code>head</code> or <code>options</code> from the closure, with the
+	 * same named parameters as the corresponding methods of this class:</p>
+	 * <pre>
+	 * def results = client.batch( maxInFlight : 8 ) {
+	 *   get( path : '/a' )
+	 *   get( path : '/b', query : [ q : 'x' ] )
+	 *   post( path : '/c', body : [ id : 1 ] )
+	 * }
+	 * results.each { if ( it.success ) println it.data }</pre>
+	 * 
+	 * <p>Requests to the same host are sent over at most 
+	 * <code>maxInFlight</code> connections at once, which are kept alive and 
+	 * re-used for the next request in the batch.  Requests to different hosts
+	 * run independently.  HTTP pipelining is not used since HttpClient does 
+	 * not support it, and it is disabled by many servers and proxies.</p>
+	 * 
+	 * <p>A failed request does not affect the others.  Each result holds 
+	 * either the value returned by the response handler (normally a 
+	 * {@link HttpResponseDecorator}) or the exception that was thrown.</p>
+	 * 
+	 * <p>If this instance's {@link #createClient(HttpParams) client} does not 
+	 * use a {@link ThreadSafeClientConnManager}, requests are sent one at a 
+	 * time.</p>
+	 * 
+	 * @param args optional named parameters:
+	 *  <dl>
+	 *   <dt>maxInFlight</dt><dd>max number of concurrent requests per host.
+	 *   	Defaults to {@link #getMaxInFlight()}</dd>
+	 *  </dl>
+	 * @param requests closure which declares the requests
+	 * @return one result per request, in the order the requests were declared
+	 * @throws URISyntaxException if a request URI is invalid.  No requests 
+	 *   are sent in this case.
+	 * @throws InterruptedException if the calling thread is interrupted while
+	 *   waiting for the requests to complete.  Requests which have not yet 
+	 *   been sent are cancelled.
+	 */
+	public List<BatchResult> batch( Map<String,?> args, Closure requests ) 
+			throws URISyntaxException, InterruptedException {
+		int maxInFlight = this.maxInFlight;
+		if ( args != null && args.get( "maxInFlight" ) != null )
+			maxInFlight = Integer.parseInt( args.get( "maxInFlight" ).toString() );
+		if ( maxInFlight < 1 ) throw new IllegalArgumentException( "maxInFlight may not be < 1" );
+		
+		BatchRequests batch = new BatchRequests();
+		requests.setDelegate( batch );
+		requests.setResolveStrategy( Closure.DELEGATE_FIRST );
+		requests.call( batch );
+		
+		final List<RequestConfigDelegate> delegates = batch.delegates;
+		final BatchResult[] results = new BatchResult[delegates.size()];
+		if ( delegates.isEmpty() ) return Arrays.asList( results );
+		
+		if ( ! ( client.getConnectionManager() instanceof ThreadSafeClientConnManager ) ) {
+			log.debug( "Connection manager is not thread-safe; sending batch sequentially" );
+			maxInFlight = 1;
+		}
+		
+		// queue each request by host
+		Map<String,ConcurrentLinkedQueue<Integer>> routes = 
+			new LinkedHashMap<String,ConcurrentLinkedQueue<Integer>>();
+		for ( int i = 0; i < delegates.size(); i++ ) {
+			URI uri = delegates.get( i ).getUri().toURI();
+			String route = uri.getScheme() + "://" + uri.getAuthority();
+			ConcurrentLinkedQueue<Integer> queue = routes.get( route );
+			if ( queue == null ) routes.put( route, 
+					queue = new ConcurrentLinkedQueue<Integer>() );
+			queue.add( i );
+		}
+		
+		// run up to maxInFlight workers per host, each taking the next request
+		List<Runnable> workers = new ArrayList<Runnable>();
+		for ( final ConcurrentLinkedQueue<Integer> queue : routes.values() ) {
+			int count = Math.min( maxInFlight, queue.size() );
+			for ( int i = 0; i < count; i++ ) workers.add( new Runnable() {
+				public void run() {
+					Integer index;
+					while ( ( index = queue.poll() ) != null ) {
+						if ( Thread.currentThread().isInterrupted() ) return;
+						results[index] = execute( delegates.get( index ) );
+					}
+				}
+			} );
+		}
+		
+		if ( workers.size() == 1 ) workers.get( 0 ).run();
+		else {
+			ExecutorService executor = Executors.newFixedThreadPool( 
+					workers.size(), new BatchThreadFactory() );
+			try {
+				List<Future<?>> futures = new ArrayList<Future<?>>();
+				for ( Runnable worker : workers ) futures.add( executor.submit( worker ) );
+				for ( Future<?> f : futures ) {
+					try { f.get(); }
+					catch ( ExecutionException ex ) {
+						throw new RuntimeException( "Unexpected batch error", ex.getCause() );
+					}
+				}
+			}
+			finally { executor.shutdownNow(); }
+		}
+		return Arrays.asList( results );
+	}
+	
+	private BatchResult execute( RequestConfigDelegate delegate ) {
+		try { return new BatchResult( this.doRequest( delegate ), null ); }
+		catch ( Throwable ex ) {
+			// exceptions thrown from a response handler closure are wrapped
+			if ( ex instanceof InvokerInvocationException && ex.getCause() != null )
+				ex = ex.getCause();
+			log.debug( "Batch request failed: " + delegate.getUri(), ex );
+			return new BatchResult( null, ex );
+		}
+	}
+	
+	/**
+	 * Max number of concurrent requests per host in a {@link #batch(Closure) batch},
+	 * unless the <code>maxInFlight</code> argument is passed to 
+	 * {@link #batch(Map, Closure)}.
+	 */
+	public int getMaxInFlight() { return this.maxInFlight; }
+	
+	/**
+	 * @see #getMaxInFlight()
+	 * @param maxInFlight
+	 */
+	public void setMaxInFlight( int maxInFlight ) {
+		if ( maxInFlight < 1 ) throw new IllegalArgumentException( "maxInFlight may not be < 1" );
+		this.maxInFlight = maxInFlight;
+	}
+	
+	/**
+	 * Delegate for the closure passed to {@link RESTClient#batch(Map, Closure)}.
+	 * Each method records a request to be sent, and returns its index in the
+	 * batch results.
+	 */
+	public class BatchRequests {
+		final List<RequestConfigDelegate> delegates = new ArrayList<RequestConfigDelegate>();
+		
+		private int add( Map<String,?> args, HttpRequestBase method ) throws URISyntaxException {
+			delegates.add( new RequestConfigDelegate( args, method, null ) );
+			return delegates.size() - 1;
+		}
+		
+		public int get( Map<String,?> args ) throws URISyntaxException {
+			return add( args, new HttpGet() );
+		}
+		
+		public int post( Map<String,?> args ) throws URISyntaxException {
+			return add( args, new HttpPost() );
+		}
+		
+		public int put( Map<String,?> args ) throws URISyntaxException {
+			return add( args, new HttpPut() );
+		}
+		
+		public int delete( Map<String,?> args ) throws URISyntaxException {
+			return add( args, new HttpDelete() );
+		}
+		
+		public int head( Map<String,?> args ) throws URISyntaxException {
+			return add( args, new HttpHead() );
+		}
+		
+		public int options( Map<String,?> args ) throws URISyntaxException {
+			return add( args, new HttpOptions() );
+		}
+	}
+	
+	/**
+	 * Outcome of a single request sent by {@link RESTClient#batch(Map, Closure)}.
+	 */
+	public static class BatchResult {
+		private final Object result;
+		private final Throwable error;
+		
+		BatchResult( Object result, Throwable error ) {
+			this.result = result;
+			this.error = error;
+		}
+		
+		/** 
+		 * @return <code>true</code> if the response handler returned normally.
+		 */
+		public boolean isSuccess() { return this.error == null; }
+		
+		/**
+		 * @return the value returned by the response handler, or 
+		 * <code>null</code> if the request failed.
+		 */
+		public Object getResult() { return this.result; }
+		
+		/**
+		 * @return the exception thrown by the request, or <code>null</code>.
+		 *   A response with a failure status code is normally reported as a 
+		 *   {@link HttpResponseException}. 
+		 */
+		public Throwable getError() { return this.error; }
+		
+		/**
+		 * @return the response, if the default response handlers were used and
+		 *   a response was received.  Also available for failure status codes.
+		 */
+		public HttpResponseDecorator getResponse() {
+			if ( result instanceof HttpResponseDecorator ) return (HttpResponseDecorator)result;
+			if ( error instanceof HttpResponseException ) 
+				return ((HttpResponseException)error).getResponse();
+			return null;
+		}
+		
+		/**
+		 * @return the parsed response data, or <code>null</code> if there 
+		 *   was no response.
+		 */
+		public Object getData() {
+			HttpResponseDecorator resp = getResponse();
+			return resp != null ? resp.getData() : null;
+		}
+		
+		@Override public String toString() {
+			return "BatchResult[" + ( error != null ? error : result ) + "]";
+		}
+	}
+	
+	private static class BatchThreadFactory implements ThreadFactory {
+		static final AtomicInteger count = new AtomicInteger();
+		public Thread newThread( Runnable r ) {
+			Thread t = new Thread( r, "RESTClient-batch-" + count.incrementAndGet() );
+			t.setDaemon( true );
+			return t;
+		}
+	}
+	
 	/**
 	 * Returns an {@link HttpResponseDecorator}, which provides simplified 
 	 * access to headers, response code, and parsed response body, as well as
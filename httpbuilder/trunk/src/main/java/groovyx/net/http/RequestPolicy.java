@@ -0,0 +1,638 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import groovyx.net.http.HTTPBuilder.RequestConfigDelegate;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.HttpRequestBase;
+
+/**
+ * <p>Deadlines, retries and hedged requests for an {@link AsyncHTTPBuilder}.
+ * When a policy is {@link AsyncHTTPBuilder#setPolicy(RequestPolicy) set}, 
+ * each request may be sent more than once, and the returned {@link Future} 
+ * completes with the response handler result from the first acceptable 
+ * response:</p>
+ * <ul>
+ *  <li>An attempt that fails with an I/O error or a 
+ *  	{@link #setRetryStatus(Collection) retryable status} (by default 
+ *  	502, 503 or 504) is retried after an exponential backoff, up to 
+ *  	{@link #setMaxRetries(int) maxRetries} times.</li>
+ *  <li>If hedging is enabled, another attempt is sent when the first has 
+ *  	not received a response within the {@link #setHedgeDelay(long) 
+ *  	hedgeDelay}, or the {@link #setHedgePercentile(double) percentile} of 
+ *  	recently observed latencies.  The first response wins, and the other
+ *  	attempts are aborted before their response handlers are called.</li>
+ *  <li>Once the {@link #setDeadline(long) deadline} has passed, any 
+ *  	outstanding attempts are aborted and the Future fails with a 
+ *  	{@link TimeoutException}.  A deadline may also be given for a single 
+ *  	request with the <code>deadline</code> argument.</li>
+ * </ul>
+ * 
+ * <p>Retries and hedges are only used for idempotent methods whose request 
+ * body, if any, is repeatable.  Each one spends a token from a bucket which 
+ * is refilled by a fraction of a token for every successful request, so that
+ * retries cannot multiply the load on a service that is already failing.</p>
+ * 
+ * <pre>
+ * def http = new AsyncHTTPBuilder( uri : 'http://replicas.example.com/', 
+ *     policy : new RequestPolicy( deadline : 2000, maxRetries : 2, hedgePercentile : 95 ) )
+ * def result = http.get( path : '/item/42', deadline : 500 ).get()</pre>
+ * 
+ * <p>A policy is thread-safe and may be shared between builders, in which 
+ * case they also share its token bucket and latency statistics.</p>
+ * 
+ * @since 0.6
+ */
+public class RequestPolicy {
+	
+	/** Response codes which are retried by default. */
+	public static final List<Integer> DEFAULT_RETRY_STATUS = 
+		Collections.unmodifiableList( Arrays.asList( 502, 503, 504 ) );
+	
+	/** Idempotent methods, which are retried by default. */
+	public static final List<String> DEFAULT_RETRY_METHODS = Collections.unmodifiableList( 
+			Arrays.asList( "GET", "HEAD", "PUT", "DELETE", "OPTIONS" ) );
+	
+	/** 
+	 * Number of latency samples needed before the 
+	 * {@link #setHedgePercentile(double) hedge percentile} is used. 
+	 */
+	public static final int MIN_HEDGE_SAMPLES = 20;
+	
+	private static final Runnable NOOP = new Runnable() { public void run() {} };
+	private static ScheduledThreadPoolExecutor timer;
+	
+	protected final Log log = LogFactory.getLog( getClass() );
+	
+	private volatile long deadline = 0;
+	private volatile int maxRetries = 2;
+	private volatile long backoff = 50;
+	private volatile long maxBackoff = 2000;
+	private volatile double backoffMultiplier = 2;
+	private volatile long hedgeDelay = 0;
+	private volatile double hedgePercentile = 0;
+	private volatile int maxHedges = 1;
+	private volatile Set<Integer> retryStatus = new HashSet<Integer>( DEFAULT_RETRY_STATUS );
+	private volatile Set<String> retryMethods = new HashSet<String>( DEFAULT_RETRY_METHODS );
+	
+	private final Object bucketLock = new Object();
+	private double maxTokens = 10;
+	private double tokenRatio = 0.1;
+	private double tokens = maxTokens;
+	
+	private final Random random = new Random();
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final AtomicLong requestCount = new AtomicLong();
+	private final AtomicLong retryCount = new AtomicLong();
+	private final AtomicLong hedgeCount = new AtomicLong();
+	private final AtomicLong hedgeWinCount = new AtomicLong();
+	private final AtomicLong throttledCount = new AtomicLong();
+	private final AtomicLong deadlineExceededCount = new AtomicLong();
+	
+	/**
+	 * Time allowed for a request, including all retries and hedged attempts, 
+	 * before its Future fails with a {@link TimeoutException}.
+	 * @param deadline time in milliseconds, or 0 (the default) for no limit.
+	 */
+	public void setDeadline( long deadline ) { this.deadline = deadline; }
+	public long getDeadline() { return this.deadline; }
+	
+	/**
+	 * @param maxRetries number of times a failed attempt may be retried.  
+	 * Default is 2.
+	 */
+	public void setMaxRetries( int maxRetries ) { this.maxRetries = maxRetries; }
+	public int getMaxRetries() { return this.maxRetries; }
+	
+	/**
+	 * Delay before the first retry.  Each subsequent retry waits 
+	 * {@link #setBackoffMultiplier(double) backoffMultiplier} times longer,
+	 * up to {@link #setMaxBackoff(long) maxBackoff}.  The actual delay is 
+	 * chosen at random between half and all of this value, so that clients 
+	 * do not retry in lock-step.
+	 * @param backoff time in milliseconds; default is 50.
+	 */
+	public void setBackoff( long backoff ) { this.backoff = backoff; }
+	public long getBackoff() { return this.backoff; }
+	
+	/** @param maxBackoff longest delay between retries, in milliseconds */
+	public void setMaxBackoff( long maxBackoff ) { this.maxBackoff = maxBackoff; }
+	public long getMaxBackoff() { return this.maxBackoff; }
+	
+	public void setBackoffMultiplier( double multiplier ) { this.backoffMultiplier = multiplier; }
+	public double getBackoffMultiplier() { return this.backoffMultiplier; }
+	
+	/**
+	 * Send a hedged attempt if no response has been received after this 
+	 * time.  If a {@link #setHedgePercentile(double) hedge percentile} is 
+	 * also set, this value is only used until enough latencies have been 
+	 * recorded.
+	 * @param hedgeDelay time in milliseconds, or 0 (the default) to disable.
+	 */
+	public void setHedgeDelay( long hedgeDelay ) { this.hedgeDelay = hedgeDelay; }
+	public long getHedgeDelay() { return this.hedgeDelay; }
+	
+	/**
+	 * Send a hedged attempt if no response has been received after this 
+	 * percentile of the observed response times, e.g. <code>95</code>.  
+	 * At most 100 - <code>percentile</code> percent of requests should 
+	 * then need a second attempt. 
+	 * @param percentile between 0 and 100, or 0 (the default) to disable.
+	 */
+	public void setHedgePercentile( double percentile ) {
+		if ( percentile < 0 || percentile >= 100 ) throw new IllegalArgumentException( 
+				"Hedge percentile must be between 0 and 100" );
+		this.hedgePercentile = percentile; 
+	}
+	public double getHedgePercentile() { return this.hedgePercentile; }
+	
+	/** @param maxHedges number of hedged attempts per request; default is 1. */
+	public void setMaxHedges( int maxHedges ) { this.maxHedges = maxHedges; }
+	public int getMaxHedges() { return this.maxHedges; }
+	
+	/**
+	 * @param codes response status codes for which an attempt should be 
+	 * retried.  If the last attempt receives one of these, it is passed to
+	 * the response handler as usual.
+	 */
+	public void setRetryStatus( Collection<?> codes ) {
+		Set<Integer> status = new HashSet<Integer>();
+		for ( Object code : codes ) status.add( Integer.parseInt( code.toString() ) );
+		this.retryStatus = status;
+	}
+	public Set<Integer> getRetryStatus() { return Collections.unmodifiableSet( retryStatus ); }
+	
+	/**
+	 * @param methods {@link Method}s or method names which may be retried 
+	 * or hedged.  These should all be idempotent.
+	 */
+	public void setRetryMethods( Collection<?> methods ) {
+		Set<String> names = new HashSet<String>();
+		for ( Object m : methods ) names.add( m.toString().toUpperCase() );
+		this.retryMethods = names;
+	}
+	public Set<String> getRetryMethods() { return Collections.unmodifiableSet( retryMethods ); }
+	
+	/**
+	 * Size of the token bucket which limits retries and hedges.  The bucket
+	 * is refilled to this size.  Default is 10.
+	 */
+	public void setMaxTokens( double maxTokens ) {
+		synchronized ( bucketLock ) {
+			this.maxTokens = maxTokens;
+			this.tokens = maxTokens;
+		}
+	}
+	public double getMaxTokens() { synchronized ( bucketLock ) { return this.maxTokens; } }
+	
+	/**
+	 * Tokens added to the bucket for each successful request.  The default 
+	 * of 0.1 allows roughly one retry or hedge per ten requests once the 
+	 * bucket is empty.
+	 */
+	public void setTokenRatio( double tokenRatio ) {
+		synchronized ( bucketLock ) { this.tokenRatio = tokenRatio; }
+	}
+	public double getTokenRatio() { synchronized ( bucketLock ) { return this.tokenRatio; } }
+	
+	/** @return tokens currently available for retries and hedges */
+	public double getTokens() { synchronized ( bucketLock ) { return this.tokens; } }
+	
+	/** @return response times of all attempts that received a response */
+	public LatencyHistogram getLatency() { return this.latency; }
+	
+	public long getRequestCount() { return requestCount.get(); }
+	public long getRetryCount() { return retryCount.get(); }
+	public long getHedgeCount() { return hedgeCount.get(); }
+	/** @return number of requests whose result came from a hedged attempt */
+	public long getHedgeWinCount() { return hedgeWinCount.get(); }
+	/** @return retries and hedges not sent because the token bucket was empty */
+	public long getThrottledCount() { return throttledCount.get(); }
+	public long getDeadlineExceededCount() { return deadlineExceededCount.get(); }
+	
+	/**
+	 * @return a snapshot of the counters and latency histogram, suitable for 
+	 * exporting to a monitoring system.
+	 */
+	public Map<String,Object> getMetrics() {
+		Map<String,Object> metrics = new LinkedHashMap<String,Object>();
+		metrics.put( "requests", getRequestCount() );
+		metrics.put( "retries", getRetryCount() );
+		metrics.put( "hedges", getHedgeCount() );
+		metrics.put( "hedgeWins", getHedgeWinCount() );
+		metrics.put( "throttled", getThrottledCount() );
+		metrics.put( "deadlineExceeded", getDeadlineExceededCount() );
+		metrics.put( "tokens", getTokens() );
+		metrics.put( "latency", latency.toMap() );
+		return metrics;
+	}
+	
+	/** Clear all counters and recorded latencies, and refill the token bucket. */
+	public void resetStatistics() {
+		latency.reset();
+		requestCount.set( 0 );
+		retryCount.set( 0 );
+		hedgeCount.set( 0 );
+		hedgeWinCount.set( 0 );
+		throttledCount.set( 0 );
+		deadlineExceededCount.set( 0 );
+		synchronized ( bucketLock ) { this.tokens = this.maxTokens; }
+	}
+	
+	/**
+	 * Send the request configured by the given delegate according to this 
+	 * policy.  This is called by {@link AsyncHTTPBuilder#doRequest(RequestConfigDelegate)}.
+	 */
+	ResponseFuture<Object> execute( AsyncHTTPBuilder builder, RequestConfigDelegate delegate ) {
+		Execution execution = new Execution( builder, delegate );
+		execution.start();
+		return execution;
+	}
+	
+	boolean acquireToken() {
+		synchronized ( bucketLock ) {
+			if ( tokens < 1 ) return false;
+			tokens -= 1;
+			return true;
+		}
+	}
+	
+	void depositToken() {
+		synchronized ( bucketLock ) {
+			tokens = Math.min( maxTokens, tokens + tokenRatio );
+		}
+	}
+	
+	long backoffDelay( int retry ) {
+		double delay = Math.min( maxBackoff, backoff * Math.pow( backoffMultiplier, retry ) );
+		return (long)( delay / 2 + random.nextDouble() * delay / 2 );
+	}
+	
+	long currentHedgeDelay() {
+		double p = this.hedgePercentile;
+		if ( p > 0 && latency.getCount() >= MIN_HEDGE_SAMPLES )
+			return Math.max( 1, (long)latency.getPercentile( p ) );
+		return this.hedgeDelay;
+	}
+	
+	boolean isRetryable( Exception ex ) {
+		return ex instanceof IOException && ! ( ex instanceof ClientProtocolException );
+	}
+	
+	/**
+	 * Timer shared by all policies for deadlines, backoff and hedge delays.
+	 * Cancelled timeouts are purged periodically, since Java 5 does not 
+	 * remove them from the queue.
+	 */
+	static synchronized ScheduledThreadPoolExecutor getTimer() {
+		if ( timer == null ) {
+			timer = new ScheduledThreadPoolExecutor( 1, new ThreadFactory() {
+				public Thread newThread( Runnable r ) {
+					Thread t = new Thread( r, "http-builder-policy-timer" );
+					t.setDaemon( true );
+					return t;
+				}
+			});
+			final ScheduledThreadPoolExecutor t = timer;
+			timer.scheduleWithFixedDelay( new Runnable() {
+				public void run() { t.purge(); }
+			}, 30, 30, TimeUnit.SECONDS );
+		}
+		return timer;
+	}
+	
+	/**
+	 * Future for a single request, which tracks each attempt that has been 
+	 * sent for it.  Only the first attempt that is accepted is passed to the 
+	 * response handlers; the rest are aborted.
+	 */
+	class Execution extends ResponseFuture<Object> {
+		final AsyncHTTPBuilder builder;
+		final RequestConfigDelegate delegate;
+		final long started = System.nanoTime();
+		final long deadlineMillis;
+		private HttpRequestBase request;
+		private boolean repeatable;
+		
+		/* attempts that have been sent and have not yet completed */
+		private final List<Attempt> active = new ArrayList<Attempt>( 2 );
+		private int attempts = 0;
+		private int retries = 0;
+		private int hedges = 0;
+		private boolean decided = false;
+		private boolean retryPending = false;
+		private ScheduledFuture<?> deadlineTimer;
+		private ScheduledFuture<?> hedgeTimer;
+		
+		Execution( AsyncHTTPBuilder builder, RequestConfigDelegate delegate ) {
+			super( NOOP, null, builder.callbackExecutor );
+			this.builder = builder;
+			this.delegate = delegate;
+			this.deadlineMillis = delegate.getDeadline() > 0 ? delegate.getDeadline() : deadline;
+		}
+		
+		void start() {
+			requestCount.incrementAndGet();
+			try {
+				this.request = builder.prepareRequest( delegate );
+			}
+			catch ( RuntimeException ex ) {
+				setException( ex );
+				return;
+			}
+			HttpEntity entity = request instanceof HttpEntityEnclosingRequest 
+					? ((HttpEntityEnclosingRequest)request).getEntity() : null;
+			this.repeatable = retryMethods.contains( request.getMethod() ) 
+					&& ( entity == null || entity.isRepeatable() );
+			
+			if ( deadlineMillis > 0 ) {
+				synchronized ( this ) {
+					deadlineTimer = getTimer().schedule( new Runnable() {
+						public void run() { expire(); }
+					}, deadlineMillis, TimeUnit.MILLISECONDS );
+				}
+			}
+			launch( false );
+		}
+		
+		private void launch( boolean hedge ) {
+			Attempt attempt;
+			synchronized ( this ) {
+				if ( decided ) return;
+				retryPending = false;
+				HttpRequestBase req = this.request;
+				if ( attempts > 0 ) try { 
+					req = (HttpRequestBase)req.clone();
+				}
+				catch ( CloneNotSupportedException ex ) {
+					throw new RuntimeException( ex ); // HttpRequestBase is Cloneable
+				}
+				attempt = new Attempt( req, hedge );
+				active.add( attempt );
+				attempts++;
+				if ( hedge ) hedges++;
+				scheduleHedge();
+			}
+			attempt.send();
+		}
+		
+		/* caller must hold the lock */
+		private void scheduleHedge() {
+			if ( hedgeTimer != null ) hedgeTimer.cancel( false );
+			hedgeTimer = null;
+			if ( ! repeatable || hedges >= maxHedges ) return;
+			long delay = currentHedgeDelay();
+			if ( delay <= 0 ) return;
+			hedgeTimer = getTimer().schedule( new Runnable() {
+				public void run() { hedge(); }
+			}, delay, TimeUnit.MILLISECONDS );
+		}
+		
+		private void hedge() {
+			synchronized ( this ) {
+				if ( decided || retryPending || active.isEmpty() ) return;
+				if ( ! acquireToken() ) {
+					throttledCount.incrementAndGet();
+					return;
+				}
+			}
+			hedgeCount.incrementAndGet();
+			log.debug( "Sending hedged request: " + request.getURI() );
+			launch( true );
+		}
+		
+		/* caller must hold the lock */
+		private boolean scheduleRetry() {
+			if ( ! repeatable || retries >= maxRetries ) return false;
+			long delay = backoffDelay( retries );
+			if ( deadlineMillis > 0 && elapsed() + delay >= deadlineMillis ) return false;
+			if ( ! acquireToken() ) {
+				throttledCount.incrementAndGet();
+				return false;
+			}
+			retries++;
+			retryCount.incrementAndGet();
+			retryPending = true;
+			if ( hedgeTimer != null ) hedgeTimer.cancel( false );
+			hedgeTimer = null;
+			log.debug( "Retrying " + request.getURI() + " in " + delay + "ms" );
+			getTimer().schedule( new Runnable() {
+				public void run() { launch( false ); }
+			}, delay, TimeUnit.MILLISECONDS );
+			return true;
+		}
+		
+		private long elapsed() {
+			return TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - started );
+		}
+		
+		/**
+		 * Called when an attempt receives a response.
+		 * @return true if the response should be passed to the response 
+		 * handlers, or false if it should be discarded.
+		 */
+		boolean accept( Attempt attempt, int status ) {
+			List<Attempt> losers;
+			synchronized ( this ) {
+				if ( decided || ! active.remove( attempt ) ) return false;
+				if ( retryStatus.contains( status ) && ( ! active.isEmpty() 
+						|| retryPending || scheduleRetry() ) ) return false;
+				decided = true;
+				setRequest( attempt.request );
+				losers = new ArrayList<Attempt>( active );
+				active.clear();
+			}
+			for ( Attempt a : losers ) a.cancel();
+			if ( attempt.hedge ) hedgeWinCount.incrementAndGet();
+			if ( ! retryStatus.contains( status ) ) depositToken();
+			return true;
+		}
+		
+		/**
+		 * Called when an attempt fails before a response is received.
+		 */
+		void failed( Attempt attempt, Exception ex ) {
+			synchronized ( this ) {
+				if ( decided || ! active.remove( attempt ) ) return; // aborted
+				if ( ! active.isEmpty() || retryPending ) return;
+				if ( isRetryable( ex ) && scheduleRetry() ) return;
+				decided = true;
+			}
+			log.info( "Request failed: " + delegate, ex );
+			setException( ex );
+		}
+		
+		void handle( Attempt attempt, HttpResponse response ) {
+			try {
+				set( builder.handleResponse( delegate, new HttpResponseDecorator( 
+						response, attempt.context, null ) ) );
+			}
+			catch ( Throwable ex ) {
+				log.info( "Exception thrown from response delegate: " + delegate, ex );
+				setException( ex );
+			}
+		}
+		
+		private void expire() {
+			synchronized ( this ) {
+				if ( decided ) return;
+				decided = true;
+			}
+			deadlineExceededCount.incrementAndGet();
+			setException( new TimeoutException( "Deadline of " + deadlineMillis 
+					+ "ms exceeded for " + request.getMethod() + " " + request.getURI() ) );
+		}
+		
+		/** Abort outstanding attempts and timers once the result is set. */
+		@Override protected void done() {
+			List<Attempt> remaining;
+			synchronized ( this ) {
+				decided = true;
+				remaining = new ArrayList<Attempt>( active );
+				active.clear();
+				if ( deadlineTimer != null ) deadlineTimer.cancel( false );
+				if ( hedgeTimer != null ) hedgeTimer.cancel( false );
+			}
+			for ( Attempt a : remaining ) a.cancel();
+			super.done();
+		}
+		
+		/**
+		 * A single send of the request, executed either by a pool thread or 
+		 * by the builder's {@link NIOTransport}.
+		 */
+		class Attempt implements Runnable, NIOTransport.ResponseCallback {
+			final HttpRequestBase request;
+			final HttpContextDecorator context;
+			final boolean hedge;
+			final long sent = System.nanoTime();
+			volatile NIOTransport.Exchange exchange;
+			volatile boolean cancelled = false;
+			
+			Attempt( HttpRequestBase request, boolean hedge ) {
+				this.request = request;
+				this.hedge = hedge;
+				// attempts may run concurrently, so each needs its own context
+				this.context = hedge || attempts > 0 ? new HttpContextDecorator() 
+						: delegate.getContext();
+			}
+			
+			void send() {
+				try {
+					NIOTransport transport = builder.nioTransport;
+					if ( transport == null ) builder.threadPool.execute( this );
+					else {
+						this.exchange = transport.execute( request, context, this );
+						if ( cancelled ) exchange.cancel();
+					}
+				}
+				catch ( RejectedExecutionException ex ) { failed( ex ); }
+				catch ( IOException ex ) { failed( ex ); }
+			}
+			
+			/** Blocking send, run by a pool thread */
+			public void run() {
+				if ( cancelled ) return;
+				HttpResponse response;
+				try {
+					response = builder.sendRequest( request, context );
+				}
+				catch ( Exception ex ) {
+					failed( ex );
+					return;
+				}
+				if ( received( response ) ) handle( this, response );
+				else discard( response );
+			}
+			
+			/** 
+			 * Called by the NIO transport.  The body is still being received 
+			 * by the calling thread, so it is read or discarded by a pool thread.
+			 */
+			public void completed( final HttpResponse response ) {
+				final boolean accepted = received( response );
+				try {
+					builder.threadPool.execute( new Runnable() {
+						public void run() { 
+							if ( accepted ) handle( Attempt.this, response );
+							else discard( response );
+						}
+					});
+				}
+				catch ( RejectedExecutionException ex ) { 
+					if ( accepted ) setException( ex );
+					throw ex; // the transport discards the response body
+				}
+			}
+			
+			public void failed( Exception ex ) {
+				Execution.this.failed( this, ex );
+			}
+			
+			private boolean received( HttpResponse response ) {
+				latency.record( System.nanoTime() - sent );
+				return accept( this, response.getStatusLine().getStatusCode() );
+			}
+			
+			private void discard( HttpResponse response ) {
+				try {
+					HttpEntity entity = response.getEntity();
+					if ( entity != null ) entity.consumeContent();
+				}
+				catch ( IOException ex ) {} // attempt was aborted
+			}
+			
+			void cancel() {
+				cancelled = true;
+				request.abort();
+				NIOTransport.Exchange ex = this.exchange;
+				if ( ex != null ) ex.cancel();
+			}
+		}
+	}
+}
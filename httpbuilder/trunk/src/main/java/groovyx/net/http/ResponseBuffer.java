@@ -0,0 +1,414 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p>Buffers streaming response content so that it can be read after the
+ * connection has been released.  This is used by
+ * {@link HTTPBuilder#defaultSuccessHandler(HttpResponseDecorator, Object)}
+ * when no response handler closure is given for a request that returns an
+ * <code>InputStream</code> or <code>Reader</code>.</p>
+ *
+ * <p>Binary content is copied once, into fixed-size direct
+ * <code>ByteBuffer</code>s which are taken from (and returned to) a pool,
+ * so the response body does not occupy the Java heap.  Once the content
+ * exceeds the {@link #setSpillThreshold(long) spill threshold} it is
+ * written to a temporary file instead, which is then memory-mapped.  In
+ * either case the content is returned as a read-only <code>InputStream</code>
+ * over those buffers.  Closing that stream returns its buffers to the
+ * pool.</p>
+ *
+ * <p>Character content is copied once into a list of <code>char</code>
+ * chunks rather than through a <code>StringWriter</code>.</p>
+ *
+ * <p>Instances are thread-safe.</p>
+ *
+ * @since 0.6
+ */
+public class ResponseBuffer {
+
+	/** Size of each pooled buffer: 64KB */
+	public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+	/** Content larger than this (8MB) is written to a temp file */
+	public static final long DEFAULT_SPILL_THRESHOLD = 8 * 1024 * 1024;
+
+	/** Max number of idle buffers kept in the pool (4MB total) */
+	public static final int DEFAULT_MAX_POOLED = 64;
+
+	/* a single mapping may not exceed Integer.MAX_VALUE bytes */
+	static final long MAX_MAPPING_SIZE = 1L << 30;
+
+	private static final int CHAR_CHUNK_SIZE = 8 * 1024;
+
+	protected final Log log = LogFactory.getLog( getClass() );
+
+	private final int chunkSize;
+	private volatile long spillThreshold = DEFAULT_SPILL_THRESHOLD;
+	private volatile int maxPooled = DEFAULT_MAX_POOLED;
+	private volatile File tempDir = null;
+	private final LinkedList<ByteBuffer> pool = new LinkedList<ByteBuffer>();
+
+	public ResponseBuffer() {
+		this( DEFAULT_CHUNK_SIZE );
+	}
+
+	/**
+	 * @param chunkSize size in bytes of each pooled buffer
+	 */
+	public ResponseBuffer( int chunkSize ) {
+		if ( chunkSize < 1 ) throw new IllegalArgumentException( "chunkSize may not be < 1" );
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Read the given stream to the end and close it.
+	 * @param in content to buffer
+	 * @param contentLength expected length of the content, or a negative
+	 *   value if it is not known.  If it is known to be larger than the
+	 *   spill threshold, the content is written directly to a temp file.
+	 * @return a stream which will read the buffered content
+	 * @throws IOException if an error occurred reading the content or
+	 *   writing the temp file.
+	 */
+	public InputStream buffer( InputStream in, long contentLength ) throws IOException {
+		ReadableByteChannel src = Channels.newChannel( in );
+		List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+		try {
+			long size = 0;
+			if ( contentLength <= spillThreshold ) {
+				while ( true ) {
+					ByteBuffer chunk = acquire();
+					chunks.add( chunk );
+					int read = fill( src, chunk );
+					size += read;
+					if ( chunk.hasRemaining() ) break; // end of stream
+					if ( size >= spillThreshold && size != contentLength )
+						return spill( chunks, src );
+				}
+				for ( ByteBuffer chunk : chunks ) chunk.flip();
+				return new BufferInputStream( chunks, true );
+			}
+			return spill( chunks, src );
+		}
+		catch ( IOException ex ) {
+			release( chunks );
+			throw ex;
+		}
+		catch ( RuntimeException ex ) {
+			release( chunks );
+			throw ex;
+		}
+		finally { in.close(); }
+	}
+
+	/**
+	 * Read the given character stream to the end and close it.
+	 * @return a reader which will read the buffered content
+	 */
+	public Reader buffer( Reader in ) throws IOException {
+		List<char[]> chunks = new ArrayList<char[]>();
+		int lastLength = 0;
+		try {
+			while ( true ) {
+				char[] chunk = new char[CHAR_CHUNK_SIZE];
+				int len = 0;
+				int read = 0;
+				while ( len < chunk.length
+						&& ( read = in.read( chunk, len, chunk.length - len ) ) >= 0 )
+					len += read;
+				chunks.add( chunk );
+				lastLength = len;
+				if ( read < 0 ) break;
+			}
+		}
+		finally { in.close(); }
+		return new ChunkedReader( chunks, lastLength );
+	}
+
+	/**
+	 * Write the content buffered so far, followed by the rest of the stream,
+	 * to a temp file, and map that file into memory.
+	 */
+	protected InputStream spill( List<ByteBuffer> chunks, ReadableByteChannel src )
+			throws IOException {
+		File tmp = File.createTempFile( "httpbuilder", ".tmp", tempDir );
+		log.debug( "Buffering response in temp file: " + tmp );
+		RandomAccessFile file = new RandomAccessFile( tmp, "rw" );
+		try {
+			FileChannel channel = file.getChannel();
+			for ( ByteBuffer c : chunks ) {
+				c.flip();
+				while ( c.hasRemaining() ) channel.write( c );
+			}
+			// keep one buffer to copy the rest of the stream
+			ByteBuffer chunk = chunks.isEmpty() ? acquire() 
+					: chunks.remove( chunks.size() - 1 );
+			release( chunks );
+			chunks.clear();
+			chunks.add( chunk ); // so that it is released on error
+
+			while ( true ) {
+				chunk.clear();
+				fill( src, chunk );
+				chunk.flip();
+				if ( ! chunk.hasRemaining() ) break;
+				while ( chunk.hasRemaining() ) channel.write( chunk );
+			}
+			release( chunks );
+			chunks.clear();
+
+			List<ByteBuffer> mapped = new ArrayList<ByteBuffer>();
+			long size = channel.size();
+			for ( long pos = 0; pos < size; pos += MAX_MAPPING_SIZE )
+				mapped.add( channel.map( FileChannel.MapMode.READ_ONLY,
+						pos, Math.min( MAX_MAPPING_SIZE, size - pos ) ) );
+			return new BufferInputStream( mapped, false );
+		}
+		finally {
+			file.close();
+			// the mapping remains valid after the file is deleted (on Unix)
+			if ( ! tmp.delete() ) tmp.deleteOnExit();
+		}
+	}
+
+	/* read until the buffer is full or the end of the stream is reached */
+	private int fill( ReadableByteChannel src, ByteBuffer chunk ) throws IOException {
+		int total = 0;
+		while ( chunk.hasRemaining() ) {
+			int read = src.read( chunk );
+			if ( read < 0 ) break;
+			total += read;
+		}
+		return total;
+	}
+
+	protected ByteBuffer acquire() {
+		synchronized ( pool ) {
+			if ( ! pool.isEmpty() ) {
+				ByteBuffer b = pool.removeFirst();
+				b.clear();
+				return b;
+			}
+		}
+		return ByteBuffer.allocateDirect( chunkSize );
+	}
+
+	protected void release( List<ByteBuffer> chunks ) {
+		synchronized ( pool ) {
+			for ( ByteBuffer b : chunks )
+				if ( pool.size() < maxPooled ) pool.add( b );
+		}
+	}
+
+	/**
+	 * Number of idle buffers currently held in the pool.
+	 */
+	public int getPoolSize() {
+		synchronized ( pool ) { return pool.size(); }
+	}
+
+	public int getChunkSize() { return this.chunkSize; }
+
+	public long getSpillThreshold() { return this.spillThreshold; }
+
+	/**
+	 * Set the size above which content is written to a temporary file
+	 * rather than held in pooled buffers.
+	 */
+	public void setSpillThreshold( long spillThreshold ) {
+		this.spillThreshold = spillThreshold;
+	}
+
+	public int getMaxPooled() { return this.maxPooled; }
+
+	/**
+	 * Set the max number of idle buffers to keep for reuse.  Buffers
+	 * released beyond this limit are left to the garbage collector.
+	 */
+	public void setMaxPooled( int maxPooled ) {
+		this.maxPooled = maxPooled;
+	}
+
+	public File getTempDir() { return this.tempDir; }
+
+	/**
+	 * Set the directory where temp files are created, or <code>null</code>
+	 * to use the default temp directory.
+	 */
+	public void setTempDir( File tempDir ) {
+		this.tempDir = tempDir;
+	}
+
+	/**
+	 * Read-only stream over a list of buffers.  If the buffers came from the
+	 * pool, they are returned to it when the stream is closed.
+	 */
+	class BufferInputStream extends InputStream {
+		private List<ByteBuffer> buffers;
+		private final boolean pooled;
+		private int index = 0;
+		private int markIndex = 0;
+		private int markPos = 0;
+
+		BufferInputStream( List<ByteBuffer> buffers, boolean pooled ) {
+			this.buffers = buffers;
+			this.pooled = pooled;
+		}
+
+		/* the current buffer, or null at the end of the stream */
+		private ByteBuffer current() throws IOException {
+			if ( buffers == null ) throw new IOException( "Stream closed" );
+			while ( index < buffers.size() ) {
+				ByteBuffer b = buffers.get( index );
+				if ( b.hasRemaining() ) return b;
+				index++;
+			}
+			return null;
+		}
+
+		@Override public int read() throws IOException {
+			ByteBuffer b = current();
+			return b == null ? -1 : b.get() & 0xff;
+		}
+
+		@Override public int read( byte[] dest, int off, int len ) throws IOException {
+			if ( len == 0 ) return 0;
+			ByteBuffer b = current();
+			if ( b == null ) return -1;
+			int n = Math.min( len, b.remaining() );
+			b.get( dest, off, n );
+			return n;
+		}
+
+		@Override public long skip( long n ) throws IOException {
+			long skipped = 0;
+			ByteBuffer b;
+			while ( skipped < n && ( b = current() ) != null ) {
+				int step = (int)Math.min( n - skipped, b.remaining() );
+				b.position( b.position() + step );
+				skipped += step;
+			}
+			return skipped;
+		}
+
+		@Override public int available() throws IOException {
+			ByteBuffer b = current();
+			return b == null ? 0 : b.remaining();
+		}
+
+		@Override public boolean markSupported() { return true; }
+
+		@Override public synchronized void mark( int readlimit ) {
+			if ( buffers == null ) return;
+			markIndex = index;
+			markPos = index < buffers.size() ? buffers.get( index ).position() : 0;
+		}
+
+		@Override public synchronized void reset() throws IOException {
+			if ( buffers == null ) throw new IOException( "Stream closed" );
+			for ( int i = markIndex; i <= index && i < buffers.size(); i++ )
+				buffers.get( i ).position( i == markIndex ? markPos : 0 );
+			index = markIndex;
+		}
+
+		@Override public void close() {
+			List<ByteBuffer> b = this.buffers;
+			this.buffers = null;
+			if ( b != null && pooled ) release( b );
+		}
+	}
+
+	/**
+	 * Reader over a list of character chunks, which are all full except for
+	 * the last.
+	 */
+	static class ChunkedReader extends Reader {
+		private List<char[]> chunks;
+		private final int lastLength;
+		private int index = 0;
+		private int pos = 0;
+		private int markIndex = 0;
+		private int markPos = 0;
+
+		ChunkedReader( List<char[]> chunks, int lastLength ) {
+			this.chunks = chunks;
+			this.lastLength = lastLength;
+		}
+
+		private int limit( int i ) {
+			return i == chunks.size() - 1 ? lastLength : chunks.get( i ).length;
+		}
+
+		@Override public int read( char[] dest, int off, int len ) throws IOException {
+			if ( chunks == null ) throw new IOException( "Stream closed" );
+			if ( len == 0 ) return 0;
+			while ( index < chunks.size() && pos == limit( index ) ) {
+				index++;
+				pos = 0;
+			}
+			if ( index == chunks.size() ) return -1;
+			int n = Math.min( len, limit( index ) - pos );
+			System.arraycopy( chunks.get( index ), pos, dest, off, n );
+			pos += n;
+			return n;
+		}
+
+		@Override public boolean ready() throws IOException {
+			if ( chunks == null ) throw new IOException( "Stream closed" );
+			return true;
+		}
+
+		@Override public boolean markSupported() { return true; }
+
+		@Override public void mark( int readAheadLimit ) {
+			markIndex = index;
+			markPos = pos;
+		}
+
+		@Override public void reset() throws IOException {
+			if ( chunks == null ) throw new IOException( "Stream closed" );
+			index = markIndex;
+			pos = markPos;
+		}
+
+		@Override public void close() {
+			chunks = null;
+		}
+	}
+}
@@ -0,0 +1,852 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * <p>Client-side HTTP response cache.  When a cache is
+ * {@link HTTPBuilder#setResponseCache(ResponseCache) assigned} to an
+ * HTTPBuilder (or RESTClient) instance, <code>GET</code> responses are
+ * stored and re-used according to the rules in
+ * <a href='http://www.w3.org/Protocols/rfc2616/rfc2616-sec13.html'>RFC 2616
+ * section 13</a>:</p>
+ * <ul>
+ *  <li>A response is fresh for the <code>max-age</code> given in its
+ *    <code>Cache-Control</code> header, or else until its <code>Expires</code>
+ *    date.  Responses with neither but with a <code>Last-Modified</code>
+ *    date are considered fresh for 10% of their age.  Fresh responses are
+ *    served without contacting the server.</li>
+ *  <li>Stale responses with an <code>ETag</code> or <code>Last-Modified</code>
+ *    header are revalidated with <code>If-None-Match</code> and
+ *    <code>If-Modified-Since</code>; a <code>304 Not Modified</code> reply
+ *    serves the cached response.</li>
+ *  <li><code>no-store</code> responses are never cached, and
+ *    <code>no-cache</code> responses are always revalidated.  A request may
+ *    also send <code>Cache-Control: no-cache</code> to force revalidation.</li>
+ *  <li><code>POST</code>, <code>PUT</code> and <code>DELETE</code> requests
+ *    remove any cached response for the same URI.</li>
+ * </ul>
+ *
+ * <p>Entries are held in memory, in least-recently-used order, up to a
+ * {@link #setMaxEntries(int) number of entries} and
+ * {@link #setMaxBytes(long) total size}.  If a
+ * {@link #setDirectory(File) cache directory} is given, entries evicted
+ * from memory are written to disk, where they may still be found on a later
+ * request.  Each file holds the status, headers and body of one response.</p>
+ *
+ * <p>The result of parsing a cached response is also cached, per
+ * content-type and parser, so a fresh or revalidated response is not parsed
+ * again.  Note this means that response handlers which receive the same
+ * cached response receive the <i>same</i> parsed object, which is not
+ * copied and must be treated as read-only.  Streaming results (i.e. an
+ * <code>InputStream</code> or <code>Reader</code>) are not cached.</p>
+ *
+ * <p>Instances are thread-safe, and may be shared between HTTPBuilder
+ * instances.</p>
+ *
+ * @since 0.6
+ */
+public class ResponseCache {
+
+	/** Default max number of entries held in memory */
+	public static final int DEFAULT_MAX_ENTRIES = 1000;
+	/** Default max total size of the entries held in memory: 16MB */
+	public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+	/** Default max size of a single response body: 1MB */
+	public static final int DEFAULT_MAX_ENTRY_SIZE = 1024 * 1024;
+	/** Default max total size of the disk cache: 256MB */
+	public static final long DEFAULT_MAX_DISK_BYTES = 256 * 1024 * 1024;
+
+	/**
+	 * Context attribute which holds the cache {@link Entry} of a response
+	 * that was served from the cache.
+	 */
+	public static final String ENTRY_ATTR = "groovyx.net.http.cache.entry";
+
+	static final String CACHE_CONTROL_HDR = "Cache-Control";
+
+	protected final Log log = LogFactory.getLog( getClass() );
+
+	private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+	private volatile long maxBytes = DEFAULT_MAX_BYTES;
+	private volatile int maxEntrySize = DEFAULT_MAX_ENTRY_SIZE;
+	private volatile long maxDiskBytes = DEFAULT_MAX_DISK_BYTES;
+	private volatile File directory = null;
+
+	/* memory tier, in access order */
+	private final LinkedHashMap<String,Entry> entries = new LinkedHashMap<String,Entry>( 16, 0.75f, true );
+	private long bytes = 0;
+	/* disk tier: file name -> file size, in access order */
+	private final LinkedHashMap<String,Long> diskIndex = new LinkedHashMap<String,Long>( 16, 0.75f, true );
+	private long diskBytes = 0;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong diskHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong revalidations = new AtomicLong();
+	private final AtomicLong validated = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong parsedHits = new AtomicLong();
+
+	public ResponseCache() { }
+
+	/**
+	 * @param maxEntries max number of entries held in memory
+	 * @param maxBytes max total size of the response bodies held in memory
+	 */
+	public ResponseCache( int maxEntries, long maxBytes ) {
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Execute the request, unless a fresh response is cached for it.  This
+	 * is called by {@link HTTPBuilder#doRequest(HTTPBuilder.RequestConfigDelegate)}
+	 * in place of {@link HttpClient#execute(org.apache.http.client.methods.HttpUriRequest, HttpContext)}.
+	 * @param client used to execute the request if necessary
+	 * @param request the request
+	 * @param context request context.  If the response came from the cache,
+	 *   the {@link #ENTRY_ATTR} attribute holds the cache entry.
+	 * @return the cached or network response
+	 * @throws IOException
+	 */
+	public HttpResponse execute( HttpClient client, HttpRequestBase request,
+			HttpContext context ) throws IOException {
+		String method = request.getMethod();
+		String key = request.getURI().toString();
+
+		if ( ! "GET".equals( method ) ) {
+			if ( ! "HEAD".equals( method ) && ! "OPTIONS".equals( method )
+					&& ! "TRACE".equals( method ) ) remove( key );
+			return client.execute( request, context );
+		}
+
+		Map<String,String> requestDirectives = directives( request.getHeaders( CACHE_CONTROL_HDR ) );
+		// requests which are already conditional are left alone
+		if ( requestDirectives.containsKey( "no-store" )
+				|| request.containsHeader( "If-None-Match" )
+				|| request.containsHeader( "If-Modified-Since" )
+				|| request.containsHeader( "Range" ) )
+			return client.execute( request, context );
+
+		Entry entry = lookup( key );
+		if ( entry != null && ! entry.matchesVary( request ) ) entry = null;
+
+		if ( entry != null ) {
+			long now = System.currentTimeMillis();
+			boolean forceRevalidate = requestDirectives.containsKey( "no-cache" )
+				|| "0".equals( requestDirectives.get( "max-age" ) );
+			if ( ! forceRevalidate && entry.isFresh( now ) ) {
+				log.debug( "Cache hit: " + key );
+				hits.incrementAndGet();
+				context.setAttribute( ENTRY_ATTR, entry );
+				return entry.toResponse( now );
+			}
+			if ( entry.etag != null || entry.lastModified != null ) {
+				log.debug( "Revalidating cached response: " + key );
+				revalidations.incrementAndGet();
+				if ( entry.etag != null )
+					request.setHeader( "If-None-Match", entry.etag );
+				if ( entry.lastModified != null )
+					request.setHeader( "If-Modified-Since", entry.lastModified );
+				long requestTime = System.currentTimeMillis();
+				HttpResponse response;
+				try { response = client.execute( request, context ); }
+				finally {
+					request.removeHeaders( "If-None-Match" );
+					request.removeHeaders( "If-Modified-Since" );
+				}
+				if ( response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED ) {
+					validated.incrementAndGet();
+					HttpEntity body = response.getEntity();
+					if ( body != null ) body.consumeContent();
+					entry = entry.update( response, requestTime, System.currentTimeMillis() );
+					put( key, entry );
+					context.setAttribute( ENTRY_ATTR, entry );
+					return entry.toResponse( System.currentTimeMillis() );
+				}
+				return store( key, request, response, requestTime, context );
+			}
+		}
+
+		log.debug( "Cache miss: " + key );
+		misses.incrementAndGet();
+		long requestTime = System.currentTimeMillis();
+		HttpResponse response = client.execute( request, context );
+		return store( key, request, response, requestTime, context );
+	}
+
+	/**
+	 * Cache the response if it may be cached.
+	 * @return a response that may be read by the caller
+	 */
+	protected HttpResponse store( String key, HttpRequestBase request,
+			HttpResponse response, long requestTime, HttpContext context ) throws IOException {
+		int status = response.getStatusLine().getStatusCode();
+		Map<String,String> directives = directives( response.getHeaders( CACHE_CONTROL_HDR ) );
+		HttpEntity entity = response.getEntity();
+		Header vary = response.getFirstHeader( "Vary" );
+
+		if ( ( status != HttpStatus.SC_OK && status != HttpStatus.SC_NON_AUTHORITATIVE_INFORMATION )
+				|| entity == null
+				|| directives.containsKey( "no-store" )
+				|| ( vary != null && vary.getValue().trim().equals( "*" ) )
+				|| entity.getContentLength() > maxEntrySize
+				|| ! ( directives.containsKey( "max-age" ) || directives.containsKey( "no-cache" )
+					|| response.containsHeader( "Expires" )
+					|| response.containsHeader( "ETag" )
+					|| response.containsHeader( "Last-Modified" ) ) ) {
+			remove( key );
+			return response;
+		}
+
+		// read up to maxEntrySize bytes
+		InputStream in = entity.getContent();
+		boolean handedOver = false;
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try {
+			byte[] buf = new byte[4096];
+			int read;
+			while ( ( read = in.read( buf ) ) >= 0 ) {
+				buffer.write( buf, 0, read );
+				if ( buffer.size() > maxEntrySize ) {
+					// too big; give the caller what has been read plus the rest.
+					remove( key );
+					final InputStream content = new SequenceInputStream(
+							new ByteArrayInputStream( buffer.toByteArray() ), in );
+					response.setEntity( new HttpEntityWrapper( entity ) {
+						@Override public InputStream getContent() { return content; }
+						@Override public long getContentLength() { return -1; }
+						@Override public boolean isRepeatable() { return false; }
+					} );
+					handedOver = true;
+					return response;
+				}
+			}
+		}
+		finally { if ( ! handedOver ) in.close(); }
+
+		Entry entry = new Entry( key, request, response, buffer.toByteArray(),
+				requestTime, System.currentTimeMillis() );
+		put( key, entry );
+		context.setAttribute( ENTRY_ATTR, entry );
+		return entry.toResponse( System.currentTimeMillis() );
+	}
+
+	/**
+	 * Get a previously parsed result for a cached response.  This is called
+	 * from {@link HTTPBuilder#parseResponse(HttpResponse, Object)}.  The
+	 * result is shared with every other handler of the same cached response,
+	 * and must not be modified.
+	 * @param context the request context
+	 * @param contentType the content-type the response is parsed as
+	 * @param parser the parser for that content-type
+	 * @return the parsed data, or <code>null</code> if the response was not
+	 *   served from the cache, or has not been parsed as that content-type by
+	 *   that parser.
+	 */
+	public Object getParsed( HttpContext context, String contentType, Object parser ) {
+		Entry entry = context != null ? (Entry)context.getAttribute( ENTRY_ATTR ) : null;
+		if ( entry == null ) return null;
+		Object parsed = entry.parsed.get( new ParsedKey( contentType, parser ) );
+		if ( parsed != null ) parsedHits.incrementAndGet();
+		return parsed;
+	}
+
+	/**
+	 * Remember the parsed result of a cached response, unless it is streaming
+	 * content.
+	 */
+	public void putParsed( HttpContext context, String contentType, Object parser,
+			Object parsed ) {
+		Entry entry = context != null ? (Entry)context.getAttribute( ENTRY_ATTR ) : null;
+		if ( entry == null || parsed == null || parsed instanceof InputStream
+				|| parsed instanceof Reader || parsed instanceof Closeable ) return;
+		entry.parsed.put( new ParsedKey( contentType, parser ), parsed );
+	}
+
+	/**
+	 * Identifies a parsed result: the same content-type may be parsed
+	 * differently by another builder's {@link ParserRegistry}.
+	 */
+	static final class ParsedKey {
+		private final String contentType;
+		private final Object parser;
+
+		ParsedKey( String contentType, Object parser ) {
+			this.contentType = contentType;
+			this.parser = parser;
+		}
+
+		@Override public boolean equals( Object o ) {
+			if ( ! ( o instanceof ParsedKey ) ) return false;
+			ParsedKey other = (ParsedKey)o;
+			return contentType.equals( other.contentType ) && parser == other.parser;
+		}
+
+		@Override public int hashCode() {
+			return contentType.hashCode() * 31 + System.identityHashCode( parser );
+		}
+	}
+
+	/* --------------- storage --------------- */
+
+	protected Entry lookup( String key ) {
+		synchronized ( entries ) {
+			Entry entry = entries.get( key );
+			if ( entry != null || directory == null ) return entry;
+		}
+		Entry entry = readFromDisk( key );
+		if ( entry != null ) {
+			diskHits.incrementAndGet();
+			put( key, entry );
+		}
+		return entry;
+	}
+
+	protected void put( String key, Entry entry ) {
+		Map<String,Entry> evicted = new LinkedHashMap<String,Entry>();
+		synchronized ( entries ) {
+			Entry old = entries.put( key, entry );
+			if ( old != null ) bytes -= old.body.length;
+			bytes += entry.body.length;
+			Iterator<Map.Entry<String,Entry>> iter = entries.entrySet().iterator();
+			while ( ( entries.size() > maxEntries || bytes > maxBytes ) && iter.hasNext() ) {
+				Map.Entry<String,Entry> eldest = iter.next();
+				if ( eldest.getValue() == entry ) continue;
+				iter.remove();
+				bytes -= eldest.getValue().body.length;
+				evicted.put( eldest.getKey(), eldest.getValue() );
+			}
+		}
+		evictions.addAndGet( evicted.size() );
+		if ( directory != null )
+			for ( Map.Entry<String,Entry> e : evicted.entrySet() )
+				writeToDisk( e.getKey(), e.getValue() );
+	}
+
+	/**
+	 * Remove any cached response for the given URI.
+	 */
+	public void remove( String uri ) {
+		synchronized ( entries ) {
+			Entry old = entries.remove( uri );
+			if ( old != null ) bytes -= old.body.length;
+		}
+		if ( directory != null ) deleteFromDisk( fileName( uri ) );
+	}
+
+	/**
+	 * Remove all entries from memory and disk.
+	 */
+	public void clear() {
+		synchronized ( entries ) {
+			entries.clear();
+			bytes = 0;
+		}
+		if ( directory == null ) return;
+		String[] names;
+		synchronized ( diskIndex ) {
+			names = diskIndex.keySet().toArray( new String[diskIndex.size()] );
+		}
+		for ( String name : names ) deleteFromDisk( name );
+	}
+
+	protected Entry readFromDisk( String key ) {
+		String name = fileName( key );
+		synchronized ( diskIndex ) {
+			if ( diskIndex.get( name ) == null ) return null;
+		}
+		File file = new File( directory, name );
+		try {
+			DataInputStream in = new DataInputStream( 
+					new BufferedInputStream( new FileInputStream( file ) ) );
+			try {
+				Entry entry = Entry.readFrom( in );
+				return key.equals( entry.key ) ? entry : null;
+			}
+			finally { in.close(); }
+		}
+		catch ( Exception ex ) {
+			log.warn( "Could not read cache file " + file, ex );
+			deleteFromDisk( name );
+			return null;
+		}
+	}
+
+	protected void writeToDisk( String key, Entry entry ) {
+		String name = fileName( key );
+		File file = new File( directory, name );
+		try {
+			DataOutputStream out = new DataOutputStream( 
+					new BufferedOutputStream( new FileOutputStream( file ) ) );
+			try { entry.writeTo( out ); }
+			finally { out.close(); }
+		}
+		catch ( IOException ex ) {
+			log.warn( "Could not write cache file " + file, ex );
+			file.delete();
+			return;
+		}
+		String[] evicted = null;
+		synchronized ( diskIndex ) {
+			Long old = diskIndex.put( name, file.length() );
+			if ( old != null ) diskBytes -= old;
+			diskBytes += file.length();
+			if ( diskBytes > maxDiskBytes ) {
+				List<String> names = new ArrayList<String>();
+				long size = diskBytes;
+				for ( Map.Entry<String,Long> e : diskIndex.entrySet() ) {
+					if ( size <= maxDiskBytes ) break;
+					if ( e.getKey().equals( name ) ) continue;
+					names.add( e.getKey() );
+					size -= e.getValue();
+				}
+				evicted = names.toArray( new String[names.size()] );
+			}
+		}
+		if ( evicted != null ) for ( String n : evicted ) deleteFromDisk( n );
+	}
+
+	protected void deleteFromDisk( String name ) {
+		synchronized ( diskIndex ) {
+			Long size = diskIndex.remove( name );
+			if ( size == null ) return;
+			diskBytes -= size;
+		}
+		new File( directory, name ).delete();
+	}
+
+	protected String fileName( String key ) {
+		try {
+			byte[] digest = MessageDigest.getInstance( "MD5" ).digest( key.getBytes( "UTF-8" ) );
+			StringBuilder sb = new StringBuilder();
+			for ( byte b : digest ) {
+				sb.append( Character.forDigit( ( b >> 4 ) & 0xf, 16 ) );
+				sb.append( Character.forDigit( b & 0xf, 16 ) );
+			}
+			return sb.append( ".cache" ).toString();
+		}
+		catch ( NoSuchAlgorithmException ex ) { throw new RuntimeException( ex ); }
+		catch ( UnsupportedEncodingException ex ) { throw new RuntimeException( ex ); }
+	}
+
+	/**
+	 * Parse <code>Cache-Control</code> directives into a map of
+	 * directive names (lower case) to values.
+	 */
+	static Map<String,String> directives( Header[] headers ) {
+		Map<String,String> directives = new HashMap<String,String>();
+		for ( Header h : headers )
+			for ( HeaderElement e : h.getElements() )
+				directives.put( e.getName().toLowerCase(), e.getValue() );
+		return directives;
+	}
+
+	/* --------------- configuration & statistics --------------- */
+
+	/**
+	 * Enable the disk tier.  Entries evicted from memory are written to the
+	 * given directory, which is created if necessary.  Entries already in the
+	 * directory will be used.
+	 * @param directory cache directory, or <code>null</code> to disable the
+	 *   disk tier.
+	 */
+	public void setDirectory( File directory ) throws IOException {
+		if ( directory != null ) {
+			if ( ! directory.isDirectory() && ! directory.mkdirs() )
+				throw new IOException( "Could not create cache directory " + directory );
+			File[] files = directory.listFiles();
+			Arrays.sort( files, new Comparator<File>() {
+				public int compare( File a, File b ) {
+					return a.lastModified() < b.lastModified() ? -1
+							: a.lastModified() == b.lastModified() ? 0 : 1;
+				}
+			} );
+			synchronized ( diskIndex ) {
+				diskIndex.clear();
+				diskBytes = 0;
+				for ( File f : files ) {
+					if ( ! f.getName().endsWith( ".cache" ) ) continue;
+					diskIndex.put( f.getName(), f.length() );
+					diskBytes += f.length();
+				}
+			}
+		}
+		this.directory = directory;
+	}
+
+	public File getDirectory() { return this.directory; }
+
+	public int getMaxEntries() { return maxEntries; }
+	/** Max number of entries held in memory */
+	public void setMaxEntries( int maxEntries ) { this.maxEntries = maxEntries; }
+
+	public long getMaxBytes() { return maxBytes; }
+	/** Max total size of the response bodies held in memory */
+	public void setMaxBytes( long maxBytes ) { this.maxBytes = maxBytes; }
+
+	public int getMaxEntrySize() { return maxEntrySize; }
+	/** Responses larger than this are not cached */
+	public void setMaxEntrySize( int maxEntrySize ) { this.maxEntrySize = maxEntrySize; }
+
+	public long getMaxDiskBytes() { return maxDiskBytes; }
+	/** Max total size of the files in the cache directory */
+	public void setMaxDiskBytes( long maxDiskBytes ) { this.maxDiskBytes = maxDiskBytes; }
+
+	/** Number of entries held in memory */
+	public int getSize() {
+		synchronized ( entries ) { return entries.size(); }
+	}
+
+	/** Total size of the response bodies held in memory */
+	public long getBytes() {
+		synchronized ( entries ) { return bytes; }
+	}
+
+	/** Number of entries in the disk tier */
+	public int getDiskSize() {
+		synchronized ( diskIndex ) { return diskIndex.size(); }
+	}
+
+	/** Number of requests served from the cache without contacting the server */
+	public long getHitCount() { return hits.get(); }
+	/** Number of entries which were found in the disk tier */
+	public long getDiskHitCount() { return diskHits.get(); }
+	/** Number of cacheable requests for which there was no cached response */
+	public long getMissCount() { return misses.get(); }
+	/** Number of conditional requests sent to revalidate a stale entry */
+	public long getRevalidationCount() { return revalidations.get(); }
+	/** Number of revalidations answered with <code>304 Not Modified</code> */
+	public long getValidatedCount() { return validated.get(); }
+	/** Number of entries evicted from memory */
+	public long getEvictionCount() { return evictions.get(); }
+	/** Number of times a parsed result was re-used */
+	public long getParsedHitCount() { return parsedHits.get(); }
+
+	/** Reset all counters to zero */
+	public void resetStatistics() {
+		hits.set( 0 );
+		diskHits.set( 0 );
+		misses.set( 0 );
+		revalidations.set( 0 );
+		validated.set( 0 );
+		evictions.set( 0 );
+		parsedHits.set( 0 );
+	}
+
+	@Override public String toString() {
+		return getClass().getSimpleName() + "[size=" + getSize() + ", hits=" + hits
+			+ ", misses=" + misses + ", revalidations=" + revalidations
+			+ ", validated=" + validated + ", evictions=" + evictions + "]";
+	}
+
+	/**
+	 * A cached response.  Entries are immutable except for their parsed
+	 * results, which are not stored on disk.
+	 */
+	public static class Entry {
+		/* first field of a cache file; changes if the format changes */
+		private static final String FORMAT = "HTTPBuilder-cache/1";
+
+		final String key;
+		final int status;
+		final String reason;
+		final String[][] headers;
+		final byte[] body;
+		final String[][] vary;
+		/* time the request was sent, and the response received */
+		final long requestTime;
+		final long responseTime;
+		final String etag;
+		final String lastModified;
+
+		Map<ParsedKey,Object> parsed = new ConcurrentHashMap<ParsedKey,Object>();
+
+		Entry( String key, HttpRequestBase request, HttpResponse response,
+				byte[] body, long requestTime, long responseTime ) {
+			this.key = key;
+			this.status = response.getStatusLine().getStatusCode();
+			this.reason = response.getStatusLine().getReasonPhrase();
+			this.body = body;
+			this.requestTime = requestTime;
+			this.responseTime = responseTime;
+
+			List<String[]> headers = new ArrayList<String[]>();
+			for ( Header h : response.getAllHeaders() ) {
+				String name = h.getName();
+				// the body is stored decoded
+				if ( name.equalsIgnoreCase( "Content-Encoding" )
+						|| name.equalsIgnoreCase( "Content-Length" )
+						|| name.equalsIgnoreCase( "Transfer-Encoding" ) ) continue;
+				headers.add( new String[] { name, h.getValue() } );
+			}
+			this.headers = headers.toArray( new String[headers.size()][] );
+
+			List<String[]> vary = new ArrayList<String[]>();
+			for ( Header h : response.getHeaders( "Vary" ) )
+				for ( HeaderElement e : h.getElements() ) {
+					Header reqHeader = request.getFirstHeader( e.getName() );
+					vary.add( new String[] { e.getName(),
+							reqHeader != null ? reqHeader.getValue() : null } );
+				}
+			this.vary = vary.toArray( new String[vary.size()][] );
+
+			this.etag = header( "ETag" );
+			this.lastModified = header( "Last-Modified" );
+		}
+
+		private Entry( String key, int status, String reason, String[][] headers,
+				byte[] body, String[][] vary, long requestTime, long responseTime ) {
+			this.key = key;
+			this.status = status;
+			this.reason = reason;
+			this.headers = headers;
+			this.body = body;
+			this.vary = vary;
+			this.requestTime = requestTime;
+			this.responseTime = responseTime;
+			this.etag = header( "ETag" );
+			this.lastModified = header( "Last-Modified" );
+		}
+
+		private Entry( Entry old, String[][] headers, long requestTime, long responseTime ) {
+			this.key = old.key;
+			this.status = old.status;
+			this.reason = old.reason;
+			this.body = old.body;
+			this.vary = old.vary;
+			this.headers = headers;
+			this.requestTime = requestTime;
+			this.responseTime = responseTime;
+			this.etag = header( "ETag" );
+			this.lastModified = header( "Last-Modified" );
+			this.parsed = old.parsed; // the body hasn't changed
+		}
+
+		/**
+		 * Create a new entry with the headers from a
+		 * <code>304 Not Modified</code> response.
+		 */
+		Entry update( HttpResponse notModified, long requestTime, long responseTime ) {
+			Map<String,String[]> merged = new LinkedHashMap<String,String[]>();
+			for ( String[] h : this.headers ) merged.put( h[0].toLowerCase(), h );
+			for ( Header h : notModified.getAllHeaders() ) {
+				String name = h.getName();
+				if ( name.equalsIgnoreCase( "Content-Length" )
+						|| name.equalsIgnoreCase( "Content-Encoding" )
+						|| name.equalsIgnoreCase( "Transfer-Encoding" )
+						|| name.equalsIgnoreCase( "Content-Type" ) ) continue;
+				merged.put( name.toLowerCase(), new String[] { name, h.getValue() } );
+			}
+			return new Entry( this, merged.values().toArray( new String[merged.size()][] ),
+					requestTime, responseTime );
+		}
+
+		String header( String name ) {
+			for ( String[] h : headers )
+				if ( h[0].equalsIgnoreCase( name ) ) return h[1];
+			return null;
+		}
+
+		boolean matchesVary( HttpRequestBase request ) {
+			for ( String[] v : vary ) {
+				Header h = request.getFirstHeader( v[0] );
+				String value = h != null ? h.getValue() : null;
+				if ( value == null ? v[1] != null : ! value.equals( v[1] ) ) return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Age of this response, in milliseconds, per RFC 2616 section 13.2.3
+		 */
+		long getAge( long now ) {
+			long dateValue = date( header( "Date" ), responseTime );
+			long apparentAge = Math.max( 0, responseTime - dateValue );
+			long ageValue = 0;
+			try {
+				String age = header( "Age" );
+				if ( age != null ) ageValue = Long.parseLong( age.trim() ) * 1000;
+			}
+			catch ( NumberFormatException ex ) { /* ignore */ }
+			long correctedInitialAge = Math.max( apparentAge,
+					ageValue + ( responseTime - requestTime ) );
+			return correctedInitialAge + ( now - responseTime );
+		}
+
+		/**
+		 * How long this response is fresh for, in milliseconds, per RFC 2616
+		 * section 13.2.4
+		 */
+		long getFreshnessLifetime() {
+			Map<String,String> directives = new HashMap<String,String>();
+			for ( String[] h : headers )
+				if ( h[0].equalsIgnoreCase( CACHE_CONTROL_HDR ) )
+					directives.putAll( directives( new Header[] {
+							new BasicHeader( h[0], h[1] ) } ) );
+			if ( directives.containsKey( "no-cache" ) ) return 0;
+			String maxAge = directives.get( "max-age" );
+			if ( maxAge != null ) {
+				try { return Long.parseLong( maxAge.trim() ) * 1000; }
+				catch ( NumberFormatException ex ) { return 0; }
+			}
+			long dateValue = date( header( "Date" ), responseTime );
+			String expires = header( "Expires" );
+			if ( expires != null ) return Math.max( 0, date( expires, 0 ) - dateValue );
+			if ( lastModified != null ) // heuristic: 10% of the time since modified
+				return Math.max( 0, ( dateValue - date( lastModified, dateValue ) ) / 10 );
+			return 0;
+		}
+
+		boolean isFresh( long now ) {
+			return getFreshnessLifetime() > getAge( now );
+		}
+
+		private static long date( String value, long defaultValue ) {
+			if ( value == null ) return defaultValue;
+			try { return DateUtils.parseDate( value ).getTime(); }
+			catch ( DateParseException ex ) { return defaultValue; }
+		}
+
+		HttpResponse toResponse( long now ) {
+			BasicHttpResponse response = new BasicHttpResponse( HttpVersion.HTTP_1_1,
+					status, reason );
+			for ( String[] h : headers ) response.addHeader( h[0], h[1] );
+			response.setHeader( "Age", Long.toString( getAge( now ) / 1000 ) );
+			ByteArrayEntity entity = new ByteArrayEntity( body );
+			entity.setContentType( response.getFirstHeader( "Content-Type" ) );
+			response.setEntity( entity );
+			return response;
+		}
+
+		/** The URI of the cached response */
+		public String getUri() { return key; }
+
+		/** Date the response was received, or last revalidated */
+		public Date getResponseDate() { return new Date( responseTime ); }
+
+		/**
+		 * Write the status, headers and body in the format read by
+		 * {@link #readFrom(DataInputStream)}.
+		 */
+		void writeTo( DataOutputStream out ) throws IOException {
+			out.writeUTF( FORMAT );
+			out.writeUTF( key );
+			out.writeLong( requestTime );
+			out.writeLong( responseTime );
+			out.writeInt( status );
+			writeString( out, reason );
+			writeHeaders( out, headers );
+			writeHeaders( out, vary );
+			out.writeInt( body.length );
+			out.write( body );
+		}
+
+		static Entry readFrom( DataInputStream in ) throws IOException {
+			if ( ! FORMAT.equals( in.readUTF() ) ) 
+				throw new IOException( "Not a cache file" );
+			String key = in.readUTF();
+			long requestTime = in.readLong();
+			long responseTime = in.readLong();
+			int status = in.readInt();
+			String reason = readString( in );
+			String[][] headers = readHeaders( in );
+			String[][] vary = readHeaders( in );
+			byte[] body = new byte[in.readInt()];
+			in.readFully( body );
+			return new Entry( key, status, reason, headers, body, vary, 
+					requestTime, responseTime );
+		}
+
+		private static void writeHeaders( DataOutputStream out, String[][] headers ) 
+				throws IOException {
+			out.writeInt( headers.length );
+			for ( String[] h : headers ) {
+				out.writeUTF( h[0] );
+				writeString( out, h[1] );
+			}
+		}
+
+		private static String[][] readHeaders( DataInputStream in ) throws IOException {
+			String[][] headers = new String[in.readInt()][];
+			for ( int i = 0; i < headers.length; i++ )
+				headers[i] = new String[] { in.readUTF(), readString( in ) };
+			return headers;
+		}
+
+		private static void writeString( DataOutputStream out, String s ) throws IOException {
+			out.writeBoolean( s != null );
+			if ( s != null ) out.writeUTF( s );
+		}
+
+		private static String readString( DataInputStream in ) throws IOException {
+			return in.readBoolean() ? in.readUTF() : null;
+		}
+	}
+}
@@ -0,0 +1,409 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import groovy.lang.Closure;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.codehaus.groovy.runtime.InvokerInvocationException;
+
+/**
+ * <p>The {@link Future} returned by all {@link AsyncHTTPBuilder} request 
+ * methods.  Besides blocking on {@link #get()}, callbacks may be registered 
+ * which are called once the response handler has completed, so that many 
+ * requests can be sent and joined without parking a thread on each one:</p>
+ * 
+ * <pre>
+ * def futures = backends.collect { http.get( uri : it, path : '/status' ) }
+ * ResponseFuture.allOf( futures ).onSuccess { List results -> 
+ *     println "All ${results.size()} backends responded"
+ * }.onFailure { Throwable ex -> 
+ *     println "A backend failed: $ex"
+ * }</pre>
+ * 
+ * <p>Callbacks are run by the thread that completes the future (usually 
+ * the thread which ran the response handler,) or immediately by the caller 
+ * if the future has already completed.  Alternatively an {@link Executor} 
+ * may be given for each callback, or for all callbacks of a builder with 
+ * {@link AsyncHTTPBuilder#setCallbackExecutor(Executor)}.</p>
+ * 
+ * <p>{@link #cancel(boolean) Cancelling} the future aborts the underlying 
+ * request, even if it has already been sent.  Cancelling a future returned 
+ * by {@link #then(Closure)}, {@link #allOf(Collection)} or 
+ * {@link #anyOf(Collection)} also cancels the futures it was derived 
+ * from.</p>
+ * 
+ * @since 0.6
+ */
+public class ResponseFuture<T> extends FutureTask<T> {
+	
+	private static final Log log = LogFactory.getLog( ResponseFuture.class );
+	
+	/* guards 'completed' as well */
+	private final List<Runnable> listeners = new ArrayList<Runnable>( 2 );
+	private boolean completed = false;
+	private final Executor executor;
+	private volatile HttpRequestBase request;
+	/* futures which this one was derived from, cancelled along with it */
+	private volatile Collection<? extends Future<?>> sources;
+	
+	/**
+	 * Create a future which runs the given task.
+	 * @param task the request and response handler
+	 * @param executor default executor for callbacks, or <code>null</code> 
+	 *   to run them in the thread which completes this future.
+	 */
+	public ResponseFuture( Callable<T> task, Executor executor ) {
+		super( task );
+		this.executor = executor;
+	}
+	
+	/**
+	 * @see #ResponseFuture(Callable, Executor)
+	 */
+	public ResponseFuture( Runnable task, T result, Executor executor ) {
+		super( task, result );
+		this.executor = executor;
+	}
+	
+	/* a future that is completed by the futures it is derived from */
+	private ResponseFuture( Executor executor ) {
+		this( ResponseFuture.<T>derived(), executor );
+	}
+	
+	private static <T> Callable<T> derived() {
+		return new Callable<T>() {
+			public T call() throws Exception {
+				throw new IllegalStateException( "Future is completed by its source" );
+			}
+		};
+	}
+	
+	/**
+	 * Set the request which is aborted if this future is cancelled.
+	 */
+	void setRequest( HttpRequestBase request ) {
+		this.request = request;
+	}
+	
+	/**
+	 * Call the given closure with the response handler's result, if the 
+	 * request succeeds.
+	 * @param callback closure which accepts the result
+	 * @return this future
+	 */
+	public ResponseFuture<T> onSuccess( Closure callback ) {
+		return onSuccess( this.executor, callback );
+	}
+	
+	/**
+	 * Call the given closure with the response handler's result, if the 
+	 * request succeeds.
+	 * @param executor executor which runs the callback, or <code>null</code>
+	 *   to run it in the thread which completes this future
+	 * @param callback closure which accepts the result
+	 * @return this future
+	 */
+	public ResponseFuture<T> onSuccess( Executor executor, final Closure callback ) {
+		whenDone( executor, new Runnable() {
+			public void run() {
+				if ( getFailure() == null ) callback( callback, getResult() );
+			}
+		});
+		return this;
+	}
+	
+	/**
+	 * Call the given closure with the exception that caused the request to 
+	 * fail.  This is the exception thrown by the request or response handler,
+	 * (e.g. an {@link HttpResponseException} from the default failure 
+	 * handler,) or a {@link CancellationException} if this future was 
+	 * cancelled.
+	 * @param callback closure which accepts a {@link Throwable}
+	 * @return this future
+	 */
+	public ResponseFuture<T> onFailure( Closure callback ) {
+		return onFailure( this.executor, callback );
+	}
+	
+	/**
+	 * @see #onFailure(Closure)
+	 * @param executor executor which runs the callback, or <code>null</code>
+	 *   to run it in the thread which completes this future
+	 * @param callback closure which accepts a {@link Throwable}
+	 * @return this future
+	 */
+	public ResponseFuture<T> onFailure( Executor executor, final Closure callback ) {
+		whenDone( executor, new Runnable() {
+			public void run() {
+				Throwable failure = getFailure();
+				if ( failure != null ) callback( callback, failure );
+			}
+		});
+		return this;
+	}
+	
+	/**
+	 * Transform the result of this future once it has completed.  If the 
+	 * closure returns another <code>ResponseFuture</code> (e.g. from a 
+	 * subsequent request,) the returned future completes with that future's
+	 * result instead.  If this future fails, the closure is not called and 
+	 * the returned future fails with the same exception.
+	 * <pre>
+	 * http.get( path : '/user/42' ).then { user ->
+	 *     http.get( path : "/account/${user.accountId}" )
+	 * }.onSuccess { account -> ... }</pre>
+	 * @param callback closure which accepts the result of this future
+	 * @return a future for the value returned by the closure
+	 */
+	public ResponseFuture<Object> then( Closure callback ) {
+		return then( this.executor, callback );
+	}
+	
+	/**
+	 * @see #then(Closure)
+	 * @param executor executor which runs the closure, or <code>null</code>
+	 *   to run it in the thread which completes this future
+	 * @param callback closure which accepts the result of this future
+	 * @return a future for the value returned by the closure
+	 */
+	public ResponseFuture<Object> then( Executor executor, final Closure callback ) {
+		final ResponseFuture<Object> next = new ResponseFuture<Object>( this.executor );
+		next.sources = Collections.singleton( this );
+		whenDone( executor, new Runnable() {
+			public void run() {
+				Throwable failure = getFailure();
+				if ( failure != null ) next.fail( failure );
+				else try {
+					next.complete( call( callback, getResult() ) );
+				}
+				catch ( Throwable ex ) { next.fail( unwrap( ex ) ); }
+			}
+		});
+		return next;
+	}
+	
+	/**
+	 * Join the given futures without blocking.
+	 * @see #allOf(Collection)
+	 */
+	public static ResponseFuture<List<Object>> allOf( ResponseFuture<?>... futures ) {
+		return allOf( Arrays.asList( futures ) );
+	}
+	
+	/**
+	 * Join the given futures without blocking.  The returned future completes
+	 * with a list of their results, in the same order, once all of them have 
+	 * succeeded.  If any of them fails, it fails with the same exception as 
+	 * soon as that happens.
+	 * @param futures
+	 * @return a future for the list of results
+	 */
+	public static ResponseFuture<List<Object>> allOf( 
+			Collection<? extends ResponseFuture<?>> futures ) {
+		final List<ResponseFuture<?>> list = new ArrayList<ResponseFuture<?>>( futures );
+		final ResponseFuture<List<Object>> all = new ResponseFuture<List<Object>>( (Executor)null );
+		all.sources = list;
+		final AtomicInteger remaining = new AtomicInteger( list.size() );
+		if ( list.isEmpty() ) all.set( new ArrayList<Object>() );
+		for ( final ResponseFuture<?> future : list ) future.whenDone( null, new Runnable() {
+			public void run() {
+				Throwable failure = future.getFailure();
+				if ( failure != null ) all.fail( failure );
+				else if ( remaining.decrementAndGet() == 0 ) {
+					List<Object> results = new ArrayList<Object>( list.size() );
+					for ( ResponseFuture<?> f : list ) results.add( f.getResult() );
+					all.set( results );
+				}
+			}
+		});
+		return all;
+	}
+	
+	/**
+	 * Wait for the first of the given futures to succeed, without blocking.
+	 * @see #anyOf(Collection)
+	 */
+	public static ResponseFuture<Object> anyOf( ResponseFuture<?>... futures ) {
+		return anyOf( Arrays.asList( futures ) );
+	}
+	
+	/**
+	 * Wait for the first of the given futures to succeed, without blocking.
+	 * The returned future completes with the result of the first future that 
+	 * succeeds, or fails with the last failure if none of them succeed.  The
+	 * other futures are not cancelled.
+	 * @param futures
+	 * @return a future for the first successful result
+	 * @throws IllegalArgumentException if no futures are given
+	 */
+	public static ResponseFuture<Object> anyOf( Collection<? extends ResponseFuture<?>> futures ) {
+		if ( futures.isEmpty() ) throw new IllegalArgumentException( "No futures given" );
+		final List<ResponseFuture<?>> list = new ArrayList<ResponseFuture<?>>( futures );
+		final ResponseFuture<Object> any = new ResponseFuture<Object>( (Executor)null );
+		any.sources = list;
+		final AtomicInteger remaining = new AtomicInteger( list.size() );
+		for ( final ResponseFuture<?> future : list ) future.whenDone( null, new Runnable() {
+			public void run() {
+				Throwable failure = future.getFailure();
+				if ( failure == null ) any.set( future.getResult() );
+				else if ( remaining.decrementAndGet() == 0 ) any.fail( failure );
+			}
+		});
+		return any;
+	}
+	
+	/**
+	 * Cancel this future, and abort its request.
+	 */
+	@Override public boolean cancel( boolean mayInterruptIfRunning ) {
+		boolean cancelled = super.cancel( mayInterruptIfRunning );
+		if ( cancelled ) {
+			abort();
+			Collection<? extends Future<?>> sources = this.sources;
+			if ( sources != null ) for ( Future<?> f : sources ) 
+				f.cancel( mayInterruptIfRunning );
+		}
+		return cancelled;
+	}
+	
+	/**
+	 * Abort the underlying request.  This is called when the future is 
+	 * cancelled.
+	 */
+	protected void abort() {
+		HttpRequestBase request = this.request;
+		if ( request != null ) request.abort();
+	}
+	
+	/**
+	 * Runs the registered callbacks.  Subclasses which override this must 
+	 * call <code>super.done()</code>.
+	 */
+	@Override protected void done() {
+		List<Runnable> pending;
+		synchronized ( listeners ) {
+			completed = true;
+			pending = new ArrayList<Runnable>( listeners );
+			listeners.clear();
+		}
+		for ( Runnable listener : pending ) listener.run();
+	}
+	
+	private void whenDone( final Executor executor, final Runnable listener ) {
+		Runnable task = executor == null ? listener : new Runnable() {
+			public void run() {
+				try { executor.execute( listener ); }
+				catch ( RejectedExecutionException ex ) { listener.run(); }
+			}
+		};
+		synchronized ( listeners ) {
+			if ( ! completed ) {
+				listeners.add( task );
+				return;
+			}
+		}
+		task.run();
+	}
+	
+	/* complete a derived future with the given value, or the result of the
+	 * given future */
+	@SuppressWarnings("unchecked")
+	private void complete( Object value ) {
+		if ( ! ( value instanceof ResponseFuture<?> ) ) {
+			set( (T)value );
+			return;
+		}
+		final ResponseFuture<?> future = (ResponseFuture<?>)value;
+		this.sources = Collections.singleton( future );
+		if ( isCancelled() ) future.cancel( true );
+		future.whenDone( null, new Runnable() {
+			public void run() {
+				Throwable failure = future.getFailure();
+				if ( failure != null ) fail( failure );
+				else set( (T)future.getResult() );
+			}
+		});
+	}
+	
+	/* fail this future.  If the failure is a cancellation (of a source 
+	 * future,) this one is cancelled too, but its other sources are not. */
+	void fail( Throwable failure ) {
+		if ( failure instanceof CancellationException ) super.cancel( false );
+		else setException( failure );
+	}
+	
+	/* the failure of a completed future, or null if it succeeded */
+	private Throwable getFailure() {
+		try {
+			get();
+			return null;
+		}
+		catch ( CancellationException ex ) { return ex; }
+		catch ( ExecutionException ex ) { return unwrap( ex.getCause() ); }
+		catch ( InterruptedException ex ) { // only if called before completion
+			Thread.currentThread().interrupt();
+			return ex;
+		}
+	}
+	
+	/* the result of a future which has succeeded */
+	private T getResult() {
+		try { return get(); }
+		catch ( Exception ex ) { throw new IllegalStateException( ex ); }
+	}
+	
+	private static Throwable unwrap( Throwable ex ) {
+		// exceptions thrown from a response handler closure are wrapped
+		if ( ex instanceof InvokerInvocationException && ex.getCause() != null )
+			return ex.getCause();
+		return ex;
+	}
+	
+	private static Object call( Closure closure, Object arg ) {
+		return closure.getMaximumNumberOfParameters() == 0 
+			? closure.call() : closure.call( arg );
+	}
+	
+	private static void callback( Closure closure, Object arg ) {
+		try { call( closure, arg ); }
+		catch ( Throwable ex ) {
+			log.warn( "Exception thrown from callback", unwrap( ex ) );
+		}
+	}
+}
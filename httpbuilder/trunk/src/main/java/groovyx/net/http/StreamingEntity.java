@@ -0,0 +1,117 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import groovy.lang.Writable;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+/**
+ * <p>Request entity that writes textual content directly to the connection
+ * as it is generated, rather than rendering the whole body to a String
+ * first.  Since the length is not known up front the body is sent with
+ * <code>chunked</code> transfer-encoding.  This is created by
+ * {@link EncoderRegistry} for streamed JSON and XML request bodies, but it
+ * may also be returned from a custom encoder.</p>
+ *
+ * <p>An entity whose source can only be read once (such as an Iterator) is
+ * not repeatable, so HttpClient will not attempt to re-send it, e.g. in
+ * response to an authentication challenge.</p>
+ *
+ * @since 0.6
+ */
+public class StreamingEntity extends AbstractHttpEntity {
+
+	static final int BUFFER_SIZE = 8192;
+
+	private final Writable source;
+	private final Charset charset;
+	private final boolean repeatable;
+	private boolean consumed = false;
+
+	/**
+	 * @param source writes the request body when the request is sent.
+	 * @param contentType value of the content-type header
+	 * @param charset used to encode the characters written by the source.
+	 * @param repeatable true if the source produces the same content each
+	 * time it is written.
+	 */
+	public StreamingEntity( Writable source, Object contentType,
+			Charset charset, boolean repeatable ) {
+		this.source = source;
+		this.charset = charset;
+		this.repeatable = repeatable;
+		setContentType( contentType.toString() );
+		setChunked( true );
+	}
+
+	public boolean isRepeatable() { return this.repeatable; }
+
+	public boolean isStreaming() { return ! this.repeatable; }
+
+	/**
+	 * @return -1, since the length is not known until the content is written.
+	 */
+	public long getContentLength() { return -1; }
+
+	public Charset getCharset() { return this.charset; }
+
+	/**
+	 * Write the content to the given stream.  The stream is flushed but not
+	 * closed.
+	 * @throws IllegalStateException if this entity is not repeatable and has
+	 * already been written.
+	 */
+	public void writeTo( OutputStream out ) throws IOException {
+		if ( out == null ) throw new IllegalArgumentException( "Output stream may not be null" );
+		if ( consumed && ! repeatable ) throw new IllegalStateException(
+				"Content has already been written and cannot be repeated" );
+		consumed = true;
+		Writer writer = new BufferedWriter( new OutputStreamWriter( out, charset ), BUFFER_SIZE );
+		source.writeTo( writer );
+		writer.flush();
+	}
+
+	/**
+	 * Renders the entire content into memory.  This defeats the purpose of a
+	 * streaming entity, and is only meant for debugging or for code that
+	 * cannot use {@link #writeTo(OutputStream)}.
+	 */
+	public InputStream getContent() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeTo( out );
+		return new ByteArrayInputStream( out.toByteArray() );
+	}
+
+	/** Nothing to release; the source is not read until it is written. */
+	public void consumeContent() throws IOException {}
+}
@@ -26,7 +26,7 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -54,11 +54,25 @@ import org.apache.http.message.BasicNameValuePair;
  *    query = [p1:1, p2:'two']
  * }.toString()
  * </pre>
+ * Query parameters are kept as an ordered list of name/value pairs, so that
+ * adding or removing a parameter does not re-parse the query string or 
+ * create a new URI.  The query is only encoded when the URI is next needed, 
+ * e.g. by {@link #toURI()} or {@link #toString()}.
  * @author <a href='mailto:tomstrummer+httpbuilder@gmail.com'>Tom Nichols</a>
  */
 public class URIBuilder implements Cloneable {
+	/** 
+	 * The current URI.  If the query has been modified, the query portion 
+	 * of this URI is not updated until {@link #toURI()} is called. 
+	 */
 	protected URI base;
 	private final String ENC = "UTF-8"; 
+	/* The query as name/value pairs in order, or null if there is no query.
+	 * This is parsed from the URI when first needed. */
+	private List<NameValuePair> queryParams = null;
+	private boolean queryParsed = false;
+	/* true if queryParams has changed since 'base' was last updated */
+	private boolean queryModified = false;
 	
 	public URIBuilder( String url ) throws URISyntaxException {
 		base = new URI(url);
@@ -208,6 +222,34 @@ public class URIBuilder implements Cloneable {
 	
 	/* TODO null/ zero-size check if this is ever made public */
 	protected URIBuilder setQueryNVP( List<NameValuePair> nvp ) throws URISyntaxException {
+		this.queryParams = new ArrayList<NameValuePair>( nvp );
+		this.queryParsed = true;
+		this.queryModified = true;
+		return this;
+	}
+	
+	/**
+	 * The query parameters, parsed from the URI the first time they are 
+	 * needed.  This list is modified in place by the <code>add</code> and 
+	 * <code>remove</code> methods.
+	 * @return the query parameters, or <code>null</code> if the URI has no 
+	 *   query. 
+	 */
+	private List<NameValuePair> queryParams() {
+		if ( ! this.queryParsed ) {
+			this.queryParams = base.getRawQuery() == null ? null 
+					: new ArrayList<NameValuePair>( URLEncodedUtils.parse( base, ENC ) );
+			this.queryParsed = true;
+		}
+		return this.queryParams;
+	}
+	
+	/**
+	 * Update the URI with the current query parameters, if they have been
+	 * modified.
+	 */
+	private void applyQuery() {
+		if ( ! this.queryModified ) return;
 		/* Passing the query string in the URI constructor will 
 		 * double-escape query parameters and goober things up.  So we have 
 		 * to create a full path+query+fragment and use URI#resolve() to 
@@ -216,12 +258,11 @@ public class URIBuilder implements Cloneable {
 		String path = base.getRawPath();
 		if ( path != null ) sb.append( path );
 		sb.append( '?' );
-		sb.append( URLEncodedUtils.format( nvp, ENC ) ); 
+		sb.append( URLEncodedUtils.format( this.queryParams, ENC ) ); 
 		String frag = base.getRawFragment();
 		if ( frag != null ) sb.append( '#' ).append( frag );
 		this.base = base.resolve( sb.toString() );
-
-		return this;
+		this.queryModified = false;
 	}
 	
 	/**
@@ -239,6 +280,9 @@ public class URIBuilder implements Cloneable {
 			this.base = new URI( base.getScheme(), base.getUserInfo(), 
 				base.getHost(), base.getPort(), base.getPath(),
 				null, base.getFragment() );
+			this.queryParams = null;
+			this.queryParsed = true;
+			this.queryModified = false;
 		}
 		else {
 			List<NameValuePair> nvp = new ArrayList<NameValuePair>(params.size());
@@ -267,6 +311,9 @@ public class URIBuilder implements Cloneable {
 		this.base = update( base.getScheme(), base.getUserInfo(), 
 				base.getHost(), base.getPort(), 
 				base.getRawPath(), query, base.getRawFragment() );
+		this.queryParams = null;
+		this.queryParsed = false;
+		this.queryModified = false;
 		return this;
 	}
 	
@@ -285,24 +332,27 @@ public class URIBuilder implements Cloneable {
 	 * string.
 	 */
 	public Map<String,Object> getQuery() {
-		Map<String,Object> params = new HashMap<String,Object>();		
-		List<NameValuePair> pairs = this.getQueryNVP();
+		Map<String,Object> params = new LinkedHashMap<String,Object>();		
+		List<NameValuePair> pairs = this.queryParams();
 		if ( pairs == null ) return null;
 		
 		for ( NameValuePair pair : pairs ) {
 			
 			String key = pair.getName();
 			Object existing = params.get( key );
+			String value = pair.getValue();
+			// an empty value is parsed as null from the query string
+			if ( value != null && value.length() == 0 ) value = null;
 
-			if ( existing == null ) params.put( key, pair.getValue() );
+			if ( existing == null ) params.put( key, value );
 
 			else if ( existing instanceof List<?> ) 
-				((List)existing).add( pair.getValue() );
+				((List)existing).add( value );
 
 			else {
 				List<String> vals = new ArrayList<String>(2);
 				vals.add( (String)existing );
-				vals.add( pair.getValue() );
+				vals.add( value );
 				params.put( key, vals );
 			}
 		}
@@ -311,11 +361,9 @@ public class URIBuilder implements Cloneable {
 	}
 	
 	protected List<NameValuePair> getQueryNVP() {
-		if ( this.base.getQuery() == null ) return null;
-		List<NameValuePair> nvps = URLEncodedUtils.parse( this.base, ENC );
-		List<NameValuePair> newList = new ArrayList<NameValuePair>();
-		if ( nvps != null ) newList.addAll( nvps );
-		return newList;
+		List<NameValuePair> nvps = this.queryParams();
+		if ( nvps == null ) return null;
+		return new ArrayList<NameValuePair>( nvps );
 	}
 	
 	/**
@@ -326,7 +374,11 @@ public class URIBuilder implements Cloneable {
 	 *    the URI.
 	 */
 	public boolean hasQueryParam( String name ) {
-		return getQuery().get( name ) != null;
+		List<NameValuePair> params = queryParams();
+		if ( params == null ) return false;
+		for ( NameValuePair nvp : params )
+			if ( nvp.getName().equals( name ) ) return true;
+		return false;
 	}
 	
 	/**
@@ -336,25 +388,26 @@ public class URIBuilder implements Cloneable {
 	 * @throws URISyntaxException
 	 */
 	public URIBuilder removeQueryParam( String param ) throws URISyntaxException {
-		List<NameValuePair> params = getQueryNVP();
-		NameValuePair found = null;
-		for ( NameValuePair nvp : params )  // BOO linear search.  Assume the list is small.
-			if ( nvp.getName().equals( param ) ) {
-				found = nvp;
-				break;
-			}
+		List<NameValuePair> params = queryParams();
+		int found = -1;
+		if ( params != null ) 
+			for ( int i = 0; i < params.size(); i++ ) // BOO linear search.  Assume the list is small.
+				if ( params.get( i ).getName().equals( param ) ) {
+					found = i;
+					break;
+				}
 		
-		if ( found == null ) throw new IllegalArgumentException( "Param '" + param + "' not found" );
+		if ( found < 0 ) throw new IllegalArgumentException( "Param '" + param + "' not found" );
 		params.remove( found );
-		this.setQueryNVP( params );
+		this.queryModified = true;
 		return this;
 	}
 	
 	protected URIBuilder addQueryParam( NameValuePair nvp ) throws URISyntaxException {
-		List<NameValuePair> params = getQueryNVP();
-		if ( params == null ) params = new ArrayList<NameValuePair>();
+		List<NameValuePair> params = queryParams();
+		if ( params == null ) params = this.queryParams = new ArrayList<NameValuePair>();
 		params.add( nvp );
-		this.setQueryNVP( params );
+		this.queryModified = true;
 		return this;
 	}
 	
@@ -380,10 +433,10 @@ public class URIBuilder implements Cloneable {
 	}
 	
 	protected URIBuilder addQueryParams( List<NameValuePair> nvp ) throws URISyntaxException {
-		List<NameValuePair> params = getQueryNVP();
-		if ( params == null ) params = new ArrayList<NameValuePair>();
+		List<NameValuePair> params = queryParams();
+		if ( params == null ) params = this.queryParams = new ArrayList<NameValuePair>();
 		params.addAll( nvp );
-		this.setQueryNVP( params );
+		this.queryModified = true;
 		return this;
 	}
 	
@@ -470,7 +523,7 @@ public class URIBuilder implements Cloneable {
 	 * Print this builder's URI representation.
 	 */
 	@Override public String toString() {
-		return base.toString();
+		return toURI().toString();
 	}
 	
 	/**
@@ -480,14 +533,18 @@ public class URIBuilder implements Cloneable {
 	 * valid URL.
 	 */
 	public URL toURL() throws MalformedURLException {
-		return base.toURL();
+		return toURI().toURL();
 	}
 	
 	/**
-	 * Convenience method to convert this object to a URI instance.
+	 * Convenience method to convert this object to a URI instance.  If the
+	 * query parameters have changed, the query is encoded at this point.
 	 * @return this builder's underlying URI representation
 	 */
-	public URI toURI() { return this.base; }
+	public URI toURI() { 
+		applyQuery();
+		return this.base; 
+	}
 	
 	/**
 	 * Implementation of Groovy's <code>as</code> operator, to allow type 
@@ -509,7 +566,14 @@ public class URIBuilder implements Cloneable {
 	 */
 	@Override
 	protected URIBuilder clone() {
-		return new URIBuilder( this.base );
+		URIBuilder copy = new URIBuilder( this.base );
+		if ( this.queryParsed ) { // saves parsing the query again
+			copy.queryParams = this.queryParams == null ? null 
+					: new ArrayList<NameValuePair>( this.queryParams );
+			copy.queryParsed = true;
+			copy.queryModified = this.queryModified;
+		}
+		return copy;
 	}
 	
 	/**
@@ -521,6 +585,6 @@ public class URIBuilder implements Cloneable {
 	@Override
 	public boolean equals( Object obj ) {
 		if ( ! ( obj instanceof URIBuilder) ) return false;
-		return this.base.equals( ((URIBuilder)obj).toURI() );
+		return this.toURI().equals( ((URIBuilder)obj).toURI() );
 	}
 }
@@ -0,0 +1,364 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p>Executor which runs each task on its own thread, rather than a fixed 
+ * pool of threads.  On a JVM which supports virtual threads (Java 21 and 
+ * later) these are virtual threads, so that thousands of requests can block 
+ * on I/O without tying up a platform thread each.  On earlier JVMs a new 
+ * daemon thread is started instead.</p>
+ * 
+ * <p>At most <code>maxConcurrent</code> tasks run at once; this is enforced
+ * by a {@link Semaphore}.  Tasks submitted while all permits are taken wait
+ * in a queue, which holds at most <code>maxQueued</code> tasks.  Beyond that,
+ * tasks are rejected with a {@link RejectedExecutionException} instead of 
+ * letting the queue, and therefore latency, grow without limit.  A thread 
+ * which finishes its task takes the next one from the queue.  The number of 
+ * rejected tasks is reported along with other {@link #getMetrics() metrics}.</p>
+ * 
+ * <p>This is used by the <code>virtualThreads</code> option of 
+ * {@link AsyncHTTPBuilder}, and may be passed to 
+ * {@link HttpURLClient#setExecutor(java.util.concurrent.ExecutorService)}.</p>
+ * 
+ * @since 0.6
+ */
+public class VirtualThreadExecutor extends AbstractExecutorService {
+	
+	/** Default max number of tasks which may run at once. */
+	public static final int DEFAULT_MAX_CONCURRENT = 1000;
+	
+	/** Default max number of tasks which may wait for a permit. */
+	public static final int DEFAULT_MAX_QUEUED = 10000;
+	
+	private static final Log log = LogFactory.getLog( VirtualThreadExecutor.class );
+	private static final AtomicInteger executorCount = new AtomicInteger();
+	
+	private final int maxConcurrent;
+	private final int maxQueued;
+	private final ThreadFactory threadFactory;
+	private final boolean virtual;
+	private final Semaphore permits;
+	
+	private final Queue<Runnable> queue = new ConcurrentLinkedQueue<Runnable>();
+	private final AtomicInteger queued = new AtomicInteger();
+	private final AtomicInteger active = new AtomicInteger();
+	private final Map<Thread,Boolean> workers = new ConcurrentHashMap<Thread,Boolean>();
+	private volatile boolean shutdown = false;
+	private volatile boolean stopped = false;
+	private final Object termination = new Object();
+	
+	private final AtomicLong submittedCount = new AtomicLong();
+	private final AtomicLong completedCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+	private final AtomicInteger peakActive = new AtomicInteger();
+	private final AtomicInteger peakQueued = new AtomicInteger();
+	
+	/**
+	 * Create an executor with the {@link #DEFAULT_MAX_CONCURRENT default 
+	 * concurrency} and {@link #DEFAULT_MAX_QUEUED queue} limits.
+	 */
+	public VirtualThreadExecutor() {
+		this( DEFAULT_MAX_CONCURRENT, DEFAULT_MAX_QUEUED );
+	}
+	
+	/**
+	 * @param maxConcurrent max number of tasks which may run at once
+	 * @param maxQueued max number of tasks which may wait for one of the 
+	 *   others to complete.  Further tasks are rejected.
+	 */
+	public VirtualThreadExecutor( int maxConcurrent, int maxQueued ) {
+		this( maxConcurrent, maxQueued, null );
+	}
+	
+	/**
+	 * @param maxConcurrent max number of tasks which may run at once
+	 * @param maxQueued max number of tasks which may wait for one of the 
+	 *   others to complete.  Further tasks are rejected.
+	 * @param threadFactory creates the thread for each task.  If 
+	 *   <code>null</code>, virtual threads are used if they are supported.
+	 */
+	public VirtualThreadExecutor( int maxConcurrent, int maxQueued, ThreadFactory threadFactory ) {
+		if ( maxConcurrent < 1 ) throw new IllegalArgumentException( "maxConcurrent may not be < 1" );
+		if ( maxQueued < 0 ) throw new IllegalArgumentException( "maxQueued may not be < 0" );
+		this.maxConcurrent = maxConcurrent;
+		this.maxQueued = maxQueued;
+		this.permits = new Semaphore( maxConcurrent );
+		String name = "http-builder-" + executorCount.incrementAndGet() + "-";
+		ThreadFactory virtualFactory = threadFactory == null ? virtualThreadFactory( name ) : null;
+		this.virtual = virtualFactory != null;
+		this.threadFactory = threadFactory != null ? threadFactory 
+				: virtualFactory != null ? virtualFactory : platformThreadFactory( name );
+	}
+	
+	/**
+	 * Whether virtual threads are supported by this JVM.
+	 */
+	public static boolean isVirtualThreadSupported() {
+		return virtualThreadFactory( "" ) != null;
+	}
+	
+	/* Thread.ofVirtual().name( prefix, 0 ).factory(), which requires Java 21 */
+	private static ThreadFactory virtualThreadFactory( String prefix ) {
+		try {
+			Object builder = Thread.class.getMethod( "ofVirtual" ).invoke( null );
+			Class<?> type = Class.forName( "java.lang.Thread$Builder" );
+			builder = type.getMethod( "name", String.class, long.class ).invoke( builder, prefix, 0L );
+			return (ThreadFactory)type.getMethod( "factory" ).invoke( builder );
+		}
+		catch ( Exception ex ) { return null; }
+	}
+	
+	private static ThreadFactory platformThreadFactory( final String prefix ) {
+		return new ThreadFactory() {
+			final AtomicLong count = new AtomicLong();
+			public Thread newThread( Runnable r ) {
+				Thread t = new Thread( r, prefix + count.getAndIncrement() );
+				t.setDaemon( true );
+				return t;
+			}
+		};
+	}
+	
+	/**
+	 * Run the task on a new thread if fewer than <code>maxConcurrent</code>
+	 * tasks are running, otherwise queue it.
+	 * @throws RejectedExecutionException if the queue is full, or this 
+	 *   executor has been shut down.
+	 */
+	public void execute( Runnable task ) {
+		if ( task == null ) throw new NullPointerException();
+		if ( shutdown ) reject( "Executor has been shut down" );
+		submittedCount.incrementAndGet();
+		if ( permits.tryAcquire() ) {
+			if ( ! start( task ) ) reject( "Could not start a thread" );
+			return;
+		}
+		int size = queued.incrementAndGet();
+		if ( size > maxQueued ) {
+			queued.decrementAndGet();
+			reject( "Too many queued tasks: " + maxQueued );
+		}
+		updatePeak( peakQueued, size );
+		queue.offer( task );
+		// the running tasks may have completed before this one was queued:
+		startQueued();
+	}
+	
+	private void reject( String message ) {
+		rejectedCount.incrementAndGet();
+		throw new RejectedExecutionException( message );
+	}
+	
+	/* start a worker for the given task.  The caller holds a permit, which is
+	 * released if the worker cannot be started. */
+	private boolean start( Runnable task ) {
+		try {
+			Thread thread = threadFactory.newThread( new Worker( task ) );
+			if ( thread == null ) throw new IllegalStateException( "ThreadFactory returned null" );
+			thread.start();
+			return true;
+		}
+		catch ( Throwable ex ) { // e.g. 'unable to create new native thread'
+			log.warn( "Could not start a thread for task: " + task, ex );
+			permits.release();
+			return false;
+		}
+	}
+	
+	/* start workers for queued tasks, while there are permits available */
+	private void startQueued() {
+		while ( ! queue.isEmpty() && permits.tryAcquire() ) {
+			Runnable task = poll();
+			if ( task == null ) permits.release();
+			else if ( ! start( task ) ) {
+				rejectedCount.incrementAndGet();
+				if ( task instanceof Future<?> ) ((Future<?>)task).cancel( false );
+				return;
+			}
+		}
+	}
+	
+	private Runnable poll() {
+		Runnable task = queue.poll();
+		if ( task != null ) queued.decrementAndGet();
+		return task;
+	}
+	
+	private static void updatePeak( AtomicInteger peak, int value ) {
+		int current;
+		while ( value > ( current = peak.get() ) && ! peak.compareAndSet( current, value ) );
+	}
+	
+	/**
+	 * Runs its task, then the queued tasks until the queue is empty, while 
+	 * holding a permit.
+	 */
+	private class Worker implements Runnable {
+		Runnable task;
+		
+		Worker( Runnable task ) { this.task = task; }
+		
+		public void run() {
+			Thread thread = Thread.currentThread();
+			workers.put( thread, Boolean.TRUE );
+			if ( stopped ) thread.interrupt(); // shutdownNow() may have missed this thread
+			updatePeak( peakActive, active.incrementAndGet() );
+			try {
+				while ( task != null ) {
+					try { task.run(); }
+					catch ( RuntimeException ex ) { log.warn( "Task failed: " + task, ex ); }
+					completedCount.incrementAndGet();
+					// don't carry an interrupt over to the next task
+					Thread.interrupted();
+					task = stopped ? null : poll();
+				}
+			}
+			finally {
+				workers.remove( thread );
+				active.decrementAndGet();
+				permits.release();
+				startQueued();
+				synchronized ( termination ) { termination.notifyAll(); }
+			}
+		}
+	}
+	
+	/**
+	 * Reject new tasks.  Tasks which have already been submitted, including
+	 * queued ones, are still run.
+	 */
+	public void shutdown() {
+		this.shutdown = true;
+		synchronized ( termination ) { termination.notifyAll(); }
+	}
+	
+	/**
+	 * Reject new tasks, interrupt running tasks, and remove queued tasks.
+	 * @return the tasks which were queued
+	 */
+	public List<Runnable> shutdownNow() {
+		this.shutdown = true;
+		this.stopped = true;
+		List<Runnable> pending = new ArrayList<Runnable>();
+		Runnable task;
+		while ( ( task = poll() ) != null ) pending.add( task );
+		for ( Thread t : workers.keySet() ) t.interrupt();
+		synchronized ( termination ) { termination.notifyAll(); }
+		return pending;
+	}
+	
+	public boolean isShutdown() { return this.shutdown; }
+	
+	public boolean isTerminated() {
+		return shutdown && active.get() == 0 && queue.isEmpty();
+	}
+	
+	public boolean awaitTermination( long timeout, TimeUnit unit ) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos( timeout );
+		synchronized ( termination ) {
+			while ( ! isTerminated() ) {
+				long remaining = deadline - System.nanoTime();
+				if ( remaining <= 0 ) return false;
+				TimeUnit.NANOSECONDS.timedWait( termination, remaining );
+			}
+		}
+		return true;
+	}
+	
+	/** @return true if tasks are run on virtual threads */
+	public boolean isVirtual() { return this.virtual; }
+	
+	/** Max number of tasks which may run at once. */
+	public int getMaxConcurrent() { return this.maxConcurrent; }
+	
+	/** Max number of tasks which may wait for a running task to complete. */
+	public int getMaxQueued() { return this.maxQueued; }
+	
+	/** Number of tasks which are currently running. */
+	public int getActiveCount() { return active.get(); }
+	
+	/** Number of tasks which are waiting to run. */
+	public int getQueuedCount() { return queued.get(); }
+	
+	/** Highest number of tasks which have run at once. */
+	public int getPeakActiveCount() { return peakActive.get(); }
+	
+	/** Highest number of tasks which have been queued at once. */
+	public int getPeakQueuedCount() { return peakQueued.get(); }
+	
+	/** Total number of tasks submitted, including rejected tasks. */
+	public long getSubmittedCount() { return submittedCount.get(); }
+	
+	/** Total number of tasks which have completed. */
+	public long getCompletedCount() { return completedCount.get(); }
+	
+	/** Total number of tasks which were rejected because the queue was full, 
+	 * the executor was shut down, or a thread could not be started. */
+	public long getRejectedCount() { return rejectedCount.get(); }
+	
+	/**
+	 * All counters and gauges, keyed by name.
+	 */
+	public Map<String,Object> getMetrics() {
+		Map<String,Object> metrics = new LinkedHashMap<String,Object>();
+		metrics.put( "virtual", isVirtual() );
+		metrics.put( "maxConcurrent", getMaxConcurrent() );
+		metrics.put( "maxQueued", getMaxQueued() );
+		metrics.put( "active", getActiveCount() );
+		metrics.put( "queued", getQueuedCount() );
+		metrics.put( "peakActive", getPeakActiveCount() );
+		metrics.put( "peakQueued", getPeakQueuedCount() );
+		metrics.put( "submitted", getSubmittedCount() );
+		metrics.put( "completed", getCompletedCount() );
+		metrics.put( "rejected", getRejectedCount() );
+		return metrics;
+	}
+	
+	/** Clear the counters and peaks. */
+	public void resetStatistics() {
+		submittedCount.set( 0 );
+		completedCount.set( 0 );
+		rejectedCount.set( 0 );
+		peakActive.set( active.get() );
+		peakQueued.set( queued.get() );
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import groovy.util.XmlSlurper;
+import groovy.util.slurpersupport.GPathResult;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * <p>Reuses SAX parsers for {@link ParserRegistry#parseXML(org.apache.http.HttpResponse) XML}
+ * and {@link ParserRegistry#parseHTML(org.apache.http.HttpResponse) HTML} 
+ * responses.  Creating an <code>XmlSlurper</code> looks up and configures a
+ * new <code>SAXParserFactory</code> and parser, and a NekoHTML parser builds 
+ * its whole component configuration, which costs more than parsing a small 
+ * document.</p>
+ * 
+ * <p>Each thread keeps one parser of each kind.  A parser is taken from its 
+ * thread while it is in use, so a nested parse on the same thread creates a
+ * new one.  After a successful parse the parser's handler is reset, so that 
+ * it does not hold on to the parsed document, and the parser is returned to 
+ * its thread.  A parser which failed is discarded, since its state is 
+ * unknown.</p>
+ * 
+ * @see ParserRegistry#getXMLReaderPool()
+ * @since 0.6
+ */
+public class XMLReaderPool {
+	
+	private static final ContentHandler NO_HANDLER = new DefaultHandler();
+	
+	private final SAXParserFactory factory;
+	private volatile EntityResolver entityResolver;
+	private final ThreadLocal<XMLReader> xmlReaders = new ThreadLocal<XMLReader>();
+	private final ThreadLocal<XMLReader> htmlReaders = new ThreadLocal<XMLReader>();
+	
+	private final AtomicLong createdCount = new AtomicLong();
+	private final AtomicLong reusedCount = new AtomicLong();
+	
+	/**
+	 * @param entityResolver resolver for DTDs and external entities, or 
+	 *   <code>null</code>
+	 */
+	public XMLReaderPool( EntityResolver entityResolver ) {
+		this.entityResolver = entityResolver;
+		// same configuration as new XmlSlurper()
+		this.factory = SAXParserFactory.newInstance();
+		factory.setNamespaceAware( true );
+		factory.setValidating( false );
+	}
+	
+	/**
+	 * Parse an XML document into a {@link GPathResult}, as 
+	 * <code>new XmlSlurper().parse( reader )</code> would.
+	 * @param in the document
+	 * @return the parsed document
+	 * @throws IOException
+	 * @throws SAXException
+	 * @throws ParserConfigurationException
+	 */
+	public GPathResult parseXML( Reader in ) 
+			throws IOException, SAXException, ParserConfigurationException {
+		return parse( in, false );
+	}
+	
+	/**
+	 * Parse an HTML document into a {@link GPathResult} using the NekoHTML
+	 * parser.
+	 * @param in the document
+	 * @return the parsed document
+	 * @throws IOException
+	 * @throws SAXException
+	 */
+	public GPathResult parseHTML( Reader in ) throws IOException, SAXException {
+		try {
+			return parse( in, true );
+		}
+		catch ( ParserConfigurationException ex ) { // only thrown for XML
+			throw new SAXException( ex );
+		}
+	}
+	
+	private GPathResult parse( Reader in, boolean html ) 
+			throws IOException, SAXException, ParserConfigurationException {
+		ThreadLocal<XMLReader> readers = html ? htmlReaders : xmlReaders;
+		XMLReader reader = readers.get();
+		if ( reader != null ) {
+			readers.set( null );
+			reusedCount.incrementAndGet();
+		}
+		else {
+			reader = html ? new org.cyberneko.html.parsers.SAXParser() 
+					: newXMLReader();
+			createdCount.incrementAndGet();
+		}
+		reader.setEntityResolver( this.entityResolver );
+		
+		GPathResult result = new XmlSlurper( reader ).parse( new InputSource( in ) );
+		
+		reader.setContentHandler( NO_HANDLER );
+		readers.set( reader );
+		return result;
+	}
+	
+	private XMLReader newXMLReader() throws SAXException, ParserConfigurationException {
+		synchronized ( factory ) { // factories are not thread-safe
+			return factory.newSAXParser().getXMLReader();
+		}
+	}
+	
+	/** Resolver for DTDs and external entities used by all parsers. */
+	public EntityResolver getEntityResolver() { return this.entityResolver; }
+	
+	/**
+	 * @see #getEntityResolver()
+	 * @param entityResolver
+	 */
+	public void setEntityResolver( EntityResolver entityResolver ) {
+		this.entityResolver = entityResolver;
+	}
+	
+	/** Number of parsers which have been created. */
+	public long getCreatedCount() { return createdCount.get(); }
+	
+	/** Number of times a parser has been reused. */
+	public long getReusedCount() { return reusedCount.get(); }
+}
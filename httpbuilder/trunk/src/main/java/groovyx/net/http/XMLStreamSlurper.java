@@ -0,0 +1,333 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import groovy.lang.Closure;
+import groovy.util.slurpersupport.GPathResult;
+import groovy.util.slurpersupport.Node;
+import groovy.util.slurpersupport.NodeChild;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLResolver;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+
+/**
+ * <p>StAX-based parser that reads an XML document one element at a time, 
+ * without building a tree of the whole document.  This is returned by
+ * {@link ParserRegistry#parseXMLStream(org.apache.http.HttpResponse)} for
+ * the {@link ContentType#XML_STREAM} content-type, so that very large
+ * responses can be processed with memory bounded by the size of a single
+ * element rather than the size of the document:</p>
+ *
+ * <pre>
+ * http.get( path : '/feed', contentType : XML_STREAM ) { resp, xml ->
+ *   xml.eachElement( 'records.record' ) { record ->
+ *     println "${record.@id}: ${record.name}"
+ *   }
+ * }</pre>
+ *
+ * <p>Each element handed to a closure or returned from {@link #at(String)}
+ * is a {@link GPathResult}, the same as an element of a document parsed by 
+ * <code>XmlSlurper</code>.  Each element is built only once its end tag has 
+ * been read, and is not referenced by the parser afterwards.  Anything 
+ * outside of the requested path is skipped as it is read.</p>
+ *
+ * <p>Paths are dot-separated element names starting below the document 
+ * element, as they would be written in a GPath expression, where 
+ * <code>*</code> matches any element name and an empty path denotes the 
+ * document element itself.  Names are matched against the element's local 
+ * name.  A parser can only be traversed forward, so an element cannot be read 
+ * once it has been passed.  Parsers are not thread-safe.</p>
+ * 
+ * <p>This requires a StAX implementation, which is included in Java 6 and 
+ * later.</p>
+ *
+ * @since 0.6
+ */
+public class XMLStreamSlurper implements Closeable {
+
+	private final Reader reader;
+	private final XMLStreamReader xml;
+	private boolean keepWhitespace = false;
+
+	/* local names of the currently open elements */
+	private final List<String> names = new ArrayList<String>();
+	/* namespace prefixes declared so far; copied whenever a prefix is added */
+	private Map<String,String> namespaceTagHints = Collections.emptyMap();
+	private final StringBuilder text = new StringBuilder();
+
+	public XMLStreamSlurper( Reader reader ) throws XMLStreamException {
+		this( reader, ParserRegistry.getEntityResolver() );
+	}
+
+	/**
+	 * @param reader XML content
+	 * @param entityResolver used to resolve the DTD and external entities,
+	 *   or <code>null</code> to load them from their system ID.
+	 */
+	public XMLStreamSlurper( Reader reader, EntityResolver entityResolver ) 
+			throws XMLStreamException {
+		this.reader = reader;
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty( XMLInputFactory.IS_NAMESPACE_AWARE, true );
+		factory.setProperty( XMLInputFactory.IS_COALESCING, true );
+		factory.setProperty( XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, true );
+		if ( entityResolver != null ) 
+			factory.setXMLResolver( new Resolver( entityResolver ) );
+		this.xml = factory.createXMLStreamReader( reader );
+	}
+
+	/**
+	 * Call the closure once for each element at the given path.  Each 
+	 * element is parsed and passed to the closure before the next element 
+	 * is read.  Reading stops at the end of the element which contains the 
+	 * matched elements, so that elements later in the document may still 
+	 * be read.
+	 * @param path dot-separated element names below the document element
+	 * @param closure called with a {@link GPathResult} for each element
+	 * @return the number of elements read
+	 */
+	public int eachElement( String path, Closure closure ) throws XMLStreamException {
+		String[] segments = split( path );
+		int count = 0;
+		GPathResult element;
+		while ( ( element = nextElement( segments, count > 0 ) ) != null ) {
+			closure.call( element );
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Call the closure once for each child of the document element.
+	 * @see #eachElement(String, Closure)
+	 */
+	public int each( Closure closure ) throws XMLStreamException {
+		return eachElement( "*", closure );
+	}
+
+	/**
+	 * Read the first element at the given path.  Only that element is 
+	 * parsed; everything before it is skipped.  The parser is left 
+	 * positioned after the element so that elements later in the document 
+	 * may still be read.
+	 * @param path dot-separated element names below the document element
+	 * @return the element, or <code>null</code> if the path is not found
+	 */
+	public GPathResult at( String path ) throws XMLStreamException {
+		return nextElement( split( path ), false );
+	}
+
+	/**
+	 * Alias for {@link #at(String)} to allow property-style access to
+	 * children of the document element, i.e. <code>xml.header</code>.
+	 */
+	public Object propertyMissing( String name ) throws XMLStreamException {
+		return at( name );
+	}
+
+	/**
+	 * Whether whitespace-only text is kept in parsed elements.  This is 
+	 * <code>false</code> by default, as with <code>XmlSlurper</code>.
+	 */
+	public boolean isKeepWhitespace() { return keepWhitespace; }
+
+	public void setKeepWhitespace( boolean keepWhitespace ) {
+		this.keepWhitespace = keepWhitespace;
+	}
+
+	public void close() throws IOException {
+		try { xml.close(); }
+		catch ( XMLStreamException ex ) { /* the reader is closed regardless */ }
+		reader.close();
+	}
+
+	/**
+	 * Read forward to the next element at the given path.  If 
+	 * <code>sibling</code> is true, give up at the end of the parent of the 
+	 * last matching element.
+	 */
+	private GPathResult nextElement( String[] segments, boolean sibling ) 
+			throws XMLStreamException {
+		int parentDepth = segments.length;
+		while ( xml.hasNext() ) {
+			int event = xml.next();
+			if ( event == XMLStreamConstants.START_ELEMENT ) {
+				startElement();
+				if ( names.size() == segments.length + 1 && matches( segments ) )
+					return new NodeChild( readElement(), null, namespaceTagHints );
+			}
+			else if ( event == XMLStreamConstants.END_ELEMENT ) {
+				names.remove( names.size() -1 );
+				if ( sibling && names.size() < parentDepth ) return null;
+			}
+		}
+		return null;
+	}
+
+	private boolean matches( String[] segments ) {
+		for ( int i = 0; i < segments.length; i++ ) {
+			String s = segments[i];
+			if ( ! "*".equals( s ) && ! s.equals( names.get( i+1 ) ) ) return false;
+		}
+		return true;
+	}
+
+	private void startElement() {
+		names.add( xml.getLocalName() );
+		int count = xml.getNamespaceCount();
+		if ( count == 0 ) return;
+		Map<String,String> hints = new HashMap<String,String>( namespaceTagHints );
+		for ( int i = 0; i < count; i++ ) {
+			String prefix = xml.getNamespacePrefix( i );
+			hints.put( prefix == null ? "" : prefix, xml.getNamespaceURI( i ) );
+		}
+		namespaceTagHints = hints;
+	}
+
+	/**
+	 * Build the element which was just started, up to and including its
+	 * end tag.
+	 */
+	private Node readElement() throws XMLStreamException {
+		List<Node> open = new ArrayList<Node>();
+		Node root = newNode( null );
+		open.add( root );
+		text.setLength( 0 );
+		while ( true ) {
+			Node current = open.get( open.size() -1 );
+			switch ( xml.next() ) {
+			case XMLStreamConstants.START_ELEMENT :
+				addText( current );
+				startElement();
+				Node child = newNode( current );
+				current.addChild( child );
+				open.add( child );
+				break;
+			case XMLStreamConstants.END_ELEMENT :
+				addText( current );
+				names.remove( names.size() -1 );
+				open.remove( open.size() -1 );
+				if ( open.isEmpty() ) return root;
+				break;
+			case XMLStreamConstants.CHARACTERS :
+			case XMLStreamConstants.CDATA :
+			case XMLStreamConstants.SPACE :
+				text.append( xml.getTextCharacters(), 
+						xml.getTextStart(), xml.getTextLength() );
+				break;
+			}
+		}
+	}
+
+	private Node newNode( Node parent ) {
+		int count = xml.getAttributeCount();
+		Map<String,String> attributes = new HashMap<String,String>( count );
+		Map<String,String> attributeNamespaces = new HashMap<String,String>( count );
+		for ( int i = 0; i < count; i++ ) {
+			String name = xml.getAttributeLocalName( i );
+			String ns = xml.getAttributeNamespace( i );
+			attributes.put( name, xml.getAttributeValue( i ) );
+			attributeNamespaces.put( name, ns == null ? "" : ns );
+		}
+		String ns = xml.getNamespaceURI();
+		return new Node( parent, xml.getLocalName(), attributes, 
+				attributeNamespaces, ns == null ? "" : ns );
+	}
+
+	private void addText( Node node ) {
+		if ( text.length() == 0 ) return;
+		String s = text.toString();
+		text.setLength( 0 );
+		if ( keepWhitespace || s.trim().length() > 0 ) node.addChild( s );
+	}
+
+	private static String[] split( String path ) {
+		return path == null || path.length() == 0 
+				? new String[0] : path.split( "\\." );
+	}
+
+	/**
+	 * Adapts a SAX entity resolver, such as the XML catalog, for StAX.
+	 */
+	static class Resolver implements XMLResolver {
+		private final EntityResolver entityResolver;
+		private String lastSystemId = null;
+
+		Resolver( EntityResolver entityResolver ) {
+			this.entityResolver = entityResolver;
+		}
+
+		public Object resolveEntity( String publicId, String systemId, 
+				String baseURI, String namespace ) throws XMLStreamException {
+			try {
+				// the JDK's parser does not pass the base URI for entities 
+				// referenced from within the DTD, so resolve against the DTD
+				if ( baseURI == null ) baseURI = lastSystemId;
+				if ( systemId != null && baseURI != null )
+					systemId = new URI( baseURI ).resolve( systemId ).toString();
+				if ( systemId != null && new URI( systemId ).isAbsolute() ) 
+					lastSystemId = systemId;
+				InputSource source = entityResolver.resolveEntity( publicId, systemId );
+				if ( source == null ) return null;
+				if ( source.getByteStream() != null ) return source.getByteStream();
+				if ( source.getCharacterStream() != null ) 
+					return toStream( source.getCharacterStream() );
+				if ( source.getSystemId() != null ) 
+					return new URL( source.getSystemId() ).openStream();
+				return null;
+			}
+			catch ( Exception ex ) { 
+				throw new XMLStreamException( "Error resolving " + systemId, ex );
+			}
+		}
+
+		private InputStream toStream( Reader reader ) throws IOException {
+			StringBuilder sb = new StringBuilder();
+			char[] buf = new char[4096];
+			int read;
+			try {
+				while ( ( read = reader.read( buf ) ) > -1 ) sb.append( buf, 0, read );
+			}
+			finally { reader.close(); }
+			return new ByteArrayInputStream( sb.toString().getBytes( "UTF-8" ) );
+		}
+	}
+}
@@ -24,7 +24,11 @@ package groovyx.net.http
 import org.junit.Test
 import static groovyx.net.http.ContentType.*
 import static groovyx.net.http.Method.*
-import java.util.concurrent.ExecutionExceptionimport org.apache.http.conn.ConnectTimeoutException
+import java.util.concurrent.ExecutionException
+import org.apache.http.conn.ConnectTimeoutException
+import com.sun.net.httpserver.HttpServer
+import com.sun.net.httpserver.HttpHandler
+
 /**
  * @author tnichols
  */
@@ -174,4 +178,95 @@ public class AsyncHTTPBuilderTest {
 		catch ( IllegalArgumentException ex ) { /* Expected result */ }
 	}
 
-}
\ No newline at end of file
+	
+	@Test public void testNIORequests() {
+		def server = HttpServer.create( new InetSocketAddress( 0 ), 50 )
+		server.executor = java.util.concurrent.Executors.newCachedThreadPool()
+		server.createContext( '/', { exchange ->
+			Thread.sleep 300 // slow upstream
+			def body = """{"path":"${exchange.requestURI.path}"}""".getBytes('UTF-8')
+			exchange.responseHeaders.add 'Content-Type', 'application/json'
+			exchange.sendResponseHeaders 200, body.length
+			exchange.responseBody.withStream { it << body }
+		} as HttpHandler )
+		server.start()
+		
+		def http = new AsyncHTTPBuilder( nio : true, poolSize : 1, maxConnections : 20,
+				uri : "http://localhost:${server.address.port}", contentType : JSON )
+		try {
+			assert http.transport.maxConnections == 20
+			def start = System.currentTimeMillis()
+			/* with a single pool thread, these would take 20 * 300ms if each 
+			 * request blocked a thread. */
+			def responses = (1..20).collect { i -> 
+				http.get( path : "/item/$i" ) { resp, json -> json.path } 
+			}
+			responses.eachWithIndex { resp, i -> assert resp.get() == "/item/${i+1}" }
+			assert System.currentTimeMillis() - start < 20 * 300
+			assert http.transport.openConnections <= 20
+			
+			// default handlers are applied as usual:
+			assert http.get( path : '/default' ).get().path == '/default'
+		}
+		finally {
+			http.shutdown()
+			server.stop 0
+			server.executor.shutdown()
+		}
+	}
+	
+	@Test public void testNIOStreamsBody() {
+		def chunk = new byte[1024 * 1024]
+		def reading = new java.util.concurrent.CountDownLatch( 1 )
+		def streamed = false
+		def server = HttpServer.create( new InetSocketAddress( 0 ), 5 )
+		server.executor = java.util.concurrent.Executors.newCachedThreadPool()
+		server.createContext( '/', { exchange ->
+			exchange.responseHeaders.add 'Content-Type', 'application/octet-stream'
+			exchange.sendResponseHeaders 200, 0
+			exchange.responseBody.withStream { out ->
+				out.write chunk
+				out.flush()
+				// the handler only gets the response before the body is complete if it streams:
+				streamed = reading.await( 5, java.util.concurrent.TimeUnit.SECONDS )
+				out.write chunk
+			}
+		} as HttpHandler )
+		server.start()
+		
+		def http = new AsyncHTTPBuilder( nio : true, uri : "http://localhost:${server.address.port}" )
+		try {
+			def resp = http.get( path : '/', contentType : BINARY ) { resp, stream ->
+				long count = stream.read() < 0 ? 0 : 1
+				reading.countDown()
+				def bytes = new byte[8192]
+				int read
+				while ( ( read = stream.read( bytes ) ) >= 0 ) count += read
+				count
+			}
+			assert resp.get() == chunk.length * 2
+			assert streamed
+			assert http.transport.pendingRequests == 0
+		}
+		finally {
+			http.shutdown()
+			server.stop 0
+			server.executor.shutdown()
+		}
+	}
+	
+	@Test public void testNIOConnectFailure() {
+		def http = new AsyncHTTPBuilder( nio : true, uri : 'http://localhost:1' )
+		try {
+			def resp = http.get( path : '/' )
+			resp.get()
+			assert false
+		}
+		catch ( ExecutionException ex ) {
+			assert ex.cause instanceof IOException
+			// the route is forgotten once it has no connections or requests:
+			assert http.transport.routeCount == 0
+		}
+		finally { http.shutdown() }
+	}
+}
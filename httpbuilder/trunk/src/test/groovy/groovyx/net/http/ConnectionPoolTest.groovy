@@ -0,0 +1,194 @@
+package groovyx.net.http
+
+import static groovyx.net.http.ContentType.*
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import org.apache.http.impl.client.AbstractHttpClient
+import org.apache.http.params.HttpParams
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import com.sun.net.httpserver.HttpServer
+import com.sun.net.httpserver.HttpHandler
+
+public class ConnectionPoolTest {
+	
+	def server
+	def uri
+	def active = new AtomicInteger()
+	def maxActive = new AtomicInteger()
+	def builders = []
+	
+	@Before public void setUp() {
+		server = HttpServer.create( new InetSocketAddress( 0 ), 20 )
+		server.executor = Executors.newCachedThreadPool()
+		server.createContext( '/', { exchange ->
+			def current = active.incrementAndGet()
+			synchronized ( maxActive ) { if ( current > maxActive.get() ) maxActive.set current }
+			try {
+				def path = exchange.requestURI.path
+				if ( path.startsWith( '/slow' ) ) Thread.sleep 100
+				def status = path == '/missing' ? 404 : 200
+				def body = '{"ok":true}'.getBytes( 'UTF-8' )
+				exchange.responseHeaders.add 'Content-Type', 'application/json'
+				exchange.sendResponseHeaders status, body.length
+				exchange.responseBody.withStream { it << body }
+			}
+			finally {
+				active.decrementAndGet()
+				exchange.close()
+			}
+		} as HttpHandler )
+		server.start()
+		uri = "http://localhost:${server.address.port}"
+	}
+	
+	@After public void tearDown() {
+		builders*.shutdown()
+		server.stop 0
+		server.executor.shutdownNow()
+	}
+	
+	def builder( Class type = PooledHTTPBuilder, Map args = null ) {
+		def http = args != null ? type.newInstance( args ) : type.newInstance( uri, JSON )
+		builders << http
+		http
+	}
+	
+	@Test public void testDefaults() {
+		assert builder( HTTPBuilder ).connectionPool == null
+		
+		def http = builder()
+		def pool = http.connectionPool
+		assert pool != null
+		assert pool.maxTotal == ConnectionPool.DEFAULT_MAX_TOTAL
+		assert pool.defaultMaxPerRoute == ConnectionPool.DEFAULT_MAX_PER_ROUTE
+		
+		def async = builder( AsyncHTTPBuilder, [poolSize:6, maxPerRoute:3, uri:uri] )
+		assert async.connectionPool.maxTotal == 6
+		assert async.connectionPool.defaultMaxPerRoute == 3
+		
+		def rest = builder( RESTClient )
+		assert rest.connectionPool.defaultMaxPerRoute == RESTClient.MAX_CONNECTIONS_PER_ROUTE
+	}
+	
+	@Test public void testPerRouteLimit() {
+		def http = builder( AsyncHTTPBuilder, [poolSize:6, uri:uri, contentType:JSON] )
+		def pool = http.connectionPool
+		pool.setMaxPerRoute uri, 1
+		assert pool.getMaxPerRoute( "$uri/some/path" ) == 1
+		assert pool.getMaxPerRoute( 'http://other.example.com' ) == 6
+		
+		(1..4).collect { http.get( path : '/slow' ) }*.get()
+		assert maxActive.get() == 1
+		assert pool.leaseTime.count == 4
+		assert pool.leaseTime.max >= 100 // requests waited for the connection
+		
+		// a raised limit applies once the host's connections are closed:
+		maxActive.set 0
+		pool.setMaxPerRoute uri, 3
+		pool.closeIdleConnections 0, TimeUnit.MILLISECONDS
+		(1..6).collect { http.get( path : '/slow' ) }*.get()
+		assert maxActive.get() > 1
+		assert maxActive.get() <= 3
+		
+		def stats = pool.routeStats.values().toList()
+		assert stats.size() == 1
+		assert stats[0].route == "http://localhost:${server.address.port}".toString()
+		assert stats[0].max == 3
+		assert stats[0].leased == 0
+		assert stats[0].pending == 0
+		assert stats[0].available > 1
+		
+		// a lowered limit closes the extra connections as they are released:
+		pool.setMaxPerRoute uri, 1
+		4.times { http.get( path : '/a' ).get() }
+		assert pool.available == 1
+		assert pool.routeStats.collect { route, s -> s.max } == [1]
+		assert pool.getConnectionsInPool() == 1
+	}
+	
+	@Test public void testMetrics() {
+		def http = builder()
+		def pool = http.connectionPool
+		3.times { http.get( path : '/a' ) }
+		try { http.get( path : '/missing' ) }
+		catch ( HttpResponseException ex ) { assert ex.statusCode == 404 }
+		
+		assert pool.connectTime.count == 1 // the connection was kept alive
+		assert pool.requestTime[200].count == 3
+		assert pool.requestTime[404].count == 1
+		assert pool.leased == 0
+		assert pool.available == 1
+		
+		def metrics = pool.metrics
+		assert metrics.maxTotal == ConnectionPool.DEFAULT_MAX_TOTAL
+		assert metrics.routes.collect { route, stats -> stats.available } == [1]
+		assert metrics.requestTime['200'].count == 3
+		assert metrics.requestTime['200'].buckets['+Inf'] == 3
+		assert metrics.leaseTime.count == 4
+		
+		pool.resetStatistics()
+		assert pool.connectTime.count == 0
+		assert pool.requestTime.isEmpty()
+	}
+	
+	@Test public void testTimeToLive() {
+		def http = builder()
+		def pool = http.connectionPool
+		http.get( path : '/a' )
+		http.get( path : '/a' )
+		assert pool.connectTime.count == 1
+		
+		pool.setTimeToLive 100, TimeUnit.MILLISECONDS
+		assert pool.getTimeToLive( TimeUnit.MILLISECONDS ) == 100
+		Thread.sleep 200
+		http.get( path : '/a' )
+		assert pool.connectTime.count == 2
+	}
+	
+	@Test public void testIdleEviction() {
+		def http = builder()
+		def pool = http.connectionPool
+		pool.setIdleTimeout 50, TimeUnit.MILLISECONDS
+		http.get( path : '/a' )
+		assert pool.available == 1
+		Thread.sleep 300
+		assert pool.available == 0
+		http.get( path : '/a' )
+		assert pool.connectTime.count == 2
+		
+		pool.setIdleTimeout 0, TimeUnit.MILLISECONDS
+		Thread.sleep 100
+		assert pool.available == 1
+	}
+	
+	@Test public void testHistogram() {
+		def h = new LatencyHistogram()
+		assert h.getPercentile( 50 ) == 0
+		[0.5, 3, 3, 40, 40000].each { h.record( (long)( it * 1e6 ) ) }
+		assert h.count == 5
+		assert h.bucketCounts[0] == 1
+		assert h.bucketCounts[2] == 2
+		assert h.bucketCounts[-1] == 1
+		assert h.getPercentile( 50 ) == 5
+		assert h.getPercentile( 100 ) == 40000
+		assert h.max == 40000
+		assert h.toMap().buckets['50'] == 4
+		h.reset()
+		assert h.count == 0
+	}
+}
+
+/**
+ * Opts in to the connection pool, as described by 
+ * {@link HTTPBuilder#createClient(HttpParams)}.
+ */
+class PooledHTTPBuilder extends HTTPBuilder {
+	PooledHTTPBuilder( uri, contentType ) { super( uri, contentType ) }
+	
+	protected AbstractHttpClient createClient( HttpParams params ) {
+		createPooledClient( params )
+	}
+}
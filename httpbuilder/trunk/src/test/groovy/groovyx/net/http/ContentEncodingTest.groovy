@@ -0,0 +1,157 @@
+package groovyx.net.http
+
+import static groovyx.net.http.ContentType.*
+import java.util.concurrent.Executors
+import java.util.zip.*
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import com.sun.net.httpserver.HttpServer
+import com.sun.net.httpserver.HttpHandler
+
+public class ContentEncodingTest {
+	
+	def server
+	def uri
+	def text = ( 1..2000 ).collect { """{"id":$it,"name":"item $it"}""" }.join( ',' )
+	def json = "[$text]".toString()
+	
+	@Before public void setUp() {
+		server = HttpServer.create( new InetSocketAddress( 0 ), 10 )
+		server.executor = Executors.newCachedThreadPool()
+		server.createContext( '/', { exchange ->
+			try {
+				def encoding = exchange.requestURI.path.substring( 1 )
+				def body = encode( json.getBytes( 'UTF-8' ), encoding )
+				def type = exchange.requestURI.query == 'text' ? 'text/plain' : 'application/json'
+				exchange.responseHeaders.add 'Content-Type', type + '; charset=UTF-8'
+				exchange.responseHeaders.add 'Content-Encoding', encoding
+				exchange.sendResponseHeaders 200, body.length
+				exchange.responseBody.withStream { it << body }
+			}
+			finally { exchange.close() }
+		} as HttpHandler )
+		server.start()
+		uri = "http://localhost:${server.address.port}"
+	}
+	
+	@After public void tearDown() {
+		server.stop 0
+		server.executor.shutdownNow()
+	}
+	
+	byte[] encode( byte[] data, String encoding ) {
+		def out = new ByteArrayOutputStream()
+		def stream = [ gzip : { new GZIPOutputStream( out ) }, 'x-gzip' : { new GZIPOutputStream( out ) },
+			deflate : { new DeflaterOutputStream( out ) },
+			'raw-deflate' : { new DeflaterOutputStream( out, new Deflater( 6, true ) ) } ][encoding]()
+		stream.withStream { it << data }
+		out.toByteArray()
+	}
+	
+	String inflate( byte[] data, boolean gzip, InflaterPool pool = InflaterPool.default ) {
+		new InflatingInputStream( new ByteArrayInputStream( data ), gzip, pool ).getText( 'UTF-8' )
+	}
+	
+	@Test public void testInflate() {
+		def pool = new InflaterPool()
+		def data = json.getBytes( 'UTF-8' )
+		assert inflate( encode( data, 'gzip' ), true, pool ) == json
+		assert inflate( encode( data, 'deflate' ), false, pool ) == json
+		assert inflate( encode( data, 'raw-deflate' ), false, pool ) == json
+		assert inflate( new byte[0], true, pool ) == ''
+		assert inflate( new byte[0], false, pool ) == ''
+		assert inflate( encode( new byte[0], 'gzip' ), true, pool ) == ''
+		
+		// concatenated members, and a header with a file name and comment:
+		def member = encode( 'one '.bytes, 'gzip' )
+		def named = encode( 'two'.bytes, 'gzip' ) as List
+		named[3] = 8 | 16
+		named.addAll( 10, ( 'file.txt\0comment\0'.bytes as List ) )
+		assert inflate( ( member as List ) + named as byte[], true, pool ) == 'one two'
+		
+		// corrupt data and trailers:
+		def gz = encode( data, 'gzip' )
+		gz[-6] ^= 0xff
+		try { inflate( gz, true, pool ); assert false }
+		catch ( ZipException ex ) {}
+		try { inflate( encode( data, 'gzip' )[0..100] as byte[], true, pool ); assert false }
+		catch ( EOFException ex ) {}
+		try { inflate( 'not gzip'.bytes, true, pool ); assert false }
+		catch ( ZipException ex ) {}
+		
+		// inflaters are returned to the pool at the end of the data, without close():
+		def created = pool.createdCount
+		def gzipped = encode( data, 'gzip' )
+		20.times { 
+			def stream = new InflatingInputStream( new ByteArrayInputStream( gzipped ), true, pool )
+			def buf = new byte[ data.length + 10 ]
+			int n = 0, r
+			while ( ( r = stream.read( buf, n, buf.length - n ) ) > 0 ) n += r
+			assert n == data.length
+		}
+		assert pool.createdCount == created
+		assert pool.poolSize == 2
+		pool.maxPooled = 0
+		inflate( gzipped, true, pool )
+		assert pool.poolSize == 1 // not returned to the full pool
+		pool.clear()
+		assert pool.poolSize == 0
+	}
+	
+	@Test public void testResponses() {
+		def http = new HTTPBuilder( uri )
+		try {
+			def pool = InflaterPool.default
+			[ 'gzip', 'deflate' ].each { enc ->
+				def result = http.get( path : "/$enc", contentType : JSON )
+				assert result.size() == 2000
+				assert result[-1].name == 'item 2000'
+				
+				// buffered by the default handler in compressed form:
+				def reader = http.get( path : "/$enc", query : [ text : null ], 
+						queryString : 'text', contentType : TEXT )
+				assert reader instanceof InputStreamReader
+				assert reader.text == json
+				
+				def bytes = http.get( path : "/$enc", contentType : BINARY )
+				assert new String( bytes.bytes, 'UTF-8' ) == json
+				
+				// streamed to a handler which does not read the response:
+				http.get( path : "/$enc", contentType : TEXT ) { resp, r -> null }
+			}
+			def pooled = pool.poolSize
+			def created = pool.createdCount
+			10.times { http.get( path : '/gzip', contentType : JSON ) }
+			assert pool.createdCount == created
+			assert pool.poolSize == pooled
+		}
+		finally { http.shutdown() }
+	}
+	
+	@Test public void testRegistry() {
+		def http = new HTTPBuilder( uri )
+		try {
+			def registry = http.contentEncodingRegistry
+			assert registry['gzip'] instanceof GZIPEncoding
+			assert registry[ContentEncoding.Type.DEFLATE] instanceof DeflateEncoding
+			assert registry.'x-gzip' == null
+			
+			registry['x-gzip'] = { InputStream raw -> new GZIPInputStream( raw ) }
+			http.setContentEncoding( 'gzip', 'x-gzip' )
+			def result = http.get( path : '/x-gzip', contentType : JSON ) { resp, json ->
+				assert resp.context[ContentEncoding.DECODING_ATTR] instanceof ContentEncoding.DecodingEntity
+				json
+			}
+			assert result.size() == 2000
+			assert http.get( path : '/x-gzip', contentType : TEXT ).text == json
+			
+			try {
+				registry['bad'] = 'not a codec'
+				assert false
+			}
+			catch ( IllegalArgumentException ex ) {}
+		}
+		finally { http.shutdown() }
+	}
+}
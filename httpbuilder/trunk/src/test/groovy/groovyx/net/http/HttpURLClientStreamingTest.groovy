@@ -0,0 +1,160 @@
+package groovyx.net.http
+
+import static groovyx.net.http.ContentType.*
+import static groovyx.net.http.HttpURLClient.StreamingMode.*
+import java.util.concurrent.Executors
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import com.sun.net.httpserver.HttpServer
+import com.sun.net.httpserver.HttpHandler
+
+public class HttpURLClientStreamingTest {
+	
+	def server
+	def url
+	def requests = Collections.synchronizedList( [] )
+	def big = new byte[1024 * 1024]
+	
+	@Before public void setUp() {
+		new Random( 1 ).nextBytes( big )
+		server = HttpServer.create( new InetSocketAddress( 0 ), 20 )
+		server.executor = Executors.newCachedThreadPool()
+		server.createContext( '/', { exchange ->
+			try {
+				def path = exchange.requestURI.path
+				def received = exchange.requestBody.withStream { it.bytes.length }
+				requests << [ path : path, port : exchange.remoteAddress.port, received : received,
+					length : exchange.requestHeaders.getFirst( 'Content-Length' ),
+					transferEncoding : exchange.requestHeaders.getFirst( 'Transfer-Encoding' ) ]
+				def status = 200
+				def body = "received $received".getBytes( 'UTF-8' )
+				if ( path.endsWith( 'error' ) ) {
+					status = 500
+					body = ( 'error ' * 4000 ).getBytes( 'UTF-8' )
+				}
+				if ( path.startsWith( '/big' ) ) body = big
+				exchange.responseHeaders.add 'Content-Type', 
+					path == '/big' ? 'application/octet-stream' : 'text/plain'
+				// '/bigerror' is chunked:
+				exchange.sendResponseHeaders status, path == '/bigerror' ? 0 : body.length
+				exchange.responseBody.withStream { it << body }
+			}
+			catch ( ex ) { ex.printStackTrace() }
+		} as HttpHandler )
+		server.start()
+		url = "http://localhost:${server.address.port}/"
+	}
+	
+	@After public void tearDown() {
+		server.stop( 0 )
+		server.executor.shutdownNow()
+	}
+	
+	@Test public void testStreamingModes() {
+		def http = new HttpURLClient( url : url, requestContentType : TEXT )
+		def body = 'x' * 100000
+		
+		def resp = http.request( path : '/upload', body : body )
+		assert resp.data.text == 'received 100000'
+		assert requests[-1].length == '100000'
+		
+		http.streamingMode = FIXED_LENGTH
+		resp = http.request( path : '/upload', body : body )
+		assert resp.data.text == 'received 100000'
+		assert requests[-1].length == '100000'
+		assert requests[-1].transferEncoding == null
+		
+		resp = http.request( path : '/upload', body : body, streaming : 'chunked', chunkSize : 1024 )
+		assert resp.data.text == 'received 100000'
+		assert requests[-1].length == null
+		assert requests[-1].transferEncoding == 'chunked'
+		
+		// length of a stream is unknown:
+		http.streamingMode = AUTO
+		resp = http.request( path : '/upload', requestContentType : BINARY,
+				body : new BufferedInputStream( new ByteArrayInputStream( big ) ) )
+		assert resp.data.text == "received ${big.length}"
+		assert requests[-1].transferEncoding == 'chunked'
+		resp = http.request( path : '/upload', body : body )
+		assert requests[-1].length == '100000'
+		
+		try {
+			http.request( path : '/upload', requestContentType : BINARY, streaming : FIXED_LENGTH,
+					body : new BufferedInputStream( new ByteArrayInputStream( big ) ) )
+			assert false
+		}
+		catch ( IllegalArgumentException ex ) { /* Expected exception */ }
+	}
+	
+	@Test public void testKeepAlive() {
+		def http = new HttpURLClient( url : url )
+		// a parser which ignores the response content:
+		http.parsers.'text/plain' = { resp -> 'ignored' }
+		
+		5.times {
+			try {
+				http.request( path : '/error' )
+				assert false
+			}
+			catch ( HttpResponseException ex ) {
+				assert ex.response.status == 500
+				assert ex.response.data == 'ignored'
+			}
+		}
+		def metrics = http.metrics
+		assert metrics.responsesDrained == 5
+		assert metrics.bytesDrained == 5 * 24000
+		// the unread error content is drained, so the connection is re-used:
+		assert requests*.port.unique().size() == 1
+		assert metrics.connectionsReleased == 5
+		
+		// too much content to drain:
+		http.resetStatistics()
+		requests.clear()
+		http.maxDrainBytes = 1000
+		3.times {
+			try { http.request( path : '/bigerror' ) }
+			catch ( HttpResponseException ex ) {}
+		}
+		assert requests*.port.unique().size() == 3
+		assert http.metrics.subMap( [ 'connectionsReleased', 'connectionsClosed' ] ) == 
+			[ connectionsReleased : 0L, connectionsClosed : 3L ]
+	}
+	
+	@Test public void testStreamResponse() {
+		def http = new HttpURLClient( url : url, contentType : BINARY )
+		
+		def resp = http.request( path : '/big' )
+		assert resp.data instanceof ByteArrayInputStream
+		
+		resp = http.request( path : '/big', stream : true )
+		def data = resp.data
+		assert ! ( data instanceof ByteArrayInputStream )
+		def buffer = new byte[8192]
+		def read, total = 0
+		def digest = java.security.MessageDigest.getInstance( 'MD5' )
+		while ( ( read = data.read( buffer ) ) > -1 ) {
+			digest.update( buffer, 0, read )
+			total += read
+		}
+		data.close()
+		assert total == big.length
+		assert digest.digest() == java.security.MessageDigest.getInstance( 'MD5' ).digest( big )
+		
+		resp = http.request( path : '/upload', contentType : TEXT )
+		assert resp.data.text == 'received 0'
+		assert requests*.port.unique().size() == 1
+		assert http.metrics.connectionsReleased == 3
+		assert http.metrics.responsesDrained == 0
+		
+		// error responses are not streamed:
+		try {
+			http.request( path : '/error', stream : true, contentType : TEXT )
+			assert false
+		}
+		catch ( HttpResponseException ex ) {
+			assert ex.response.data instanceof StringReader
+		}
+	}
+}
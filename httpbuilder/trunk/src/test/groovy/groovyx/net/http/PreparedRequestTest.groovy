@@ -0,0 +1,168 @@
+package groovyx.net.http
+
+import static groovyx.net.http.ContentType.*
+import static groovyx.net.http.Method.*
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import com.sun.net.httpserver.HttpServer
+import com.sun.net.httpserver.HttpHandler
+
+public class PreparedRequestTest {
+	
+	def server
+	def http
+	
+	@Before public void setUp() {
+		server = HttpServer.create( new InetSocketAddress( 0 ), 5 )
+		server.createContext( '/', { exchange ->
+			def reqBody = exchange.requestBody.getText( 'UTF-8' )
+			def body = net.sf.json.JSONObject.fromObject( [
+				method : exchange.requestMethod,
+				path : exchange.requestURI.rawPath,
+				query : exchange.requestURI.rawQuery,
+				accept : exchange.requestHeaders.getFirst( 'Accept' ),
+				key : exchange.requestHeaders.getFirst( 'X-Key' ),
+				body : reqBody ] ).toString().getBytes( 'UTF-8' )
+			exchange.responseHeaders.add 'Content-Type', 'application/json'
+			exchange.sendResponseHeaders exchange.requestURI.path == '/missing' ? 404 : 200, body.length
+			exchange.responseBody.withStream { it << body }
+		} as HttpHandler )
+		server.start()
+		http = new HTTPBuilder( "http://localhost:${server.address.port}/api/", JSON )
+		http.headers = [ 'X-Key' : 'default' ]
+	}
+	
+	@After public void tearDown() {
+		http.shutdown()
+		server.stop 0
+	}
+	
+	@Test public void testPathTemplate() {
+		def getUser = http.prepare( GET ) {
+			uri.path = 'users/{id}/{section}'
+			uri.query = [ v : 1 ]
+			response.success = { resp, json -> json }
+		}
+		assert getUser.pathVariables == [ 'id', 'section' ]
+		assert getUser.toString() == "GET http://localhost:${server.address.port}/api/users/{id}/{section}?v=1"
+		
+		def json = getUser.execute( id : 42, section : 'a b/c', fields : [ 'x', 'y' ] )
+		assert json.method == 'GET'
+		assert json.path == '/api/users/42/a%20b%2Fc'
+		assert json.query == 'v=1&fields=x&fields=y'
+		assert json.accept == JSON.acceptHeader
+		assert json.key == 'default'
+		
+		// the template is not affected by later changes to the builder:
+		http.headers = [ 'X-Key' : 'changed' ]
+		assert getUser.execute( id : 1, section : 's' ).key == 'default'
+		
+		try { 
+			getUser.execute( id : 1 )
+			assert false : 'expected exception'
+		}
+		catch ( IllegalArgumentException ex ) { assert ex.message.contains( 'section' ) }
+	}
+	
+	@Test public void testNamedArgs() {
+		def postItem = http.prepare( POST, path : '/items/{id}', 
+				headers : [ 'X-Key' : 'posted' ] )
+		def resp = postItem.execute( [ id : 7 ], [ name : 'seven' ] )
+		assert resp.method == 'POST'
+		assert resp.path == '/items/7'
+		assert resp.key == 'posted'
+		assert resp.body == '{"name":"seven"}'
+		
+		// a repeatable body given to the template is re-sent each time:
+		def postFixed = http.prepare( POST ) {
+			uri.path = '/fixed'
+			send URLENC, [ a : 1 ]
+			response.success = { r, json -> json.body }
+		}
+		assert postFixed.execute() == 'a=1'
+		assert postFixed.execute() == 'a=1'
+	}
+	
+	@Test public void testHandlers() {
+		def rest = new RESTClient( "http://localhost:${server.address.port}/" )
+		try {
+			def get = rest.prepare( GET, path : '/{name}' )
+			def resp = get.execute( name : 'found' )
+			assert resp instanceof HttpResponseDecorator
+			assert resp.status == 200
+			assert resp.data.path == '/found'
+			try {
+				get.execute( name : 'missing' )
+				assert false : 'expected exception'
+			}
+			catch ( HttpResponseException ex ) { assert ex.statusCode == 404 }
+		}
+		finally { rest.shutdown() }
+		
+		def async = new AsyncHTTPBuilder( poolSize : 2, uri : "http://localhost:${server.address.port}" )
+		try {
+			def get = async.prepare( GET, JSON ) {
+				uri.path = '/async/{n}'
+				response.success = { r, json -> json.path }
+			}
+			def futures = (1..4).collect { get.execute( n : it ) }
+			assert futures*.get() == (1..4).collect { "/async/$it".toString() }
+		}
+		finally { async.shutdown() }
+	}
+	
+	/* A prepared request builds the same request as request() does. */
+	@Test public void testSameAsRequest() {
+		def builder = new UnsentRequestBuilder( "http://localhost/api/" )
+		builder.headers = [ 'X-Key' : 'default' ]
+		def viaRequest = {
+			builder.request( GET, JSON ) {
+				uri.path = 'users/42'
+				uri.query = [ v : 1 ]
+				response.success = { resp, json -> json }
+			}
+		}
+		def prepared = builder.prepare( GET, JSON ) {
+			uri.path = 'users/{id}'
+			uri.query = [ v : 1 ]
+			response.success = { resp, json -> json }
+		}
+		def viaPrepared = { prepared.execute( id : 42 ) }
+		assert viaRequest().URI == viaPrepared().URI
+		assert viaRequest().allHeaders*.toString() == viaPrepared().allHeaders*.toString()
+	}
+	
+	@Test public void testHeadersPerRequest() {
+		def builder = new SigningRequestBuilder( "http://localhost/api/" )
+		builder.headers = [ 'X-Key' : 'default' ]
+		def prepared = builder.prepare( GET, JSON ) { uri.path = 'users/{id}' }
+		def request = prepared.execute( id : 42 )
+		assert request.getFirstHeader( 'X-Key' ).value == 'default'
+		assert request.getFirstHeader( 'X-Signature' ).value == '/api/users/42'
+		assert request.getFirstHeader( 'Accept' ).value == JSON.acceptHeader
+	}
+}
+
+/**
+ * Returns each request instead of sending it.
+ */
+class UnsentRequestBuilder extends HTTPBuilder {
+	UnsentRequestBuilder( uri ) { super( uri ) }
+	
+	protected Object doRequest( HTTPBuilder.RequestConfigDelegate delegate ) {
+		prepareRequest( delegate )
+	}
+}
+
+/**
+ * Adds a header to each request before it is prepared.
+ */
+class SigningRequestBuilder extends UnsentRequestBuilder {
+	SigningRequestBuilder( uri ) { super( uri ) }
+	
+	protected Object doRequest( HTTPBuilder.RequestConfigDelegate delegate ) {
+		delegate.headers.'X-Signature' = delegate.request.URI.path
+		super.doRequest( delegate )
+	}
+}
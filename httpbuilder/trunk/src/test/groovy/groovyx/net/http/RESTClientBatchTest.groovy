@@ -0,0 +1,105 @@
+package groovyx.net.http
+
+import static groovyx.net.http.ContentType.*
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import com.sun.net.httpserver.HttpServer
+import com.sun.net.httpserver.HttpHandler
+
+public class RESTClientBatchTest {
+	
+	def server
+	def active = new AtomicInteger()
+	def maxActive = new AtomicInteger()
+	def connections = Collections.synchronizedSet( new HashSet() )
+	def client
+	
+	@Before public void setUp() {
+		server = HttpServer.create( new InetSocketAddress( 0 ), 20 )
+		server.executor = Executors.newCachedThreadPool()
+		server.createContext( '/', { exchange ->
+			def current = active.incrementAndGet()
+			synchronized ( maxActive ) { if ( current > maxActive.get() ) maxActive.set current }
+			connections << exchange.remoteAddress
+			try {
+				Thread.sleep 50
+				// done before responding, since the client may then send its next request 
+				active.decrementAndGet()
+				def path = exchange.requestURI.path
+				if ( path == '/missing' ) {
+					exchange.sendResponseHeaders 404, -1
+					return
+				}
+				def body = """{"path":"$path","method":"${exchange.requestMethod}"}""".getBytes( 'UTF-8' )
+				exchange.responseHeaders.add 'Content-Type', 'application/json'
+				exchange.sendResponseHeaders 200, body.length
+				exchange.responseBody.withStream { it << body }
+			}
+			finally { exchange.close() }
+		} as HttpHandler )
+		server.start()
+		client = new RESTClient( "http://localhost:${server.address.port}", JSON )
+	}
+	
+	@After public void tearDown() {
+		client.shutdown()
+		server.stop 0
+		server.executor.shutdownNow()
+	}
+	
+	@Test public void testOrderedResults() {
+		def results = client.batch {
+			(0..9).each { get path : "/item/$it" }
+			post path : '/item', body : [ name : 'new' ]
+			delete path : '/item/3'
+		}
+		assert results.size() == 12
+		assert results.every { it.success }
+		(0..9).each { assert results[it].data.path == "/item/$it" }
+		assert results[10].data.method == 'POST'
+		assert results[11].data.method == 'DELETE'
+		assert results[0].response.status == 200
+	}
+	
+	@Test public void testPerItemFailure() {
+		def results = client.batch {
+			get path : '/a'
+			get path : '/missing'
+			get path : '/b'
+		}
+		assert results*.success == [ true, false, true ]
+		assert results[1].error instanceof HttpResponseException
+		assert results[1].response.status == 404
+		assert results[2].data.path == '/b'
+		
+		results = client.batch {
+			get path : '/c'
+			get uri : 'http://localhost:1/', path : '/refused'
+		}
+		assert results[0].success
+		assert results[1].error instanceof IOException
+		assert results[1].response == null
+	}
+	
+	@Test public void testMaxInFlight() {
+		def results = client.batch( maxInFlight : 2 ) {
+			(1..8).each { get path : "/slow/$it" }
+		}
+		assert results.every { it.success }
+		assert maxActive.get() <= 2
+		assert connections.size() <= 2 // connections are kept alive
+		
+		maxActive.set 0
+		client.maxInFlight = 5
+		client.batch { (1..10).each { get path : "/slow/$it" } }
+		assert maxActive.get() > 2
+		assert maxActive.get() <= 5
+	}
+	
+	@Test public void testEmptyBatch() {
+		assert client.batch {} == []
+	}
+}
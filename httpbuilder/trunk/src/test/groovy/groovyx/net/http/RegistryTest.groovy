@@ -189,4 +189,154 @@ public class RegistryTest {
 		assert map.p1 == 'goober'
 		assert map.p2 == 'something else' 
 	}
-}
+
+	@Test public void testJSONStreamParser() {
+		def parser = new ParserRegistry()
+		assert parser[JSON_STREAM].method == 'parseJSONStream'
+		assert parser['application/json'].method == 'parseJSON'
+
+		def entity = new StringEntity( """{ "total" : 3, "meta" : { "skip" : [ 1, { "x" : null } ] },
+			"results" : { "items" : [ { "name" : "a\\u00e9\\"\\n" }, 2.5, [ true, false ] ] },
+			"after" : 12345678901 }""", "utf-8" )
+		def response = new BasicHttpResponse( new ProtocolVersion( "HTTP", 1, 1 ), 200, "OK" )
+		response.entity = entity
+		def json = parser[JSON_STREAM].call( response )
+		assert json instanceof JSONStreamReader
+		
+		assert json.total == 3
+		def items = []
+		assert json.eachElement( 'results.items' ) { items << it } == 3
+		assert items == [ [ name : 'a\u00e9"\n' ], 2.5d, [ true, false ] ]
+		assert json.at( 'after' ) == 12345678901L
+		assert json.at( 'missing' ) == null
+		assert json.next() == JSONStreamReader.Event.END_DOCUMENT
+	}
+	
+	@Test public void testJSONStreamEvents() {
+		def json = new JSONStreamReader( new StringReader( '[ {"a":[]}, "s", -1e3 ]' ) )
+		def events = []
+		def e
+		while ( ( e = json.next() ) != JSONStreamReader.Event.END_DOCUMENT ) events << e.name()
+		assert events == [ 'START_ARRAY', 'START_OBJECT', 'FIELD_NAME', 'START_ARRAY',
+				'END_ARRAY', 'END_OBJECT', 'VALUE_STRING', 'VALUE_NUMBER', 'END_ARRAY' ]
+		
+		[ '{"a" 1}', '[1,]', '[1 2]', '{"a":1', '"abc', '[1] 2', '{1:2}' ].each { bad ->
+			json = new JSONStreamReader( new StringReader( bad ) )
+			try {
+				while ( json.next() != JSONStreamReader.Event.END_DOCUMENT ) {}
+				assert false : bad
+			}
+			catch ( net.sf.json.JSONException ex ) { /* Expected result */ }
+		}
+	}
+	
+	@Test public void testJSONStreamLargeDocument() {
+		/* Generate a large document on the fly; only one element should be 
+		 * held in memory at a time. */
+		def count = 200000
+		def element = '{"id":%d,"name":"item number %d","tags":["a","b","c"]}'
+		def i = 0
+		def buffer = new StringBuilder( '{"items":[' )
+		def reader = [ read : { char[] cbuf, int off, int len ->
+			while ( buffer.length() < len && i <= count ) {
+				if ( i < count ) buffer.append( i > 0 ? ',' : '' ).append( String.format( element, i, i ) )
+				else buffer.append( ']}' )
+				i++
+			}
+			if ( buffer.length() == 0 ) return -1
+			int n = Math.min( len, buffer.length() )
+			buffer.getChars( 0, n, cbuf, off )
+			buffer.delete( 0, n )
+			return n
+		}, close : {} ] as Reader
+		
+		def json = new JSONStreamReader( reader )
+		def expected = 0
+		assert json.eachElement( 'items' ) { item ->
+			assert item.id == expected++
+			assert item.tags.size() == 3
+		} == count
+	}
+	
+	@Test public void testXMLStreamParser() {
+		def parser = new ParserRegistry()
+		assert parser[XML_STREAM].method == 'parseXMLStream'
+		assert parser['application/xml'].method == 'parseXML'
+		
+		def entity = new StringEntity( """<?xml version="1.0"?>
+<!DOCTYPE feed PUBLIC "-//W3C//DTD XHTML 1.0 Strict//EN" 
+	"http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd">
+<feed xmlns="urn:feed" xmlns:x="urn:extra">
+	<header count="3"><title>Supplier&nbsp;feed</title></header>
+	<records>
+		<record id="1"><name>a\u00e9</name><x:note x:lang="en">one</x:note></record>
+		<skipped><record id="0"/></skipped>
+		<record id="2"><name><![CDATA[<b>]]></name></record>
+		<record id="3"><name>c</name><tags><tag>t1</tag><tag>t2</tag></tags></record>
+	</records>
+	<footer>end</footer>
+</feed>""", "utf-8" )
+		def response = new BasicHttpResponse( new ProtocolVersion( "HTTP", 1, 1 ), 200, "OK" )
+		response.entity = entity
+		def xml = parser[XML_STREAM].call( response )
+		assert xml instanceof XMLStreamSlurper
+		
+		def header = xml.header
+		assert header.@count == '3'
+		assert header.title.text() == 'Supplier\u00a0feed'
+		def records = []
+		assert xml.eachElement( 'records.record' ) { records << it } == 3
+		assert records*.@id*.text() == [ '1', '2', '3' ]
+		assert records[0].name.text() == 'a\u00e9'
+		assert records[0].note.text() == 'one'
+		assert records[0].note[0].namespaceURI() == 'urn:extra'
+		assert records[0].note.@lang == 'en'
+		assert records[1].name.text() == '<b>'
+		assert records[2].tags.tag*.text() == [ 't1', 't2' ]
+		assert records[2].'**'.findAll { it.name() == 'tag' }.size() == 2
+		assert xml.at( 'footer' ).text() == 'end'
+		assert xml.at( 'missing' ) == null
+		xml.close()
+		
+		xml = new XMLStreamSlurper( new StringReader( '<a><b>1</b><c>2</c> <b>3</b></a>' ) )
+		def names = []
+		assert xml.each { names << it.name() + it.text() } == 3
+		assert names == [ 'b1', 'c2', 'b3' ]
+		xml = new XMLStreamSlurper( new StringReader( '<a><b>1</b><c>2</c></a>' ) )
+		assert xml.at( '' ).b.text() == '1'
+	}
+	
+	@Test public void testXMLStreamLargeDocument() {
+		/* Generate a large document on the fly; only one element should be 
+		 * held in memory at a time. */
+		def count = 200000
+		def element = '<record id="%d"><name>item number %d</name><tags><tag>a</tag><tag>b</tag></tags></record>'
+		def i = 0
+		def buffer = new StringBuilder( '<feed><records>' )
+		def reader = [ read : { char[] cbuf, int off, int len ->
+			while ( buffer.length() < len && i <= count ) {
+				if ( i < count ) buffer.append( String.format( element, i, i ) )
+				else buffer.append( '</records></feed>' )
+				i++
+			}
+			if ( buffer.length() == 0 ) return -1
+			int n = Math.min( len, buffer.length() )
+			buffer.getChars( 0, n, cbuf, off )
+			buffer.delete( 0, n )
+			return n
+		}, close : {} ] as Reader
+		
+		def runtime = Runtime.runtime
+		def used = { System.gc(); runtime.totalMemory() - runtime.freeMemory() }
+		def xml = new XMLStreamSlurper( reader )
+		def expected = 0
+		def baseline = 0
+		assert xml.eachElement( 'records.record' ) { record ->
+			assert record.@id.toInteger() == expected++
+			assert record.tags.tag.size() == 2
+			if ( expected == 1000 ) baseline = used()
+		} == count
+		// a tree of the whole document would take well over 100MB:
+		assert used() - baseline < 16 * 1024 * 1024
+	}
+}
\ No newline at end of file
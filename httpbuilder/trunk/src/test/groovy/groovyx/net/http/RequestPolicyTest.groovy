@@ -0,0 +1,170 @@
+package groovyx.net.http
+
+import static groovyx.net.http.ContentType.*
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicInteger
+import org.codehaus.groovy.runtime.InvokerInvocationException
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import com.sun.net.httpserver.HttpServer
+import com.sun.net.httpserver.HttpHandler
+
+public class RequestPolicyTest {
+	
+	def server
+	def uri
+	def hits = new AtomicInteger()
+	def builders = []
+	
+	@Before public void setUp() {
+		server = HttpServer.create( new InetSocketAddress( 0 ), 20 )
+		server.executor = Executors.newCachedThreadPool()
+		server.createContext( '/', { exchange ->
+			def hit = hits.incrementAndGet()
+			try {
+				def path = exchange.requestURI.path
+				def status = 200
+				// /flaky/N fails the first N requests
+				if ( path.startsWith( '/flaky/' ) && hit <= path.substring( 7 ).toInteger() ) status = 503
+				if ( path == '/down' ) status = 503
+				// /slow-first delays only the first request
+				if ( path == '/slow-first' && hit == 1 ) Thread.sleep 2000
+				if ( path == '/slow' ) Thread.sleep 2000
+				def body = """{"hit":$hit}""".getBytes( 'UTF-8' )
+				exchange.responseHeaders.add 'Content-Type', 'application/json'
+				exchange.sendResponseHeaders status, body.length
+				exchange.responseBody.withStream { it << body }
+			}
+			catch ( IOException ex ) {} // client aborted
+			finally { exchange.close() }
+		} as HttpHandler )
+		server.start()
+		uri = "http://localhost:${server.address.port}"
+	}
+	
+	@After public void tearDown() {
+		builders*.shutdown()
+		server.stop 0
+		server.executor.shutdownNow()
+	}
+	
+	def builder( Map policyArgs, boolean nio = false ) {
+		def http = new AsyncHTTPBuilder( uri : uri, contentType : JSON, poolSize : 4, 
+				nio : nio, policy : new RequestPolicy( policyArgs ) )
+		builders << http
+		http
+	}
+	
+	/* exceptions from the default failure handler closure are wrapped */
+	def cause( ExecutionException ex ) {
+		ex.cause instanceof InvokerInvocationException ? ex.cause.cause : ex.cause
+	}
+	
+	@Test public void testRetry() {
+		[ false, true ].each { nio ->
+			hits.set 0
+			def http = builder( [ backoff : 10 ], nio )
+			def result = http.get( path : '/flaky/2' ).get()
+			assert result.hit == 3
+			assert http.policy.retryCount == 2
+			assert http.policy.requestCount == 1
+			
+			// non-idempotent requests are sent once:
+			hits.set 0
+			try {
+				http.post( path : '/flaky/1', body : [ a : 1 ], requestContentType : JSON ).get()
+				assert false
+			}
+			catch ( ExecutionException ex ) {
+				assert cause( ex ) instanceof HttpResponseException
+				assert cause( ex ).statusCode == 503
+			}
+			assert hits.get() == 1
+			assert http.policy.retryCount == 2
+		}
+	}
+	
+	@Test public void testHedge() {
+		[ false, true ].each { nio ->
+			hits.set 0
+			def http = builder( [ hedgeDelay : 100 ], nio )
+			def start = System.currentTimeMillis()
+			def result = http.get( path : '/slow-first' ).get()
+			assert System.currentTimeMillis() - start < 1500
+			assert result.hit == 2
+			assert http.policy.hedgeCount == 1
+			assert http.policy.hedgeWinCount == 1
+			
+			// a fast response does not trigger a hedge:
+			assert http.get( path : '/flaky/0' ).get().hit == 3
+			assert http.policy.hedgeCount == 1
+		}
+	}
+	
+	@Test public void testHedgePercentile() {
+		def policy = new RequestPolicy( hedgePercentile : 90, hedgeDelay : 500 )
+		assert policy.currentHedgeDelay() == 500
+		RequestPolicy.MIN_HEDGE_SAMPLES.times { policy.latency.record 3000000L } // 3ms
+		assert policy.currentHedgeDelay() == 3
+		try {
+			policy.hedgePercentile = 100
+			assert false
+		}
+		catch ( IllegalArgumentException ex ) {}
+	}
+	
+	@Test public void testDeadline() {
+		[ false, true ].each { nio ->
+			def http = builder( [ deadline : 5000 ], nio )
+			def start = System.currentTimeMillis()
+			try {
+				http.get( path : '/slow', deadline : 200 ).get()
+				assert false
+			}
+			catch ( ExecutionException ex ) {
+				assert ex.cause instanceof TimeoutException
+			}
+			assert System.currentTimeMillis() - start < 1500
+			assert http.policy.deadlineExceededCount == 1
+			
+			// the connection pool must not leak the aborted connection:
+			assert http.get( path : '/flaky/0' ).get().hit > 0
+		}
+	}
+	
+	@Test public void testTokenBucket() {
+		def http = builder( [ maxRetries : 3, backoff : 1, maxTokens : 2, tokenRatio : 0.5 ] )
+		hits.set 0
+		try {
+			http.get( path : '/down' ).get()
+			assert false
+		}
+		catch ( ExecutionException ex ) {
+			assert cause( ex ).statusCode == 503
+		}
+		// two retries spent all of the tokens:
+		assert hits.get() == 3
+		assert http.policy.retryCount == 2
+		assert http.policy.throttledCount == 1
+		assert http.policy.tokens == 0
+		
+		hits.set 0
+		assert http.get( path : '/flaky/0' ).get()
+		assert http.policy.tokens == 0.5
+		try {
+			http.get( path : '/down' ).get()
+			assert false
+		}
+		catch ( ExecutionException ex ) {}
+		assert hits.get() == 2
+		assert http.policy.throttledCount == 2
+		
+		def metrics = http.policy.metrics
+		assert metrics.requests == 3
+		assert metrics.retries == 2
+		assert metrics.latency.count == 5
+	}
+}
@@ -0,0 +1,115 @@
+package groovyx.net.http
+
+import static groovyx.net.http.ContentType.*
+import org.junit.Test
+import com.sun.net.httpserver.HttpServer
+import com.sun.net.httpserver.HttpHandler
+
+public class ResponseBufferTest {
+	
+	def data( int size ) {
+		def bytes = new byte[size]
+		new Random( 42 ).nextBytes( bytes )
+		bytes
+	}
+	
+	@Test public void testPooledBuffers() {
+		def buf = new ResponseBuffer( 32 )
+		def bytes = data( 100 )
+		
+		def input = buf.buffer( new ByteArrayInputStream( bytes ), -1 )
+		assert buf.poolSize == 0
+		assert input.read() == ( bytes[0] & 0xff )
+		input.mark( 0 )
+		def first = new byte[40]
+		assert input.read( first ) == 31 // reads stop at the end of a buffer
+		input.reset()
+		assert input.skip( 50 ) == 50
+		def rest = new ByteArrayOutputStream()
+		rest << input
+		assert rest.toByteArray() == bytes[51..99] as byte[]
+		assert input.read() == -1
+		
+		input.close()
+		assert buf.poolSize == 4
+		try { input.read(); assert false }
+		catch ( IOException ex ) { /* Expected result */ }
+		
+		// buffers are reused
+		input = buf.buffer( new ByteArrayInputStream( bytes[0..9] as byte[] ), 10 )
+		assert buf.poolSize == 3
+		assert input.bytes == bytes[0..9] as byte[]
+		input.close()
+		assert buf.poolSize == 4
+		
+		buf.maxPooled = 1
+		buf.buffer( new ByteArrayInputStream( bytes ), -1 ).close()
+		assert buf.poolSize == 1 // never more than maxPooled are kept
+	}
+	
+	@Test public void testSpillToFile() {
+		def dir = File.createTempFile( 'responseBuffer', '' )
+		dir.delete()
+		dir.mkdir()
+		try {
+			def buf = new ResponseBuffer( 64 )
+			buf.spillThreshold = 1000
+			buf.tempDir = dir
+			def bytes = data( 10000 )
+			
+			def input = buf.buffer( new ByteArrayInputStream( bytes ), -1 )
+			assert ! ( input instanceof ByteArrayInputStream )
+			assert input.bytes == bytes
+			assert buf.poolSize == 16 // buffers used before the threshold are released
+			
+			// content-length is known to be larger than the threshold
+			input = buf.buffer( new ByteArrayInputStream( bytes ), bytes.length )
+			assert input.bytes == bytes
+			
+			// empty content
+			assert buf.buffer( new ByteArrayInputStream( new byte[0] ), 2000 ).read() == -1
+			
+			if ( ! System.getProperty( 'os.name' ).startsWith( 'Windows' ) )
+				assert dir.list().length == 0
+		}
+		finally { dir.deleteDir() }
+	}
+	
+	@Test public void testBufferReader() {
+		def text = new StringBuilder()
+		10000.times { text << "line $it\n" }
+		def buf = new ResponseBuffer()
+		
+		def reader = buf.buffer( new StringReader( text.toString() ) )
+		reader.mark( 0 )
+		assert reader.text == text.toString()
+		reader = buf.buffer( new StringReader( '' ) )
+		assert reader.read() == -1
+	}
+	
+	@Test public void testDefaultSuccessHandler() {
+		def bytes = data( 200000 )
+		def server = HttpServer.create( new InetSocketAddress( 0 ), 5 )
+		server.createContext( '/', { exchange ->
+			exchange.responseHeaders.add 'Content-Type', 'application/octet-stream'
+			exchange.sendResponseHeaders 200, bytes.length
+			exchange.responseBody.withStream { it << bytes }
+		} as HttpHandler )
+		server.start()
+		
+		try {
+			def http = new HTTPBuilder( "http://localhost:${server.address.port}" )
+			http.responseBuffer.spillThreshold = 100000 
+			def input = http.get( path : '/data', contentType : BINARY )
+			assert input instanceof ResponseBuffer.BufferInputStream
+			assert input.bytes == bytes
+			
+			http.responseBuffer = null
+			input = http.get( path : '/data', contentType : BINARY )
+			assert input instanceof ByteArrayInputStream
+			assert input.bytes == bytes
+			http.shutdown()
+		}
+		finally { server.stop 0 }
+	}
+}
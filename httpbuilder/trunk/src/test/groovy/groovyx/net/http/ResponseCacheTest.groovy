@@ -0,0 +1,196 @@
+package groovyx.net.http
+
+import static groovyx.net.http.ContentType.*
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import com.sun.net.httpserver.HttpServer
+import com.sun.net.httpserver.HttpHandler
+
+public class ResponseCacheTest {
+	
+	def server
+	def requests = [:].withDefault { 0 }
+	def http
+	
+	@Before public void setUp() {
+		server = HttpServer.create( new InetSocketAddress( 0 ), 5 )
+		server.createContext( '/', { exchange ->
+			def path = exchange.requestURI.path
+			synchronized ( requests ) { requests[path]++ }
+			def headers = exchange.responseHeaders
+			if ( exchange.requestMethod == 'POST' ) {
+				exchange.sendResponseHeaders 204, -1
+				exchange.close()
+				return
+			}
+			if ( path.startsWith( '/fresh' ) ) headers.add 'Cache-Control', 'max-age=60'
+			else if ( path == '/etag' ) {
+				headers.add 'Cache-Control', 'no-cache'
+				headers.add 'ETag', '"v1"'
+				if ( exchange.requestHeaders.getFirst( 'If-None-Match' ) == '"v1"' ) {
+					exchange.sendResponseHeaders 304, -1
+					exchange.close()
+					return
+				}
+			}
+			else if ( path == '/nostore' ) headers.add 'Cache-Control', 'no-store'
+			
+			def body = """{"path":"$path","count":${requests[path]}}""".getBytes( 'UTF-8' )
+			headers.add 'Content-Type', 'application/json'
+			exchange.sendResponseHeaders 200, body.length
+			exchange.responseBody.withStream { it << body }
+		} as HttpHandler )
+		server.start()
+		http = new HTTPBuilder( "http://localhost:${server.address.port}", JSON )
+		http.responseCache = new ResponseCache()
+	}
+	
+	@After public void tearDown() {
+		http.shutdown()
+		server.stop 0
+	}
+	
+	@Test public void testFreshResponse() {
+		def first = http.get( path : '/fresh' )
+		assert first.count == 1
+		def second = http.get( path : '/fresh' )
+		assert second.is( first ) // parsed result is re-used
+		assert requests['/fresh'] == 1
+		
+		def cache = http.responseCache
+		assert cache.missCount == 1
+		assert cache.hitCount == 1
+		assert cache.parsedHitCount == 1
+		assert cache.size == 1
+		
+		// a request may force revalidation, which re-fetches without a validator
+		http.get( path : '/fresh', headers : ['Cache-Control':'no-cache'] )
+		assert requests['/fresh'] == 2
+		
+		// raw response is served from the cache:
+		http.get( path : '/fresh' ) { resp, json ->
+			assert resp.status == 200
+			assert resp.headers.Age
+			assert json.count == 2
+		}
+		assert requests['/fresh'] == 2
+		
+		// unsafe methods invalidate the entry
+		http.post( path : '/fresh', body : [a:1], requestContentType : URLENC )
+		assert cache.size == 0
+		assert http.get( path : '/fresh' ).count == 4 // the POST was #3
+	}
+	
+	@Test public void testParsedPerParser() {
+		def other = new HTTPBuilder( "http://localhost:${server.address.port}", JSON )
+		other.responseCache = http.responseCache
+		other.parser.'application/json' = { resp -> 'custom' }
+		try {
+			def first = http.get( path : '/fresh' )
+			assert other.get( path : '/fresh' ) == 'custom'
+			assert http.get( path : '/fresh' ).is( first )
+			assert other.get( path : '/fresh' ) == 'custom'
+			assert requests['/fresh'] == 1
+		}
+		finally { other.shutdown() }
+	}
+	
+	@Test public void testRevalidation() {
+		assert http.get( path : '/etag' ).count == 1
+		def cached = http.get( path : '/etag' )
+		assert cached.count == 1
+		assert requests['/etag'] == 2 // conditional request was sent
+		
+		def cache = http.responseCache
+		assert cache.revalidationCount == 1
+		assert cache.validatedCount == 1
+		assert cache.hitCount == 0
+		assert cache.parsedHitCount == 1
+	}
+	
+	@Test public void testNoStore() {
+		http.get( path : '/nostore' )
+		http.get( path : '/nostore' )
+		assert requests['/nostore'] == 2
+		assert http.responseCache.size == 0
+		
+		// responses without any validator or expiry are not stored
+		http.get( path : '/other' )
+		assert http.responseCache.size == 0
+	}
+	
+	@Test public void testEvictionAndDisk() {
+		def dir = File.createTempFile( 'responseCache', '' )
+		dir.delete()
+		try {
+			def cache = new ResponseCache( 1, 1024 )
+			cache.directory = dir
+			http.responseCache = cache
+			
+			http.get( path : '/fresh/a' )
+			http.get( path : '/fresh/b' )
+			assert cache.size == 1
+			assert cache.evictionCount == 1
+			assert cache.diskSize == 1
+			
+			assert http.get( path : '/fresh/a' ).path == '/fresh/a'
+			assert requests['/fresh/a'] == 1
+			assert cache.diskHitCount == 1
+			
+			// disk entries are found by a new cache instance 
+			def cache2 = new ResponseCache()
+			cache2.directory = dir
+			assert cache2.diskSize == 2
+			dir.listFiles().each { file ->
+				file.withDataInputStream { assert it.readUTF() == 'HTTPBuilder-cache/1' }
+			}
+			http.responseCache = cache2
+			assert http.get( path : '/fresh/b' ).path == '/fresh/b'
+			assert requests['/fresh/b'] == 1
+			
+			cache2.clear()
+			assert dir.list().length == 0
+		}
+		finally { dir.deleteDir() }
+	}
+	
+	@Test public void testStoreClosesContent() {
+		def closed = false
+		def content = new InputStream() {
+			int read() { throw new IOException( 'connection reset' ) }
+			void close() { closed = true }
+		}
+		def resp = new org.apache.http.message.BasicHttpResponse( 
+				org.apache.http.HttpVersion.HTTP_1_1, 200, 'OK' )
+		resp.addHeader 'Cache-Control', 'max-age=60'
+		resp.entity = new org.apache.http.entity.InputStreamEntity( content, -1 )
+		try {
+			new ResponseCache().store( 'http://x/', new org.apache.http.client.methods.HttpGet( 'http://x/' ),
+					resp, System.currentTimeMillis(), new org.apache.http.protocol.BasicHttpContext() )
+			assert false : 'expected exception'
+		}
+		catch ( IOException ex ) { assert ex.message == 'connection reset' }
+		assert closed
+	}
+	
+	@Test public void testFreshnessLifetime() {
+		def now = System.currentTimeMillis()
+		def date = { long t -> org.apache.http.impl.cookie.DateUtils.formatDate( new Date( t ) ) }
+		def entry = { Map headers ->
+			def resp = new org.apache.http.message.BasicHttpResponse( 
+					org.apache.http.HttpVersion.HTTP_1_1, 200, 'OK' )
+			headers.each { k, v -> resp.addHeader k, v }
+			new ResponseCache.Entry( 'x', new org.apache.http.client.methods.HttpGet( 'http://x/' ),
+					resp, new byte[0], now, now )
+		}
+		
+		assert entry( 'Cache-Control':'max-age=10' ).getFreshnessLifetime() == 10000
+		assert entry( 'Cache-Control':'max-age=10', Age:'20' ).isFresh( now ) == false
+		assert entry( Date : date( now ), Expires : date( now + 60000 ) ).isFresh( now )
+		assert ! entry( Date : date( now ), Expires : date( now - 1000 ) ).isFresh( now )
+		// heuristic expiry
+		assert entry( Date : date( now ), 'Last-Modified' : date( now - 100000 ) )
+			.getFreshnessLifetime() == 10000
+	}
+}
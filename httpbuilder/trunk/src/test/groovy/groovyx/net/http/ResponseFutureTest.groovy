@@ -0,0 +1,210 @@
+package groovyx.net.http
+
+import static groovyx.net.http.ContentType.*
+import java.util.concurrent.CancellationException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import com.sun.net.httpserver.HttpServer
+import com.sun.net.httpserver.HttpHandler
+
+public class ResponseFutureTest {
+	
+	def server
+	def uri
+	def release = new CountDownLatch( 1 )
+	def aborted = new AtomicInteger()
+	def builders = []
+	
+	@Before public void setUp() {
+		server = HttpServer.create( new InetSocketAddress( 0 ), 100 )
+		server.executor = Executors.newCachedThreadPool()
+		server.createContext( '/', { exchange ->
+			try {
+				def path = exchange.requestURI.path
+				def status = path == '/missing' ? 404 : 200
+				// /delay/N responds after N ms
+				if ( path.startsWith( '/delay/' ) ) Thread.sleep path.substring( 7 ).toLong()
+				// /slow responds once the test is finished
+				if ( path == '/slow' ) release.await()
+				def body = """{"path":"$path"}""".getBytes( 'UTF-8' )
+				exchange.responseHeaders.add 'Content-Type', 'application/json'
+				exchange.sendResponseHeaders status, body.length
+				exchange.responseBody.withStream { it << body }
+			}
+			catch ( IOException ex ) { aborted.incrementAndGet() }
+			finally { exchange.close() }
+		} as HttpHandler )
+		server.start()
+		uri = "http://localhost:${server.address.port}"
+	}
+	
+	@After public void tearDown() {
+		release.countDown()
+		builders*.shutdown()
+		server.stop 0
+		server.executor.shutdownNow()
+	}
+	
+	def builder( Map args = [:] ) {
+		def http = new AsyncHTTPBuilder( [ uri : uri, contentType : JSON, poolSize : 4 ] + args )
+		builders << http
+		http
+	}
+	
+	def await( CountDownLatch latch ) {
+		assert latch.await( 10, TimeUnit.SECONDS )
+	}
+	
+	@Test public void testCallbacks() {
+		[ [:], [ nio : true ], [ policy : new RequestPolicy() ] ].each { args ->
+			def http = builder( args )
+			def done = new CountDownLatch( 3 )
+			def result = null
+			def failure = null
+			def thread = null
+			
+			def future = http.get( path : '/one' )
+			assert future instanceof ResponseFuture
+			future.onSuccess { json -> 
+				result = json.path
+				thread = Thread.currentThread()
+				done.countDown()
+			}.onFailure { done.countDown() }
+			
+			http.get( path : '/missing' ).onSuccess { done.countDown() }
+				.onFailure { ex -> failure = ex; done.countDown() }
+			
+			// chained requests, and a callback for an already completed future:
+			def chained = http.get( path : '/two' ).then { json ->
+				http.get( path : json.path + '/three' )
+			}.then { json -> json.path.toUpperCase() }
+			chained.onSuccess { done.countDown() }
+			await done
+			
+			assert result == '/one'
+			assert thread != Thread.currentThread()
+			assert failure instanceof HttpResponseException
+			assert failure.response.status == 404
+			assert chained.get() == '/TWO/THREE'
+			def again = null
+			chained.onSuccess { again = it }
+			assert again == '/TWO/THREE'
+			
+			// failures skip 'then' closures:
+			def skipped = http.get( path : '/missing' ).then { assert false }
+			try {
+				skipped.get()
+				assert false
+			}
+			catch ( ExecutionException ex ) { 
+				assert ex.cause instanceof HttpResponseException 
+			}
+		}
+	}
+	
+	@Test public void testCallbackExecutor() {
+		def executor = Executors.newSingleThreadExecutor( { r -> 
+			new Thread( r, 'callbacks' ) } as java.util.concurrent.ThreadFactory )
+		try {
+			def http = builder( callbackExecutor : executor )
+			def done = new CountDownLatch( 2 )
+			def threads = [:]
+			http.get( path : '/one' ).onSuccess { 
+				threads.success = Thread.currentThread().name
+				done.countDown()
+			}.then( null ) {
+				threads.then = Thread.currentThread().name
+				done.countDown()
+			}
+			await done
+			assert threads.success == 'callbacks'
+			assert threads.then != 'callbacks' 
+		}
+		finally { executor.shutdownNow() }
+	}
+	
+	@Test public void testScatterGather() {
+		// 50 requests with only 2 threads for response handling:
+		def http = builder( nio : true, poolSize : 2 )
+		def done = new CountDownLatch( 1 )
+		def results = null
+		long start = System.currentTimeMillis()
+		def futures = ( 1..50 ).collect { http.get( path : "/delay/200", query : [ n : it ] ) { resp, json -> it } }
+		ResponseFuture.allOf( futures ).onSuccess {
+			results = it
+			done.countDown()
+		}
+		await done
+		assert results == ( 1..50 ).toList()
+		// the requests were sent concurrently:
+		assert System.currentTimeMillis() - start < 5000
+		
+		def empty = ResponseFuture.allOf( [] )
+		assert empty.done && empty.get() == []
+		
+		def failed = ResponseFuture.allOf( http.get( path : '/one' ), http.get( path : '/missing' ) )
+		try {
+			failed.get( 10, TimeUnit.SECONDS )
+			assert false
+		}
+		catch ( ExecutionException ex ) { 
+			assert ex.cause instanceof HttpResponseException 
+		}
+	}
+	
+	@Test public void testAnyOf() {
+		def http = builder( nio : true )
+		def first = ResponseFuture.anyOf( http.get( path : '/delay/2000' ), 
+				http.get( path : '/missing' ), http.get( path : '/delay/10' ) )
+		assert first.get( 10, TimeUnit.SECONDS ).path == '/delay/10'
+		
+		def none = ResponseFuture.anyOf( [ http.get( path : '/missing' ), http.get( path : '/missing' ) ] )
+		try {
+			none.get( 10, TimeUnit.SECONDS )
+			assert false
+		}
+		catch ( ExecutionException ex ) { 
+			assert ex.cause instanceof HttpResponseException 
+		}
+		
+		try {
+			ResponseFuture.anyOf( [] )
+			assert false
+		}
+		catch ( IllegalArgumentException ex ) {}
+	}
+	
+	@Test public void testCancel() {
+		[ [:], [ nio : true ], [ policy : new RequestPolicy() ] ].each { args ->
+			// a single connection, which is blocked by the slow request:
+			def http = builder( args + [ poolSize : 1 ] )
+			def slow = http.get( path : '/slow' )
+			def derived = slow.then { assert false }
+			def failure = null
+			derived.onFailure { failure = it }
+			Thread.sleep 200
+			
+			assert derived.cancel( false )
+			assert slow.cancelled
+			assert failure instanceof CancellationException
+			
+			// the request was aborted, so the connection is free again:
+			assert http.get( path : '/fast' ).get( 5, TimeUnit.SECONDS ).path == '/fast'
+		}
+		
+		// cancelling a source cancels the derived future, but not other sources:
+		def http = builder()
+		def slow = http.get( path : '/slow' )
+		def other = http.get( path : '/delay/10' )
+		def all = ResponseFuture.allOf( slow, other )
+		slow.cancel( false )
+		assert all.cancelled
+		assert other.get( 5, TimeUnit.SECONDS ).path == '/delay/10'
+	}
+}
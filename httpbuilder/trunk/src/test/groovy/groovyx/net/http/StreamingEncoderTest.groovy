@@ -0,0 +1,173 @@
+package groovyx.net.http
+
+import static groovyx.net.http.ContentType.*
+import java.util.concurrent.Executors
+import net.sf.json.JSONArray
+import net.sf.json.JSONObject
+import org.apache.http.entity.StringEntity
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import com.sun.net.httpserver.HttpServer
+import com.sun.net.httpserver.HttpHandler
+
+public class StreamingEncoderTest {
+	
+	def server
+	def uri
+	def received = []
+	
+	@Before public void setUp() {
+		server = HttpServer.create( new InetSocketAddress( 0 ), 10 )
+		server.executor = Executors.newCachedThreadPool()
+		server.createContext( '/', { exchange ->
+			try {
+				def json = new JSONStreamReader( new InputStreamReader( 
+						exchange.requestBody, 'UTF-8' ) )
+				def count = json.each { received << it.id }
+				def body = """{"count":$count,"encoding":"${exchange.requestHeaders.getFirst('Transfer-Encoding')}"}""".getBytes( 'UTF-8' )
+				exchange.responseHeaders.add 'Content-Type', 'application/json'
+				exchange.sendResponseHeaders 200, body.length
+				exchange.responseBody.withStream { it << body }
+			}
+			finally { exchange.close() }
+		} as HttpHandler )
+		server.start()
+		uri = "http://localhost:${server.address.port}"
+	}
+	
+	@After public void tearDown() {
+		server.stop 0
+		server.executor.shutdownNow()
+	}
+	
+	String write( entity ) {
+		def out = new ByteArrayOutputStream()
+		entity.writeTo out
+		out.toString( 'UTF-8' )
+	}
+	
+	@Test public void testStreamWriter() {
+		def out = new StringWriter()
+		def json = new JSONStreamWriter( out )
+		json.object {
+			json.entry 'name', 'quote " slash \\ tab \t nl \n \u0001'
+			json.name 'list'
+			json.array {
+				json << 1 << 2.5 << true << null
+				json << [ a : [ 'x', 'y' ] as String[], b : [:] ]
+			}
+			json.entry 'iter', [ 1, 2, 3 ].iterator()
+			json.entry 'bean', new URL( 'http://example.com/' ).with { [ host : host ] }
+		}
+		json.close()
+		
+		def parsed = JSONObject.fromObject( out.toString() )
+		assert parsed.name == 'quote " slash \\ tab \t nl \n \u0001'
+		assert parsed.list.size() == 5
+		assert parsed.list[0] == 1
+		assert parsed.list[1] == 2.5
+		assert parsed.list[2] == true
+		assert parsed.list[4].a.collect { it } == [ 'x', 'y' ]
+		assert parsed.iter.collect { it } == [ 1, 2, 3 ]
+		assert parsed.bean.host == 'example.com'
+		
+		json = new JSONStreamWriter( new StringWriter() )
+		json.beginObject()
+		try { json.value 1; assert false }
+		catch ( IllegalStateException ex ) {}
+		try { json.close(); assert false }
+		catch ( IllegalStateException ex ) {}
+		try { json.endArray(); assert false }
+		catch ( IllegalStateException ex ) {}
+	}
+	
+	@Test public void testJSONEntities() {
+		def reg = new EncoderRegistry( charset : 'UTF-8' )
+		
+		// Collections are still buffered by default:
+		def entity = reg.encodeJSON( [ a : 1 ], null )
+		assert entity instanceof StringEntity
+		assert entity.contentLength > 0
+		
+		def items = ( 1..5 ).collect { [ id : it ] }
+		entity = reg.encodeJSON( items.iterator(), null )
+		assert entity instanceof StreamingEntity
+		assert entity.chunked
+		assert entity.contentLength == -1
+		assert entity.contentType.value == JSON.toString()
+		assert ! entity.repeatable
+		assert JSONArray.fromObject( write( entity ) )*.id == 1..5
+		try { write( entity ); assert false }
+		catch ( IllegalStateException ex ) {}
+		
+		entity = reg.encodeJSON( { JSONStreamWriter json ->
+			json.object { json.entry 'total', 2 }
+		}, 'text/javascript' )
+		assert entity instanceof StreamingEntity
+		assert entity.repeatable
+		assert entity.contentType.value == 'text/javascript'
+		assert write( entity ) == '{"total":2}'
+		assert write( entity ) == '{"total":2}'
+		
+		reg.streaming = true
+		entity = reg.encodeJSON( [ a : 1, b : [ 'c' ] ], null )
+		assert entity instanceof StreamingEntity
+		assert entity.repeatable
+		assert write( entity ) == '{"a":1,"b":["c"]}'
+		
+		entity = reg.encodeJSON( { root { first = 1 } }, null )
+		assert entity instanceof StreamingEntity
+		assert write( entity ) == '{"root":{"first":1}}'
+		
+		assert reg.encodeJSON( '{"a":1}', null ) instanceof StringEntity
+	}
+	
+	@Test public void testXMLEntities() {
+		def reg = new EncoderRegistry()
+		
+		def parts = [ '<items>', { item( id : 1 ) }, { item( id : 2 ) }, '</items>' ]
+		def entity = reg.encodeXML( parts.iterator(), null )
+		assert entity instanceof StreamingEntity
+		assert ! entity.repeatable
+		assert write( entity ) == "<items><item id='1'/><item id='2'/></items>"
+		
+		def markup = { items { 3.times { item( id : it ) } } }
+		assert reg.encodeXML( markup, null ) instanceof StringEntity
+		
+		reg.streaming = true
+		entity = reg.encodeXML( markup, null )
+		assert entity instanceof StreamingEntity
+		assert entity.repeatable
+		assert write( entity ) == "<items><item id='0'/><item id='1'/><item id='2'/></items>"
+		assert reg.encodeXML( '<a/>', null ) instanceof StringEntity
+	}
+	
+	@Test public void testChunkedUpload() {
+		def http = new HTTPBuilder( uri, JSON )
+		try {
+			def count = 50000
+			def produced = 0
+			def rows = [ 
+				hasNext : { produced < count }, 
+				next : { [ id : produced++, name : 'row' * 10 ] },
+				remove : { throw new UnsupportedOperationException() } ] as Iterator
+			
+			def result = http.post( path : '/bulk', body : rows, 
+					requestContentType : JSON )
+			assert result.count == count
+			assert result.encoding == 'chunked'
+			assert received.size() == count
+			assert received[0] == 0
+			assert received[-1] == count - 1
+			
+			http.encoder.streaming = true
+			received.clear()
+			result = http.post( path : '/bulk', requestContentType : JSON,
+					body : ( 1..10 ).collect { [ id : it ] } )
+			assert result.count == 10
+			assert result.encoding == 'chunked'
+		}
+		finally { http.shutdown() }
+	}
+}
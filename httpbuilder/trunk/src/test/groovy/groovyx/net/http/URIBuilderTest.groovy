@@ -240,4 +240,39 @@ public class URIBuilderTest {
 		uri.rawQuery = "a%20b=c%31d"
 		assert uri.toString() == 'http://localhost:80/some/path?a%20b=c%31d#asdf'
 	}
+	
+	@Test public void testLazyQuery() {
+		def uri = new URIBuilder( 'http://localhost/p1?a=1&b=2&a=3#frag' )
+		def original = uri.toURI()
+		assert uri.query == [ a : ['1','3'], b : '2' ]
+		assert uri.toURI().is( original )
+		
+		uri.addQueryParam 'c', 'x y'
+		uri.removeQueryParam 'a'
+		uri.path = 'p2'
+		uri.fragment = 'f2'
+		assert uri.query == [ b : '2', a : '3', c : 'x y' ]
+		assert uri.hasQueryParam( 'c' )
+		assert uri.toString() == 'http://localhost/p2?b=2&a=3&c=x+y#f2'
+		def updated = uri.toURI()
+		assert uri.toURI().is( updated )
+		
+		def copy = uri.clone()
+		copy.addQueryParam 'd', '4'
+		assert uri.toString() == 'http://localhost/p2?b=2&a=3&c=x+y#f2'
+		assert copy.toString() == 'http://localhost/p2?b=2&a=3&c=x+y&d=4#f2'
+		assert copy != uri
+		
+		uri.removeQueryParam 'b'
+		uri.rawQuery = 'q=%31'
+		assert uri.query == [ q : '1' ]
+		uri.addQueryParam 'e', ''
+		assert uri.hasQueryParam( 'e' )
+		assert uri.toString() == 'http://localhost/p2?q=1&e=#f2'
+		try { 
+			new URIBuilder( 'http://localhost/' ).removeQueryParam( 'a' )
+			assert false
+		}
+		catch ( IllegalArgumentException ex ) { /* Expected exception */ }
+	}
 }
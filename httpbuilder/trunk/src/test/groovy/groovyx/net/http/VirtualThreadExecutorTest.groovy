@@ -0,0 +1,171 @@
+package groovyx.net.http
+
+import static groovyx.net.http.ContentType.*
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import com.sun.net.httpserver.HttpServer
+import com.sun.net.httpserver.HttpHandler
+
+public class VirtualThreadExecutorTest {
+	
+	def server
+	def uri
+	def release = new CountDownLatch( 1 )
+	def active = new AtomicInteger()
+	def maxActive = new AtomicInteger()
+	def started = new AtomicInteger()
+	def closeables = []
+	
+	@Before public void setUp() {
+		server = HttpServer.create( new InetSocketAddress( 0 ), 100 )
+		server.executor = Executors.newCachedThreadPool()
+		server.createContext( '/', { exchange ->
+			def current = active.incrementAndGet()
+			synchronized ( maxActive ) { if ( current > maxActive.get() ) maxActive.set current }
+			started.incrementAndGet()
+			try {
+				def path = exchange.requestURI.path
+				if ( path == '/slow' ) release.await()
+				else Thread.sleep 20
+				active.decrementAndGet()
+				def body = """{"path":"$path"}""".getBytes( 'UTF-8' )
+				exchange.responseHeaders.add 'Content-Type', 'application/json'
+				exchange.sendResponseHeaders 200, body.length
+				exchange.responseBody.withStream { it << body }
+			}
+			catch ( IOException ex ) {}
+			finally { exchange.close() }
+		} as HttpHandler )
+		server.start()
+		uri = "http://localhost:${server.address.port}"
+	}
+	
+	@After public void tearDown() {
+		release.countDown()
+		closeables*.shutdown()
+		server.stop 0
+		server.executor.shutdownNow()
+	}
+	
+	def waitFor( Closure condition ) {
+		long end = System.currentTimeMillis() + 5000
+		while ( ! condition() ) {
+			assert System.currentTimeMillis() < end
+			Thread.sleep 10
+		}
+	}
+	
+	@Test public void testAdmission() {
+		def executor = new VirtualThreadExecutor( 2, 3 )
+		closeables << executor
+		assert executor.virtual == VirtualThreadExecutor.virtualThreadSupported
+		
+		def latch = new CountDownLatch( 1 )
+		def ran = new AtomicInteger()
+		5.times { executor.execute { latch.await(); ran.incrementAndGet() } }
+		waitFor { executor.activeCount == 2 }
+		assert executor.queuedCount == 3
+		try {
+			executor.execute { ran.incrementAndGet() }
+			assert false
+		}
+		catch ( RejectedExecutionException ex ) {}
+		
+		latch.countDown()
+		waitFor { executor.completedCount == 5 }
+		assert ran.get() == 5
+		assert executor.metrics == [ virtual : executor.virtual, maxConcurrent : 2, 
+			maxQueued : 3, active : 0, queued : 0, peakActive : 2, peakQueued : 3, 
+			submitted : 6L, completed : 5L, rejected : 1L ]
+		executor.resetStatistics()
+		assert executor.rejectedCount == 0
+		
+		// queued tasks still run after shutdown(), but shutdownNow() removes them:
+		latch = new CountDownLatch( 1 )
+		4.times { executor.execute { latch.await() } }
+		executor.shutdown()
+		try {
+			executor.execute {}
+			assert false
+		}
+		catch ( RejectedExecutionException ex ) {}
+		assert ! executor.awaitTermination( 50, TimeUnit.MILLISECONDS )
+		latch.countDown()
+		assert executor.awaitTermination( 5, TimeUnit.SECONDS )
+		assert executor.completedCount == 4
+		
+		executor = new VirtualThreadExecutor( 1, 5 )
+		3.times { executor.execute { Thread.sleep 10000 } }
+		assert executor.shutdownNow().size() == 2
+		assert executor.awaitTermination( 5, TimeUnit.SECONDS )
+	}
+	
+	@Test public void testAsyncHTTPBuilder() {
+		def http = new AsyncHTTPBuilder( uri : uri, contentType : JSON, 
+				virtualThreads : true, poolSize : 2, maxQueued : 2 )
+		closeables << http
+		def executor = http.threadExecutor
+		assert executor instanceof VirtualThreadExecutor
+		
+		def futures = ( 1..5 ).collect { http.get( path : '/slow' ) }
+		waitFor { started.get() == 2 }
+		try {
+			futures[4].get( 5, TimeUnit.SECONDS )
+			assert false
+		}
+		catch ( ExecutionException ex ) {
+			assert ex.cause instanceof RejectedExecutionException
+		}
+		assert executor.rejectedCount == 1
+		
+		release.countDown()
+		futures[0..3].each { assert it.get( 5, TimeUnit.SECONDS ).path == '/slow' }
+		assert maxActive.get() == 2
+		
+		// many requests, at most 3 at a time:
+		http = new AsyncHTTPBuilder( uri : uri, contentType : JSON, 
+				virtualThreads : true, poolSize : 3, maxQueued : 100 )
+		closeables << http
+		maxActive.set 0
+		futures = ( 1..50 ).collect { http.get( path : "/fast/$it" ) }
+		futures.each { assert it.get( 5, TimeUnit.SECONDS ) }
+		assert maxActive.get() <= 3
+		assert http.threadExecutor.peakActiveCount == 3
+		assert http.threadExecutor.rejectedCount == 0
+	}
+	
+	@Test public void testHttpURLClient() {
+		def executor = new VirtualThreadExecutor( 2, 1 )
+		closeables << executor
+		def client = new HttpURLClient( url : uri, contentType : JSON )
+		
+		try {
+			client.requestAsync( path : '/fast' )
+			assert false
+		}
+		catch ( IllegalStateException ex ) {}
+		
+		client.executor = executor
+		assert client.request( path : '/fast' ).data.path == '/fast'
+		
+		def futures = ( 1..3 ).collect { client.requestAsync( path : '/slow' ) }
+		waitFor { started.get() == 3 }
+		try {
+			client.request( path : '/fast' )
+			assert false
+		}
+		catch ( RejectedExecutionException ex ) {}
+		assert executor.rejectedCount == 1
+		
+		release.countDown()
+		futures.each { assert it.get( 5, TimeUnit.SECONDS ).data.path == '/slow' }
+		assert maxActive.get() == 2
+	}
+}
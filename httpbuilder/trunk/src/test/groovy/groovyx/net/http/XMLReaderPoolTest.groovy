@@ -0,0 +1,117 @@
+package groovyx.net.http
+
+import org.apache.http.ProtocolVersion
+import org.apache.http.entity.StringEntity
+import org.apache.http.message.BasicHttpResponse
+import org.junit.Test
+import org.xml.sax.EntityResolver
+import org.xml.sax.InputSource
+import org.xml.sax.SAXParseException
+
+public class XMLReaderPoolTest {
+	
+	def xhtml = '''<?xml version="1.0" encoding="UTF-8"?>
+<!DOCTYPE html PUBLIC "-//W3C//DTD XHTML 1.0 Strict//EN" 
+	"http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd">
+<html xmlns="http://www.w3.org/1999/xhtml">
+<head><title>Small&nbsp;page</title></head>
+<body><p>One &copy;</p><p>Two &euro;</p></body>
+</html>'''
+	
+	def html = '''<!DOCTYPE HTML PUBLIC "-//W3C//DTD HTML 4.01//EN">
+<html><head><title>Small page</title></head>
+<body><p>One<p>Two<br><a href="/three">Three</a></body></html>'''
+	
+	def response( String content, String type ) {
+		def resp = new BasicHttpResponse( new ProtocolVersion( 'HTTP', 1, 1 ), 200, 'OK' )
+		resp.entity = new StringEntity( content, 'UTF-8' )
+		resp.setHeader 'Content-Type', "$type; charset=UTF-8"
+		resp
+	}
+	
+	@Test public void testParse() {
+		def parsers = new ParserRegistry()
+		def resolver = ParserRegistry.entityResolver
+		def pool = ParserRegistry.XMLReaderPool
+		
+		def doc = parsers.parseXML( response( xhtml, 'application/xhtml+xml' ) )
+		assert doc.head.title.text() == 'Small page'
+		assert doc.body.p*.text() == [ 'One ©', 'Two €' ]
+		
+		long misses = resolver.missCount
+		long hits = resolver.hitCount
+		long created = pool.createdCount
+		long reused = pool.reusedCount
+		3.times {
+			doc = parsers.parseXML( response( xhtml, 'application/xhtml+xml' ) )
+			assert doc.body.p.size() == 2
+		}
+		// the DTD and its three entity files come from the cache:
+		assert resolver.missCount == misses
+		assert resolver.hitCount == hits + 12
+		assert pool.createdCount == created
+		assert pool.reusedCount == reused + 3
+		
+		doc = parsers.parseHTML( response( html, 'text/html' ) )
+		assert doc.BODY.P.size() == 2
+		assert doc.BODY.P[1].A.@href == '/three'
+		created = pool.createdCount
+		doc = parsers.parseHTML( response( html, 'text/html' ) )
+		assert doc.BODY.P.size() == 2
+		assert pool.createdCount == created
+		
+		// a parser which fails is not reused:
+		try {
+			parsers.parseXML( response( '<a><b></a>', 'text/xml' ) )
+			assert false
+		}
+		catch ( SAXParseException ex ) {}
+		parsers.parseXML( response( '<a/>', 'text/xml' ) )
+		assert pool.createdCount == created + 1
+		
+		// each thread has its own parsers:
+		def results = Collections.synchronizedList( [] )
+		def threads = ( 1..4 ).collect { n -> Thread.start {
+			20.times { 
+				results << parsers.parseXML( response( "<a n='$n'/>", 'text/xml' ) ).@n.toInteger()
+			}
+		} }
+		threads*.join()
+		assert results.sort() == ( 1..4 ).collect { [it] * 20 }.flatten()
+	}
+	
+	@Test public void testEntityCache() {
+		def lookups = []
+		def delegate = { String publicId, String systemId ->
+			lookups << systemId
+			if ( systemId.endsWith( 'missing' ) ) return null
+			def source = new InputSource( new StringReader( 'x' * 100 ) )
+			source.systemId = systemId
+			source
+		} as EntityResolver
+		def resolver = new CachingEntityResolver( delegate )
+		resolver.maxBytes = 250
+		
+		assert resolver.resolveEntity( null, 'urn:one' ).characterStream.text == 'x' * 100
+		assert resolver.resolveEntity( null, 'urn:one' ).systemId == 'urn:one'
+		assert resolver.resolveEntity( null, 'urn:missing' ) == null
+		assert resolver.resolveEntity( null, 'urn:missing' ) == null
+		assert lookups == [ 'urn:one', 'urn:missing' ]
+		assert resolver.hitCount == 2
+		assert resolver.missCount == 2
+		
+		// least recently used entries are evicted:
+		resolver.resolveEntity( null, 'urn:two' )
+		resolver.resolveEntity( null, 'urn:one' )
+		resolver.resolveEntity( null, 'urn:three' )
+		assert resolver.cachedBytes == 200
+		resolver.resolveEntity( null, 'urn:one' )
+		assert lookups == [ 'urn:one', 'urn:missing', 'urn:two', 'urn:three' ]
+		resolver.resolveEntity( null, 'urn:two' )
+		assert lookups[-1] == 'urn:two'
+		
+		resolver.clear()
+		assert resolver.size == 0
+		assert new CachingEntityResolver( null ).resolveEntity( null, 'urn:one' ) == null
+	}
+}